@@ -186,6 +186,20 @@ public final class Globals {
             org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR;
 
 
+    /**
+     * The request attribute that can be used by a servlet to pass
+     * to the connector several regions of a file that are to be served
+     * by sendfile, each optionally preceded by data held in memory (e.g. the
+     * parts of a {@code multipart/byteranges} response). The value should be
+     * a non-empty {@code org.apache.tomcat.util.net.FileRegion[]}. If set, the
+     * start and end attributes are ignored.
+     *
+     * Duplicated here for neater code in the catalina packages.
+     */
+    public static final String SENDFILE_FILE_REGIONS_ATTR =
+            org.apache.coyote.Constants.SENDFILE_FILE_REGIONS_ATTR;
+
+
     /**
      * The request attribute set by the RemoteIpFilter, RemoteIpValve (and may
      * be set by other similar components) that identifies for the connector the
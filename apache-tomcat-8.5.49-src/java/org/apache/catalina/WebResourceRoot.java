@@ -398,6 +398,37 @@ public interface WebResourceRoot extends Lifecycle {
      */
     boolean getTrackLockedFiles();
 
+    /**
+     * Controls whether gzip compressed copies of compressible static resources
+     * are generated in the work directory. When enabled, all resources are
+     * compressed in the background when the resources start and resources
+     * that are added or modified later are compressed in the background the
+     * first time {@link #getPrecompressedResource(String)} is called for them.
+     *
+     * @param precompressResources {@code true} to enable it, {@code false} to
+     *                             disable it
+     */
+    void setPrecompressResources(boolean precompressResources);
+
+    /**
+     * Is the generation of compressed copies of resources enabled?
+     *
+     * @return {@code true} if it has been enabled, otherwise {@code false}
+     */
+    boolean getPrecompressResources();
+
+    /**
+     * Obtain the gzip compressed copy of a resource generated by this
+     * implementation.
+     *
+     * @param path  The path of the uncompressed resource relative to the root
+     *              of the web application. It must start with '/'.
+     *
+     * @return The compressed copy or {@code null} if generation is not enabled
+     *         or there is no copy of the current version of the resource
+     */
+    WebResource getPrecompressedResource(String path);
+
     /**
      * This method will be invoked by the context on a periodic basis and allows
      * the implementation a method that executes periodic tasks, such as purging
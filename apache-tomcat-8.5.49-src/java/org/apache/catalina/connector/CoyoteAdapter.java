@@ -420,15 +420,19 @@ public class CoyoteAdapter implements Adapter {
         } catch (IOException e) {
             // Ignore
         } finally {
-            AtomicBoolean error = new AtomicBoolean(false);
-            res.action(ActionCode.IS_ERROR, error);
+            // Only check for an error if async is completing as that is the
+            // only time it matters (and it avoids an allocation per request)
+            if (request.isAsyncCompleting()) {
+                AtomicBoolean error = new AtomicBoolean(false);
+                res.action(ActionCode.IS_ERROR, error);
 
-            if (request.isAsyncCompleting() && error.get()) {
-                // Connection will be forcibly closed which will prevent
-                // completion happening at the usual point. Need to trigger
-                // call to onComplete() here.
-                res.action(ActionCode.ASYNC_POST_PROCESS,  null);
-                async = false;
+                if (error.get()) {
+                    // Connection will be forcibly closed which will prevent
+                    // completion happening at the usual point. Need to trigger
+                    // call to onComplete() here.
+                    res.action(ActionCode.ASYNC_POST_PROCESS,  null);
+                    async = false;
+                }
             }
 
             // Access log
@@ -72,12 +72,25 @@ public class OutputBuffer extends Writer {
     private ByteBuffer bb;
 
 
+    /**
+     * View of {@link #bb} passed to {@link #realWriteBytes(ByteBuffer)} so
+     * that a new slice does not have to be created for every flush.
+     */
+    private ByteBuffer bbView;
+
+
     /**
      * The char buffer.
      */
     private final CharBuffer cb;
 
 
+    /**
+     * View of {@link #cb} passed to {@link #realWriteChars(CharBuffer)}.
+     */
+    private final CharBuffer cbView;
+
+
     /**
      * State of the output buffer.
      */
@@ -152,10 +165,10 @@ public class OutputBuffer extends Writer {
      */
     public OutputBuffer(int size) {
         defaultBufferSize = size;
-        bb = ByteBuffer.allocate(size);
-        clear(bb);
+        allocateByteBuffer(size);
         cb = CharBuffer.allocate(size);
         clear(cb);
+        cbView = cb.duplicate();
     }
 
 
@@ -215,7 +228,7 @@ public class OutputBuffer extends Writer {
 
         if (bb.capacity() > 16 * defaultBufferSize) {
             // Discard buffers which are too large
-            bb = ByteBuffer.allocate(defaultBufferSize);
+            allocateByteBuffer(defaultBufferSize);
         }
         clear(bb);
         clear(cb);
@@ -676,8 +689,7 @@ public class OutputBuffer extends Writer {
 
     public void setBufferSize(int size) {
         if (size > bb.capacity()) {
-            bb = ByteBuffer.allocate(size);
-            clear(bb);
+            allocateByteBuffer(size);
         }
     }
 
@@ -841,15 +853,29 @@ public class OutputBuffer extends Writer {
     }
 
     private void flushByteBuffer() throws IOException {
-        realWriteBytes(bb.slice());
+        // The view is independent of the mark that bb uses to switch between
+        // read and write mode
+        realWriteBytes(view(bb, bbView));
         clear(bb);
     }
 
     private void flushCharBuffer() throws IOException {
-        realWriteChars(cb.slice());
+        realWriteChars(view(cb, cbView));
         clear(cb);
     }
 
+    private void allocateByteBuffer(int size) {
+        bb = ByteBuffer.allocate(size);
+        clear(bb);
+        bbView = bb.duplicate();
+    }
+
+    private <T extends Buffer> T view(Buffer buffer, T view) {
+        view.limit(buffer.limit());
+        view.position(buffer.position());
+        return view;
+    }
+
     private void transfer(byte b, ByteBuffer to) {
         toWriteMode(to);
         to.put(b);
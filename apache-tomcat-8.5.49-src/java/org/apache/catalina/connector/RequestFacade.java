@@ -40,6 +40,7 @@ import javax.servlet.http.HttpUpgradeHandler;
 import javax.servlet.http.Part;
 
 import org.apache.catalina.Globals;
+import org.apache.catalina.core.ApplicationPushBuilder;
 import org.apache.catalina.security.SecurityUtil;
 import org.apache.catalina.servlet4preview.http.HttpServletMapping;
 import org.apache.catalina.servlet4preview.http.HttpServletRequest;
@@ -1094,6 +1095,16 @@ public class RequestFacade implements HttpServletRequest {
         return request.getConnector().getAllowTrace();
     }
 
+    /**
+     * Record that the resource at the given path has been sent to the client
+     * so that it is not subsequently pushed to the same client.
+     *
+     * @param path The decoded path of the resource including the context path
+     */
+    public void addPushedPath(String path) {
+        ApplicationPushBuilder.addPushedPath(request.getSessionInternal(false), path);
+    }
+
     /**
      * {@inheritDoc}
      *
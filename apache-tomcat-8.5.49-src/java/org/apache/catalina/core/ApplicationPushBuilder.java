@@ -22,6 +22,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -33,6 +34,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
 import org.apache.catalina.Context;
+import org.apache.catalina.Session;
 import org.apache.catalina.authenticator.AuthenticatorBase;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.servlet4preview.http.PushBuilder;
@@ -41,6 +43,7 @@ import org.apache.coyote.ActionCode;
 import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.collections.CaseInsensitiveKeyMap;
+import org.apache.tomcat.util.http.CacheDigest;
 import org.apache.tomcat.util.http.CookieProcessor;
 import org.apache.tomcat.util.http.parser.HttpParser;
 import org.apache.tomcat.util.res.StringManager;
@@ -50,6 +53,14 @@ public class ApplicationPushBuilder implements PushBuilder {
     private static final StringManager sm = StringManager.getManager(ApplicationPushBuilder.class);
     private static final Set<String> DISALLOWED_METHODS = new HashSet<>();
 
+    /*
+     * Session note holding the paths of the resources most recently pushed to,
+     * or served to, the client using the session.
+     */
+    private static final String PUSHED_PATHS_NOTE =
+            "org.apache.catalina.core.ApplicationPushBuilder.PUSHED_PATHS";
+    private static final int MAX_PUSHED_PATHS = 256;
+
     static {
         DISALLOWED_METHODS.add("POST");
         DISALLOWED_METHODS.add("PUT");
@@ -74,6 +85,8 @@ public class ApplicationPushBuilder implements PushBuilder {
     private String queryString;
     private String sessionId;
     private String userName;
+    // Parsed on first use
+    private List<CacheDigest> cacheDigests;
 
 
     public ApplicationPushBuilder(Request catalinaRequest, HttpServletRequest request) {
@@ -104,6 +117,7 @@ public class ApplicationPushBuilder implements PushBuilder {
         headers.remove("expect");
         headers.remove("authorization");
         headers.remove("referer");
+        headers.remove(CacheDigest.HEADER_NAME);
         // Also remove the cookie header since it will be regenerated
         headers.remove("cookie");
 
@@ -309,6 +323,33 @@ public class ApplicationPushBuilder implements PushBuilder {
             throw new IllegalStateException(sm.getString("pushBuilder.noPath"));
         }
 
+        // Path and query string
+        int queryIndex = path.indexOf('?');
+        String pushPath;
+        String pushQueryString = null;
+        if (queryIndex > -1) {
+            pushPath = path.substring(0, queryIndex);
+            if (queryIndex + 1 < path.length()) {
+                pushQueryString = path.substring(queryIndex + 1);
+            }
+        } else {
+            pushPath = path;
+        }
+        if (pushQueryString == null) {
+            pushQueryString = queryString;
+        } else if (queryString != null) {
+            pushQueryString = pushQueryString + "&" + queryString;
+        }
+
+        // Don't push resources the client already has (determined before the
+        // session ID is added as it may change the path)
+        Session session = catalinaRequest.getSessionInternal(false);
+        String decodedPushPath = decode(pushPath, catalinaRequest.getConnector().getURICharset());
+        if (isCached(session, pushPath, decodedPushPath, pushQueryString)) {
+            reset();
+            return;
+        }
+
         org.apache.coyote.Request pushTarget = new org.apache.coyote.Request();
 
         pushTarget.method().setString(method);
@@ -324,19 +365,6 @@ public class ApplicationPushBuilder implements PushBuilder {
             }
         }
 
-        // Path and query string
-        int queryIndex = path.indexOf('?');
-        String pushPath;
-        String pushQueryString = null;
-        if (queryIndex > -1) {
-            pushPath = path.substring(0, queryIndex);
-            if (queryIndex + 1 < path.length()) {
-                pushQueryString = path.substring(queryIndex + 1);
-            }
-        } else {
-            pushPath = path;
-        }
-
         // Session ID (do this before setting the path since it may change it)
         if (sessionId != null) {
             if (addSessionPathParameter) {
@@ -361,12 +389,8 @@ public class ApplicationPushBuilder implements PushBuilder {
                 catalinaRequest.getConnector().getURICharset()));
 
         // Query string
-        if (pushQueryString == null && queryString != null) {
-            pushTarget.queryString().setString(queryString);
-        } else if (pushQueryString != null && queryString == null) {
+        if (pushQueryString != null) {
             pushTarget.queryString().setString(pushQueryString);
-        } else if (pushQueryString != null && queryString != null) {
-            pushTarget.queryString().setString(pushQueryString + "&" +queryString);
         }
 
         // Authorization
@@ -377,13 +401,140 @@ public class ApplicationPushBuilder implements PushBuilder {
 
         coyoteRequest.action(ActionCode.PUSH_REQUEST, pushTarget);
 
-        // Reset for next call to this method
+        addPushedPath(session, decodedPushPath);
+
+        reset();
+    }
+
+
+    /*
+     * Reset for next call to push()
+     */
+    private void reset() {
         path = null;
         headers.remove("if-none-match");
         headers.remove("if-modified-since");
     }
 
 
+    /*
+     * Has the response for the given path been pushed to (or served to) the
+     * client using the session or is it in a cache digest sent by the client?
+     * Only GET requests are considered since the responses to other methods
+     * are not expected to be cached.
+     */
+    private boolean isCached(Session session, String pushPath, String decodedPushPath,
+            String pushQueryString) {
+        if (!"GET".equals(method)) {
+            return false;
+        }
+
+        if (session != null && isPushed(session, decodedPushPath)) {
+            return true;
+        }
+
+        List<CacheDigest> digests = getCacheDigests();
+        if (digests.isEmpty()) {
+            return false;
+        }
+        // Digests are keyed on the absolute URL
+        String scheme = baseRequest.getScheme();
+        int port = baseRequest.getServerPort();
+        StringBuilder url = new StringBuilder();
+        url.append(scheme).append("://").append(baseRequest.getServerName());
+        if (!("http".equals(scheme) && port == 80) && !("https".equals(scheme) && port == 443)) {
+            url.append(':').append(port);
+        }
+        url.append(pushPath);
+        if (pushQueryString != null) {
+            url.append('?').append(pushQueryString);
+        }
+        String key = url.toString();
+        for (CacheDigest digest : digests) {
+            if (digest.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private List<CacheDigest> getCacheDigests() {
+        if (cacheDigests == null) {
+            cacheDigests = new ArrayList<>(1);
+            Enumeration<String> values = baseRequest.getHeaders(CacheDigest.HEADER_NAME);
+            while (values.hasMoreElements()) {
+                cacheDigests.addAll(CacheDigest.parseHeader(values.nextElement()));
+            }
+            if (cacheDigests.isEmpty()) {
+                // Clients that do not support the header may use a cookie
+                for (Cookie cookie : cookies) {
+                    if (CacheDigest.COOKIE_NAME.equals(cookie.getName())) {
+                        CacheDigest digest = CacheDigest.parse(cookie.getValue());
+                        if (digest != null) {
+                            cacheDigests.add(digest);
+                        }
+                    }
+                }
+            }
+        }
+        return cacheDigests;
+    }
+
+
+    /**
+     * Record that the resource at the given path has been sent to the client
+     * using the given session so it is not pushed to that client. Only the
+     * most recently sent paths are retained.
+     *
+     * @param session The session (if any) of the request for the resource
+     * @param path    The decoded path of the resource including the context
+     *                path
+     */
+    public static void addPushedPath(Session session, String path) {
+        if (session == null) {
+            return;
+        }
+        Map<String,Boolean> pushedPaths = getPushedPaths(session, true);
+        synchronized (pushedPaths) {
+            pushedPaths.put(path, Boolean.TRUE);
+        }
+    }
+
+
+    private static boolean isPushed(Session session, String path) {
+        Map<String,Boolean> pushedPaths = getPushedPaths(session, false);
+        if (pushedPaths == null) {
+            return false;
+        }
+        synchronized (pushedPaths) {
+            return pushedPaths.get(path) != null;
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static Map<String,Boolean> getPushedPaths(Session session, boolean create) {
+        Map<String,Boolean> result = (Map<String,Boolean>) session.getNote(PUSHED_PATHS_NOTE);
+        if (result == null && create) {
+            synchronized (session) {
+                result = (Map<String,Boolean>) session.getNote(PUSHED_PATHS_NOTE);
+                if (result == null) {
+                    result = new LinkedHashMap<String,Boolean>(16, 0.75f, true) {
+                        private static final long serialVersionUID = 1L;
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest) {
+                            return size() > MAX_PUSHED_PATHS;
+                        }
+                    };
+                    session.setNote(PUSHED_PATHS_NOTE, result);
+                }
+            }
+        }
+        return result;
+    }
+
+
     // Package private so it can be tested. charsetName must be in lower case.
     static String decode(String input, Charset charset) {
         int start = input.indexOf('%');
@@ -225,6 +225,8 @@ public class StandardContext extends ContainerBase
      */
     private List<Object> applicationEventListenersList = new CopyOnWriteArrayList<>();
 
+    private static final Object[] EMPTY_LISTENERS = new Object[0];
+
 
     /**
      * The set of instantiated application lifecycle listener objects. Note that
@@ -1305,6 +1307,11 @@ public class StandardContext extends ContainerBase
 
     @Override
     public Object[] getApplicationEventListeners() {
+        if (applicationEventListenersList.isEmpty()) {
+            // Called several times for every request so avoid creating a new
+            // empty array each time
+            return EMPTY_LISTENERS;
+        }
         return applicationEventListenersList.toArray();
     }
 
@@ -0,0 +1,147 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.Executor;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.util.LifecycleMBeanBase;
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+
+/**
+ * An executor that uses a new virtual thread for each task. It can be shared
+ * between Connectors in the same way as {@link StandardThreadExecutor} and
+ * requires Java 21 or later.
+ */
+public class StandardVirtualThreadExecutor extends LifecycleMBeanBase implements Executor {
+
+    private static final StringManager sm = StringManager.getManager(StandardVirtualThreadExecutor.class);
+
+    // ---------------------------------------------- Properties
+
+    /**
+     * Default name prefix for the thread name
+     */
+    private String namePrefix = "tomcat-virt-";
+
+    /**
+     * The executor we use for this component
+     */
+    private VirtualThreadExecutor executor = null;
+
+    /**
+     * the name of this thread pool
+     */
+    private String name;
+
+
+    // ---------------------------------------------- Public Methods
+
+    @Override
+    protected void initInternal() throws LifecycleException {
+        if (!JreCompat.isJre21Available()) {
+            throw new LifecycleException(sm.getString("standardVirtualThreadExecutor.noVirtualThreads"));
+        }
+        super.initInternal();
+    }
+
+
+    /**
+     * Start the component and implement the requirements
+     * of {@link org.apache.catalina.util.LifecycleBase#startInternal()}.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected void startInternal() throws LifecycleException {
+        executor = new VirtualThreadExecutor(namePrefix);
+        setState(LifecycleState.STARTING);
+    }
+
+
+    /**
+     * Stop the component and implement the requirements
+     * of {@link org.apache.catalina.util.LifecycleBase#stopInternal()}.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that needs to be reported
+     */
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        setState(LifecycleState.STOPPING);
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        executor = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Tasks are never queued by this executor so the timeout is ignored.
+     */
+    @Override
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        execute(command);
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        VirtualThreadExecutor executor = this.executor;
+        if (executor == null) {
+            throw new IllegalStateException(sm.getString("standardVirtualThreadExecutor.notStarted"));
+        }
+        executor.execute(command);
+    }
+
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+
+    @Override
+    protected String getDomainInternal() {
+        // No way to navigate to Engine. Needs to have domain set.
+        return null;
+    }
+
+    @Override
+    protected String getObjectNameKeyProperties() {
+        return "type=Executor,name=" + getName();
+    }
+}
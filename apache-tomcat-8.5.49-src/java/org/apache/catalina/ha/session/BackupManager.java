@@ -120,6 +120,31 @@ public class BackupManager extends ClusterManagerBase
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sessions may become primary on this node, e.g. when another node fails,
+     * without being added to this manager so every session is checked.
+     */
+    @Override
+    protected int expireDueSessions(long timeNow) {
+        int expireHere = 0;
+        Session sessions[] = findSessions();
+        for (int i = 0; i < sessions.length; i++) {
+            if (!sessions[i].isValid()) {
+                expireHere++;
+            }
+        }
+        return expireHere;
+    }
+
+
+    @Override
+    protected void scheduleExpiry(Session session) {
+        // NO-OP. See expireDueSessions()
+    }
+
+
     @Override
     public String getName() {
         return this.name;
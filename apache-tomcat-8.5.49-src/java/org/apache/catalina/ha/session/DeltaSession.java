@@ -337,6 +337,7 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
     public void setMaxInactiveInterval(int interval, boolean addDeltaRequest) {
         super.maxInactiveInterval = interval;
+        scheduleExpiry();
         if (addDeltaRequest) {
             lockInternal();
             try {
@@ -319,7 +319,7 @@ public class StatusManagerServlet
             while (enumeration.hasMoreElements()) {
                 ObjectName objectName = enumeration.nextElement();
                 String name = objectName.getKeyProperty("name");
-                args = new Object[19];
+                args = new Object[24];
                 args[0] = smClient.getString("htmlManagerServlet.connectorStateMaxThreads");
                 args[1] = smClient.getString("htmlManagerServlet.connectorStateThreadCount");
                 args[2] = smClient.getString("htmlManagerServlet.connectorStateThreadBusy");
@@ -339,6 +339,11 @@ public class StatusManagerServlet
                 args[16] = smClient.getString("htmlManagerServlet.connectorStateTableTitleVHost");
                 args[17] = smClient.getString("htmlManagerServlet.connectorStateTableTitleRequest");
                 args[18] = smClient.getString("htmlManagerServlet.connectorStateHint");
+                args[19] = smClient.getString("htmlManagerServlet.connectorStateLatency");
+                args[20] = smClient.getString("htmlManagerServlet.connectorStateQueueTime");
+                args[21] = smClient.getString("htmlManagerServlet.connectorStateHeaderParseTime");
+                args[22] = smClient.getString("htmlManagerServlet.connectorStateServletTime");
+                args[23] = smClient.getString("htmlManagerServlet.connectorStateWriteTime");
                 // use StatusTransformer to output status
                 StatusTransformer.writeConnectorState
                     (writer, objectName,
@@ -379,6 +379,28 @@ public class StatusTransformer {
                                     (grpName, "bytesSent"), true));
             writer.print("</p>");
 
+            if (Boolean.TRUE.equals(mBeanServer.getAttribute(tpName, "latencyHistograms"))) {
+                writer.print("<p>");
+                writer.print(args[19]);
+                writer.print(' ');
+                writer.print(args[20]);
+                writer.print(' ');
+                writeLatency(writer, grpName, mBeanServer, "queueTime");
+                writer.print(' ');
+                writer.print(args[21]);
+                writer.print(' ');
+                writeLatency(writer, grpName, mBeanServer, "headerParseTime");
+                writer.print(' ');
+                writer.print(args[22]);
+                writer.print(' ');
+                writeLatency(writer, grpName, mBeanServer, "servletTime");
+                writer.print(' ');
+                writer.print(args[23]);
+                writer.print(' ');
+                writeLatency(writer, grpName, mBeanServer, "writeTime");
+                writer.print("</p>");
+            }
+
             writer.print("<table border=\"0\"><tr><th>"+ args[10] + "</th><th>" + args[11] + "</th><th>" + args[12] +"</th><th>" + args[13] +"</th><th>" + args[14] + "</th><th>" + args[15] + "</th><th>" + args[16] + "</th><th>" + args[17] + "</th></tr>");
 
             enumeration = requestProcessors.elements();
@@ -427,6 +449,17 @@ public class StatusTransformer {
                 writer.write(" bytesSent=\"" + mBeanServer.getAttribute(grpName, "bytesSent") + "\"");
                 writer.write(" />");
 
+                if (Boolean.TRUE.equals(mBeanServer.getAttribute(tpName, "latencyHistograms"))) {
+                    writer.write("<latencyInfo ");
+                    for (String latency : new String[] { "queueTime", "headerParseTime", "servletTime", "writeTime" }) {
+                        for (String percentile : new String[] { "P50", "P99", "P999" }) {
+                            String attribute = latency + percentile;
+                            writer.write(" " + attribute + "=\"" + mBeanServer.getAttribute(grpName, attribute) + "\"");
+                        }
+                    }
+                    writer.write(" />");
+                }
+
                 writer.write("<workers>");
                 enumeration = requestProcessors.elements();
                 while (enumeration.hasMoreElements()) {
@@ -444,6 +477,25 @@ public class StatusTransformer {
     }
 
 
+    /**
+     * Write the p50, p99 and p99.9 values of a latency histogram.
+     *
+     * @param writer The output writer
+     * @param grpName MBean name of the global request processor
+     * @param mBeanServer MBean server
+     * @param latency The latency attribute name prefix
+     * @throws Exception Propagated JMX error
+     */
+    protected static void writeLatency(PrintWriter writer, ObjectName grpName,
+            MBeanServer mBeanServer, String latency) throws Exception {
+        writer.print(mBeanServer.getAttribute(grpName, latency + "P50"));
+        writer.print(" / ");
+        writer.print(mBeanServer.getAttribute(grpName, latency + "P99"));
+        writer.print(" / ");
+        writer.print(mBeanServer.getAttribute(grpName, latency + "P999"));
+    }
+
+
     /**
      * Write processor state.
      * @param writer The output writer
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
+
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.util.IOTools;
+import org.apache.tomcat.util.buf.PooledGzipOutputStream;
+
+/**
+ * A size limited, least recently used cache of gzip compressed copies of
+ * static resources for which no precompressed version is available. Entries
+ * are keyed by path and ETag so a modified resource is compressed again and
+ * the stale entry is eventually evicted.
+ */
+class CompressedResourceCache {
+
+    // Marks resources that do not get smaller when compressed
+    private static final byte[] NOT_COMPRESSIBLE = new byte[0];
+
+    private final long maxSize;
+    private final long maxEntrySize;
+    private final Map<String,byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+
+    CompressedResourceCache(long maxSize) {
+        this.maxSize = maxSize;
+        // Large entries would evict too much of the rest of the cache
+        this.maxEntrySize = maxSize / 10;
+    }
+
+
+    /**
+     * Obtain the gzip compressed version of the given resource, compressing
+     * it if it is not already cached.
+     *
+     * @param path     The path of the resource
+     * @param resource The uncompressed resource
+     *
+     * @return The compressed resource or <code>null</code> if the resource is
+     *         too large for the cache or compression does not reduce its size
+     *
+     * @throws IOException If the resource can not be read
+     */
+    WebResource getResource(String path, WebResource resource) throws IOException {
+        long length = resource.getContentLength();
+        if (length <= 0 || length > maxEntrySize) {
+            return null;
+        }
+
+        String key = resource.getETag() + path;
+        byte[] compressed;
+        synchronized (entries) {
+            compressed = entries.get(key);
+        }
+        if (compressed == null) {
+            compressed = compress(resource);
+            put(key, compressed);
+        }
+
+        if (compressed == NOT_COMPRESSIBLE) {
+            return null;
+        }
+        return new CompressedResource(resource, compressed);
+    }
+
+
+    private byte[] compress(WebResource resource) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream((int) resource.getContentLength());
+        PooledGzipOutputStream gzip = new PooledGzipOutputStream(baos, Deflater.BEST_COMPRESSION);
+        try {
+            byte[] content = resource.getContent();
+            if (content == null) {
+                try (InputStream is = resource.getInputStream()) {
+                    IOTools.flow(is, gzip);
+                }
+            } else {
+                gzip.write(content);
+            }
+            gzip.finish();
+        } finally {
+            gzip.release();
+        }
+        if (baos.size() >= resource.getContentLength()) {
+            return NOT_COMPRESSIBLE;
+        }
+        return baos.toByteArray();
+    }
+
+
+    private void put(String key, byte[] compressed) {
+        synchronized (entries) {
+            byte[] old = entries.put(key, compressed);
+            if (old != null) {
+                size -= old.length;
+            }
+            size += compressed.length;
+            Iterator<byte[]> iter = entries.values().iterator();
+            while (size > maxSize && iter.hasNext()) {
+                size -= iter.next().length;
+                iter.remove();
+            }
+        }
+    }
+
+
+    /**
+     * The compressed version of a resource. All the meta-data, including the
+     * ETag, is that of the uncompressed resource. There is no file for the
+     * compressed content so the canonical path is always <code>null</code>.
+     */
+    private static class CompressedResource implements WebResource {
+
+        private final WebResource resource;
+        private final byte[] content;
+
+        private CompressedResource(WebResource resource, byte[] content) {
+            this.resource = resource;
+            this.content = content;
+        }
+
+        @Override
+        public long getLastModified() {
+            return resource.getLastModified();
+        }
+
+        @Override
+        public String getLastModifiedHttp() {
+            return resource.getLastModifiedHttp();
+        }
+
+        @Override
+        public boolean exists() {
+            return resource.exists();
+        }
+
+        @Override
+        public boolean isVirtual() {
+            return resource.isVirtual();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public boolean isFile() {
+            return true;
+        }
+
+        @Override
+        public boolean delete() {
+            return false;
+        }
+
+        @Override
+        public String getName() {
+            return resource.getName();
+        }
+
+        @Override
+        public long getContentLength() {
+            return content.length;
+        }
+
+        @Override
+        public String getCanonicalPath() {
+            return null;
+        }
+
+        @Override
+        public boolean canRead() {
+            return true;
+        }
+
+        @Override
+        public String getWebappPath() {
+            return resource.getWebappPath();
+        }
+
+        @Override
+        public String getETag() {
+            return resource.getETag();
+        }
+
+        @Override
+        public void setMimeType(String mimeType) {
+            resource.setMimeType(mimeType);
+        }
+
+        @Override
+        public String getMimeType() {
+            return resource.getMimeType();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public byte[] getContent() {
+            return content;
+        }
+
+        @Override
+        public long getCreation() {
+            return resource.getCreation();
+        }
+
+        @Override
+        public URL getURL() {
+            return resource.getURL();
+        }
+
+        @Override
+        public URL getCodeBase() {
+            return resource.getCodeBase();
+        }
+
+        @Override
+        public WebResourceRoot getWebResourceRoot() {
+            return resource.getWebResourceRoot();
+        }
+
+        @Override
+        public Certificate[] getCertificates() {
+            return resource.getCertificates();
+        }
+
+        @Override
+        public Manifest getManifest() {
+            return resource.getManifest();
+        }
+    }
+}
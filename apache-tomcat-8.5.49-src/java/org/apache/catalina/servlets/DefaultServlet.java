@@ -51,6 +51,8 @@ import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
 import javax.servlet.ServletResponse;
 import javax.servlet.ServletResponseWrapper;
 import javax.servlet.UnavailableException;
@@ -82,6 +84,7 @@ import org.apache.tomcat.util.buf.B2CConverter;
 import org.apache.tomcat.util.http.ResponseUtil;
 import org.apache.tomcat.util.http.parser.ContentRange;
 import org.apache.tomcat.util.http.parser.Ranges;
+import org.apache.tomcat.util.net.FileRegion;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.security.Escape;
 import org.apache.tomcat.util.security.PrivilegedGetTccl;
@@ -214,6 +217,12 @@ public class DefaultServlet extends HttpServlet {
      */
     protected CompressionFormat[] compressionFormats;
 
+    /**
+     * Cache of gzip compressed copies of text resources that do not have a
+     * precompressed version. <code>null</code> if the cache is disabled.
+     */
+    private transient CompressedResourceCache compressedResourceCache = null;
+
     /**
      * The output buffer size to use when serving resources.
      */
@@ -322,6 +331,14 @@ public class DefaultServlet extends HttpServlet {
                 getServletConfig().getInitParameter("precompressed"),
                 getServletConfig().getInitParameter("gzip"));
 
+        if (getServletConfig().getInitParameter("precompressedCacheSize") != null) {
+            long precompressedCacheSize = Long.parseLong(
+                    getServletConfig().getInitParameter("precompressedCacheSize")) * 1024;
+            if (precompressedCacheSize > 0 && getGzipFormat() != null) {
+                compressedResourceCache = new CompressedResourceCache(precompressedCacheSize);
+            }
+        }
+
         if (getServletConfig().getInitParameter("sendfileSize") != null)
             sendfileSize =
                 Integer.parseInt(getServletConfig().getInitParameter("sendfileSize")) * 1024;
@@ -462,6 +479,17 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    private void addPushedPath(HttpServletRequest request, String path) {
+        ServletRequest r = request;
+        while (r instanceof ServletRequestWrapper) {
+            r = ((ServletRequestWrapper) r).getRequest();
+        }
+        if (r instanceof RequestFacade) {
+            ((RequestFacade) r).addPushedPath(getServletContext().getContextPath() + path);
+        }
+    }
+
+
     /**
      * Determines the appropriate path to prepend resources with
      * when generating directory listings. Depending on the behaviour of
@@ -893,8 +921,15 @@ public class DefaultServlet extends HttpServlet {
             // Checking If headers
             included = (request.getAttribute(
                     RequestDispatcher.INCLUDE_CONTEXT_PATH) != null);
-            if (!included && !isError && !checkIfHeaders(request, response, resource)) {
-                return;
+            if (!included && !isError) {
+                if (serveContent) {
+                    // The client has, or is about to have, this resource so
+                    // there is no need to push it to the client
+                    addPushedPath(request, path);
+                }
+                if (!checkIfHeaders(request, response, resource)) {
+                    return;
+                }
             }
         }
 
@@ -921,15 +956,24 @@ public class DefaultServlet extends HttpServlet {
         if (compressionFormats.length > 0 && !included && resource.isFile() &&
                 !pathEndsWithCompressedExtension(path)) {
             List<PrecompressedResource> precompressedResources =
-                    getAvailablePrecompressedResources(path);
+                    getAvailablePrecompressedResources(path, contentType);
             if (!precompressedResources.isEmpty()) {
                 ResponseUtil.addVaryFieldName(response, "accept-encoding");
                 PrecompressedResource bestResource =
                         getBestPrecompressedResource(request, precompressedResources);
                 if (bestResource != null) {
-                    response.addHeader("Content-Encoding", bestResource.format.encoding);
-                    resource = bestResource.resource;
-                    usingPrecompressedVersion = true;
+                    WebResource precompressedResource = bestResource.resource;
+                    if (precompressedResource == null) {
+                        // Only compress on the fly once it is known that the
+                        // client will accept the result
+                        precompressedResource =
+                                compressedResourceCache.getResource(path, resource);
+                    }
+                    if (precompressedResource != null) {
+                        response.addHeader("Content-Encoding", bestResource.format.encoding);
+                        resource = precompressedResource;
+                        usingPrecompressedVersion = true;
+                    }
                 }
             }
         }
@@ -1203,7 +1247,8 @@ public class DefaultServlet extends HttpServlet {
                         // Silent catch
                     }
                     if (ostream != null) {
-                        copy(resource, ostream, ranges.iterator(), contentType);
+                        if (!checkSendfile(request, response, resource, ranges, contentType))
+                            copy(resource, ostream, ranges.iterator(), contentType);
                     } else {
                         // we should not get here
                         throw new IllegalStateException();
@@ -1307,12 +1352,30 @@ public class DefaultServlet extends HttpServlet {
         return false;
     }
 
-    private List<PrecompressedResource> getAvailablePrecompressedResources(String path) {
+    private CompressionFormat getGzipFormat() {
+        for (CompressionFormat format : compressionFormats) {
+            if ("gzip".equals(format.encoding)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private List<PrecompressedResource> getAvailablePrecompressedResources(String path,
+            String contentType) {
         List<PrecompressedResource> ret = new ArrayList<>(compressionFormats.length);
         for (CompressionFormat format : compressionFormats) {
             WebResource precompressedResource = resources.getResource(path + format.extension);
             if (precompressedResource.exists() && precompressedResource.isFile()) {
                 ret.add(new PrecompressedResource(precompressedResource, format));
+            } else if ("gzip".equals(format.encoding)) {
+                precompressedResource = resources.getPrecompressedResource(path);
+                if (precompressedResource != null) {
+                    ret.add(new PrecompressedResource(precompressedResource, format));
+                } else if (compressedResourceCache != null && isText(contentType)) {
+                    // Compressed on the fly if selected
+                    ret.add(new PrecompressedResource(null, format));
+                }
             }
         }
         return ret;
@@ -2268,15 +2331,8 @@ public class DefaultServlet extends HttpServlet {
                                   HttpServletResponse response,
                                   WebResource resource,
                                   long length, Range range) {
-        String canonicalPath;
-        if (sendfileSize > 0
-            && length > sendfileSize
-            && (Boolean.TRUE.equals(request.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR)))
-            && (request.getClass().getName().equals("org.apache.catalina.connector.RequestFacade"))
-            && (response.getClass().getName().equals("org.apache.catalina.connector.ResponseFacade"))
-            && resource.isFile()
-            && ((canonicalPath = resource.getCanonicalPath()) != null)
-            ) {
+        String canonicalPath = getSendfilePath(request, response, resource, length);
+        if (canonicalPath != null) {
             request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, canonicalPath);
             if (range == null) {
                 request.setAttribute(Globals.SENDFILE_FILE_START_ATTR, Long.valueOf(0L));
@@ -2291,6 +2347,76 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    /**
+     * Check if sendfile can be used to write the parts of a
+     * <code>multipart/byteranges</code> response. If it can, the content length
+     * of the response is set.
+     *
+     * @param request The Servlet request
+     * @param response The Servlet response
+     * @param resource The resource
+     * @param ranges The ranges that will be written
+     * @param contentType The content type of the resource
+     * @return <code>true</code> if sendfile should be used (writing is then
+     *  delegated to the endpoint)
+     */
+    protected boolean checkSendfile(HttpServletRequest request,
+                                  HttpServletResponse response,
+                                  WebResource resource,
+                                  List<Range> ranges, String contentType) {
+        long length = 0;
+        for (Range range : ranges) {
+            length += range.end - range.start + 1;
+        }
+        String canonicalPath = getSendfilePath(request, response, resource, length);
+        if (canonicalPath == null) {
+            return false;
+        }
+
+        // Same format as copy() uses for the parts
+        FileRegion[] regions = new FileRegion[ranges.size() + 1];
+        for (int i = 0; i < ranges.size(); i++) {
+            Range range = ranges.get(i);
+            StringBuilder header = new StringBuilder("\r\n--");
+            header.append(mimeSeparation).append("\r\n");
+            if (contentType != null) {
+                header.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            header.append("Content-Range: bytes ").append(range.start).append('-');
+            header.append(range.end).append('/').append(range.length).append("\r\n\r\n");
+            byte[] prefix = header.toString().getBytes(StandardCharsets.ISO_8859_1);
+            regions[i] = new FileRegion(prefix, range.start, range.end - range.start + 1);
+            length += prefix.length;
+        }
+        byte[] end = ("\r\n--" + mimeSeparation + "--").getBytes(StandardCharsets.ISO_8859_1);
+        regions[ranges.size()] = new FileRegion(end, 0, 0);
+        length += end.length;
+
+        response.setContentLengthLong(length);
+        request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, canonicalPath);
+        request.setAttribute(Globals.SENDFILE_FILE_REGIONS_ATTR, regions);
+        return true;
+    }
+
+
+    /*
+     * The canonical path of the file to serve with sendfile or null if
+     * sendfile can not be used.
+     */
+    private String getSendfilePath(HttpServletRequest request,
+            HttpServletResponse response, WebResource resource, long length) {
+        if (sendfileSize > 0
+            && length > sendfileSize
+            && (Boolean.TRUE.equals(request.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR)))
+            && (request.getClass().getName().equals("org.apache.catalina.connector.RequestFacade"))
+            && (response.getClass().getName().equals("org.apache.catalina.connector.ResponseFacade"))
+            && resource.isFile()) {
+            return resource.getCanonicalPath();
+        }
+        return null;
+    }
+
+
     /**
      * Check if the if-match condition is satisfied.
      *
@@ -2798,6 +2924,7 @@ public class DefaultServlet extends HttpServlet {
     }
 
     private static class PrecompressedResource {
+        // null if the resource is to be compressed on the fly
         public final WebResource resource;
         public final CompressionFormat format;
 
@@ -31,6 +31,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.naming.Context;
@@ -50,6 +53,12 @@ import org.apache.tomcat.util.ExceptionUtils;
  * interface that stores serialized session objects in a database.
  * Sessions that are saved are still subject to being expired
  * based on inactivity.
+ * <p>
+ * If write behind is enabled, saved and removed sessions are queued and
+ * written to the database in batches by a background thread. Only the latest
+ * change to each session is queued so a session that is saved repeatedly
+ * before the queue is written is only written once. Loads are answered from
+ * the queue for sessions that have not yet been written.
  *
  * @author Bip Thelin
  */
@@ -116,6 +125,31 @@ public class JDBCStore extends StoreBase {
      */
     protected DataSource dataSource = null;
 
+    /**
+     * Should sessions be written to the database by a background thread?
+     */
+    protected boolean writeBehind = false;
+
+    /**
+     * The maximum number of sessions written in a single batch.
+     */
+    protected int batchSize = 100;
+
+    /**
+     * The changes that have not yet been written to the database, keyed by
+     * session ID. Guarded by itself.
+     */
+    private final Map<String,PendingWrite> pendingWrites = new LinkedHashMap<>();
+
+    /**
+     * The thread that writes the pending changes when write behind is
+     * enabled.
+     */
+    private Thread writer = null;
+    private volatile boolean writerRunning = false;
+    // Guarded by this
+    private boolean writerStopped = true;
+
 
     // ------------------------------------------------------------ Table & cols
 
@@ -476,6 +510,63 @@ public class JDBCStore extends StoreBase {
       this.localDataSource = localDataSource;
     }
 
+    /**
+     * @return {@code true} if sessions are written to the database by a
+     *         background thread
+     */
+    public boolean getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Set to {@code true} to queue saved and removed sessions and write them
+     * to the database in batches from a background thread rather than
+     * writing them before {@link #save(Session)} and {@link #remove(String)}
+     * return. Changes take effect when the Store is next started.
+     *
+     * @param writeBehind the new flag value
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        boolean oldWriteBehind = this.writeBehind;
+        this.writeBehind = writeBehind;
+        support.firePropertyChange("writeBehind", oldWriteBehind, this.writeBehind);
+    }
+
+    /**
+     * @return the maximum number of sessions written in a single batch
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of sessions written in a single batch when
+     * write behind is enabled.
+     *
+     * @param batchSize The new batch size
+     *
+     * @throws IllegalArgumentException if the batch size is less than one
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(sm.getString(getStoreName() + ".invalidBatchSize",
+                    Integer.toString(batchSize)));
+        }
+        int oldBatchSize = this.batchSize;
+        this.batchSize = batchSize;
+        support.firePropertyChange("batchSize", oldBatchSize, this.batchSize);
+    }
+
+    /**
+     * @return the number of saved and removed sessions that have not yet been
+     *         written to the database
+     */
+    public int getPendingWrites() {
+        synchronized (pendingWrites) {
+            return pendingWrites.size();
+        }
+    }
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -503,6 +594,8 @@ public class JDBCStore extends StoreBase {
     private String[] keys(boolean expiredOnly) throws IOException {
         String keys[] = null;
         synchronized (this) {
+            flushPendingWrites();
+
             int numberOfTries = 2;
             while (numberOfTries > 0) {
 
@@ -564,6 +657,8 @@ public class JDBCStore extends StoreBase {
         int size = 0;
 
         synchronized (this) {
+            flushPendingWrites();
+
             int numberOfTries = 2;
             while (numberOfTries > 0) {
                 Connection _conn = getConnection();
@@ -612,6 +707,24 @@ public class JDBCStore extends StoreBase {
      */
     @Override
     public Session load(String id) throws ClassNotFoundException, IOException {
+        if (writeBehind) {
+            PendingWrite pendingWrite;
+            synchronized (pendingWrites) {
+                pendingWrite = pendingWrites.get(id);
+            }
+            if (pendingWrite != null) {
+                // The database is not yet up to date for this session
+                if (pendingWrite.data == null) {
+                    return null;
+                }
+                return readSession(id, new ByteArrayInputStream(pendingWrite.data));
+            }
+        }
+
+        if (dataSourceName != null) {
+            return loadPooled(id);
+        }
+
         StandardSession _session = null;
         org.apache.catalina.Context context = getManager().getContext();
         Log contextLog = context.getLogger();
@@ -624,32 +737,16 @@ public class JDBCStore extends StoreBase {
                     return null;
                 }
 
-                ClassLoader oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
-
                 try {
                     if (preparedLoadSql == null) {
-                        String loadSql = "SELECT " + sessionIdCol + ", "
-                                + sessionDataCol + " FROM " + sessionTable
-                                + " WHERE " + sessionIdCol + " = ? AND "
-                                + sessionAppCol + " = ?";
-                        preparedLoadSql = _conn.prepareStatement(loadSql);
+                        preparedLoadSql = _conn.prepareStatement(getLoadSql());
                     }
 
                     preparedLoadSql.setString(1, id);
                     preparedLoadSql.setString(2, getName());
                     try (ResultSet rst = preparedLoadSql.executeQuery()) {
                         if (rst.next()) {
-                            try (ObjectInputStream ois =
-                                    getObjectInputStream(rst.getBinaryStream(2))) {
-                                if (contextLog.isDebugEnabled()) {
-                                    contextLog.debug(sm.getString(
-                                            getStoreName() + ".loading", id, sessionTable));
-                                }
-
-                                _session = (StandardSession) manager.createEmptySession();
-                                _session.readObjectData(ois);
-                                _session.setManager(manager);
-                            }
+                            _session = readSession(id, rst.getBinaryStream(2));
                         } else if (context.getLogger().isDebugEnabled()) {
                             contextLog.debug(getStoreName() + ": No persisted data object found");
                         }
@@ -661,7 +758,6 @@ public class JDBCStore extends StoreBase {
                     if (dbConnection != null)
                         close(dbConnection);
                 } finally {
-                    context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
                     release(_conn);
                 }
                 numberOfTries--;
@@ -671,6 +767,76 @@ public class JDBCStore extends StoreBase {
         return _session;
     }
 
+    /**
+     * Load a session using a connection of its own from the DataSource so
+     * that loads do not wait for other database operations of this Store.
+     *
+     * @param id The session ID
+     * @return the stored <code>Session</code>
+     * @exception ClassNotFoundException if an error occurs
+     * @exception IOException if an input/output error occurred
+     */
+    private Session loadPooled(String id) throws ClassNotFoundException, IOException {
+        Connection _conn = getConnection();
+        if (_conn == null) {
+            return null;
+        }
+
+        Log contextLog = manager.getContext().getLogger();
+        try (PreparedStatement preparedLoadSql = _conn.prepareStatement(getLoadSql())) {
+            preparedLoadSql.setString(1, id);
+            preparedLoadSql.setString(2, getName());
+            try (ResultSet rst = preparedLoadSql.executeQuery()) {
+                if (rst.next()) {
+                    return readSession(id, rst.getBinaryStream(2));
+                }
+                if (contextLog.isDebugEnabled()) {
+                    contextLog.debug(getStoreName() + ": No persisted data object found");
+                }
+            }
+        } catch (SQLException e) {
+            contextLog.error(sm.getString(getStoreName() + ".SQLException", e));
+        } finally {
+            // Return the connection to the pool
+            try {
+                _conn.close();
+            } catch (SQLException e) {
+                contextLog.error(sm.getString(getStoreName() + ".close", e.toString()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deserialize a session.
+     *
+     * @param id The session ID
+     * @param is The stream from which to read the serialized session
+     * @return the deserialized <code>Session</code>
+     * @exception ClassNotFoundException if an error occurs
+     * @exception IOException if an input/output error occurred
+     */
+    private StandardSession readSession(String id, InputStream is)
+            throws ClassNotFoundException, IOException {
+        org.apache.catalina.Context context = getManager().getContext();
+        Log contextLog = context.getLogger();
+
+        ClassLoader oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
+
+        try (ObjectInputStream ois = getObjectInputStream(is)) {
+            if (contextLog.isDebugEnabled()) {
+                contextLog.debug(sm.getString(getStoreName() + ".loading", id, sessionTable));
+            }
+
+            StandardSession _session = (StandardSession) manager.createEmptySession();
+            _session.readObjectData(ois);
+            _session.setManager(manager);
+            return _session;
+        } finally {
+            context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
+        }
+    }
+
     /**
      * Remove the Session with the specified session identifier from
      * this Store, if present.  If no such Session is present, this method
@@ -683,6 +849,14 @@ public class JDBCStore extends StoreBase {
     @Override
     public void remove(String id) throws IOException {
 
+        if (writeBehind) {
+            queue(new PendingWrite(id, null, false, 0, 0));
+            if (manager.getContext().getLogger().isDebugEnabled()) {
+                manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".queued", id));
+            }
+            return;
+        }
+
         synchronized (this) {
             int numberOfTries = 2;
             while (numberOfTries > 0) {
@@ -723,10 +897,7 @@ public class JDBCStore extends StoreBase {
      */
     private void remove(String id, Connection _conn) throws SQLException {
         if (preparedRemoveSql == null) {
-            String removeSql = "DELETE FROM " + sessionTable
-                    + " WHERE " + sessionIdCol + " = ?  AND "
-                    + sessionAppCol + " = ?";
-            preparedRemoveSql = _conn.prepareStatement(removeSql);
+            preparedRemoveSql = _conn.prepareStatement(getRemoveSql());
         }
 
         preparedRemoveSql.setString(1, id);
@@ -743,6 +914,10 @@ public class JDBCStore extends StoreBase {
     public void clear() throws IOException {
 
         synchronized (this) {
+            synchronized (pendingWrites) {
+                pendingWrites.clear();
+            }
+
             int numberOfTries = 2;
             while (numberOfTries > 0) {
                 Connection _conn = getConnection();
@@ -781,6 +956,16 @@ public class JDBCStore extends StoreBase {
      */
     @Override
     public void save(Session session) throws IOException {
+        if (writeBehind) {
+            queue(new PendingWrite(session.getIdInternal(), serialize(session), session.isValid(),
+                    session.getMaxInactiveInterval(), session.getLastAccessedTime()));
+            if (manager.getContext().getLogger().isDebugEnabled()) {
+                manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".queued",
+                        session.getIdInternal()));
+            }
+            return;
+        }
+
         ByteArrayOutputStream bos = null;
 
         synchronized (this) {
@@ -807,13 +992,7 @@ public class JDBCStore extends StoreBase {
                     try (ByteArrayInputStream bis = new ByteArrayInputStream(obs, 0, size);
                             InputStream in = new BufferedInputStream(bis, size)) {
                         if (preparedSaveSql == null) {
-                            String saveSql = "INSERT INTO " + sessionTable + " ("
-                               + sessionIdCol + ", " + sessionAppCol + ", "
-                               + sessionDataCol + ", " + sessionValidCol
-                               + ", " + sessionMaxInactiveCol + ", "
-                               + sessionLastAccessedCol
-                               + ") VALUES (?, ?, ?, ?, ?, ?)";
-                           preparedSaveSql = _conn.prepareStatement(saveSql);
+                           preparedSaveSql = _conn.prepareStatement(getSaveSql());
                         }
 
                         preparedSaveSql.setString(1, session.getIdInternal());
@@ -846,6 +1025,157 @@ public class JDBCStore extends StoreBase {
     }
 
 
+    // --------------------------------------------------------- Private Methods
+
+    private String getLoadSql() {
+        return "SELECT " + sessionIdCol + ", "
+                + sessionDataCol + " FROM " + sessionTable
+                + " WHERE " + sessionIdCol + " = ? AND "
+                + sessionAppCol + " = ?";
+    }
+
+    private String getRemoveSql() {
+        return "DELETE FROM " + sessionTable
+                + " WHERE " + sessionIdCol + " = ?  AND "
+                + sessionAppCol + " = ?";
+    }
+
+    private String getSaveSql() {
+        return "INSERT INTO " + sessionTable + " ("
+                + sessionIdCol + ", " + sessionAppCol + ", "
+                + sessionDataCol + ", " + sessionValidCol
+                + ", " + sessionMaxInactiveCol + ", "
+                + sessionLastAccessedCol
+                + ") VALUES (?, ?, ?, ?, ?, ?)";
+    }
+
+    private byte[] serialize(Session session) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(bos))) {
+            ((StandardSession) session).writeObjectData(oos);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Queue a change for the background thread, replacing any change to the
+     * same session that has not yet been written.
+     */
+    private void queue(PendingWrite pendingWrite) {
+        synchronized (pendingWrites) {
+            pendingWrites.put(pendingWrite.id, pendingWrite);
+            pendingWrites.notifyAll();
+        }
+    }
+
+    /**
+     * Write all pending changes to the database.
+     *
+     * @return {@code true} if all pending changes were written, {@code false}
+     *         if a batch could not be written
+     */
+    private boolean flushPendingWrites() {
+        synchronized (this) {
+            while (true) {
+                List<PendingWrite> batch = new ArrayList<>();
+                synchronized (pendingWrites) {
+                    if (pendingWrites.isEmpty()) {
+                        return true;
+                    }
+                    for (PendingWrite pendingWrite : pendingWrites.values()) {
+                        batch.add(pendingWrite);
+                        if (batch.size() >= batchSize) {
+                            break;
+                        }
+                    }
+                }
+                if (!writeBatch(batch)) {
+                    return false;
+                }
+                synchronized (pendingWrites) {
+                    for (PendingWrite pendingWrite : batch) {
+                        // Keep any change queued while the batch was written
+                        if (pendingWrites.get(pendingWrite.id) == pendingWrite) {
+                            pendingWrites.remove(pendingWrite.id);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a batch of changes to the database in a single transaction. Each
+     * session is deleted and then, if it was saved, inserted.
+     *
+     * @param batch The changes to write
+     * @return {@code true} if the batch was written
+     */
+    private boolean writeBatch(List<PendingWrite> batch) {
+        int numberOfTries = 2;
+        while (numberOfTries > 0) {
+            Connection _conn = getConnection();
+            if (_conn == null) {
+                return false;
+            }
+
+            try {
+                boolean autoCommit = _conn.getAutoCommit();
+                _conn.setAutoCommit(false);
+                try (PreparedStatement removeStatement = _conn.prepareStatement(getRemoveSql());
+                        PreparedStatement saveStatement = _conn.prepareStatement(getSaveSql())) {
+                    int saves = 0;
+                    for (PendingWrite pendingWrite : batch) {
+                        removeStatement.setString(1, pendingWrite.id);
+                        removeStatement.setString(2, getName());
+                        removeStatement.addBatch();
+                        if (pendingWrite.data != null) {
+                            saveStatement.setString(1, pendingWrite.id);
+                            saveStatement.setString(2, getName());
+                            saveStatement.setBinaryStream(3,
+                                    new ByteArrayInputStream(pendingWrite.data),
+                                    pendingWrite.data.length);
+                            saveStatement.setString(4, pendingWrite.valid ? "1" : "0");
+                            saveStatement.setInt(5, pendingWrite.maxInactiveInterval);
+                            saveStatement.setLong(6, pendingWrite.lastAccessedTime);
+                            saveStatement.addBatch();
+                            saves++;
+                        }
+                    }
+                    removeStatement.executeBatch();
+                    if (saves > 0) {
+                        saveStatement.executeBatch();
+                    }
+                    _conn.commit();
+                } catch (SQLException e) {
+                    try {
+                        _conn.rollback();
+                    } catch (SQLException e2) {
+                        // Ignore. The original exception will be logged.
+                    }
+                    throw e;
+                } finally {
+                    _conn.setAutoCommit(autoCommit);
+                }
+
+                if (manager.getContext().getLogger().isDebugEnabled()) {
+                    manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".batch",
+                            Integer.valueOf(batch.size()), sessionTable));
+                }
+                return true;
+            } catch (SQLException e) {
+                manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+                if (dbConnection != null)
+                    close(dbConnection);
+            } finally {
+                release(_conn);
+            }
+            numberOfTries--;
+        }
+        return false;
+    }
+
+
     // --------------------------------------------------------- Protected Methods
 
     /**
@@ -1033,6 +1363,14 @@ public class JDBCStore extends StoreBase {
             this.dbConnection = getConnection();
         }
 
+        if (writeBehind) {
+            writerRunning = true;
+            writerStopped = false;
+            writer = new Thread(new PendingWriter(), getThreadName() + "[" + getName() + "]");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
         super.startInternal();
     }
 
@@ -1048,6 +1386,36 @@ public class JDBCStore extends StoreBase {
 
         super.stopInternal();
 
+        if (writer != null) {
+            writerRunning = false;
+            synchronized (pendingWrites) {
+                pendingWrites.notifyAll();
+            }
+            // Wait, releasing the lock the writer needs, for the writer to
+            // finish the batch it may be writing
+            long end = System.currentTimeMillis() + 10000;
+            long remaining = 10000;
+            while (!writerStopped && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                remaining = end - System.currentTimeMillis();
+            }
+            if (!writerStopped) {
+                manager.getContext().getLogger().warn(sm.getString(getStoreName() + ".writerStopFail"));
+            }
+            writer = null;
+        }
+        if (!flushPendingWrites()) {
+            synchronized (pendingWrites) {
+                manager.getContext().getLogger().error(sm.getString(getStoreName() + ".pendingLost",
+                        Integer.valueOf(pendingWrites.size())));
+                pendingWrites.clear();
+            }
+        }
+
         // Close and release everything associated with our db.
         if (dbConnection != null) {
             try {
@@ -1058,4 +1426,72 @@ public class JDBCStore extends StoreBase {
             close(dbConnection);
         }
     }
+
+
+    /**
+     * A change to a session that has not yet been written to the database.
+     */
+    private static final class PendingWrite {
+
+        private final String id;
+        // null if the session has been removed
+        private final byte[] data;
+        private final boolean valid;
+        private final int maxInactiveInterval;
+        private final long lastAccessedTime;
+
+        private PendingWrite(String id, byte[] data, boolean valid, int maxInactiveInterval,
+                long lastAccessedTime) {
+            this.id = id;
+            this.data = data;
+            this.valid = valid;
+            this.maxInactiveInterval = maxInactiveInterval;
+            this.lastAccessedTime = lastAccessedTime;
+        }
+    }
+
+
+    /**
+     * Writes the pending changes to the database whenever there are any.
+     * After a failure the writer waits for a second before trying again.
+     */
+    private class PendingWriter implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (writerRunning) {
+                    synchronized (pendingWrites) {
+                        while (writerRunning && pendingWrites.isEmpty()) {
+                            try {
+                                pendingWrites.wait();
+                            } catch (InterruptedException e) {
+                                // Ignore
+                            }
+                        }
+                    }
+                    if (!writerRunning || flushPendingWrites()) {
+                        continue;
+                    }
+                    long end = System.currentTimeMillis() + 1000;
+                    synchronized (pendingWrites) {
+                        long remaining = 1000;
+                        while (writerRunning && remaining > 0) {
+                            try {
+                                pendingWrites.wait(remaining);
+                            } catch (InterruptedException e) {
+                                // Ignore
+                            }
+                            remaining = end - System.currentTimeMillis();
+                        }
+                    }
+                }
+            } finally {
+                synchronized (JDBCStore.this) {
+                    writerStopped = true;
+                    JDBCStore.this.notifyAll();
+                }
+            }
+        }
+    }
 }
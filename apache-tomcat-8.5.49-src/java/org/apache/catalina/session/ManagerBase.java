@@ -132,10 +132,27 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
 
     /**
      * The set of currently active Sessions for this Manager, keyed by
-     * session identifier.
+     * session identifier. Sessions should be added via {@link #add(Session)}
+     * so that they are scheduled for expiry. Sessions added directly are only
+     * found by the periodic check for unscheduled sessions so they may expire
+     * late.
      */
     protected Map<String, Session> sessions = new ConcurrentHashMap<>();
 
+    /**
+     * The active sessions that are due to expire, grouped by when they are
+     * due.
+     */
+    private final SessionExpiryIndex expiryIndex = new SessionExpiryIndex();
+
+    /**
+     * The number of calls to {@link #expireDueSessions(long)} between the
+     * checks of every session for those that have not been scheduled.
+     */
+    private static final int UNSCHEDULED_CHECK_FREQUENCY = 10;
+
+    private int expiryChecks = 0;
+
     // Number of sessions created by this manager
     protected long sessionCounter=0;
 
@@ -534,16 +551,10 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
 
         if(log.isDebugEnabled())
-            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (sessions[i]!=null && !sessions[i].isValid()) {
-                expireHere++;
-            }
-        }
+            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.size());
+        int expireHere = expireDueSessions(timeNow);
         long timeEnd = System.currentTimeMillis();
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
@@ -552,6 +563,80 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     }
 
 
+    /**
+     * Check the validity of the sessions that are due to expire, which
+     * expires those sessions that have not been accessed in the meantime.
+     * Sessions that are still valid are scheduled to be checked again when
+     * they are next due to expire. Other sessions are not checked except on
+     * the first call and every tenth call after that when the validity of
+     * every session that is not scheduled is checked and the valid ones are
+     * scheduled. That check finds the sessions that a sub-class has added
+     * without calling {@link #add(Session)} or {@link #scheduleExpiry(Session)}.
+     *
+     * @param timeNow The current time
+     *
+     * @return The number of sessions that expired
+     */
+    protected int expireDueSessions(long timeNow) {
+        int expireHere = 0;
+        if (expiryChecks == 0) {
+            Session sessions[] = findSessions();
+            for (int i = 0; i < sessions.length; i++) {
+                if (expiryIndex.isScheduled(sessions[i].getIdInternal())) {
+                    continue;
+                }
+                if (sessions[i].isValid()) {
+                    scheduleExpiry(sessions[i]);
+                } else {
+                    expireHere++;
+                }
+            }
+        }
+        expiryChecks = (expiryChecks + 1) % UNSCHEDULED_CHECK_FREQUENCY;
+        for (String id : expiryIndex.removeDue(timeNow)) {
+            Session session = sessions.get(id);
+            if (session == null) {
+                continue;
+            }
+            if (session.isValid()) {
+                scheduleExpiry(session);
+            } else {
+                expireHere++;
+            }
+        }
+        return expireHere;
+    }
+
+
+    /**
+     * Schedule the next validity check of the given session for the time at
+     * which it is due to expire. Sessions are scheduled when they are added
+     * to this manager and must be scheduled again if their maximum inactive
+     * interval changes. Sessions that are not active in this manager or that
+     * never expire are not scheduled.
+     *
+     * @param session The session to schedule
+     */
+    protected void scheduleExpiry(Session session) {
+        String id = session.getIdInternal();
+        if (id == null || sessions.get(id) != session) {
+            return;
+        }
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        if (maxInactiveInterval <= 0) {
+            expiryIndex.remove(id);
+            return;
+        }
+        long timeNow = System.currentTimeMillis();
+        long expiryTime = timeNow - session.getIdleTimeInternal() + maxInactiveInterval * 1000L;
+        if (expiryTime <= timeNow) {
+            // Overdue but still valid, e.g. because a request is using it
+            expiryTime = timeNow + 1;
+        }
+        expiryIndex.schedule(id, expiryTime);
+    }
+
+
     @Override
     protected void initInternal() throws LifecycleException {
         super.initInternal();
@@ -607,12 +692,23 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
         if (sessionIdGenerator instanceof Lifecycle) {
             ((Lifecycle) sessionIdGenerator).stop();
         }
+        expiryIndex.clear();
+        expiryChecks = 0;
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sub-classes that override this method without calling it must call
+     * {@link #scheduleExpiry(Session)} so that the session is checked when it
+     * is due to expire rather than only by the less frequent check for
+     * unscheduled sessions.
+     */
     @Override
     public void add(Session session) {
         sessions.put(session.getIdInternal(), session);
+        scheduleExpiry(session);
         int size = getActiveSessions();
         if( size > maxActive ) {
             synchronized(maxActiveUpdateLock) {
@@ -711,6 +807,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
 
         if (session.getIdInternal() != null) {
             sessions.remove(session.getIdInternal());
+            expiryIndex.remove(session.getIdInternal());
         }
     }
 
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import org.apache.catalina.LifecycleException;
+
+/**
+ * Extension of the {@link StandardManager} that keeps the attributes of the
+ * sessions that are not being used by a request in direct memory rather than
+ * on the Java heap. This reduces the heap, and the work of the garbage
+ * collector, required for a large number of mostly idle sessions at the cost
+ * of serializing the attributes at the end of every request and deserializing
+ * them when they are next used.
+ * <p>
+ * Expiration, session listeners and persistence across restarts are the same
+ * as for {@link StandardManager}.
+ *
+ * @see OffHeapSession
+ */
+public class OffHeapManager extends StandardManager {
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * The descriptive name of this Manager implementation (for logging).
+     */
+    private static final String name = "OffHeapManager";
+
+
+    /**
+     * The size of the slabs of direct memory used to hold session attributes.
+     */
+    private int slabSize = 1024 * 1024;
+
+
+    /**
+     * The maximum amount of direct memory used to hold session attributes.
+     */
+    private long maxOffHeapSize = 64L * 1024 * 1024;
+
+
+    private volatile SlabAllocator allocator = null;
+
+
+    // ------------------------------------------------------------- Properties
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * @return the size of the slabs of direct memory used to hold session
+     *         attributes
+     */
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+
+    /**
+     * Set the size of the slabs of direct memory used to hold session
+     * attributes. The size is rounded up to a power of two. The attributes of
+     * a session that do not fit in a slab are kept on the heap. Changes take
+     * effect when the manager is next started.
+     *
+     * @param slabSize The new slab size in bytes
+     */
+    public void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+
+    /**
+     * @return the maximum amount of direct memory used to hold session
+     *         attributes
+     */
+    public long getMaxOffHeapSize() {
+        return maxOffHeapSize;
+    }
+
+
+    /**
+     * Set the maximum amount of direct memory used to hold session
+     * attributes. Once the limit is reached, the attributes of further
+     * sessions are kept on the heap. Changes take effect when the manager is
+     * next started.
+     *
+     * @param maxOffHeapSize The new limit in bytes or -1 for no limit other
+     *                       than the direct memory limit of the JVM
+     */
+    public void setMaxOffHeapSize(long maxOffHeapSize) {
+        this.maxOffHeapSize = maxOffHeapSize;
+    }
+
+
+    /**
+     * @return the amount of direct memory currently allocated to hold session
+     *         attributes
+     */
+    public long getOffHeapSize() {
+        SlabAllocator allocator = this.allocator;
+        return allocator == null ? 0 : allocator.getAllocatedSize();
+    }
+
+
+    /**
+     * @return the amount of direct memory currently holding session
+     *         attributes
+     */
+    public long getOffHeapUsed() {
+        SlabAllocator allocator = this.allocator;
+        return allocator == null ? 0 : allocator.getUsedSize();
+    }
+
+
+    SlabAllocator getAllocator() {
+        return allocator;
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+    @Override
+    protected StandardSession getNewSession() {
+        return new OffHeapSession(this);
+    }
+
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        // Required before any persisted sessions are loaded
+        allocator = new SlabAllocator(slabSize, maxOffHeapSize);
+
+        super.startInternal();
+    }
+
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+
+        // The slabs are released once the last session that refers to them
+        // has been garbage collected
+        allocator = null;
+    }
+}
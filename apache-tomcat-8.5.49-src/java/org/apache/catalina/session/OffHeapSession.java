@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Loader;
+import org.apache.catalina.Manager;
+import org.apache.catalina.util.CustomObjectInputStream;
+import org.apache.juli.logging.Log;
+
+/**
+ * A session that keeps its attributes in direct memory, allocated by the
+ * {@link OffHeapManager} that owns it, while no request is using it. Only the
+ * session meta-data and any attributes that cannot be serialized remain on
+ * the Java heap.
+ * <p>
+ * The attributes are serialized when the last request using the session ends
+ * and deserialized the first time any of them is used afterwards. Therefore
+ * each request sees its own copy of the attribute values and changes made to
+ * a value after the request that obtained it has ended are lost. The copy in
+ * direct memory is kept while the attributes are in use and is reused if
+ * serializing them again produces the same bytes.
+ */
+public class OffHeapSession extends StandardSession {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * The number of requests currently using this session.
+     */
+    private transient int requestCount = 0;
+
+
+    /**
+     * The block holding the serialized attributes or
+     * {@link SlabAllocator#NO_BLOCK} if there is no copy in direct memory.
+     */
+    private transient long block = SlabAllocator.NO_BLOCK;
+
+
+    /**
+     * <code>true</code> if the serializable attributes are only held in
+     * {@link #block}.
+     */
+    private transient volatile boolean stored = false;
+
+
+    /**
+     * The allocator from which {@link #block} was allocated.
+     */
+    private transient SlabAllocator allocator = null;
+
+
+    public OffHeapSession(Manager manager) {
+        super(manager);
+    }
+
+
+    @Override
+    public void access() {
+        super.access();
+        synchronized (this) {
+            requestCount++;
+        }
+    }
+
+
+    @Override
+    public void endAccess() {
+        super.endAccess();
+        synchronized (this) {
+            if (requestCount > 0) {
+                requestCount--;
+            }
+            if (requestCount == 0) {
+                storeAttributes();
+            }
+        }
+    }
+
+
+    @Override
+    public void activate() {
+        super.activate();
+        // Sessions loaded from persistent storage are not used by a request
+        synchronized (this) {
+            if (requestCount == 0) {
+                storeAttributes();
+            }
+        }
+    }
+
+
+    @Override
+    public void expire(boolean notify) {
+        super.expire(notify);
+        synchronized (this) {
+            if (!isValid) {
+                freeBlock();
+            }
+        }
+    }
+
+
+    @Override
+    public void recycle() {
+        synchronized (this) {
+            freeBlock();
+            requestCount = 0;
+        }
+        super.recycle();
+    }
+
+
+    @Override
+    public Object getAttribute(String name) {
+        loadAttributes();
+        return super.getAttribute(name);
+    }
+
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        loadAttributes();
+        return super.getAttributeNames();
+    }
+
+
+    @Override
+    public void setAttribute(String name, Object value, boolean notify) {
+        loadAttributes();
+        super.setAttribute(name, value, notify);
+    }
+
+
+    @Override
+    protected void removeAttributeInternal(String name, boolean notify) {
+        loadAttributes();
+        super.removeAttributeInternal(name, notify);
+    }
+
+
+    @Override
+    protected String[] keys() {
+        loadAttributes();
+        return super.keys();
+    }
+
+
+    /**
+     * @return <code>true</code> if the serializable attributes of this
+     *         session are currently held in direct memory
+     */
+    public boolean isStored() {
+        return stored;
+    }
+
+
+    /**
+     * Move the serializable attributes to direct memory. If any attribute
+     * cannot be serialized or no memory is available, all the attributes stay
+     * on the heap. Must be called while holding the lock on this session.
+     */
+    private void storeAttributes() {
+        if (stored || !isValid || expiring || !(manager instanceof OffHeapManager)) {
+            return;
+        }
+        SlabAllocator allocator = ((OffHeapManager) manager).getAllocator();
+        if (allocator == null || attributes.isEmpty()) {
+            freeBlock();
+            return;
+        }
+
+        List<String> names = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (Map.Entry<String,Object> entry : attributes.entrySet()) {
+            if (entry.getValue() instanceof Serializable) {
+                names.add(entry.getKey());
+                values.add(entry.getValue());
+            }
+        }
+        if (names.isEmpty()) {
+            freeBlock();
+            return;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeInt(names.size());
+            for (int i = 0; i < names.size(); i++) {
+                oos.writeObject(names.get(i));
+                oos.writeObject(values.get(i));
+            }
+        } catch (IOException e) {
+            // Most likely a value that refers to an object that is not
+            // Serializable
+            Log log = manager.getContext().getLogger();
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("offHeapSession.storeFail", id), e);
+            }
+            freeBlock();
+            return;
+        }
+
+        byte[] data = bos.toByteArray();
+        // Values may have been changed in place so only the bytes show if
+        // the copy the attributes were restored from is still current
+        if (block == SlabAllocator.NO_BLOCK || !Arrays.equals(data, this.allocator.read(block))) {
+            freeBlock();
+            long block = allocator.allocate(data, 0, data.length);
+            if (block == SlabAllocator.NO_BLOCK) {
+                return;
+            }
+            this.allocator = allocator;
+            this.block = block;
+        }
+        for (int i = 0; i < names.size(); i++) {
+            attributes.remove(names.get(i), values.get(i));
+        }
+        stored = true;
+    }
+
+
+    private void freeBlock() {
+        if (block != SlabAllocator.NO_BLOCK) {
+            allocator.free(block);
+            block = SlabAllocator.NO_BLOCK;
+            allocator = null;
+        }
+        stored = false;
+    }
+
+
+    /**
+     * Copy the attributes held in direct memory, if any, back to the heap. The
+     * copy in direct memory is kept so it can be reused if the attributes do
+     * not change. If the attributes cannot be restored, they are kept in
+     * direct memory and the session cannot be used until it expires.
+     */
+    private void loadAttributes() {
+        if (!stored) {
+            return;
+        }
+        synchronized (this) {
+            if (!stored) {
+                return;
+            }
+            byte[] data = allocator.read(block);
+
+            Context context = manager.getContext();
+            ClassLoader classLoader = null;
+            Loader loader = context.getLoader();
+            if (loader != null) {
+                classLoader = loader.getClassLoader();
+            }
+            if (classLoader == null) {
+                classLoader = getClass().getClassLoader();
+            }
+            Map<String,Object> loaded = new HashMap<>();
+            try (ObjectInputStream ois = new CustomObjectInputStream(
+                    new ByteArrayInputStream(data), classLoader)) {
+                int n = ois.readInt();
+                for (int i = 0; i < n; i++) {
+                    String name = (String) ois.readObject();
+                    Object value = ois.readObject();
+                    loaded.put(name, value);
+                }
+            } catch (ClassNotFoundException | IOException e) {
+                if (isValid) {
+                    throw new IllegalStateException(
+                            sm.getString("offHeapSession.loadFail", id), e);
+                }
+                // Expiring so there is no further use for the attributes
+                context.getLogger().warn(sm.getString("offHeapSession.loadFailExpired", id), e);
+                freeBlock();
+                return;
+            }
+
+            for (Map.Entry<String,Object> entry : loaded.entrySet()) {
+                attributes.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            stored = false;
+        }
+    }
+}
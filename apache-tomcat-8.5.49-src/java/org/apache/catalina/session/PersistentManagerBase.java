@@ -20,10 +20,10 @@ import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleException;
@@ -181,7 +181,7 @@ public abstract class PersistentManagerBase extends ManagerBase
     /**
      * Sessions currently being swapped in and the associated locks
      */
-    private final Map<String,Object> sessionSwapInLocks = new HashMap<>();
+    private final ConcurrentMap<String,Object> sessionSwapInLocks = new ConcurrentHashMap<>();
 
     /*
      * Session that is currently getting swapped in to prevent loading it more
@@ -424,16 +424,10 @@ public abstract class PersistentManagerBase extends ManagerBase
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
         if(log.isDebugEnabled())
-             log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (!sessions[i].isValid()) {
-                expiredSessions.incrementAndGet();
-                expireHere++;
-            }
-        }
+             log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.size());
+        int expireHere = expireDueSessions(timeNow);
+        expiredSessions.addAndGet(expireHere);
         processPersistenceChecks();
         if (getStore() instanceof StoreBase) {
             ((StoreBase) getStore()).processExpires();
@@ -687,21 +681,20 @@ public abstract class PersistentManagerBase extends ManagerBase
         if (store == null)
             return null;
 
-        Object swapInLock = null;
-
         /*
-         * The purpose of this sync and these locks is to make sure that a
-         * session is only loaded once. It doesn't matter if the lock is removed
-         * and then another thread enters this method and tries to load the same
-         * session. That thread will re-create a swapIn lock for that session,
-         * quickly find that the session is already in sessions, use it and
-         * carry on.
+         * The purpose of these locks is to make sure that a session is only
+         * loaded once while sessions with different IDs are loaded in
+         * parallel. It doesn't matter if the lock is removed and then another
+         * thread enters this method and tries to load the same session. That
+         * thread will re-create a swapIn lock for that session, quickly find
+         * that the session is already in sessions, use it and carry on.
          */
-        synchronized (this) {
-            swapInLock = sessionSwapInLocks.get(id);
+        Object swapInLock = sessionSwapInLocks.get(id);
+        if (swapInLock == null) {
+            Object newSwapInLock = new Object();
+            swapInLock = sessionSwapInLocks.putIfAbsent(id, newSwapInLock);
             if (swapInLock == null) {
-                swapInLock = new Object();
-                sessionSwapInLocks.put(id, swapInLock);
+                swapInLock = newSwapInLock;
             }
         }
 
@@ -736,10 +729,9 @@ public abstract class PersistentManagerBase extends ManagerBase
             }
         }
 
-        // Make sure the lock is removed
-        synchronized (this) {
-            sessionSwapInLocks.remove(id);
-        }
+        // Make sure the lock is removed, unless another thread has already
+        // replaced it
+        sessionSwapInLocks.remove(id, swapInLock);
 
         return session;
 
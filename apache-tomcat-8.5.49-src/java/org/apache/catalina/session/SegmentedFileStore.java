@@ -0,0 +1,880 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+import org.apache.tomcat.util.buf.ByteBufferUtils;
+
+/**
+ * Concrete implementation of the <b>Store</b> interface that appends saved
+ * Sessions to a log held in a series of segment files in a configured
+ * directory. An index of the saved Sessions is kept in memory so that listing
+ * the Sessions and finding the expired Sessions does not require any access
+ * to the file system. Sessions that are saved are still subject to being
+ * expired based on inactivity.
+ * <p>
+ * Each record in the log holds either a saved Session or the removal of a
+ * Session. Records are only appended to the newest segment. Once a segment
+ * reaches the configured size it is mapped into memory, from where Sessions
+ * are read, and a new segment is started. Segments in which most of the
+ * records have been replaced or removed are compacted, as part of
+ * {@link #processExpires()}, by copying the records that are still current to
+ * the newest segment and deleting the old segment.
+ * <p>
+ * When the Store is started the index is rebuilt by replaying all of the
+ * segments in order. A record that was only partially written, for example
+ * because the JVM crashed, fails its checksum and is discarded along with the
+ * remainder of its segment.
+ */
+public final class SegmentedFileStore extends StoreBase {
+
+    // ----------------------------------------------------- Constants
+
+    private static final String SEGMENT_PREFIX = "sessions-";
+    private static final String SEGMENT_EXT = ".segment";
+
+    private static final byte RECORD_SAVE = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    /**
+     * Each record starts with the length of the remainder of the record and
+     * the checksum of the remainder of the record.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * The smallest possible remainder: type and empty ID.
+     */
+    private static final int MIN_BODY_SIZE = 3;
+
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * The pathname of the directory in which Sessions are stored.
+     * This may be an absolute pathname, or a relative path that is
+     * resolved against the temporary work directory for this application.
+     */
+    private String directory = ".";
+
+
+    /**
+     * A File representing the directory in which Sessions are stored.
+     */
+    private File directoryFile = null;
+
+
+    /**
+     * The size at which a new segment is started.
+     */
+    private int segmentSize = 64 * 1024 * 1024;
+
+
+    /**
+     * The proportion of current records below which a segment is compacted.
+     */
+    private double compactionThreshold = 0.5;
+
+
+    /**
+     * Name to register for this Store, used for logging.
+     */
+    private static final String storeName = "segmentedFileStore";
+
+
+    /**
+     * The location of the current record for each saved Session.
+     */
+    private final ConcurrentMap<String,Entry> index = new ConcurrentHashMap<>();
+
+
+    /**
+     * The segments, oldest first. The last segment is the one records are
+     * appended to. Guarded by this Store.
+     */
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active = null;
+    private long nextSequence = 0;
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return The directory path for this Store.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Set the directory path for this Store. Changes take effect when the
+     * Store is next started.
+     *
+     * @param path The new directory path
+     */
+    public void setDirectory(String path) {
+        String oldDirectory = this.directory;
+        this.directory = path;
+        this.directoryFile = null;
+        support.firePropertyChange("directory", oldDirectory, this.directory);
+    }
+
+
+    /**
+     * @return The size in bytes at which a new segment is started.
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+
+    /**
+     * Set the size in bytes at which a new segment is started. A segment is
+     * only larger than this if it contains a single Session that is larger.
+     *
+     * @param segmentSize The new segment size
+     */
+    public void setSegmentSize(int segmentSize) {
+        int oldSegmentSize = this.segmentSize;
+        this.segmentSize = segmentSize;
+        support.firePropertyChange("segmentSize", oldSegmentSize, this.segmentSize);
+    }
+
+
+    /**
+     * @return The proportion of current records below which a segment is
+     *         compacted.
+     */
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+
+    /**
+     * Set the proportion, between 0 and 1, of the size of a segment that must
+     * be occupied by current records. Segments below this are compacted.
+     *
+     * @param compactionThreshold The new threshold
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        double oldCompactionThreshold = this.compactionThreshold;
+        this.compactionThreshold = compactionThreshold;
+        support.firePropertyChange("compactionThreshold",
+                Double.valueOf(oldCompactionThreshold), Double.valueOf(this.compactionThreshold));
+    }
+
+
+    /**
+     * Return the name for this Store, used for logging.
+     */
+    @Override
+    public String getStoreName() {
+        return storeName;
+    }
+
+
+    /**
+     * Return the number of Sessions present in this Store.
+     */
+    @Override
+    public int getSize() {
+        return index.size();
+    }
+
+
+    /**
+     * @return The number of segment files currently used by this Store.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Remove all of the Sessions in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        index.clear();
+        for (Segment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        active = null;
+        if (getState().isAvailable()) {
+            newSegment();
+        }
+    }
+
+
+    /**
+     * Return an array containing the session identifiers of all Sessions
+     * currently saved in this Store.  If there are no such Sessions, a
+     * zero-length array is returned.
+     */
+    @Override
+    public String[] keys() {
+        return index.keySet().toArray(new String[0]);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation uses the access time and maximum inactive interval
+     * recorded in the index so that Sessions do not need to be loaded to
+     * determine if they have expired.
+     */
+    @Override
+    public String[] expiredKeys() {
+        long timeNow = System.currentTimeMillis();
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String,Entry> mapEntry : index.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            int timeIdle = (int) ((timeNow - entry.thisAccessedTime) / 1000L);
+            if (timeIdle >= entry.maxInactiveInterval) {
+                result.add(mapEntry.getKey());
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+
+    /**
+     * Expire the Sessions in this Store that have expired and then compact
+     * any segments that are mostly made up of records that are no longer
+     * current.
+     */
+    @Override
+    public void processExpires() {
+        super.processExpires();
+
+        if (!getState().isAvailable()) {
+            return;
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            manager.getContext().getLogger().error(sm.getString("segmentedFileStore.compactFail"), e);
+        }
+    }
+
+
+    /**
+     * Load and return the Session associated with the specified session
+     * identifier from this Store, without removing it.  If there is no
+     * such stored Session, return <code>null</code>.
+     *
+     * @param id Session identifier of the session to load
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+        Entry entry;
+        byte[] record;
+        do {
+            entry = index.get(id);
+            if (entry == null) {
+                return null;
+            }
+            // Null if the segment was deleted by compaction after the entry
+            // was obtained in which case the entry will have been updated
+            record = entry.segment.read(entry.offset, entry.length);
+        } while (record == null);
+
+        Context context = getManager().getContext();
+        Log contextLog = context.getLogger();
+
+        if (contextLog.isDebugEnabled()) {
+            contextLog.debug(sm.getString(getStoreName() + ".loading", id,
+                    entry.segment.file.getAbsolutePath()));
+        }
+
+        ClassLoader oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
+
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record))) {
+            // Skip to the serialized Session
+            dis.skipBytes(HEADER_SIZE + 1);
+            dis.readUTF();
+            dis.readLong();
+            dis.readInt();
+            try (ObjectInputStream ois = getObjectInputStream(dis)) {
+                StandardSession session = (StandardSession) manager.createEmptySession();
+                session.readObjectData(ois);
+                session.setManager(manager);
+                return session;
+            }
+        } finally {
+            context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
+        }
+    }
+
+
+    /**
+     * Remove the Session with the specified session identifier from
+     * this Store, if present.  If no such Session is present, this method
+     * takes no action.
+     *
+     * @param id Session identifier of the Session to be removed
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void remove(String id) throws IOException {
+        if (!index.containsKey(id)) {
+            return;
+        }
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".removing", id));
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(bos)) {
+            writeRecordStart(dos, RECORD_REMOVE, id);
+        }
+        byte[] record = completeRecord(bos);
+
+        synchronized (this) {
+            Entry old = index.remove(id);
+            if (old == null) {
+                return;
+            }
+            old.segment.liveBytes -= old.length;
+            append(record);
+        }
+    }
+
+
+    /**
+     * Save the specified Session into this Store.  Any previously saved
+     * information for the associated session identifier is replaced.
+     *
+     * @param session Session to be saved
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void save(Session session) throws IOException {
+        String id = session.getIdInternal();
+        long thisAccessedTime = session.getThisAccessedTimeInternal();
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+
+        // Serialize outside of the lock
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(bos)) {
+            writeRecordStart(dos, RECORD_SAVE, id);
+            dos.writeLong(thisAccessedTime);
+            dos.writeInt(maxInactiveInterval);
+            try (ObjectOutputStream oos = new ObjectOutputStream(dos)) {
+                ((StandardSession) session).writeObjectData(oos);
+            }
+        }
+        byte[] record = completeRecord(bos);
+
+        synchronized (this) {
+            long offset = append(record);
+            if (manager.getContext().getLogger().isDebugEnabled()) {
+                manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".saving",
+                        id, active.file.getAbsolutePath()));
+            }
+            Entry entry = new Entry(active, offset, record.length, thisAccessedTime,
+                    maxInactiveInterval);
+            active.liveBytes += record.length;
+            Entry old = index.put(id, entry);
+            if (old != null) {
+                old.segment.liveBytes -= old.length;
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------ Protected Methods
+
+    /**
+     * Rebuild the index from the segments in the directory and start a new
+     * segment.
+     *
+     * @exception LifecycleException if the segments cannot be read
+     */
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        try {
+            open();
+        } catch (IOException e) {
+            throw new LifecycleException(e);
+        }
+        super.startInternal();
+    }
+
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+
+        index.clear();
+        for (Segment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                manager.getContext().getLogger().warn(sm.getString("segmentedFileStore.closeFail",
+                        segment.file.getAbsolutePath()), e);
+            }
+        }
+        segments.clear();
+        active = null;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    private synchronized void open() throws IOException {
+        File directory = directory();
+        File[] files = directory.listFiles();
+        List<Segment> existing = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                long sequence = sequence(file.getName());
+                if (sequence >= 0) {
+                    existing.add(new Segment(file, sequence, FileChannel.open(file.toPath(),
+                            StandardOpenOption.READ, StandardOpenOption.WRITE)));
+                }
+            }
+        }
+        Collections.sort(existing, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment s1, Segment s2) {
+                return Long.compare(s1.sequence, s2.sequence);
+            }
+        });
+
+        for (Segment segment : existing) {
+            long fileSize = segment.channel.size();
+            segment.size = replay(segment, fileSize);
+            if (segment.size < fileSize) {
+                manager.getContext().getLogger().warn(sm.getString("segmentedFileStore.truncated",
+                        segment.file.getAbsolutePath(), Long.valueOf(segment.size)));
+                segment.channel.truncate(segment.size);
+            }
+            if (segment.size == 0) {
+                segment.delete();
+            } else {
+                segment.seal();
+                segments.add(segment);
+            }
+            nextSequence = segment.sequence + 1;
+        }
+
+        newSegment();
+    }
+
+
+    /**
+     * Apply the records of a segment to the index.
+     *
+     * @return The length of the valid records at the start of the segment
+     */
+    private long replay(Segment segment, long fileSize) throws IOException {
+        if (fileSize == 0) {
+            return 0;
+        }
+        // Any record that extends beyond the maximum size of a mapping is
+        // treated as invalid
+        int limit = (int) Math.min(fileSize, Integer.MAX_VALUE);
+        MappedByteBuffer buffer = segment.channel.map(MapMode.READ_ONLY, 0, limit);
+        int position = 0;
+        try {
+            while (limit - position >= HEADER_SIZE) {
+                int bodyLength = buffer.getInt(position);
+                int checksum = buffer.getInt(position + 4);
+                if (bodyLength < MIN_BODY_SIZE || bodyLength > limit - position - HEADER_SIZE) {
+                    break;
+                }
+                byte[] body = new byte[bodyLength];
+                buffer.position(position + HEADER_SIZE);
+                buffer.get(body);
+                CRC32 crc = new CRC32();
+                crc.update(body, 0, bodyLength);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                int recordLength = HEADER_SIZE + bodyLength;
+                DataInputStream dis = new DataInputStream(new ByteArrayInputStream(body));
+                byte type = dis.readByte();
+                String id = dis.readUTF();
+                Entry old;
+                if (type == RECORD_SAVE) {
+                    Entry entry = new Entry(segment, position, recordLength, dis.readLong(),
+                            dis.readInt());
+                    segment.liveBytes += recordLength;
+                    old = index.put(id, entry);
+                } else if (type == RECORD_REMOVE) {
+                    old = index.remove(id);
+                } else {
+                    break;
+                }
+                if (old != null) {
+                    old.segment.liveBytes -= old.length;
+                }
+                position += recordLength;
+            }
+        } finally {
+            ByteBufferUtils.cleanDirectBuffer(buffer);
+        }
+        return position;
+    }
+
+
+    /**
+     * Compact, oldest first, the segments other than the active one that are
+     * mostly made up of records that are no longer current.
+     */
+    private void compact() throws IOException {
+        while (true) {
+            Segment victim = null;
+            boolean oldest = false;
+            synchronized (this) {
+                for (int i = 0; i < segments.size() - 1; i++) {
+                    Segment segment = segments.get(i);
+                    if (segment.liveBytes < segment.size * compactionThreshold) {
+                        victim = segment;
+                        oldest = (i == 0);
+                        break;
+                    }
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            compact(victim, oldest);
+        }
+    }
+
+
+    /**
+     * Copy the current records of the given segment to the active segment
+     * and then delete the given segment. Each record is processed while
+     * holding the lock so Sessions may be saved and removed concurrently.
+     *
+     * @param victim The segment to compact
+     * @param oldest Is the segment the oldest segment? If it is, removal
+     *               records are no longer required as there are no older
+     *               records for them to remove.
+     */
+    private void compact(Segment victim, boolean oldest) throws IOException {
+        long position = 0;
+        while (true) {
+            synchronized (this) {
+                // Segments are only deleted while holding the lock so the
+                // mapping remains valid until the lock is released
+                if (!segments.contains(victim)) {
+                    // Cleared or stopped
+                    return;
+                }
+                if (position >= victim.size) {
+                    // The copies must be persisted before the originals are
+                    // deleted
+                    active.channel.force(false);
+                    segments.remove(victim);
+                    victim.delete();
+                    return;
+                }
+
+                ByteBuffer buffer = victim.mapped.duplicate();
+                int recordLength = HEADER_SIZE + buffer.getInt((int) position);
+                byte[] record = new byte[recordLength];
+                buffer.position((int) position);
+                buffer.get(record);
+
+                DataInputStream dis = new DataInputStream(
+                        new ByteArrayInputStream(record, HEADER_SIZE, recordLength - HEADER_SIZE));
+                byte type = dis.readByte();
+                String id = dis.readUTF();
+                if (type == RECORD_SAVE) {
+                    Entry entry = index.get(id);
+                    if (entry != null && entry.segment == victim && entry.offset == position) {
+                        long offset = append(record);
+                        index.put(id, new Entry(active, offset, recordLength,
+                                entry.thisAccessedTime, entry.maxInactiveInterval));
+                        active.liveBytes += recordLength;
+                        victim.liveBytes -= recordLength;
+                    }
+                } else if (!oldest && !index.containsKey(id)) {
+                    // An older segment may still contain a saved copy
+                    append(record);
+                }
+                position += recordLength;
+            }
+        }
+    }
+
+
+    /**
+     * Append a complete record to the active segment, starting a new segment
+     * first if the record would take the active segment over the segment
+     * size. Must be called while holding the lock on this Store.
+     *
+     * @return The offset of the record in the active segment
+     */
+    private long append(byte[] record) throws IOException {
+        if (active == null) {
+            throw new IOException(sm.getString("segmentedFileStore.notStarted"));
+        }
+        if (active.size > 0 && active.size + record.length > segmentSize) {
+            active.seal();
+            newSegment();
+        }
+        long offset = active.size;
+        long position = offset;
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            position += active.channel.write(buffer, position);
+        }
+        active.size = position;
+        return offset;
+    }
+
+
+    private void newSegment() throws IOException {
+        long sequence = nextSequence++;
+        File file = new File(directory(), SEGMENT_PREFIX + String.format("%010d", Long.valueOf(sequence)) +
+                SEGMENT_EXT);
+        active = new Segment(file, sequence, FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.add(active);
+    }
+
+
+    private static void writeRecordStart(DataOutputStream dos, byte type, String id)
+            throws IOException {
+        // Space for the header
+        dos.writeLong(0);
+        dos.writeByte(type);
+        dos.writeUTF(id);
+    }
+
+
+    private static byte[] completeRecord(ByteArrayOutputStream bos) {
+        byte[] record = bos.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+        ByteBuffer header = ByteBuffer.wrap(record);
+        header.putInt(record.length - HEADER_SIZE);
+        header.putInt((int) crc.getValue());
+        return record;
+    }
+
+
+    /**
+     * @return The sequence number of the segment with the given file name or
+     *         -1 if the file is not a segment
+     */
+    private static long sequence(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_EXT)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_EXT.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Return a File object representing the pathname to our
+     * session persistence directory.  The directory will be
+     * created if it does not already exist.
+     */
+    private File directory() throws IOException {
+        if (this.directoryFile != null) {
+            // NOTE:  Race condition is harmless, so do not synchronize
+            return this.directoryFile;
+        }
+        File file = new File(this.directory);
+        if (!file.isAbsolute()) {
+            Context context = manager.getContext();
+            ServletContext servletContext = context.getServletContext();
+            File work = (File) servletContext.getAttribute(ServletContext.TEMPDIR);
+            file = new File(work, this.directory);
+        }
+        if (!file.exists() || !file.isDirectory()) {
+            if (!file.delete() && file.exists()) {
+                throw new IOException(sm.getString("fileStore.deleteFailed", file));
+            }
+            if (!file.mkdirs() && !file.isDirectory()) {
+                throw new IOException(sm.getString("fileStore.createFailed", file));
+            }
+        }
+        this.directoryFile = file;
+        return file;
+    }
+
+
+    /**
+     * The location of the current record of a saved Session and the
+     * information required to determine if it has expired.
+     */
+    private static final class Entry {
+
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        private final long thisAccessedTime;
+        private final int maxInactiveInterval;
+
+        private Entry(Segment segment, long offset, int length, long thisAccessedTime,
+                int maxInactiveInterval) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.thisAccessedTime = thisAccessedTime;
+            this.maxInactiveInterval = maxInactiveInterval;
+        }
+    }
+
+
+    /**
+     * A segment file. The active segment is read and written via its
+     * channel. Once a segment is full it is sealed: it is mapped into memory,
+     * from where it is read, and the channel is closed.
+     */
+    private static final class Segment {
+
+        private final File file;
+        private final long sequence;
+        private final FileChannel channel;
+
+        // Guarded by the Store
+        private long size = 0;
+        private long liveBytes = 0;
+
+        // Guards the mapping and the channel against being released while
+        // they are being read
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile MappedByteBuffer mapped = null;
+        private boolean closed = false;
+
+        private Segment(File file, long sequence, FileChannel channel) {
+            this.file = file;
+            this.sequence = sequence;
+            this.channel = channel;
+        }
+
+        /**
+         * @return A copy of the requested bytes or <code>null</code> if the
+         *         segment has been closed
+         */
+        private byte[] read(long offset, int length) throws IOException {
+            lock.readLock().lock();
+            try {
+                if (closed) {
+                    return null;
+                }
+                byte[] result = new byte[length];
+                MappedByteBuffer mapped = this.mapped;
+                if (mapped != null) {
+                    ByteBuffer buffer = mapped.duplicate();
+                    buffer.position((int) offset);
+                    buffer.get(result);
+                } else {
+                    ByteBuffer buffer = ByteBuffer.wrap(result);
+                    long position = offset;
+                    while (buffer.hasRemaining()) {
+                        int read = channel.read(buffer, position);
+                        if (read < 0) {
+                            throw new IOException(sm.getString("segmentedFileStore.shortRead",
+                                    file.getAbsolutePath(), Long.valueOf(offset)));
+                        }
+                        position += read;
+                    }
+                }
+                return result;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void seal() throws IOException {
+            lock.writeLock().lock();
+            try {
+                mapped = channel.map(MapMode.READ_ONLY, 0, size);
+                channel.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void close() throws IOException {
+            lock.writeLock().lock();
+            try {
+                closed = true;
+                if (mapped != null) {
+                    ByteBufferUtils.cleanDirectBuffer(mapped);
+                    mapped = null;
+                }
+                channel.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void delete() throws IOException {
+            close();
+            if (file.exists() && !file.delete()) {
+                throw new IOException(sm.getString("fileStore.deleteSessionFailed", file));
+            }
+        }
+    }
+}
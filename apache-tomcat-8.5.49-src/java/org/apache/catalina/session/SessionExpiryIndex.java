@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Groups session IDs into buckets of one second by the time at which the
+ * session is due to expire so that the background expiry check only needs to
+ * look at the sessions that are due rather than at every session.
+ * <p>
+ * The index is not updated when a session is accessed. A session that is
+ * still valid when its bucket comes due, because it has been accessed in the
+ * meantime, is simply scheduled again. Therefore each session is looked at
+ * roughly once per <code>maxInactiveInterval</code> however often it is
+ * accessed.
+ * <p>
+ * Each session ID is scheduled in at most one bucket. Scheduling a session
+ * again leaves the ID in the previous bucket but that entry is ignored when
+ * the previous bucket comes due.
+ */
+class SessionExpiryIndex {
+
+    // Session validity is checked in whole seconds
+    private static final long RESOLUTION = 1000;
+
+    // Guarded by itself
+    private final TreeMap<Long,List<String>> buckets = new TreeMap<>();
+    private final ConcurrentMap<String,Long> scheduled = new ConcurrentHashMap<>();
+
+
+    /**
+     * Schedule the check of the session with the given ID.
+     *
+     * @param id         The session ID
+     * @param expiryTime The time at which the session is due to expire
+     */
+    void schedule(String id, long expiryTime) {
+        Long bucket = Long.valueOf(expiryTime / RESOLUTION);
+        if (bucket.equals(scheduled.put(id, bucket))) {
+            // Already in that bucket
+            return;
+        }
+        synchronized (buckets) {
+            List<String> ids = buckets.get(bucket);
+            if (ids == null) {
+                ids = new ArrayList<>();
+                buckets.put(bucket, ids);
+            }
+            ids.add(id);
+        }
+    }
+
+
+    /**
+     * Remove the session with the given ID from the index.
+     *
+     * @param id The session ID
+     */
+    void remove(String id) {
+        scheduled.remove(id);
+    }
+
+
+    /**
+     * @param id The session ID
+     *
+     * @return <code>true</code> if the session with the given ID is scheduled
+     */
+    boolean isScheduled(String id) {
+        return scheduled.containsKey(id);
+    }
+
+
+    /**
+     * Remove all sessions from the index.
+     */
+    void clear() {
+        synchronized (buckets) {
+            buckets.clear();
+        }
+        scheduled.clear();
+    }
+
+
+    /**
+     * @return the number of sessions in the index
+     */
+    int size() {
+        return scheduled.size();
+    }
+
+
+    /**
+     * Remove the sessions that are due to expire at or before the given time
+     * from the index. The sessions that are due in the same second as the
+     * given time are included so callers must expect some of the sessions to
+     * be due shortly after the given time.
+     *
+     * @param time The time
+     *
+     * @return The IDs of the sessions that are due
+     */
+    List<String> removeDue(long time) {
+        List<String> result = new ArrayList<>();
+        synchronized (buckets) {
+            Iterator<Map.Entry<Long,List<String>>> iter =
+                    buckets.headMap(Long.valueOf(time / RESOLUTION), true).entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<Long,List<String>> entry = iter.next();
+                for (String id : entry.getValue()) {
+                    // Skip sessions that have been removed or re-scheduled
+                    if (scheduled.remove(id, entry.getKey())) {
+                        result.add(id);
+                    }
+                }
+                iter.remove();
+            }
+        }
+        return result;
+    }
+}
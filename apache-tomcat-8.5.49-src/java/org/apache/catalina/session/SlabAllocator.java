@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates blocks of direct memory in which the serialized attributes of
+ * sessions are kept so that they do not occupy the Java heap.
+ * <p>
+ * Memory is obtained from the JVM in slabs of a fixed size. Each slab is
+ * divided into blocks of a single size. Block sizes are the powers of two from
+ * {@link #MIN_BLOCK_SIZE} up to the slab size so no more than half of a block
+ * is wasted. Freed blocks are linked into a free list, held in the blocks
+ * themselves, for re-use by data that needs a block of the same size. Slabs
+ * are never returned to the JVM while the allocator is in use.
+ * <p>
+ * A block is identified by a handle that encodes the slab, the block size and
+ * the offset of the block within the slab.
+ */
+class SlabAllocator {
+
+    static final int MIN_BLOCK_SIZE = 64;
+    static final int MAX_SLAB_SIZE = 1 << 30;
+
+    /**
+     * Returned by {@link #allocate(byte[], int, int)} if no block could be
+     * allocated.
+     */
+    static final long NO_BLOCK = -1;
+
+    // Each block starts with the length of the data it holds
+    private static final int HEADER_SIZE = 4;
+
+    private final int slabSize;
+    private final long maxSize;
+    private final SizeClass[] sizeClasses;
+
+    // Copy on write so blocks can be read without locking
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private final Object slabsLock = new Object();
+
+    private final AtomicLong usedSize = new AtomicLong();
+
+
+    /**
+     * @param slabSize The size of each slab. Rounded up to a power of two
+     *                 between {@link #MIN_BLOCK_SIZE} and
+     *                 {@link #MAX_SLAB_SIZE}.
+     * @param maxSize  The maximum amount of memory to allocate for slabs or
+     *                 -1 for no limit other than the direct memory limit of
+     *                 the JVM
+     */
+    SlabAllocator(int slabSize, long maxSize) {
+        int size = MIN_BLOCK_SIZE;
+        while (size < slabSize && size < MAX_SLAB_SIZE) {
+            size <<= 1;
+        }
+        this.slabSize = size;
+        this.maxSize = maxSize;
+        int count = Integer.numberOfTrailingZeros(size) -
+                Integer.numberOfTrailingZeros(MIN_BLOCK_SIZE) + 1;
+        sizeClasses = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            sizeClasses[i] = new SizeClass(i, MIN_BLOCK_SIZE << i);
+        }
+    }
+
+
+    int getSlabSize() {
+        return slabSize;
+    }
+
+
+    /**
+     * @return The amount of direct memory allocated for slabs
+     */
+    long getAllocatedSize() {
+        return (long) slabs.length * slabSize;
+    }
+
+
+    /**
+     * @return The amount of direct memory occupied by blocks in use
+     */
+    long getUsedSize() {
+        return usedSize.get();
+    }
+
+
+    /**
+     * Copy the given data into a newly allocated block.
+     *
+     * @param data   The data to copy
+     * @param offset The offset of the data in the array
+     * @param length The length of the data
+     *
+     * @return The handle of the block or {@link #NO_BLOCK} if the data is
+     *         larger than a slab or the memory limit has been reached
+     */
+    long allocate(byte[] data, int offset, int length) {
+        int size = length + HEADER_SIZE;
+        if (length < 0 || size > slabSize) {
+            return NO_BLOCK;
+        }
+        int index = 0;
+        while ((MIN_BLOCK_SIZE << index) < size) {
+            index++;
+        }
+        SizeClass sizeClass = sizeClasses[index];
+        long handle = sizeClass.allocate();
+        if (handle == NO_BLOCK) {
+            return NO_BLOCK;
+        }
+        ByteBuffer slab = slabs[slabIndex(handle)].duplicate();
+        int position = blockOffset(handle);
+        slab.putInt(position, length);
+        slab.position(position + HEADER_SIZE);
+        slab.put(data, offset, length);
+        usedSize.addAndGet(sizeClass.blockSize);
+        return handle;
+    }
+
+
+    /**
+     * Copy the data held by a block.
+     *
+     * @param handle The handle of a block that has not been freed
+     *
+     * @return A copy of the data in the block
+     */
+    byte[] read(long handle) {
+        ByteBuffer slab = slabs[slabIndex(handle)].duplicate();
+        int position = blockOffset(handle);
+        byte[] result = new byte[slab.getInt(position)];
+        slab.position(position + HEADER_SIZE);
+        slab.get(result);
+        return result;
+    }
+
+
+    /**
+     * Return a block for re-use. The handle must not be used once the block
+     * has been freed.
+     *
+     * @param handle The handle of the block to free
+     */
+    void free(long handle) {
+        SizeClass sizeClass = sizeClasses[sizeIndex(handle)];
+        sizeClass.free(handle);
+        usedSize.addAndGet(-sizeClass.blockSize);
+    }
+
+
+    /**
+     * Allocate a new slab.
+     *
+     * @return The index of the new slab or -1 if the memory limit has been
+     *         reached
+     */
+    private int newSlab() {
+        synchronized (slabsLock) {
+            ByteBuffer[] current = slabs;
+            if (maxSize >= 0 && (long) (current.length + 1) * slabSize > maxSize) {
+                return -1;
+            }
+            ByteBuffer slab;
+            try {
+                slab = ByteBuffer.allocateDirect(slabSize);
+            } catch (OutOfMemoryError e) {
+                // The direct memory limit of the JVM has been reached. The
+                // attributes will have to stay on the heap.
+                return -1;
+            }
+            ByteBuffer[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = slab;
+            slabs = updated;
+            return current.length;
+        }
+    }
+
+
+    private static long handle(int slabIndex, int sizeIndex, int blockOffset) {
+        return ((long) slabIndex << 40) | ((long) sizeIndex << 32) | blockOffset;
+    }
+
+
+    private static int slabIndex(long handle) {
+        return (int) (handle >>> 40);
+    }
+
+
+    private static int sizeIndex(long handle) {
+        return (int) (handle >>> 32) & 0xFF;
+    }
+
+
+    private static int blockOffset(long handle) {
+        return (int) handle;
+    }
+
+
+    /**
+     * The blocks of a single size.
+     */
+    private class SizeClass {
+
+        private final int index;
+        private final int blockSize;
+
+        // Guarded by this
+        private long freeList = NO_BLOCK;
+        private int slab = -1;
+        private int next;
+
+        private SizeClass(int index, int blockSize) {
+            this.index = index;
+            this.blockSize = blockSize;
+        }
+
+        private synchronized long allocate() {
+            long handle = freeList;
+            if (handle != NO_BLOCK) {
+                freeList = slabs[slabIndex(handle)].getLong(blockOffset(handle));
+                return handle;
+            }
+            if (slab == -1 || next + blockSize > slabSize) {
+                int newSlab = newSlab();
+                if (newSlab == -1) {
+                    return NO_BLOCK;
+                }
+                slab = newSlab;
+                next = 0;
+            }
+            handle = handle(slab, index, next);
+            next += blockSize;
+            return handle;
+        }
+
+        private synchronized void free(long handle) {
+            // Link the block into the free list using its first bytes
+            slabs[slabIndex(handle)].putLong(blockOffset(handle), freeList);
+            freeList = handle;
+        }
+    }
+}
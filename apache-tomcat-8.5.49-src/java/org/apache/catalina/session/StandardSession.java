@@ -573,6 +573,18 @@ public class StandardSession implements HttpSession, Session, Serializable {
     @Override
     public void setMaxInactiveInterval(int interval) {
         this.maxInactiveInterval = interval;
+        scheduleExpiry();
+    }
+
+
+    /**
+     * Inform the Manager that the time at which this session is due to expire
+     * may have changed other than because the session has been accessed.
+     */
+    protected void scheduleExpiry() {
+        if (manager instanceof ManagerBase) {
+            ((ManagerBase) manager).scheduleExpiry(this);
+        }
     }
 
 
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue of access log entries with any number of
+ * producers and a single consumer. The slots and their character buffers are
+ * allocated up front and re-used so adding an entry only copies its
+ * characters.
+ * <p>
+ * Each slot carries a sequence number that tells producers and the consumer
+ * whose turn it is to use the slot. Producers claim a position with a CAS on
+ * the tail and publish the entry by advancing the sequence of the slot. The
+ * consumer reads published slots in order and hands them back to producers
+ * by advancing the sequence by the capacity.
+ */
+class AccessLogRingBuffer {
+
+    private final Slot[] slots;
+    private final int mask;
+    private final int maxEntrySize;
+
+    private final AtomicLong tail = new AtomicLong();
+    // Only modified by the consumer
+    private volatile long head = 0;
+
+
+    /**
+     * @param capacity     The maximum number of entries. Rounded up to a power
+     *                     of two.
+     * @param maxEntrySize The size of the character buffer of each slot.
+     *                     Larger entries are accepted but the larger buffer is
+     *                     discarded once the entry has been consumed.
+     */
+    AccessLogRingBuffer(int capacity, int maxEntrySize) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i, maxEntrySize);
+        }
+        mask = size - 1;
+        this.maxEntrySize = maxEntrySize;
+    }
+
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+
+    /**
+     * @return The number of entries waiting for the consumer
+     */
+    int size() {
+        long size = tail.get() - head;
+        return size < 0 ? 0 : (int) size;
+    }
+
+
+    /**
+     * Add an entry to the queue. May be called by any thread.
+     *
+     * @param message The formatted entry
+     *
+     * @return <code>true</code> if the entry was added, <code>false</code> if
+     *         the queue is full
+     */
+    boolean offer(CharArrayWriter message) {
+        long pos = tail.get();
+        while (true) {
+            Slot slot = slots[(int) pos & mask];
+            long diff = slot.sequence - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slot.length = 0;
+                    slot.time = System.nanoTime();
+                    try {
+                        message.writeTo(slot);
+                    } catch (IOException e) {
+                        // Not possible as Slot does not throw
+                    }
+                    // Publish
+                    slot.sequence = pos + 1;
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // The consumer has not yet released the slot
+                return false;
+            } else {
+                // Another producer claimed the position
+                pos = tail.get();
+            }
+        }
+    }
+
+
+    /**
+     * Obtain the oldest entry. Must only be called by the consumer which must
+     * call {@link #release(Slot)} once it has finished with the entry before
+     * calling this method again.
+     *
+     * @return The oldest entry or <code>null</code> if the queue is empty
+     */
+    Slot poll() {
+        long pos = head;
+        Slot slot = slots[(int) pos & mask];
+        if (slot.sequence != pos + 1) {
+            return null;
+        }
+        return slot;
+    }
+
+
+    /**
+     * Return the slot of an entry obtained from {@link #poll()} so producers
+     * may re-use it.
+     *
+     * @param slot The slot to return
+     */
+    void release(Slot slot) {
+        long pos = head;
+        if (slot.chars.length > maxEntrySize) {
+            slot.allocate(maxEntrySize);
+        }
+        head = pos + 1;
+        slot.sequence = pos + slots.length;
+    }
+
+
+    /**
+     * A queue entry. Used by producers as the target of
+     * {@link CharArrayWriter#writeTo(Writer)}.
+     */
+    static class Slot extends Writer {
+
+        private volatile long sequence;
+        private char[] chars;
+        private CharBuffer buffer;
+        private int length;
+        private long time;
+
+        private Slot(long sequence, int size) {
+            this.sequence = sequence;
+            allocate(size);
+        }
+
+        private void allocate(int size) {
+            chars = new char[size];
+            buffer = CharBuffer.wrap(chars);
+        }
+
+        /**
+         * @return The characters of the entry. The returned buffer is only
+         *         valid until the slot is released.
+         */
+        CharBuffer getChars() {
+            buffer.limit(length);
+            buffer.position(0);
+            return buffer;
+        }
+
+        /**
+         * @return The value of {@link System#nanoTime()} when the entry was
+         *         added
+         */
+        long getTime() {
+            return time;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            if (length + len > chars.length) {
+                char[] old = chars;
+                allocate(Math.max(chars.length * 2, length + len));
+                System.arraycopy(old, 0, chars, 0, length);
+            }
+            System.arraycopy(cbuf, off, chars, length, len);
+            length += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // NO-OP
+        }
+
+        @Override
+        public void close() throws IOException {
+            // NO-OP
+        }
+    }
+}
@@ -25,12 +25,20 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.catalina.LifecycleException;
 import org.apache.juli.logging.Log;
@@ -59,11 +67,29 @@ import org.apache.tomcat.util.buf.B2CConverter;
  * been made available to allow you to tell this instance to move
  * the existing log file to somewhere else and start writing a new log file.
  * </p>
+ *
+ * <p>
+ * If <code>backgroundWriting</code> is enabled, request processing threads
+ * only copy the formatted entries to a bounded queue. A background thread
+ * takes care of log file rotation and of encoding and writing the queued
+ * entries in batches.
+ * </p>
  */
 public class AccessLogValve extends AbstractAccessLogValve {
 
     private static final Log log = LogFactory.getLog(AccessLogValve.class);
 
+    private static final String OVERFLOW_POLICY_BLOCK = "block";
+    private static final String OVERFLOW_POLICY_DROP = "drop";
+
+    // Size of the buffer used to write batches of entries to the log file
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    // How long to wait for space in the queue before trying again
+    private static final long OVERFLOW_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    // How long the background writer may take to write the queued entries
+    // when the valve is stopped
+    private static final long STOP_TIMEOUT = 10000;
+
     //------------------------------------------------------ Constructor
     public AccessLogValve() {
         super();
@@ -163,6 +189,38 @@ public class AccessLogValve extends AbstractAccessLogValve {
     private int maxDays = -1;
     private volatile boolean checkForOldLogs = false;
 
+    /**
+     * Should entries be written to the log file by a background thread rather
+     * than by the thread that processed the request?
+     */
+    private boolean backgroundWriting = false;
+
+    /**
+     * The maximum number of entries waiting to be written by the background
+     * thread.
+     */
+    private int queueSize = 8192;
+
+    /**
+     * What to do with an entry when the queue of entries waiting to be
+     * written by the background thread is full.
+     */
+    private volatile String overflowPolicy = OVERFLOW_POLICY_BLOCK;
+
+    /**
+     * The channel of the current log file. Only used when writing entries in
+     * the background.
+     */
+    private FileChannel channel = null;
+
+    /**
+     * The character set of the current log file.
+     */
+    private Charset charset = null;
+
+    private volatile BackgroundWriter backgroundWriter = null;
+    private final AtomicLong droppedEntries = new AtomicLong();
+
     // ------------------------------------------------------------- Properties
 
 
@@ -362,6 +420,115 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
     }
 
+    /**
+     * Are entries written to the log file by a background thread?
+     *
+     * @return <code>true</code> if entries are written in the background
+     */
+    public boolean isBackgroundWriting() {
+        return backgroundWriting;
+    }
+
+
+    /**
+     * Configure whether entries are written to the log file by a background
+     * thread. Changes take effect when the valve is next started.
+     *
+     * @param backgroundWriting <code>true</code> to write entries in the
+     *                          background
+     */
+    public void setBackgroundWriting(boolean backgroundWriting) {
+        this.backgroundWriting = backgroundWriting;
+    }
+
+
+    /**
+     * @return the maximum number of entries waiting to be written by the
+     *         background thread.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+
+    /**
+     * Set the maximum number of entries waiting to be written by the
+     * background thread. The value is rounded up to the next power of two.
+     * Changes take effect when the valve is next started.
+     *
+     * @param queueSize The maximum number of queued entries
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+
+    /**
+     * @return the action taken when the queue of entries waiting to be written
+     *         by the background thread is full.
+     */
+    public String getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+
+    /**
+     * Set the action taken when the queue of entries waiting to be written by
+     * the background thread is full. With <code>block</code> the request
+     * processing thread waits for space in the queue. With <code>drop</code>
+     * the entry is discarded. In both cases the number of discarded entries is
+     * available from {@link #getDroppedEntries()}.
+     *
+     * @param overflowPolicy <code>block</code> or <code>drop</code>
+     */
+    public void setOverflowPolicy(String overflowPolicy) {
+        if (OVERFLOW_POLICY_BLOCK.equalsIgnoreCase(overflowPolicy)) {
+            this.overflowPolicy = OVERFLOW_POLICY_BLOCK;
+        } else if (OVERFLOW_POLICY_DROP.equalsIgnoreCase(overflowPolicy)) {
+            this.overflowPolicy = OVERFLOW_POLICY_DROP;
+        } else {
+            throw new IllegalArgumentException(
+                    sm.getString("accessLogValve.invalidOverflowPolicy", overflowPolicy));
+        }
+    }
+
+
+    /**
+     * @return the number of entries waiting to be written by the background
+     *         thread.
+     */
+    public int getQueuedEntries() {
+        BackgroundWriter backgroundWriter = this.backgroundWriter;
+        if (backgroundWriter == null) {
+            return 0;
+        }
+        return backgroundWriter.queue.size();
+    }
+
+
+    /**
+     * @return the number of entries that were discarded because the queue of
+     *         entries waiting to be written by the background thread was full
+     *         or the background thread was stopping.
+     */
+    public long getDroppedEntries() {
+        return droppedEntries.get();
+    }
+
+
+    /**
+     * @return the time in milliseconds between the oldest entry of the batch
+     *         most recently written by the background thread being queued and
+     *         being written.
+     */
+    public long getWriteLag() {
+        BackgroundWriter backgroundWriter = this.backgroundWriter;
+        if (backgroundWriter == null) {
+            return 0;
+        }
+        return backgroundWriter.writeLag;
+    }
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -556,6 +723,7 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
         writer.flush();
         writer.close();
+        channel = null;
         if (rename && renameOnRotate) {
             File newLogFile = getLogFile(true);
             if (!newLogFile.exists()) {
@@ -586,6 +754,38 @@ public class AccessLogValve extends AbstractAccessLogValve {
     @Override
     public void log(CharArrayWriter message) {
 
+        BackgroundWriter backgroundWriter = this.backgroundWriter;
+        if (backgroundWriter != null) {
+            backgroundWriter.add(message);
+            return;
+        }
+
+        checkLogFile();
+
+        // Log this message
+        try {
+            message.write(System.lineSeparator());
+            synchronized(this) {
+                if (writer != null) {
+                    message.writeTo(writer);
+                    if (!buffered) {
+                        writer.flush();
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            log.warn(sm.getString(
+                    "accessLogValve.writeFail", message.toString()), ioe);
+        }
+    }
+
+
+    /**
+     * Switch log files if the date has changed or, if configured, if the
+     * current log file no longer exists.
+     */
+    private void checkLogFile() {
+
         rotate();
 
         /* In case something external rotated the file instead */
@@ -607,22 +807,6 @@ public class AccessLogValve extends AbstractAccessLogValve {
                 }
             }
         }
-
-        // Log this message
-        try {
-            message.write(System.lineSeparator());
-            synchronized(this) {
-                if (writer != null) {
-                    message.writeTo(writer);
-                    if (!buffered) {
-                        writer.flush();
-                    }
-                }
-            }
-        } catch (IOException ioe) {
-            log.warn(sm.getString(
-                    "accessLogValve.writeFail", message.toString()), ioe);
-        }
     }
 
 
@@ -634,7 +818,7 @@ public class AccessLogValve extends AbstractAccessLogValve {
         // If no rotate - no need for dateStamp in fileName
         File pathname = getLogFile(rotatable && !renameOnRotate);
 
-        Charset charset = null;
+        charset = null;
         if (encoding != null) {
             try {
                 charset = B2CConverter.getCharset(encoding);
@@ -648,13 +832,15 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
 
         try {
+            FileOutputStream fos = new FileOutputStream(pathname, true);
+            channel = fos.getChannel();
             writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(pathname, true), charset), 128000),
-                    false);
+                    fos, charset), 128000), false);
 
             currentLogFile = pathname;
         } catch (IOException e) {
             writer = null;
+            channel = null;
             currentLogFile = null;
             log.error(sm.getString("accessLogValve.openFail", pathname), e);
         }
@@ -684,6 +870,16 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
         open();
 
+        if (backgroundWriting) {
+            BackgroundWriter backgroundWriter = new BackgroundWriter(
+                    new AccessLogRingBuffer(queueSize, getMaxLogMessageBufferSize()));
+            Thread thread = new Thread(backgroundWriter, "AccessLogWriter[" + toString() + "]");
+            thread.setDaemon(true);
+            backgroundWriter.thread = thread;
+            this.backgroundWriter = backgroundWriter;
+            thread.start();
+        }
+
         super.startInternal();
     }
 
@@ -699,6 +895,165 @@ public class AccessLogValve extends AbstractAccessLogValve {
     protected synchronized void stopInternal() throws LifecycleException {
 
         super.stopInternal();
+
+        BackgroundWriter backgroundWriter = this.backgroundWriter;
+        if (backgroundWriter != null) {
+            backgroundWriter.stop();
+            this.backgroundWriter = null;
+        }
+
         close(false);
     }
+
+
+    /**
+     * Writes the entries queued by the request processing threads to the log
+     * file. All the entries that are available are encoded into a single
+     * buffer which is written to the file channel with a single write unless
+     * the buffer fills up.
+     */
+    private class BackgroundWriter implements Runnable {
+
+        private final AccessLogRingBuffer queue;
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private CharsetEncoder encoder = null;
+        private Thread thread;
+
+        private volatile boolean running = true;
+        private volatile boolean waiting = false;
+        // Guarded by the valve
+        private boolean stopped = false;
+        private volatile long writeLag = 0;
+
+        private BackgroundWriter(AccessLogRingBuffer queue) {
+            this.queue = queue;
+        }
+
+        /*
+         * Called by the request processing threads.
+         */
+        private void add(CharArrayWriter message) {
+            message.append(System.lineSeparator());
+            while (!queue.offer(message)) {
+                if (!running || OVERFLOW_POLICY_DROP.equals(overflowPolicy)) {
+                    droppedEntries.incrementAndGet();
+                    return;
+                }
+                LockSupport.parkNanos(OVERFLOW_WAIT_NANOS);
+            }
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        /*
+         * Called with the valve locked. Waits, releasing the lock, for the
+         * entries already queued to be written.
+         */
+        private void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+            long end = System.currentTimeMillis() + STOP_TIMEOUT;
+            try {
+                long remaining = STOP_TIMEOUT;
+                while (!stopped && remaining > 0) {
+                    AccessLogValve.this.wait(remaining);
+                    remaining = end - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!stopped) {
+                log.warn(sm.getString("accessLogValve.backgroundWriterStopFail",
+                        Integer.valueOf(queue.size())));
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    AccessLogRingBuffer.Slot slot = queue.poll();
+                    if (slot == null) {
+                        if (!running) {
+                            break;
+                        }
+                        // Producers check the flag after adding an entry
+                        waiting = true;
+                        if (queue.poll() == null && running) {
+                            LockSupport.parkNanos(this, TimeUnit.SECONDS.toNanos(1));
+                        }
+                        waiting = false;
+                        continue;
+                    }
+                    if (running) {
+                        checkLogFile();
+                    }
+                    write(slot);
+                }
+            } finally {
+                // Don't leave request processing threads waiting for space
+                running = false;
+                synchronized (AccessLogValve.this) {
+                    stopped = true;
+                    AccessLogValve.this.notifyAll();
+                }
+            }
+        }
+
+        private void write(AccessLogRingBuffer.Slot first) {
+            long oldest = first.getTime();
+            synchronized (AccessLogValve.this) {
+                if (encoder == null || !encoder.charset().equals(charset)) {
+                    encoder = charset.newEncoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                }
+                // Anything written directly to the writer (e.g. file headers)
+                // must precede the entries
+                if (writer != null) {
+                    writer.flush();
+                }
+                AccessLogRingBuffer.Slot slot = first;
+                int count = 0;
+                try {
+                    // Limit the batch so the lag is updated under load
+                    while (slot != null && count < queue.getCapacity()) {
+                        try {
+                            encode(slot.getChars());
+                        } finally {
+                            queue.release(slot);
+                        }
+                        count++;
+                        slot = queue.poll();
+                    }
+                    flush();
+                } catch (IOException ioe) {
+                    log.warn(sm.getString("accessLogValve.backgroundWriteFail", currentLogFile),
+                            ioe);
+                    bytes.clear();
+                }
+            }
+            writeLag = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+        }
+
+        private void encode(CharBuffer chars) throws IOException {
+            while (encoder.encode(chars, bytes, false).isOverflow()) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            bytes.flip();
+            if (channel == null) {
+                // No log file is open
+                bytes.clear();
+                return;
+            }
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
 }
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.Deflater;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.WebResource;
+import org.apache.catalina.util.IOTools;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.buf.PooledGzipOutputStream;
+import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+
+/**
+ * Generates gzip compressed copies of the compressible static resources of a
+ * web application in the work directory so they can be served without
+ * compressing them on every request. All resources are compressed in the
+ * background when the store starts. Resources that are added or modified
+ * later are compressed in the background the first time the compressed
+ * version is requested.
+ * <p>
+ * A compressed copy is given the same last modified time as the resource it
+ * was generated from and is only used while the two match.
+ */
+class PrecompressedResourceStore {
+
+    private static final Log log = LogFactory.getLog(PrecompressedResourceStore.class);
+    protected static final StringManager sm =
+            StringManager.getManager(PrecompressedResourceStore.class);
+
+    private static final String EXTENSION = ".gz";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    // Smaller resources gain too little from compression
+    private static final long MIN_SIZE = 1024;
+
+    private final StandardRoot root;
+
+    // Resources queued for compression
+    private final ConcurrentMap<String,Boolean> pending = new ConcurrentHashMap<>();
+    // Last modified times of resources that do not get smaller when compressed
+    private final ConcurrentMap<String,Long> incompressible = new ConcurrentHashMap<>();
+
+    private volatile File baseDir = null;
+    private volatile ExecutorService executor = null;
+
+
+    PrecompressedResourceStore(StandardRoot root) {
+        this.root = root;
+    }
+
+
+    void start() {
+        Context context = root.getContext();
+        File workDir = (File) context.getServletContext().getAttribute(ServletContext.TEMPDIR);
+        if (workDir == null) {
+            log.warn(sm.getString("precompressedResourceStore.noWorkDir", context.getName()));
+            return;
+        }
+        baseDir = new File(workDir, "precompressed");
+        executor = Executors.newSingleThreadExecutor(new TaskThreadFactory(
+                context.getName() + "-precompress-", true, Thread.MIN_PRIORITY));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compressAll("/");
+                } catch (IllegalStateException e) {
+                    // The resources have been stopped
+                }
+            }
+        });
+    }
+
+
+    void stop() {
+        ExecutorService executor = this.executor;
+        this.executor = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        pending.clear();
+        incompressible.clear();
+    }
+
+
+    /**
+     * Obtain the compressed copy of the resource at the given path. If the
+     * resource is compressible and the copy is missing or out of date, the
+     * copy is (re-)generated in the background.
+     *
+     * @param path The path of the uncompressed resource
+     *
+     * @return The compressed copy or <code>null</code> if there is no up to
+     *         date copy
+     */
+    WebResource getResource(String path) {
+        ExecutorService executor = this.executor;
+        if (executor == null) {
+            return null;
+        }
+        WebResource resource = root.getResource(path);
+        if (!isCompressible(resource)) {
+            return null;
+        }
+        // Use the normalized path
+        path = resource.getWebappPath();
+
+        long lastModified = resource.getLastModified();
+        File file = getFile(path);
+        if (isCurrent(file, lastModified)) {
+            return new FileResource(root, path + EXTENSION, file, true, null);
+        }
+
+        Long incompressibleLastModified = incompressible.get(path);
+        if (incompressibleLastModified != null &&
+                incompressibleLastModified.longValue() == lastModified) {
+            return null;
+        }
+
+        if (pending.putIfAbsent(path, Boolean.TRUE) == null) {
+            try {
+                executor.execute(new CompressTask(path));
+            } catch (RejectedExecutionException e) {
+                // Stopping
+                pending.remove(path);
+            }
+        }
+        return null;
+    }
+
+
+    private void compressAll(String path) {
+        for (WebResource resource : root.listResources(path)) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            String childPath = path + resource.getName();
+            if (resource.isDirectory()) {
+                if (!"/WEB-INF".equals(childPath) && !"/META-INF".equals(childPath)) {
+                    compressAll(childPath + "/");
+                }
+            } else if (pending.putIfAbsent(childPath, Boolean.TRUE) == null) {
+                compress(childPath);
+            }
+        }
+    }
+
+
+    private void compress(String path) {
+        File file = getFile(path);
+        File tempFile = new File(file.getParentFile(), file.getName() + TEMP_EXTENSION);
+        try {
+            // Bypass the cache so the whole web application does not pass
+            // through it
+            WebResource resource = root.getResourceInternal(path, false);
+            if (!isCompressible(resource)) {
+                return;
+            }
+            long lastModified = resource.getLastModified();
+            if (isCurrent(file, lastModified)) {
+                return;
+            }
+
+            File dir = file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                log.warn(sm.getString("precompressedResourceStore.mkdirFail", dir));
+                return;
+            }
+            try (InputStream is = resource.getInputStream();
+                    OutputStream os = new FileOutputStream(tempFile)) {
+                PooledGzipOutputStream gzip =
+                        new PooledGzipOutputStream(os, Deflater.BEST_COMPRESSION);
+                try {
+                    IOTools.flow(is, gzip);
+                    gzip.finish();
+                } finally {
+                    gzip.release();
+                }
+            }
+
+            if (tempFile.length() >= resource.getContentLength()) {
+                incompressible.put(path, Long.valueOf(lastModified));
+                // Remove any copy of an earlier version
+                if (file.exists() && !file.delete()) {
+                    log.warn(sm.getString("precompressedResourceStore.deleteFail", file));
+                }
+                return;
+            }
+            // Rename preserves the last modified time
+            if (!tempFile.setLastModified(lastModified)) {
+                log.warn(sm.getString("precompressedResourceStore.setLastModifiedFail", tempFile));
+                return;
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            log.warn(sm.getString("precompressedResourceStore.compressFail", path,
+                    root.getContext().getName()), e);
+        } finally {
+            if (tempFile.exists() && !tempFile.delete()) {
+                log.warn(sm.getString("precompressedResourceStore.deleteFail", tempFile));
+            }
+            pending.remove(path);
+        }
+    }
+
+
+    private File getFile(String path) {
+        return new File(baseDir, path.substring(1) + EXTENSION);
+    }
+
+
+    private boolean isCompressible(WebResource resource) {
+        if (!resource.isFile() || resource.getContentLength() < MIN_SIZE) {
+            return false;
+        }
+        String contentType = resource.getMimeType();
+        if (contentType == null) {
+            contentType = root.getContext().getServletContext().getMimeType(resource.getName());
+        }
+        return contentType != null && (contentType.startsWith("text") ||
+                contentType.endsWith("xml") || contentType.endsWith("/javascript") ||
+                contentType.endsWith("/json"));
+    }
+
+
+    /*
+     * Only whole seconds are compared as that is the best precision some file
+     * systems support for the last modified time.
+     */
+    private static boolean isCurrent(File file, long lastModified) {
+        return file.isFile() && file.lastModified() / 1000 == lastModified / 1000;
+    }
+
+
+    private class CompressTask implements Runnable {
+
+        private final String path;
+
+        private CompressTask(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void run() {
+            compress(path);
+        }
+    }
+}
@@ -78,6 +78,9 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
     private ObjectName cacheJmxName = null;
 
     private boolean trackLockedFiles = false;
+    private boolean precompressResources = false;
+    private final PrecompressedResourceStore precompressedStore =
+            new PrecompressedResourceStore(this);
     private final Set<TrackedWebResource> trackedResources =
             Collections.newSetFromMap(new ConcurrentHashMap<TrackedWebResource,Boolean>());
 
@@ -546,6 +549,24 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
         return trackLockedFiles;
     }
 
+    @Override
+    public void setPrecompressResources(boolean precompressResources) {
+        this.precompressResources = precompressResources;
+    }
+
+    @Override
+    public boolean getPrecompressResources() {
+        return precompressResources;
+    }
+
+    @Override
+    public WebResource getPrecompressedResource(String path) {
+        if (!precompressResources) {
+            return null;
+        }
+        return precompressedStore.getResource(path);
+    }
+
     public List<String> getTrackedResources() {
         List<String> result = new ArrayList<>(trackedResources.size());
         for (TrackedWebResource resource : trackedResources) {
@@ -727,6 +748,11 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
         cache.enforceObjectMaxSizeLimit();
 
         setState(LifecycleState.STARTING);
+
+        // Resources have to be available to be compressed
+        if (precompressResources) {
+            precompressedStore.start();
+        }
     }
 
     protected WebResourceSet createMainResourceSet() {
@@ -756,6 +782,8 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
 
     @Override
     protected void stopInternal() throws LifecycleException {
+        precompressedStore.stop();
+
         for (List<WebResourceSet> list : allResources) {
             for (WebResourceSet webResourceSet : list) {
                 webResourceSet.stop();
@@ -55,6 +55,9 @@ public abstract class AbstractProcessor extends AbstractProcessorLight implement
     // Used to avoid useless B2C conversion on the host name.
     protected char[] hostNameC = new char[0];
 
+    // Reused to avoid creating a new reader for every Host header
+    private final Host.MessageBytesReader hostReader = new Host.MessageBytesReader();
+
     protected Adapter adapter;
     /**
      * 异步状态管理。
@@ -314,7 +317,7 @@ public abstract class AbstractProcessor extends AbstractProcessorLight implement
 
         try {
             // Validates the host name
-            int colonPos = Host.parse(valueMB);
+            int colonPos = Host.parse(valueMB, hostReader);
 
             // Extract the port information first, if any
             if (colonPos != -1) {
@@ -837,7 +840,8 @@ public abstract class AbstractProcessor extends AbstractProcessorLight implement
         SocketWrapperBase<?> socketWrapper = getSocketWrapper();
         Iterator<DispatchType> dispatches = getIteratorAndClearDispatches();
         if (socketWrapper != null) {
-            synchronized (socketWrapper) {
+            socketWrapper.getLock().lock();
+            try {
                 /*
                  * This method is called when non-blocking IO is initiated by defining
                  * a read and/or write listener in a non-container thread. It is called
@@ -860,6 +864,8 @@ public abstract class AbstractProcessor extends AbstractProcessorLight implement
                     DispatchType dispatchType = dispatches.next();
                     socketWrapper.processSocket(dispatchType.getSocketStatus(), false);
                 }
+            } finally {
+                socketWrapper.getLock().unlock();
             }
         }
     }
@@ -132,11 +132,13 @@ public abstract class AbstractProcessorLight implements Processor {
         synchronized (dispatches) {
             // Synchronized as the generation of the iterator and the clearing
             // of dispatches needs to be an atomic operation.
-            result = dispatches.iterator();
-            if (result.hasNext()) {
-                dispatches.clear();
-            } else {
+            // Checking for an empty set first avoids creating an iterator
+            // in the common case where there are no dispatches.
+            if (dispatches.isEmpty()) {
                 result = null;
+            } else {
+                result = dispatches.iterator();
+                dispatches.clear();
             }
         }
         return result;
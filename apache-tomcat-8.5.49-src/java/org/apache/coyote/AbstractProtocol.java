@@ -269,6 +269,12 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
     }
 
 
+    public boolean getUseVirtualThreads() { return endpoint.getUseVirtualThreads(); }
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        endpoint.setUseVirtualThreads(useVirtualThreads);
+    }
+
+
     public int getAcceptCount() { return endpoint.getAcceptCount(); }
     public void setAcceptCount(int acceptCount) { endpoint.setAcceptCount(acceptCount); }
     @Deprecated
@@ -734,6 +740,9 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
                 return SocketState.CLOSED;
             }
 
+            // Any event means the connection is no longer waiting in keep-alive
+            wrapper.setKeepAliveIdle(false);
+
             S socket = wrapper.getSocket();
             //关键点(Http11Processor).
             Processor processor = connections.get(socket);
@@ -904,6 +913,8 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
                     // processor. Continue to poll for the next request.
                     connections.remove(socket);
                     release(processor);
+                    wrapper.releaseIdleBuffers();
+                    wrapper.setKeepAliveIdle(true);
                     wrapper.registerReadInterest();
                 } else if (state == SocketState.SENDFILE) {
                     // Sendfile in progress. If it fails, the socket will be
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -46,6 +47,7 @@ public class CompressionConfig {
             "text/javascript,application/javascript,application/json,application/xml";
     private String[] compressibleMimeTypes = null;
     private int compressionMinSize = 2048;
+    private int deflateLevel = Deflater.DEFAULT_COMPRESSION;
 
 
     /**
@@ -182,6 +184,26 @@ public class CompressionConfig {
     }
 
 
+    public int getDeflateLevel() {
+        return deflateLevel;
+    }
+
+
+    /**
+     * Set the level of compression used by the deflate algorithm.
+     *
+     * @param deflateLevel The compression level, 0 (no compression) to 9 (best
+     *                     compression) or -1 for the default
+     */
+    public void setDeflateLevel(int deflateLevel) {
+        if (deflateLevel < Deflater.DEFAULT_COMPRESSION || deflateLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException(sm.getString(
+                    "compressionConfig.invalidDeflateLevel", Integer.toString(deflateLevel)));
+        }
+        this.deflateLevel = deflateLevel;
+    }
+
+
     /**
      * Determines if compression should be enabled for the given response and if
      * it is, sets any necessary headers to mark it as such.
@@ -0,0 +1,156 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of latencies with a bounded relative error, in the
+ * style of an HDR histogram. Values are recorded in nanoseconds and stored with
+ * microsecond resolution. Values below 16 microseconds are recorded exactly.
+ * Larger values are recorded in one of 16 linear buckets for each power of two
+ * so the value reported for a percentile is at most 1/16 (6.25%) higher than
+ * the recorded value. Values of 2^32 microseconds (about 71 minutes) or more
+ * are recorded in the highest bucket.
+ * <p>
+ * Recording is lock free and allocation free so histograms may be updated
+ * concurrently. Reads are not atomic with respect to concurrent updates which
+ * is acceptable for monitoring purposes.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 32;
+    private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+    static final int BUCKET_COUNT =
+            (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos The latency in nanoseconds. Negative values are ignored.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        counts.incrementAndGet(getIndex(TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+
+    /**
+     * Add all the values recorded by another histogram to this one.
+     *
+     * @param other The histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+    }
+
+
+    /**
+     * Remove all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+
+    /**
+     * Obtain the value at the given percentile.
+     *
+     * @param percentile The percentile, from 0 to 100 (e.g. 99.9)
+     *
+     * @return the highest value, in microseconds, that is equivalent to the
+     *         recorded value at the given percentile or zero if no values
+     *         have been recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return getHighestEquivalentValue(i);
+            }
+        }
+        // Concurrent updates. Return the highest non-empty bucket.
+        for (int i = BUCKET_COUNT - 1; i > 0; i--) {
+            if (counts.get(i) > 0) {
+                return getHighestEquivalentValue(i);
+            }
+        }
+        return 0;
+    }
+
+
+    static int getIndex(long micros) {
+        if (micros > MAX_VALUE) {
+            micros = MAX_VALUE;
+        }
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (micros >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+
+    static long getHighestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowest = ((long) (SUB_BUCKET_COUNT + subBucket)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
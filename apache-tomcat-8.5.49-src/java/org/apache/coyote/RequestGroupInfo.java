@@ -17,6 +17,7 @@
 package org.apache.coyote;
 
 import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 /** This can be moved to top level ( eventually with a better name ).
  *  It is currently used only as a JMX artifact, to aggregate the data
@@ -30,6 +31,25 @@ public class RequestGroupInfo {
     private int deadErrorCount = 0;
     private long deadBytesReceived = 0;
     private long deadBytesSent = 0;
+    private final LatencyHistogram[] deadLatencyHistograms =
+            new LatencyHistogram[RequestInfo.LATENCY_TYPES];
+
+    /*
+     * Merging the histograms of every processor is relatively expensive so
+     * the merged histograms used for the percentile attributes are reused for
+     * this long. That way reading several percentiles in a single JMX poll
+     * only merges each histogram once.
+     */
+    static final long LATENCY_SNAPSHOT_MAX_AGE = TimeUnit.SECONDS.toNanos(1);
+    private final LatencyHistogram[] latencySnapshots =
+            new LatencyHistogram[RequestInfo.LATENCY_TYPES];
+    private final long[] latencySnapshotTimes = new long[RequestInfo.LATENCY_TYPES];
+
+    public RequestGroupInfo() {
+        for (int i = 0; i < RequestInfo.LATENCY_TYPES; i++) {
+            deadLatencyHistograms[i] = new LatencyHistogram();
+        }
+    }
 
     public synchronized void addRequestProcessor( RequestInfo rp ) {
         processors.add( rp );
@@ -44,6 +64,12 @@ public class RequestGroupInfo {
             deadErrorCount += rp.getErrorCount();
             deadBytesReceived += rp.getBytesReceived();
             deadBytesSent += rp.getBytesSent();
+            for (int i = 0; i < RequestInfo.LATENCY_TYPES; i++) {
+                LatencyHistogram histogram = rp.getLatencyHistogram(i);
+                if (histogram != null) {
+                    deadLatencyHistograms[i].add(histogram);
+                }
+            }
 
             processors.remove( rp );
         }
@@ -142,6 +168,105 @@ public class RequestGroupInfo {
         }
     }
 
+    /**
+     * Obtain the combined latency histogram for all the request processors
+     * in this group.
+     *
+     * @param type The type of latency, one of the
+     *             <code>RequestInfo.LATENCY_*</code> constants
+     *
+     * @return A new histogram containing all the latencies of the given type
+     *         recorded by this group
+     */
+    public synchronized LatencyHistogram getLatencyHistogram(int type) {
+        LatencyHistogram result = new LatencyHistogram();
+        result.add(deadLatencyHistograms[type]);
+        for (RequestInfo rp : processors) {
+            LatencyHistogram histogram = rp.getLatencyHistogram(type);
+            if (histogram != null) {
+                result.add(histogram);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Obtain a recently merged histogram for the given type of latency. The
+     * returned histogram must not be modified.
+     */
+    synchronized LatencyHistogram getLatencySnapshot(int type) {
+        long now = System.nanoTime();
+        LatencyHistogram snapshot = latencySnapshots[type];
+        if (snapshot == null || now - latencySnapshotTimes[type] > LATENCY_SNAPSHOT_MAX_AGE) {
+            snapshot = getLatencyHistogram(type);
+            latencySnapshots[type] = snapshot;
+            latencySnapshotTimes[type] = now;
+        }
+        return snapshot;
+    }
+
+    public synchronized void resetLatencyHistograms() {
+        for (int i = 0; i < RequestInfo.LATENCY_TYPES; i++) {
+            latencySnapshots[i] = null;
+            deadLatencyHistograms[i].reset();
+            for (RequestInfo rp : processors) {
+                LatencyHistogram histogram = rp.getLatencyHistogram(i);
+                if (histogram != null) {
+                    histogram.reset();
+                }
+            }
+        }
+    }
+
+    // Percentiles are reported in microseconds
+    public long getQueueTimeP50() {
+        return getLatencySnapshot(RequestInfo.LATENCY_QUEUE_TIME).getPercentile(50);
+    }
+
+    public long getQueueTimeP99() {
+        return getLatencySnapshot(RequestInfo.LATENCY_QUEUE_TIME).getPercentile(99);
+    }
+
+    public long getQueueTimeP999() {
+        return getLatencySnapshot(RequestInfo.LATENCY_QUEUE_TIME).getPercentile(99.9);
+    }
+
+    public long getHeaderParseTimeP50() {
+        return getLatencySnapshot(RequestInfo.LATENCY_HEADER_PARSE_TIME).getPercentile(50);
+    }
+
+    public long getHeaderParseTimeP99() {
+        return getLatencySnapshot(RequestInfo.LATENCY_HEADER_PARSE_TIME).getPercentile(99);
+    }
+
+    public long getHeaderParseTimeP999() {
+        return getLatencySnapshot(RequestInfo.LATENCY_HEADER_PARSE_TIME).getPercentile(99.9);
+    }
+
+    public long getServletTimeP50() {
+        return getLatencySnapshot(RequestInfo.LATENCY_SERVLET_TIME).getPercentile(50);
+    }
+
+    public long getServletTimeP99() {
+        return getLatencySnapshot(RequestInfo.LATENCY_SERVLET_TIME).getPercentile(99);
+    }
+
+    public long getServletTimeP999() {
+        return getLatencySnapshot(RequestInfo.LATENCY_SERVLET_TIME).getPercentile(99.9);
+    }
+
+    public long getWriteTimeP50() {
+        return getLatencySnapshot(RequestInfo.LATENCY_WRITE_TIME).getPercentile(50);
+    }
+
+    public long getWriteTimeP99() {
+        return getLatencySnapshot(RequestInfo.LATENCY_WRITE_TIME).getPercentile(99);
+    }
+
+    public long getWriteTimeP999() {
+        return getLatencySnapshot(RequestInfo.LATENCY_WRITE_TIME).getPercentile(99.9);
+    }
+
     public void resetCounters() {
         this.setBytesReceived(0);
         this.setBytesSent(0);
@@ -149,5 +274,6 @@ public class RequestGroupInfo {
         this.setProcessingTime(0);
         this.setMaxTime(0);
         this.setErrorCount(0);
+        this.resetLatencyHistograms();
     }
 }
@@ -152,6 +152,16 @@ public class RequestInfo  {
     //the time of the last request
     private long lastRequestProcessingTime = 0;
 
+    // Latency histograms, indexed by the LATENCY_* constants. Created the
+    // first time a latency is recorded.
+    public static final int LATENCY_QUEUE_TIME = 0;
+    public static final int LATENCY_HEADER_PARSE_TIME = 1;
+    public static final int LATENCY_SERVLET_TIME = 2;
+    public static final int LATENCY_WRITE_TIME = 3;
+    static final int LATENCY_TYPES = 4;
+    private volatile LatencyHistogram[] latencyHistograms;
+
+
 
     /** Called by the processor before recycling the request. It'll collect
      * statistic information.
@@ -174,6 +184,38 @@ public class RequestInfo  {
         }
     }
 
+    /**
+     * Record a latency for the current request.
+     *
+     * @param type  The type of latency, one of the LATENCY_* constants
+     * @param nanos The latency in nanoseconds
+     */
+    public void recordLatency(int type, long nanos) {
+        LatencyHistogram[] latencyHistograms = this.latencyHistograms;
+        if (latencyHistograms == null) {
+            latencyHistograms = new LatencyHistogram[LATENCY_TYPES];
+            for (int i = 0; i < LATENCY_TYPES; i++) {
+                latencyHistograms[i] = new LatencyHistogram();
+            }
+            this.latencyHistograms = latencyHistograms;
+        }
+        latencyHistograms[type].record(nanos);
+    }
+
+    /**
+     * @param type The type of latency, one of the LATENCY_* constants
+     *
+     * @return the histogram for the given type of latency or
+     *         <code>null</code> if no latencies have been recorded
+     */
+    public LatencyHistogram getLatencyHistogram(int type) {
+        LatencyHistogram[] latencyHistograms = this.latencyHistograms;
+        if (latencyHistograms == null) {
+            return null;
+        }
+        return latencyHistograms[type];
+    }
+
     public int getStage() {
         return stage;
     }
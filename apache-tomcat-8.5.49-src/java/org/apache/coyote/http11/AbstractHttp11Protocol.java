@@ -284,6 +284,14 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    public int getDeflateLevel() {
+        return compressionConfig.getDeflateLevel();
+    }
+    public void setDeflateLevel(int valueI) {
+        compressionConfig.setDeflateLevel(valueI);
+    }
+
+
     public boolean useCompression(Request request, Response response) {
         return compressionConfig.useCompression(request, response);
     }
@@ -28,6 +28,7 @@ import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.http.parser.HttpByteScanner;
 import org.apache.tomcat.util.http.parser.HttpParser;
 import org.apache.tomcat.util.net.ApplicationBufferHandler;
 import org.apache.tomcat.util.net.SocketWrapperBase;
@@ -53,6 +54,13 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     private static final byte[] CLIENT_PREFACE_START =
             "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
 
+    /*
+     * Common methods are set as constant Strings so that the method does not
+     * need to be converted to a new String for every request.
+     */
+    private static final String[] KNOWN_METHODS = { "GET", "POST", "HEAD", "PUT",
+            "DELETE", "OPTIONS", "TRACE", "PATCH", "CONNECT" };
+
     /**
      * Associated Coyote request.
      */
@@ -363,8 +371,9 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                 if (byteBuffer.position() >= byteBuffer.limit()) {
                     if (keptAlive) {
                         // Haven't read any request data yet so use the keep-alive
-                        // timeout.
-                        wrapper.setReadTimeout(wrapper.getEndpoint().getKeepAliveTimeout());
+                        // timeout. This may be reduced if the endpoint is
+                        // overloaded.
+                        wrapper.setReadTimeout(wrapper.getEndpoint().getCurrentKeepAliveTimeout());
                     }
                     if (!fill(false)) {
                         // A read is pending, so no longer in initial state
@@ -392,6 +401,9 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                 // just skipping blank lines)
                 if (request.getStartTime() < 0) {
                     request.setStartTime(System.currentTimeMillis());
+                    if (wrapper.getEndpoint().getLatencyHistograms()) {
+                        request.setStartTimeNanos(System.nanoTime());
+                    }
                 }
                 chr = byteBuffer.get();
             } while ((chr == Constants.CR) || (chr == Constants.LF));
@@ -422,7 +434,7 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                 byte chr = byteBuffer.get();
                 if (chr == Constants.SP || chr == Constants.HT) {
                     space = true;
-                    request.method().setBytes(byteBuffer.array(), parsingRequestLineStart,
+                    setMethod(byteBuffer.array(), parsingRequestLineStart,
                             pos - parsingRequestLineStart);
                 } else if (!HttpParser.isToken(chr)) {
                     byteBuffer.position(byteBuffer.position() - 1);
@@ -619,6 +631,27 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     }
 
 
+    private void setMethod(byte[] buf, int start, int len) {
+        for (String method : KNOWN_METHODS) {
+            if (method.length() == len && matches(method, buf, start)) {
+                request.method().setString(method);
+                return;
+            }
+        }
+        request.method().setBytes(buf, start, len);
+    }
+
+
+    private static boolean matches(String s, byte[] buf, int start) {
+        for (int i = 0; i < s.length(); i++) {
+            if (buf[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
     /**
      * Available bytes in the buffers (note that due to encoding, this may not
      * correspond).
@@ -860,6 +893,15 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                     if (!(chr == Constants.SP || chr == Constants.HT)) {
                         headerParsePos = HeaderParsePosition.HEADER_VALUE;
                         byteBuffer.position(byteBuffer.position() - 1);
+                        if (headerData.realPos == headerData.start) {
+                            // Nothing copied yet so start the value here
+                            // rather than moving every byte of the value
+                            // over the skipped spaces
+                            int pos = byteBuffer.position();
+                            headerData.start = pos;
+                            headerData.realPos = pos;
+                            headerData.lastSignificantChar = pos;
+                        }
                         break;
                     }
                 }
@@ -868,6 +910,37 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
 
                 // Reading bytes until the end of the line
                 boolean eol = false;
+
+                if (headerData.realPos == byteBuffer.position()) {
+                    // The value is already in the right place. Jump straight
+                    // to the end of the line rather than copying each byte
+                    // onto itself. A CR is left for the loop below to handle
+                    // as it isn't known yet if it is followed by LF.
+                    int pos = byteBuffer.position();
+                    int limit = byteBuffer.limit();
+                    int end = HttpByteScanner.indexOfCrOrLf(byteBuffer, pos, limit);
+                    if (end == -1) {
+                        end = limit;
+                    }
+                    int last = end;
+                    while (last > pos) {
+                        chr = byteBuffer.get(last - 1);
+                        if (chr == Constants.SP || chr == Constants.HT) {
+                            last--;
+                        } else {
+                            headerData.lastSignificantChar = last;
+                            break;
+                        }
+                    }
+                    headerData.realPos = end;
+                    if (end < limit && byteBuffer.get(end) == Constants.LF) {
+                        byteBuffer.position(end + 1);
+                        eol = true;
+                    } else {
+                        byteBuffer.position(end);
+                    }
+                }
+
                 while (!eol) {
 
                     // Read new bytes if needed
@@ -18,6 +18,7 @@ package org.apache.coyote.http11;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.Response;
@@ -99,6 +100,13 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     protected long byteCount = 0;
 
 
+    /**
+     * Time, in nanoseconds, spent writing to and flushing the socket for the
+     * current request. Only recorded if latency histograms are enabled.
+     */
+    private long writeTime = 0;
+
+
     @Deprecated
     private boolean sendReasonPhrase = false;
 
@@ -312,6 +320,7 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
         lastActiveFilter = -1;
         responseFinished = false;
         byteCount = 0;
+        writeTime = 0;
     }
 
 
@@ -346,10 +355,12 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
         if (headerBuffer.position() > 0) {
             // Sending the response header buffer
             headerBuffer.flip();
+            long start = getWriteStartTime();
             try {
                 socketWrapper.write(isBlocking(), headerBuffer);
             } finally {
                 headerBuffer.position(0).limit(headerBuffer.capacity());
+                addWriteTime(start);
             }
         }
     }
@@ -360,12 +371,21 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      */
     @SuppressWarnings("deprecation")
     public void sendStatus() {
+        int status = response.getStatus();
+
+        if (!sendReasonPhrase) {
+            byte[] statusLine = Http11ResponseHeaderCache.getStatusLine(status);
+            if (statusLine != null) {
+                write(statusLine);
+                return;
+            }
+        }
+
         // Write protocol name
         write(Constants.HTTP_11_BYTES);
         headerBuffer.put(Constants.SP);
 
         // Write status code
-        int status = response.getStatus();
         switch (status) {
         case 200:
             write(Constants._200_BYTES);
@@ -412,6 +432,12 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      * @param value Header value
      */
     public void sendHeader(MessageBytes name, MessageBytes value) {
+        byte[] headerLine = Http11ResponseHeaderCache.getHeaderLine(name, value);
+        if (headerLine != null) {
+            write(headerLine);
+            return;
+        }
+
         write(name);
         headerBuffer.put(Constants.COLON).put(Constants.SP);
         write(value);
@@ -435,6 +461,12 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      * @param mb data to be written
      */
     private void write(MessageBytes mb) {
+        if (mb.getType() == MessageBytes.T_STR &&
+                mb.getCharset() == StandardCharsets.ISO_8859_1 &&
+                writeLatin1(mb.getString())) {
+            // Written directly without converting the String to bytes first
+            return;
+        }
         if (mb.getType() != MessageBytes.T_BYTES) {
             mb.toBytes();
             ByteChunk bc = mb.getByteChunk();
@@ -517,6 +549,36 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     }
 
 
+    /**
+     * Write the given String to the header buffer if every character can be
+     * represented in ISO-8859-1. CTLs are filtered in the same way as for
+     * other header values.
+     *
+     * @param s data to be written
+     *
+     * @return <code>true</code> if the String was written, <code>false</code>
+     *         if it contains characters outside of ISO-8859-1 in which case
+     *         nothing is written
+     */
+    private boolean writeLatin1(String s) {
+        int len = s.length();
+        checkLengthBeforeWrite(len);
+        int start = headerBuffer.position();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c > 255) {
+                headerBuffer.position(start);
+                return false;
+            }
+            if ((c <= 31 && c != 9) || c == 127) {
+                c = ' ';
+            }
+            headerBuffer.put((byte) c);
+        }
+        return true;
+    }
+
+
     /**
      * This method will write the specified integer to the output stream. This
      * method is meant to be used to write the response header.
@@ -560,7 +622,36 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      * @throws IOException Error writing data
      */
     protected boolean flushBuffer(boolean block) throws IOException  {
-        return socketWrapper.flush(block);
+        long start = getWriteStartTime();
+        try {
+            return socketWrapper.flush(block);
+        } finally {
+            addWriteTime(start);
+        }
+    }
+
+
+    /**
+     * @return the time, in nanoseconds, spent writing to the socket for the
+     *         current request if latency histograms are enabled
+     */
+    long getWriteTime() {
+        return writeTime;
+    }
+
+
+    private long getWriteStartTime() {
+        if (socketWrapper.getEndpoint().getLatencyHistograms()) {
+            return System.nanoTime();
+        }
+        return -1;
+    }
+
+
+    private void addWriteTime(long start) {
+        if (start >= 0) {
+            writeTime += System.nanoTime() - start;
+        }
     }
 
 
@@ -621,6 +712,7 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
          */
         @Override
         public int doWrite(ByteBuffer chunk) throws IOException {
+            long start = getWriteStartTime();
             try {
                 int len = chunk.remaining();
                 socketWrapper.write(isBlocking(), chunk);
@@ -631,6 +723,8 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
                 response.action(ActionCode.CLOSE_NOW, ioe);
                 // Re-throw
                 throw ioe;
+            } finally {
+                addWriteTime(start);
             }
         }
 
@@ -644,12 +738,22 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
             /**
              * {@link SocketWrapperBase#flush(boolean)}
              */
-            socketWrapper.flush(true);
+            long start = getWriteStartTime();
+            try {
+                socketWrapper.flush(true);
+            } finally {
+                addWriteTime(start);
+            }
         }
 
         @Override
         public void flush() throws IOException {
-            socketWrapper.flush(isBlocking());
+            long start = getWriteStartTime();
+            try {
+                socketWrapper.flush(isBlocking());
+            } finally {
+                addWriteTime(start);
+            }
         }
     }
 }
@@ -58,6 +58,7 @@ import org.apache.tomcat.util.http.parser.TokenList;
 import org.apache.tomcat.util.log.UserDataHelper;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
+import org.apache.tomcat.util.net.FileRegion;
 import org.apache.tomcat.util.net.SSLSupport;
 import org.apache.tomcat.util.net.SendfileDataBase;
 import org.apache.tomcat.util.net.SendfileKeepAliveState;
@@ -237,7 +238,7 @@ public class Http11Processor extends AbstractProcessor {
 
         // Create and add the gzip filters.
         //inputBuffer.addFilter(new GzipInputFilter());
-        outputBuffer.addFilter(new GzipOutputFilter());
+        outputBuffer.addFilter(new GzipOutputFilter(protocol.getDeflateLevel()));
 
         pluggableFilterIndex = inputBuffer.getFilters().length;
     }
@@ -527,6 +528,13 @@ public class Http11Processor extends AbstractProcessor {
         boolean keptAlive = false;
         SendfileState sendfileState = SendfileState.DONE;
 
+        boolean latencyHistograms = endpoint.getLatencyHistograms();
+        if (latencyHistograms && socketWrapper.getDispatchTime() >= 0) {
+            rp.recordLatency(RequestInfo.LATENCY_QUEUE_TIME,
+                    System.nanoTime() - socketWrapper.getDispatchTime());
+            socketWrapper.setDispatchTime(-1);
+        }
+
         while (!getErrorState().isError() && keepAlive && !isAsync() && upgradeToken == null &&
                 sendfileState == SendfileState.DONE && !endpoint.isPaused()) {
 
@@ -558,6 +566,10 @@ public class Http11Processor extends AbstractProcessor {
                         readComplete = false;
                         break;
                     }
+                    if (latencyHistograms && request.getStartTimeNanos() >= 0) {
+                        rp.recordLatency(RequestInfo.LATENCY_HEADER_PARSE_TIME,
+                                System.nanoTime() - request.getStartTimeNanos());
+                    }
                     if (!disableUploadTimeout) {
                         socketWrapper.setReadTimeout(connectionUploadTimeout);
                     }
@@ -642,11 +654,16 @@ public class Http11Processor extends AbstractProcessor {
             if (getErrorState().isIoAllowed()) {
                 try {
                     rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
+                    long serviceStart = latencyHistograms ? System.nanoTime() : -1;
 /**
  * 直接踏马交给适配器去处理了.
  * {@link CoyoteAdapter#service(org.apache.coyote.Request, org.apache.coyote.Response)}
  */
                     getAdapter().service(request, response);
+                    if (serviceStart >= 0) {
+                        rp.recordLatency(RequestInfo.LATENCY_SERVLET_TIME,
+                                System.nanoTime() - serviceStart);
+                    }
                     // Handle when the response was committed before a serious
                     // error occurred.  Throwing a ServletException should both
                     // set the status to 500 and set the errorException.
@@ -697,6 +714,9 @@ public class Http11Processor extends AbstractProcessor {
             }
 
             if (!isAsync() || getErrorState().isError()) {
+                if (latencyHistograms) {
+                    rp.recordLatency(RequestInfo.LATENCY_WRITE_TIME, outputBuffer.getWriteTime());
+                }
                 request.updateCounters();
                 if (getErrorState().isIoAllowed()) {
                     inputBuffer.nextRequest();
@@ -1179,6 +1199,11 @@ public class Http11Processor extends AbstractProcessor {
         if (keepAlive && statusDropsConnection(statusCode)) {
             keepAlive = false;
         }
+        // If the endpoint is overloaded, free the connection for a new client
+        if (keepAlive && endpoint.isOverloaded() && endpoint.getOverloadCloseConnections()) {
+            keepAlive = false;
+            endpoint.incrementOverloadKeepAliveDisabledCount();
+        }
         if (!keepAlive) {
             // Avoid adding the close header twice
             if (!connectionClosePresent) {
@@ -1269,11 +1294,17 @@ public class Http11Processor extends AbstractProcessor {
             // No entity body sent here
             outputBuffer.addActiveFilter(outputFilters[Constants.VOID_FILTER]);
             contentDelimitation = true;
-            long pos = ((Long) request.getAttribute(
-                    org.apache.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
-            long end = ((Long) request.getAttribute(
-                    org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR)).longValue();
-            sendfileData = socketWrapper.createSendfileData(fileName, pos, end - pos);
+            FileRegion[] regions = (FileRegion[]) request.getAttribute(
+                    org.apache.coyote.Constants.SENDFILE_FILE_REGIONS_ATTR);
+            if (regions != null) {
+                sendfileData = socketWrapper.createSendfileData(fileName, regions);
+            } else {
+                long pos = ((Long) request.getAttribute(
+                        org.apache.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
+                long end = ((Long) request.getAttribute(
+                        org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR)).longValue();
+                sendfileData = socketWrapper.createSendfileData(fileName, pos, end - pos);
+            }
         }
     }
 
@@ -1323,6 +1354,10 @@ public class Http11Processor extends AbstractProcessor {
             return SocketState.CLOSED;
         } else {
             endRequest();
+            if (endpoint.getLatencyHistograms()) {
+                request.getRequestProcessor().recordLatency(
+                        RequestInfo.LATENCY_WRITE_TIME, outputBuffer.getWriteTime());
+            }
             inputBuffer.nextRequest();
             outputBuffer.nextRequest();
             if (socketWrapper.isReadPending()) {
@@ -0,0 +1,188 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * Holds pre-encoded response header lines so the common parts of a response
+ * header can be committed by copying bytes rather than encoding and filtering
+ * each name and value for every response.
+ * <p>
+ * Three kinds of line are cached:
+ * <ul>
+ * <li>the status line (without reason phrase) for every status code from
+ *     100 to 599,</li>
+ * <li>the <code>Date</code> header line which is re-encoded only when the
+ *     value provided by {@link org.apache.tomcat.util.http.FastHttpDateFormat}
+ *     changes i.e. at most once a second,</li>
+ * <li>lines for a fixed set of header names that Tomcat adds to responses
+ *     itself and that have a small number of distinct values (content type,
+ *     server, transfer encoding etc.). The number of values cached for each
+ *     name is limited.</li>
+ * </ul>
+ * Each line includes the trailing CRLF.
+ */
+final class Http11ResponseHeaderCache {
+
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    static final int MAX_VALUES_PER_NAME = 64;
+
+    private static final String DATE = "Date";
+
+    private static final byte[][] STATUS_LINES = new byte[MAX_STATUS - MIN_STATUS + 1][];
+
+    private static final Map<String,Map<String,byte[]>> HEADER_LINES = new HashMap<>();
+
+    private static volatile HeaderLine dateLine = null;
+
+    static {
+        for (int status = MIN_STATUS; status <= MAX_STATUS; status++) {
+            // The reason phrase is optional but the space before it is not
+            STATUS_LINES[status - MIN_STATUS] = toBytes(
+                    Constants.HTTP_11 + " " + Integer.toString(status) + " " + Constants.CRLF);
+        }
+
+        // Only names that Tomcat sets on the response are cached. Caching
+        // names set by applications would allow the cache to grow with values
+        // that are never seen again.
+        String[] names = new String[] { "Content-Type", "Content-Language", "Server",
+                Constants.TRANSFERENCODING, Constants.CONNECTION,
+                Constants.KEEP_ALIVE_HEADER_NAME };
+        for (String name : names) {
+            HEADER_LINES.put(name, new ConcurrentHashMap<String,byte[]>());
+        }
+    }
+
+
+    private Http11ResponseHeaderCache() {
+        // Hide default constructor
+    }
+
+
+    /**
+     * Obtain the status line, without a reason phrase, for the given status
+     * code.
+     *
+     * @param status The HTTP status code
+     *
+     * @return The encoded status line or <code>null</code> if the status code
+     *         is outside the range of cached values
+     */
+    static byte[] getStatusLine(int status) {
+        if (status < MIN_STATUS || status > MAX_STATUS) {
+            return null;
+        }
+        return STATUS_LINES[status - MIN_STATUS];
+    }
+
+
+    /**
+     * Obtain the encoded header line for the given header name and value.
+     * Only String values using the default ISO-8859-1 charset are eligible.
+     * The line is identical to the one that would be produced by encoding the
+     * name and value individually, including the replacement of control
+     * characters.
+     *
+     * @param name  The header name
+     * @param value The header value
+     *
+     * @return The encoded header line or <code>null</code> if this header is
+     *         not eligible for caching
+     */
+    static byte[] getHeaderLine(MessageBytes name, MessageBytes value) {
+        if (name.getType() != MessageBytes.T_STR || value.getType() != MessageBytes.T_STR ||
+                value.getCharset() != StandardCharsets.ISO_8859_1) {
+            return null;
+        }
+        String headerName = name.getString();
+        String headerValue = value.getString();
+
+        if (DATE.equals(headerName)) {
+            HeaderLine current = dateLine;
+            if (current == null || !current.value.equals(headerValue)) {
+                byte[] line = toLine(headerName, headerValue);
+                if (line == null) {
+                    return null;
+                }
+                current = new HeaderLine(headerValue, line);
+                dateLine = current;
+            }
+            return current.line;
+        }
+
+        Map<String,byte[]> values = HEADER_LINES.get(headerName);
+        if (values == null) {
+            return null;
+        }
+        byte[] line = values.get(headerValue);
+        if (line == null) {
+            line = toLine(headerName, headerValue);
+            if (line != null && values.size() < MAX_VALUES_PER_NAME) {
+                values.put(headerValue, line);
+            }
+        }
+        return line;
+    }
+
+
+    private static byte[] toLine(String name, String value) {
+        return toBytes(name + ": " + value + Constants.CRLF);
+    }
+
+
+    /*
+     * Returns null if the String contains characters that can't be
+     * represented in ISO-8859-1 since those need to be handled by the Charset.
+     */
+    private static byte[] toBytes(String s) {
+        int len = s.length();
+        byte[] result = new byte[len];
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c > 255) {
+                return null;
+            }
+            // Filter CTLs (excluding TAB) in the same way as
+            // Http11OutputBuffer. The CRLF at the end is added unfiltered.
+            if (i < len - 2 && ((c <= 31 && c != 9) || c == 127)) {
+                c = ' ';
+            }
+            result[i] = (byte) c;
+        }
+        return result;
+    }
+
+
+    private static final class HeaderLine {
+
+        private final String value;
+        private final byte[] line;
+
+        private HeaderLine(String value, byte[] line) {
+            this.value = value;
+            this.line = line;
+        }
+    }
+}
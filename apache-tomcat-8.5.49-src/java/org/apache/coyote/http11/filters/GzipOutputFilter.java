@@ -19,7 +19,7 @@ package org.apache.coyote.http11.filters;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.zip.GZIPOutputStream;
+import java.util.zip.Deflater;
 
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.HttpOutputBuffer;
@@ -27,6 +27,7 @@ import org.apache.coyote.http11.OutputFilter;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.PooledGzipOutputStream;
 
 /**
  * Gzip output filter.
@@ -47,9 +48,16 @@ public class GzipOutputFilter implements OutputFilter {
 
 
     /**
-     * Compression output stream.
+     * Compression output stream. The Deflater it uses is taken from the shared
+     * pool.
      */
-    protected GZIPOutputStream compressionStream = null;
+    protected PooledGzipOutputStream compressionStream = null;
+
+
+    /**
+     * Compression level used by the Deflater.
+     */
+    protected final int level;
 
 
     /**
@@ -58,6 +66,22 @@ public class GzipOutputFilter implements OutputFilter {
     protected final OutputStream fakeOutputStream = new FakeOutputStream();
 
 
+    // ----------------------------------------------------------- Constructors
+
+    public GzipOutputFilter() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+
+    /**
+     * @param level The compression level, 0-9 or
+     *              {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public GzipOutputFilter(int level) {
+        this.level = level;
+    }
+
+
     // --------------------------------------------------- OutputBuffer Methods
 
     /**
@@ -68,7 +92,7 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public int doWrite(ByteChunk chunk) throws IOException {
         if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
+            compressionStream = new PooledGzipOutputStream(fakeOutputStream, level);
         }
         compressionStream.write(chunk.getBytes(), chunk.getStart(),
                                 chunk.getLength());
@@ -79,7 +103,7 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public int doWrite(ByteBuffer chunk) throws IOException {
         if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
+            compressionStream = new PooledGzipOutputStream(fakeOutputStream, level);
         }
         int len = chunk.remaining();
         if (chunk.hasArray()) {
@@ -137,7 +161,7 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public void end() throws IOException {
         if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
+            compressionStream = new PooledGzipOutputStream(fakeOutputStream, level);
         }
         compressionStream.finish();
         compressionStream.close();
@@ -150,6 +174,10 @@ public class GzipOutputFilter implements OutputFilter {
      */
     @Override
     public void recycle() {
+        // Return the Deflater to the pool if the response was not completed
+        if (compressionStream != null) {
+            compressionStream.release();
+        }
         // Set compression stream to null
         compressionStream = null;
     }
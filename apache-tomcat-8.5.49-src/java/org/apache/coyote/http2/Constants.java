@@ -20,6 +20,11 @@ public class Constants {
 
     // Prioritisation
     public static final int DEFAULT_WEIGHT = 16;
+    static final int MAX_WEIGHT = 256;
+    // Size of the slices in which the connection flow control window is
+    // allocated to backlogged streams with the maximum weight. Streams with a
+    // lower weight receive proportionally smaller slices.
+    static final int ALLOCATION_QUANTUM = 1024;
 
     // Parsing
     static final int DEFAULT_HEADER_READ_BUFFER_SIZE = 1024;
@@ -0,0 +1,210 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.tomcat.util.net.SocketWrapperBase;
+
+/**
+ * Serialises the frames written to an HTTP/2 connection by multiple threads.
+ * <p>
+ * Rather than every writer taking the socket lock in turn, each writer adds
+ * its frames to a queue. The writer that claims the outbox drains the queue,
+ * writing the frames of every waiting writer through the socket write buffer
+ * and then performing a single flush for the whole batch. The other writers
+ * park until their frames have been written. After a fixed number of batches
+ * the claiming writer releases the outbox and wakes the writer of the oldest
+ * queued frame to continue. Frames are written in the order
+ * they were queued and a writer does not return until its frames have been
+ * written (or the write has failed) so the blocking semantics of the previous
+ * per-frame writes are retained.
+ * <p>
+ * The socket lock is still held while the queue is drained so the writes can
+ * not overlap with any other processing of the socket. A thread that already
+ * holds the socket lock (e.g. while processing incoming frames) drains the
+ * queue itself.
+ */
+class FrameOutbox {
+
+    /*
+     * Limits the number of frames written before a flush so writers are not
+     * kept waiting indefinitely while other threads keep adding frames.
+     */
+    private static final int MAX_BATCH_SIZE = 64;
+
+    /*
+     * Limits the number of batches the writer that claimed the outbox writes
+     * before handing the outbox over to the writer of the oldest queued frame
+     * so that no writer is kept writing the frames of other writers
+     * indefinitely.
+     */
+    private static final int MAX_BATCHES_PER_CLAIM = 4;
+
+    private final SocketWrapperBase<?> socketWrapper;
+    private final Queue<Frame> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    // Only accessed while holding the socket lock
+    private final List<Frame> batch = new ArrayList<>();
+
+
+    FrameOutbox(SocketWrapperBase<?> socketWrapper) {
+        this.socketWrapper = socketWrapper;
+    }
+
+
+    /**
+     * Write the given buffers as a unit. The method returns once the data has
+     * been written to the network.
+     *
+     * @param buffers The buffers to write, in order
+     *
+     * @throws IOException If an I/O error occurs while writing the buffers
+     */
+    void write(ByteBuffer... buffers) throws IOException {
+        await(enqueue(buffers));
+    }
+
+
+    /**
+     * Add the given buffers to the outbox without waiting for them to be
+     * written. This allows callers to add frames while holding a lock that
+     * defines the order of those frames and then wait for the write once the
+     * lock has been released.
+     *
+     * @param buffers The buffers to write, in order
+     *
+     * @return The queued frame to pass to {@link #await(Frame)}
+     */
+    Frame enqueue(ByteBuffer... buffers) {
+        Frame frame = new Frame(buffers);
+        frames.add(frame);
+        return frame;
+    }
+
+
+    /**
+     * Wait for the given frame to be written, writing it and any other queued
+     * frames if no other thread is doing so.
+     *
+     * @param frame The frame
+     *
+     * @throws IOException If an I/O error occurred while writing the frame
+     */
+    void await(Frame frame) throws IOException {
+        Lock lock = socketWrapper.getLock();
+        while (true) {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    lock.lock();
+                    try {
+                        drain(MAX_BATCHES_PER_CLAIM);
+                    } finally {
+                        lock.unlock();
+                    }
+                } finally {
+                    draining.set(false);
+                }
+                // Writers that failed to claim the outbox while this thread
+                // held it may be parked. Hand over to the oldest of them.
+                Frame next = frames.peek();
+                if (next != null) {
+                    LockSupport.unpark(next.waiter);
+                }
+                if (frame.done) {
+                    break;
+                }
+            } else if (frame.done) {
+                break;
+            } else if (lock.tryLock()) {
+                // Either the socket lock is already held by this thread or the
+                // thread that claimed the outbox has yet to obtain it.
+                try {
+                    drain(MAX_BATCHES_PER_CLAIM);
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        if (frame.error != null) {
+            throw frame.error;
+        }
+    }
+
+
+    /*
+     * Must be called while holding the socket lock.
+     */
+    private void drain(int maxBatches) {
+        Frame frame;
+        int batches = 0;
+        while (batches++ < maxBatches && (frame = frames.poll()) != null) {
+            batch.add(frame);
+            while (batch.size() < MAX_BATCH_SIZE && (frame = frames.poll()) != null) {
+                batch.add(frame);
+            }
+            IOException error = null;
+            try {
+                for (Frame f : batch) {
+                    for (ByteBuffer buffer : f.buffers) {
+                        socketWrapper.write(true, buffer);
+                    }
+                }
+                socketWrapper.flush(true);
+            } catch (IOException ioe) {
+                error = ioe;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            } finally {
+                for (Frame f : batch) {
+                    f.complete(error);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+
+    static class Frame {
+
+        private final ByteBuffer[] buffers;
+        private final Thread waiter = Thread.currentThread();
+        private volatile IOException error;
+        private volatile boolean done;
+
+        private Frame(ByteBuffer[] buffers) {
+            this.buffers = buffers;
+        }
+
+        private void complete(IOException error) {
+            this.error = error;
+            done = true;
+            LockSupport.unpark(waiter);
+        }
+    }
+}
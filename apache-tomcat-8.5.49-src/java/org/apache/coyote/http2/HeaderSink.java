@@ -30,6 +30,11 @@ public class HeaderSink implements HeaderEmitter {
         // NO-OP
     }
 
+    @Override
+    public void emitHeader(String name, byte[] value, int start, int length) {
+        // NO-OP
+    }
+
     @Override
     public void validateHeaders() throws StreamException {
         // NO-OP
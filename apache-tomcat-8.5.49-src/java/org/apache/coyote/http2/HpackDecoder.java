@@ -29,6 +29,36 @@ public class HpackDecoder {
 
     private static final int DEFAULT_RING_BUFFER_SIZE = 10;
 
+    private static final int DEFAULT_VALUE_BUFFER_SIZE = 128;
+
+    /*
+     * Header names that are commonly sent by clients in addition to those in
+     * the static table. A literal header name that matches one of these, or
+     * one of the static table names, is returned as the existing constant
+     * rather than creating a new String for every request.
+     */
+    private static final String[] COMMON_HEADER_NAMES = { "dnt", "origin", "pragma",
+            "priority", "purpose", "sec-ch-ua", "sec-ch-ua-mobile", "sec-ch-ua-platform",
+            "sec-fetch-dest", "sec-fetch-mode", "sec-fetch-site", "sec-fetch-user",
+            "sec-gpc", "te", "upgrade-insecure-requests", "x-forwarded-for",
+            "x-forwarded-host", "x-forwarded-proto", "x-requested-with" };
+
+    /*
+     * Open addressed (linear probing) table of known header names.
+     */
+    private static final String[] KNOWN_HEADER_NAMES;
+
+    static {
+        String[] names = new String[256];
+        for (int i = 1; i < Hpack.STATIC_TABLE.length; i++) {
+            addKnownHeaderName(names, Hpack.STATIC_TABLE[i].name);
+        }
+        for (String name : COMMON_HEADER_NAMES) {
+            addKnownHeaderName(names, name);
+        }
+        KNOWN_HEADER_NAMES = names;
+    }
+
     /**
      * The object that receives the headers that are emitted from this decoder
      */
@@ -74,6 +104,12 @@ public class HpackDecoder {
 
     private final StringBuilder stringBuilder = new StringBuilder();
 
+    /**
+     * Holds the value of a literal header that is not added to the header
+     * table while it is passed to the header emitter.
+     */
+    private byte[] valueBuffer = new byte[DEFAULT_VALUE_BUFFER_SIZE];
+
     public HpackDecoder(int maxMemorySize) {
         this.maxMemorySizeHard = maxMemorySize;
         this.maxMemorySizeSoft = maxMemorySize;
@@ -111,44 +147,22 @@ public class HpackDecoder {
                 handleIndex(index);
             } else if ((b & 0b01000000) != 0) {
                 //Literal Header Field with Incremental Indexing
-                String headerName = readHeaderName(buffer, 6);
-                if (headerName == null) {
-                    buffer.position(originalPos);
-                    return;
-                }
-                String headerValue = readHpackString(buffer);
-                if (headerValue == null) {
+                if (!readLiteralHeader(buffer, 6, true)) {
                     buffer.position(originalPos);
                     return;
                 }
-                emitHeader(headerName, headerValue);
-                addEntryToHeaderTable(new Hpack.HeaderField(headerName, headerValue));
             } else if ((b & 0b11110000) == 0) {
                 //Literal Header Field without Indexing
-                String headerName = readHeaderName(buffer, 4);
-                if (headerName == null) {
-                    buffer.position(originalPos);
-                    return;
-                }
-                String headerValue = readHpackString(buffer);
-                if (headerValue == null) {
+                if (!readLiteralHeader(buffer, 4, false)) {
                     buffer.position(originalPos);
                     return;
                 }
-                emitHeader(headerName, headerValue);
             } else if ((b & 0b11110000) == 0b00010000) {
                 //Literal Header Field never indexed
-                String headerName = readHeaderName(buffer, 4);
-                if (headerName == null) {
-                    buffer.position(originalPos);
-                    return;
-                }
-                String headerValue = readHpackString(buffer);
-                if (headerValue == null) {
+                if (!readLiteralHeader(buffer, 4, false)) {
                     buffer.position(originalPos);
                     return;
                 }
-                emitHeader(headerName, headerValue);
             } else if ((b & 0b11100000) == 0b00100000) {
                 //context update max table size change
                 if (!handleMaxMemorySizeChange(buffer, originalPos)) {
@@ -196,6 +210,38 @@ public class HpackDecoder {
         return true;
     }
 
+    /**
+     * Read a literal header field. The value is passed to the header emitter
+     * as bytes unless the header is added to the header table.
+     *
+     * @param buffer       The buffer
+     * @param prefixLength The prefix length of the header name index
+     * @param index        Should the header be added to the header table
+     *
+     * @return <code>true</code> if the header was read, <code>false</code> if
+     *         there was not enough data
+     *
+     * @throws HpackException If the header is not valid
+     */
+    private boolean readLiteralHeader(ByteBuffer buffer, int prefixLength, boolean index)
+            throws HpackException {
+        String headerName = readHeaderName(buffer, prefixLength);
+        if (headerName == null) {
+            return false;
+        }
+        if (!readHpackString(buffer)) {
+            return false;
+        }
+        if (index) {
+            String headerValue = stringBuilder.toString();
+            emitHeader(headerName, headerValue);
+            addEntryToHeaderTable(new Hpack.HeaderField(headerName, headerValue));
+        } else {
+            emitHeader(headerName, stringBuilder);
+        }
+        return true;
+    }
+
     private String readHeaderName(ByteBuffer buffer, int prefixLength) throws HpackException {
         buffer.position(buffer.position() - 1); //unget the byte
         int index = Hpack.decodeInteger(buffer, prefixLength);
@@ -203,57 +249,61 @@ public class HpackDecoder {
             return null;
         } else if (index != 0) {
             return handleIndexedHeaderName(index);
+        } else if (readHpackString(buffer)) {
+            return toHeaderName(stringBuilder);
         } else {
-            return readHpackString(buffer);
+            return null;
         }
     }
 
-    private String readHpackString(ByteBuffer buffer) throws HpackException {
+    /**
+     * Read a string literal into {@link #stringBuilder}. Each octet of a
+     * string that is not Huffman encoded is treated as an ISO-8859-1
+     * character.
+     */
+    private boolean readHpackString(ByteBuffer buffer) throws HpackException {
         if (!buffer.hasRemaining()) {
-            return null;
+            return false;
         }
         byte data = buffer.get(buffer.position());
 
         int length = Hpack.decodeInteger(buffer, 7);
-        if (buffer.remaining() < length) {
-            return null;
+        if (length == -1 || buffer.remaining() < length) {
+            return false;
         }
+        stringBuilder.setLength(0);
         boolean huffman = (data & 0b10000000) != 0;
         if (huffman) {
-            return readHuffmanString(length, buffer);
-        }
-        for (int i = 0; i < length; ++i) {
-            stringBuilder.append((char) buffer.get());
+            HPackHuffman.decode(buffer, length, stringBuilder);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                stringBuilder.append((char) (buffer.get() & 0xFF));
+            }
         }
-        String ret = stringBuilder.toString();
-        stringBuilder.setLength(0);
-        return ret;
-    }
-
-    private String readHuffmanString(int length, ByteBuffer buffer) throws HpackException {
-        HPackHuffman.decode(buffer, length, stringBuilder);
-        String ret = stringBuilder.toString();
-        stringBuilder.setLength(0);
-        return ret;
+        return true;
     }
 
     private String handleIndexedHeaderName(int index) throws HpackException {
         if (index <= Hpack.STATIC_TABLE_LENGTH) {
             return Hpack.STATIC_TABLE[index].name;
         } else {
-            // index is 1 based
-            if (index > Hpack.STATIC_TABLE_LENGTH + filledTableSlots) {
-                throw new HpackException(sm.getString("hpackdecoder.headerTableIndexInvalid",
-                        Integer.valueOf(index), Integer.valueOf(Hpack.STATIC_TABLE_LENGTH),
-                        Integer.valueOf(filledTableSlots)));
-            }
-            int adjustedIndex = getRealIndex(index - Hpack.STATIC_TABLE_LENGTH);
-            Hpack.HeaderField res = headerTable[adjustedIndex];
-            if (res == null) {
-                throw new HpackException(sm.getString("hpackdecoder.nullHeader", Integer.valueOf(index)));
-            }
-            return res.name;
+            return getHeaderTableEntry(index).name;
+        }
+    }
+
+    private Hpack.HeaderField getHeaderTableEntry(int index) throws HpackException {
+        // index is 1 based
+        if (index > Hpack.STATIC_TABLE_LENGTH + filledTableSlots) {
+            throw new HpackException(sm.getString("hpackdecoder.headerTableIndexInvalid",
+                    Integer.valueOf(index), Integer.valueOf(Hpack.STATIC_TABLE_LENGTH),
+                    Integer.valueOf(filledTableSlots)));
+        }
+        int adjustedIndex = getRealIndex(index - Hpack.STATIC_TABLE_LENGTH);
+        Hpack.HeaderField res = headerTable[adjustedIndex];
+        if (res == null) {
+            throw new HpackException(sm.getString("hpackdecoder.nullHeader", Integer.valueOf(index)));
         }
+        return res;
     }
 
     /**
@@ -266,8 +316,7 @@ public class HpackDecoder {
         if (index <= Hpack.STATIC_TABLE_LENGTH) {
             addStaticTableEntry(index);
         } else {
-            int adjustedIndex = getRealIndex(index - Hpack.STATIC_TABLE_LENGTH);
-            Hpack.HeaderField headerField = headerTable[adjustedIndex];
+            Hpack.HeaderField headerField = getHeaderTableEntry(index);
             emitHeader(headerField.name, headerField.value);
         }
     }
@@ -361,6 +410,23 @@ public class HpackDecoder {
          */
         void emitHeader(String name, String value) throws HpackException;
 
+        /**
+         * Pass a single header to the recipient where the value is provided
+         * as ISO-8859-1 bytes. This avoids creating a String for values that
+         * are not added to the header table. The bytes are only valid for the
+         * duration of the call so the recipient must copy any bytes it needs
+         * to retain.
+         *
+         * @param name   Header name
+         * @param value  The buffer containing the header value
+         * @param start  The offset of the header value in the buffer
+         * @param length The length of the header value
+         * @throws HpackException If a header is received that is not compliant
+         *                        with the HTTP/2 specification
+         */
+        void emitHeader(String name, byte[] value, int start, int length)
+                throws HpackException;
+
         /**
          * Inform the recipient of the headers that a stream error needs to be
          * triggered using the given message when {@link #validateHeaders()} is
@@ -411,6 +477,36 @@ public class HpackDecoder {
 
 
     private void emitHeader(String name, String value) throws HpackException {
+        if (countHeader(name, value.length())) {
+            headerEmitter.emitHeader(name, value);
+        }
+    }
+
+
+    private void emitHeader(String name, CharSequence value) throws HpackException {
+        int length = value.length();
+        if (!countHeader(name, length)) {
+            return;
+        }
+        byte[] valueBuffer = this.valueBuffer;
+        if (valueBuffer.length < length) {
+            valueBuffer = new byte[Math.max(length, valueBuffer.length * 2)];
+            this.valueBuffer = valueBuffer;
+        }
+        for (int i = 0; i < length; i++) {
+            valueBuffer[i] = (byte) value.charAt(i);
+        }
+        headerEmitter.emitHeader(name, valueBuffer, 0, length);
+    }
+
+
+    /**
+     * Update the limit tracking for the given header.
+     *
+     * @return <code>true</code> if the header should be passed to the header
+     *         emitter, <code>false</code> if a limit has been exceeded
+     */
+    private boolean countHeader(String name, int valueLength) {
         // Header names are forced to lower case
         if ("cookie".equals(name)) {
             // Only count the cookie header once since HTTP/2 splits it into
@@ -425,11 +521,45 @@ public class HpackDecoder {
         // Overhead will vary. The main concern is that lots of small headers
         // trigger the limiting mechanism correctly. Therefore, use an overhead
         // estimate of 3 which is the worst case for small headers.
-        int inc = 3 + name.length() + value.length();
+        int inc = 3 + name.length() + valueLength;
         headerSize += inc;
-        if (!isHeaderCountExceeded() && !isHeaderSizeExceeded(0)) {
-            headerEmitter.emitHeader(name, value);
+        return !isHeaderCountExceeded() && !isHeaderSizeExceeded(0);
+    }
+
+
+    private static void addKnownHeaderName(String[] names, String name) {
+        int mask = names.length - 1;
+        int i = name.hashCode() & mask;
+        while (names[i] != null) {
+            if (names[i].equals(name)) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        names[i] = name;
+    }
+
+
+    /**
+     * Obtain the String for a literal header name, using the existing
+     * constant if the name is a known header name.
+     */
+    private static String toHeaderName(CharSequence name) {
+        int length = name.length();
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + name.charAt(i);
+        }
+        int mask = KNOWN_HEADER_NAMES.length - 1;
+        int i = hash & mask;
+        String candidate;
+        while ((candidate = KNOWN_HEADER_NAMES[i]) != null) {
+            if (candidate.hashCode() == hash && candidate.contentEquals(name)) {
+                return candidate;
+            }
+            i = (i + 1) & mask;
         }
+        return name.toString();
     }
 
 
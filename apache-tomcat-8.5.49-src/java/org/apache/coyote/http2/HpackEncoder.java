@@ -17,12 +17,8 @@
 package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -65,15 +61,28 @@ public class HpackEncoder {
 
     private MimeHeaders currentHeaders;
 
-    private int entryPositionCounter;
-
     private int newMaxHeaderSize = -1; //if the max header size has been changed
     private int minNewMaxHeaderSize = -1; //records the smallest value of newMaxHeaderSize, as per section 4.1
 
     private static final Map<String, TableEntry[]> ENCODING_STATIC_TABLE;
 
-    private final Deque<TableEntry> evictionQueue = new ArrayDeque<>();
-    private final Map<String, List<TableEntry>> dynamicTable = new HashMap<>(); //TODO: use a custom data structure to reduce allocations
+    private static final int INITIAL_DYNAMIC_TABLE_CAPACITY = 16;
+
+    /*
+     * The dynamic table is held in a ring buffer with the oldest entry at
+     * dynamicFirst. Header fields are found with an open addressed index,
+     * using linear probing on the combined hash of the name and value, that
+     * holds the ring buffer slot of each entry plus one (zero marks an empty
+     * index position). Adding, finding and evicting entries therefore does not
+     * create any objects. Both arrays are sized as powers of two and the index
+     * is kept at least twice the size of the ring buffer.
+     */
+    private String[] dynamicNames = new String[INITIAL_DYNAMIC_TABLE_CAPACITY];
+    private String[] dynamicValues = new String[INITIAL_DYNAMIC_TABLE_CAPACITY];
+    private int[] dynamicHashes = new int[INITIAL_DYNAMIC_TABLE_CAPACITY];
+    private int[] dynamicIndex = new int[INITIAL_DYNAMIC_TABLE_CAPACITY * 2];
+    private int dynamicFirst;
+    private int dynamicCount;
 
     static {
         Map<String, TableEntry[]> map = new HashMap<>();
@@ -147,7 +156,7 @@ public class HpackEncoder {
                     if (log.isDebugEnabled()) {
                         log.debug(sm.getString("hpackEncoder.encodeHeader", headerName, val));
                     }
-                    TableEntry tableEntry = findInTable(headerName, val);
+                    int index = findInTable(headerName, val);
 
                     // We use 11 to make sure we have enough room for the
                     // variable length integers
@@ -160,36 +169,33 @@ public class HpackEncoder {
                     // Only index if it will fit
                     boolean canIndex = hpackHeaderFunction.shouldUseIndexing(headerName, val) &&
                             (headerName.length() + val.length() + 32) < maxTableSize;
-                    if (tableEntry == null && canIndex) {
+                    if (index == 0 && canIndex) {
                         //add the entry to the dynamic table
                         target.put((byte) (1 << 6));
                         writeHuffmanEncodableName(target, headerName);
                         writeHuffmanEncodableValue(target, headerName, val);
                         addToDynamicTable(headerName, val);
-                    } else if (tableEntry == null) {
+                    } else if (index == 0) {
                         //literal never indexed
                         target.put((byte) (1 << 4));
                         writeHuffmanEncodableName(target, headerName);
                         writeHuffmanEncodableValue(target, headerName, val);
+                    } else if (index > 0) {
+                        //the whole thing is in the table
+                        target.put((byte) (1 << 7));
+                        Hpack.encodeInteger(target, index, 7);
                     } else {
-                        //so we know something is already in the table
-                        if (val.equals(tableEntry.value)) {
-                            //the whole thing is in the table
-                            target.put((byte) (1 << 7));
-                            Hpack.encodeInteger(target, tableEntry.getPosition(), 7);
+                        //only the name is in the table
+                        if (canIndex) {
+                            //add the entry to the dynamic table
+                            target.put((byte) (1 << 6));
+                            Hpack.encodeInteger(target, -index, 6);
+                            writeHuffmanEncodableValue(target, headerName, val);
+                            addToDynamicTable(headerName, val);
                         } else {
-                            if (canIndex) {
-                                //add the entry to the dynamic table
-                                target.put((byte) (1 << 6));
-                                Hpack.encodeInteger(target, tableEntry.getPosition(), 6);
-                                writeHuffmanEncodableValue(target, headerName, val);
-                                addToDynamicTable(headerName, val);
-
-                            } else {
-                                target.put((byte) (1 << 4));
-                                Hpack.encodeInteger(target, tableEntry.getPosition(), 4);
-                                writeHuffmanEncodableValue(target, headerName, val);
-                            }
+                            target.put((byte) (1 << 4));
+                            Hpack.encodeInteger(target, -index, 4);
+                            writeHuffmanEncodableValue(target, headerName, val);
                         }
                     }
 
@@ -237,74 +243,150 @@ public class HpackEncoder {
     }
 
     private void addToDynamicTable(String headerName, String val) {
-        int pos = entryPositionCounter++;
-        DynamicTableEntry d = new DynamicTableEntry(headerName, val, -pos);
-        List<TableEntry> existing = dynamicTable.get(headerName);
-        if (existing == null) {
-            dynamicTable.put(headerName, existing = new ArrayList<>(1));
+        if (dynamicCount == dynamicNames.length) {
+            growDynamicTable();
         }
-        existing.add(d);
-        evictionQueue.add(d);
-        currentTableSize += d.size;
+        int slot = (dynamicFirst + dynamicCount) & (dynamicNames.length - 1);
+        int hash = hash(headerName, val);
+        dynamicNames[slot] = headerName;
+        dynamicValues[slot] = val;
+        dynamicHashes[slot] = hash;
+        dynamicCount++;
+        addToIndex(slot, hash);
+        currentTableSize += entrySize(headerName, val);
         runEvictionIfRequired();
-        if (entryPositionCounter == Integer.MAX_VALUE) {
-            //prevent rollover
-            preventPositionRollover();
-        }
+    }
+
 
+    private void growDynamicTable() {
+        int capacity = dynamicNames.length;
+        String[] names = new String[capacity * 2];
+        String[] values = new String[capacity * 2];
+        int[] hashes = new int[capacity * 2];
+        // Unwrap the ring buffer so the oldest entry is in slot zero
+        for (int i = 0; i < dynamicCount; i++) {
+            int slot = (dynamicFirst + i) & (capacity - 1);
+            names[i] = dynamicNames[slot];
+            values[i] = dynamicValues[slot];
+            hashes[i] = dynamicHashes[slot];
+        }
+        dynamicNames = names;
+        dynamicValues = values;
+        dynamicHashes = hashes;
+        dynamicFirst = 0;
+        dynamicIndex = new int[capacity * 4];
+        for (int i = 0; i < dynamicCount; i++) {
+            addToIndex(i, hashes[i]);
+        }
     }
 
 
-    private void preventPositionRollover() {
-        //if the position counter is about to roll over we iterate all the table entries
-        //and set their position to their actual position
-        for (Map.Entry<String, List<TableEntry>> entry : dynamicTable.entrySet()) {
-            for (TableEntry t : entry.getValue()) {
-                t.position = t.getPosition();
-            }
+    private void addToIndex(int slot, int hash) {
+        int mask = dynamicIndex.length - 1;
+        int i = spread(hash) & mask;
+        while (dynamicIndex[i] != 0) {
+            i = (i + 1) & mask;
         }
-        entryPositionCounter = 0;
+        dynamicIndex[i] = slot + 1;
     }
 
-    private void runEvictionIfRequired() {
 
-        while (currentTableSize > maxTableSize) {
-            TableEntry next = evictionQueue.poll();
-            if (next == null) {
-                return;
+    private void removeFromIndex(int slot) {
+        int mask = dynamicIndex.length - 1;
+        int hole = spread(dynamicHashes[slot]) & mask;
+        while (dynamicIndex[hole] != slot + 1) {
+            hole = (hole + 1) & mask;
+        }
+        // Move any later entries in the same probe sequence into the hole so
+        // they can still be found without the need for tombstones
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            int entry = dynamicIndex[i];
+            if (entry == 0) {
+                break;
             }
-            currentTableSize -= next.size;
-            List<TableEntry> list = dynamicTable.get(next.name);
-            list.remove(next);
-            if (list.isEmpty()) {
-                dynamicTable.remove(next.name);
+            int home = spread(dynamicHashes[entry - 1]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                dynamicIndex[hole] = entry;
+                hole = i;
             }
         }
+        dynamicIndex[hole] = 0;
+    }
+
+
+    private void runEvictionIfRequired() {
+        while (currentTableSize > maxTableSize && dynamicCount > 0) {
+            int slot = dynamicFirst;
+            removeFromIndex(slot);
+            currentTableSize -= entrySize(dynamicNames[slot], dynamicValues[slot]);
+            dynamicNames[slot] = null;
+            dynamicValues[slot] = null;
+            dynamicFirst = (slot + 1) & (dynamicNames.length - 1);
+            dynamicCount--;
+        }
     }
 
-    private TableEntry findInTable(String headerName, String value) {
+
+    /**
+     * Look for the given header in the static and dynamic tables.
+     *
+     * @param headerName The header name
+     * @param value      The header value
+     *
+     * @return The HPACK index of an entry with the same name and value if
+     *         there is one, otherwise the negated HPACK index of a static
+     *         table entry with the same name if there is one, otherwise zero
+     */
+    private int findInTable(String headerName, String value) {
         TableEntry[] staticTable = ENCODING_STATIC_TABLE.get(headerName);
         if (staticTable != null) {
             for (TableEntry st : staticTable) {
-                if (st.value != null && st.value.equals(value)) { //todo: some form of lookup?
-                    return st;
+                if (st.value != null && st.value.equals(value)) {
+                    return st.position;
                 }
             }
         }
-        List<TableEntry> dynamic = dynamicTable.get(headerName);
-        if (dynamic != null) {
-            for (TableEntry st : dynamic) {
-                if (st.value.equals(value)) { //todo: some form of lookup?
-                    return st;
+        if (dynamicCount > 0) {
+            int hash = hash(headerName, value);
+            int mask = dynamicIndex.length - 1;
+            int i = spread(hash) & mask;
+            int entry;
+            while ((entry = dynamicIndex[i]) != 0) {
+                int slot = entry - 1;
+                if (dynamicHashes[slot] == hash && dynamicValues[slot].equals(value) &&
+                        dynamicNames[slot].equals(headerName)) {
+                    // The most recently added entry has the lowest index
+                    int newest = (dynamicFirst + dynamicCount - 1) & (dynamicNames.length - 1);
+                    return Hpack.STATIC_TABLE_LENGTH + 1 +
+                            ((newest - slot) & (dynamicNames.length - 1));
                 }
+                i = (i + 1) & mask;
             }
         }
         if (staticTable != null) {
-            return staticTable[0];
+            return -staticTable[0].position;
         }
-        return null;
+        return 0;
     }
 
+
+    private static int hash(String headerName, String value) {
+        return headerName.hashCode() * 31 + value.hashCode();
+    }
+
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+
+    private static int entrySize(String headerName, String value) {
+        return 32 + headerName.length() + value.length();
+    }
+
+
     public void setMaxTableSize(int newSize) {
         this.newMaxHeaderSize = newSize;
         if (minNewMaxHeaderSize == -1) {
@@ -339,34 +421,12 @@ public class HpackEncoder {
     static class TableEntry {
         final String name;
         final String value;
-        final int size;
-        int position;
+        final int position;
 
         TableEntry(String name, String value, int position) {
             this.name = name;
             this.value = value;
             this.position = position;
-            if (value != null) {
-                this.size = 32 + name.length() + value.length();
-            } else {
-                this.size = -1;
-            }
-        }
-
-        public int getPosition() {
-            return position;
-        }
-    }
-
-    class DynamicTableEntry extends TableEntry {
-
-        DynamicTableEntry(String name, String value, int position) {
-            super(name, value, position);
-        }
-
-        @Override
-        public int getPosition() {
-            return super.getPosition() + entryPositionCounter + Hpack.STATIC_TABLE_LENGTH;
         }
     }
 
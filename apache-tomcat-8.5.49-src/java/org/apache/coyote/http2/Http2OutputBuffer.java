@@ -18,6 +18,8 @@ package org.apache.coyote.http2;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.HttpOutputBuffer;
@@ -28,6 +30,7 @@ import org.apache.tomcat.util.buf.ByteChunk;
 public class Http2OutputBuffer implements HttpOutputBuffer {
 
     private final Response coyoteResponse;
+    private final List<OutputFilter> filters = new ArrayList<>(1);
     private HttpOutputBuffer next;
 
 
@@ -43,15 +46,42 @@ public class Http2OutputBuffer implements HttpOutputBuffer {
     public void addFilter(OutputFilter filter) {
         filter.setBuffer(next);
         next = filter;
+        filters.add(filter);
     }
 
 
-    public Http2OutputBuffer(Response coyoteResponse, StreamOutputBuffer streamOutputBuffer) {
+    public Http2OutputBuffer(Response coyoteResponse) {
         this.coyoteResponse = coyoteResponse;
+    }
+
+
+    /**
+     * Set the buffer at the end of the processing chain. Any filters added
+     * previously are removed.
+     *
+     * @param streamOutputBuffer    The buffer for the stream the response is
+     *                              being written to
+     */
+    void setStreamOutputBuffer(StreamOutputBuffer streamOutputBuffer) {
+        recycleFilters();
         this.next = streamOutputBuffer;
     }
 
 
+    void recycle() {
+        recycleFilters();
+        next = null;
+    }
+
+
+    private void recycleFilters() {
+        for (OutputFilter filter : filters) {
+            filter.recycle();
+        }
+        filters.clear();
+    }
+
+
     @Override
     public int doWrite(ByteBuffer chunk) throws IOException {
         if (!coyoteResponse.isCommitted()) {
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import org.apache.coyote.Adapter;
@@ -37,6 +38,8 @@ import org.apache.coyote.UpgradeToken;
 import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorInternal;
 import org.apache.tomcat.util.buf.StringUtils;
+import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.SocketWrapperBase;
 
 public class Http2Protocol implements UpgradeProtocol {
@@ -57,6 +60,8 @@ public class Http2Protocol implements UpgradeProtocol {
     static final int DEFAULT_OVERHEAD_DATA_THRESHOLD = 1024;
     static final int DEFAULT_OVERHEAD_WINDOW_UPDATE_THRESHOLD = 1024;
 
+    static final int DEFAULT_PROCESSOR_CACHE = 200;
+
     private static final String HTTP_UPGRADE_NAME = "h2c";
     private static final String ALPN_NAME = "h2";
     private static final byte[] ALPN_IDENTIFIER = ALPN_NAME.getBytes(StandardCharsets.UTF_8);
@@ -91,6 +96,12 @@ public class Http2Protocol implements UpgradeProtocol {
     // Compression
     private final CompressionConfig compressionConfig = new CompressionConfig();
 
+    // StreamProcessors (with their requests and responses) available for
+    // re-use by new streams on any connection using this protocol
+    private int processorCache = DEFAULT_PROCESSOR_CACHE;
+    private final SynchronizedStack<StreamProcessor> recycledProcessors = new SynchronizedStack<>();
+    private final AtomicInteger recycledProcessorCount = new AtomicInteger(0);
+
     @Override
     public String getHttpUpgradeName(boolean isSSLEnabled) {
         if (isSSLEnabled) {
@@ -161,6 +172,39 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    StreamProcessor popStreamProcessor(AbstractEndpoint<?> endpoint) {
+        StreamProcessor processor = recycledProcessors.pop();
+        if (processor == null) {
+            processor = new StreamProcessor(endpoint);
+        } else {
+            // OK if the count is briefly out of step with the stack
+            recycledProcessorCount.decrementAndGet();
+        }
+        return processor;
+    }
+
+
+    void pushStreamProcessor(StreamProcessor processor) {
+        processor.recycle();
+        // Cache size may be exceeded by a few processors
+        if (processorCache == -1 || recycledProcessorCount.get() < processorCache) {
+            if (recycledProcessors.push(processor)) {
+                recycledProcessorCount.incrementAndGet();
+            }
+        }
+    }
+
+
+    public int getProcessorCache() {
+        return processorCache;
+    }
+
+
+    public void setProcessorCache(int processorCache) {
+        this.processorCache = processorCache;
+    }
+
+
     public long getReadTimeout() {
         return readTimeout;
     }
@@ -396,6 +440,14 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    public int getDeflateLevel() {
+        return compressionConfig.getDeflateLevel();
+    }
+    public void setDeflateLevel(int deflateLevel) {
+        compressionConfig.setDeflateLevel(deflateLevel);
+    }
+
+
     public boolean useCompression(Request request, Response response) {
         return compressionConfig.useCompression(request, response);
     }
@@ -20,11 +20,16 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
@@ -34,6 +39,8 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.servlet.http.WebConnection;
 
@@ -95,11 +102,35 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
     private static final HeaderSink HEADER_SINK = new HeaderSink();
 
+    private static final int MAX_PUSHED_PATHS = 256;
+
     private final String connectionId;
 
     private final Http2Protocol protocol;
     private final Adapter adapter;
     private volatile SocketWrapperBase<?> socketWrapper;
+    private volatile FrameOutbox outbox;
+    /*
+     * While incoming frames are being processed, the responses to control
+     * frames and the window updates for padding are held back and written
+     * together once there are no more complete frames to process. Window
+     * updates for the same stream are combined. Those for data read by the
+     * application are held back until half of the receive window is in use.
+     * The control frame responses are only accessed by the thread processing
+     * the frames.
+     */
+    private volatile boolean deferControlFrames = false;
+    private final List<ByteBuffer> pendingControlFrames = new ArrayList<>();
+    private final Queue<Stream> pendingWindowUpdateStreams = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingConnectionWindowUpdate = new AtomicInteger(0);
+    private volatile boolean windowUpdateRequired = false;
+    // Held while taking the pending window updates and queuing them so that
+    // once a thread finds none pending, they are already ahead of any frame it
+    // writes next
+    private final Object windowUpdateLock = new Object();
+    // Received in DATA frames and not yet returned by a connection window
+    // update
+    private final AtomicLong receiveWindowUsed = new AtomicLong(0);
     private volatile SSLSupport sslSupport;
 
     private volatile Http2Parser parser;
@@ -122,6 +153,8 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
     private HpackDecoder hpackDecoder;
     private HpackEncoder hpackEncoder;
+    // Header blocks must be written in the order they are encoded
+    private final Lock headerWriteLock = new ReentrantLock();
 
     // All timeouts in milliseconds
     private long readTimeout = Http2Protocol.DEFAULT_READ_TIMEOUT;
@@ -134,10 +167,22 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     private volatile int maxActiveRemoteStreamId = -1;
     private volatile int maxProcessedStreamId;
     private final AtomicInteger nextLocalStreamId = new AtomicInteger(2);
+    // Paths recently pushed to the client on this connection
+    private final Map<String,Boolean> pushedPaths =
+            new LinkedHashMap<String,Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest) {
+            return size() > MAX_PUSHED_PATHS;
+        }
+    };
     private final PingManager pingManager = new PingManager();
     private volatile int newStreamsSinceLastPrune = 0;
     private final ConcurrentMap<AbstractStream, BacklogTracker> backLogStreams = new ConcurrentHashMap<>();
     private long backLogSize = 0;
+    // Set when the priority tree changes so the backlog schedule is rebuilt
+    // before the connection window is next allocated
+    private volatile boolean backLogScheduleStale = false;
     // The time at which the connection will timeout unless data arrives before
     // then. -1 means no timeout.
     private volatile long connectionTimeout = -1;
@@ -266,7 +311,11 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
 
     private void processStreamOnContainerThread(Stream stream) {
-        StreamProcessor streamProcessor = new StreamProcessor(this, stream, adapter, socketWrapper);
+        StreamProcessor streamProcessor = stream.getStreamProcessor();
+        if (streamProcessor == null) {
+            // HTTP/1.1 upgrade or push
+            streamProcessor = new StreamProcessor(this, stream, adapter, socketWrapper);
+        }
         streamProcessor.setSslSupport(sslSupport);
         processStreamOnContainerThread(streamProcessor, SocketEvent.OPEN_READ);
     }
@@ -290,6 +339,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     @Override
     public void setSocketWrapper(SocketWrapperBase<?> wrapper) {
         this.socketWrapper = wrapper;
+        this.outbox = new FrameOutbox(wrapper);
     }
 
 
@@ -323,28 +373,36 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                     socketWrapper.setReadTimeout(getReadTimeout());
                     // ... and disable the connection timeout
                     setConnectionTimeout(-1);
-                    while (true) {
-                        try {
-                            if (!parser.readFrame(false)) {
-                                break;
+                    deferControlFrames = true;
+                    try {
+                        while (true) {
+                            try {
+                                if (!parser.readFrame(false)) {
+                                    break;
+                                }
+                            } catch (StreamException se) {
+                                // Stream errors are not fatal to the connection
+                                // so continue reading frames
+                                Stream stream = getStream(se.getStreamId(), false);
+                                if (stream == null) {
+                                    sendStreamReset(se);
+                                } else {
+                                    stream.close(se);
+                                }
                             }
-                        } catch (StreamException se) {
-                            // Stream errors are not fatal to the connection so
-                            // continue reading frames
-                            Stream stream = getStream(se.getStreamId(), false);
-                            if (stream == null) {
-                                sendStreamReset(se);
-                            } else {
-                                stream.close(se);
+                            if (overheadCount.get() > 0) {
+                                throw new ConnectionException(
+                                        sm.getString("upgradeHandler.tooMuchOverhead", connectionId),
+                                        Http2Error.ENHANCE_YOUR_CALM);
                             }
                         }
-                        if (overheadCount.get() > 0) {
-                            throw new ConnectionException(
-                                    sm.getString("upgradeHandler.tooMuchOverhead", connectionId),
-                                    Http2Error.ENHANCE_YOUR_CALM);
-                        }
+                    } finally {
+                        deferControlFrames = false;
                     }
 
+                    // Respond to the control frames read above
+                    writeControlFrames();
+
                     // Need to know the correct timeout before starting the read
                     // but that may not be known at this time if one or more
                     // requests are currently being processed so don't set a
@@ -447,6 +505,14 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    StreamProcessor popStreamProcessor(Stream stream) {
+        StreamProcessor streamProcessor = protocol.popStreamProcessor(
+                socketWrapper == null ? null : socketWrapper.getEndpoint());
+        streamProcessor.init(this, stream, adapter, socketWrapper);
+        return streamProcessor;
+    }
+
+
     Http2Protocol getProtocol() {
         return protocol;
     }
@@ -534,10 +600,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         // Payload
         ByteUtil.setFourBytes(rstFrame, 9, se.getError().getCode());
 
-        synchronized (socketWrapper) {
-            socketWrapper.write(true, rstFrame, 0, rstFrame.length);
-            socketWrapper.flush(true);
-        }
+        outbox.write(ByteBuffer.wrap(rstFrame));
     }
 
 
@@ -622,23 +685,18 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         byte[] payloadLength = new byte[3];
         ByteUtil.setThreeBytes(payloadLength, 0, len);
 
-        synchronized (socketWrapper) {
-            socketWrapper.write(true, payloadLength, 0, payloadLength.length);
-            socketWrapper.write(true, GOAWAY, 0, GOAWAY.length);
-            socketWrapper.write(true, fixedPayload, 0, 8);
-            if (debugMsg != null) {
-                socketWrapper.write(true, debugMsg, 0, debugMsg.length);
-            }
-            socketWrapper.flush(true);
+        if (debugMsg == null) {
+            outbox.write(ByteBuffer.wrap(payloadLength), ByteBuffer.wrap(GOAWAY),
+                    ByteBuffer.wrap(fixedPayload));
+        } else {
+            outbox.write(ByteBuffer.wrap(payloadLength), ByteBuffer.wrap(GOAWAY),
+                    ByteBuffer.wrap(fixedPayload), ByteBuffer.wrap(debugMsg));
         }
     }
 
     void writeHeaders(Stream stream, int pushedStreamId, MimeHeaders mimeHeaders,
             boolean endOfStream, int payloadSize) throws IOException {
-        // This ensures the Stream processing thread has control of the socket.
-        synchronized (socketWrapper) {
-            doWriteHeaders(stream, pushedStreamId, mimeHeaders, endOfStream, payloadSize);
-        }
+        doWriteHeaders(stream, pushedStreamId, mimeHeaders, endOfStream, payloadSize);
         stream.sentHeaders();
         if (endOfStream) {
             stream.sentEndOfStream();
@@ -647,8 +705,9 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
 
     /*
-     * Separate method to allow Http2AsyncUpgradeHandler to call this code
-     * without synchronizing on socketWrapper since it doesn't need to.
+     * The header block is encoded and queued while holding headerWriteLock so
+     * the frames are written in the same order as the HPACK encoder state was
+     * updated. The wait for the write happens after the lock is released.
      */
     protected void doWriteHeaders(Stream stream, int pushedStreamId,
             MimeHeaders mimeHeaders, boolean endOfStream, int payloadSize) throws IOException {
@@ -668,57 +727,72 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             return;
         }
 
-        byte[] header = new byte[9];
-        ByteBuffer payload = ByteBuffer.allocate(payloadSize);
-
-        byte[] pushedStreamIdBytes = null;
-        if (pushedStreamId > 0) {
-            pushedStreamIdBytes = new byte[4];
-            ByteUtil.set31Bits(pushedStreamIdBytes, 0, pushedStreamId);
-        }
+        List<ByteBuffer> buffers = new ArrayList<>();
+        FrameOutbox.Frame frame;
 
-        boolean first = true;
-        State state = null;
+        headerWriteLock.lock();
+        try {
+            ByteBuffer payload = ByteBuffer.allocate(payloadSize);
 
-        while (state != State.COMPLETE) {
-            if (first && pushedStreamIdBytes != null) {
-                payload.put(pushedStreamIdBytes);
+            byte[] pushedStreamIdBytes = null;
+            if (pushedStreamId > 0) {
+                pushedStreamIdBytes = new byte[4];
+                ByteUtil.set31Bits(pushedStreamIdBytes, 0, pushedStreamId);
             }
-            state = getHpackEncoder().encode(mimeHeaders, payload);
-            payload.flip();
-            if (state == State.COMPLETE || payload.limit() > 0) {
-                ByteUtil.setThreeBytes(header, 0, payload.limit());
-                if (first) {
-                    first = false;
-                    if (pushedStreamIdBytes == null) {
-                        header[3] = FrameType.HEADERS.getIdByte();
+
+            boolean first = true;
+            State state = null;
+
+            while (state != State.COMPLETE) {
+                if (first && pushedStreamIdBytes != null) {
+                    payload.put(pushedStreamIdBytes);
+                }
+                state = getHpackEncoder().encode(mimeHeaders, payload);
+                payload.flip();
+                if (state == State.COMPLETE || payload.limit() > 0) {
+                    byte[] header = new byte[9];
+                    ByteUtil.setThreeBytes(header, 0, payload.limit());
+                    if (first) {
+                        first = false;
+                        if (pushedStreamIdBytes == null) {
+                            header[3] = FrameType.HEADERS.getIdByte();
+                        } else {
+                            header[3] = FrameType.PUSH_PROMISE.getIdByte();
+                        }
+                        if (endOfStream) {
+                            header[4] = FLAG_END_OF_STREAM;
+                        }
                     } else {
-                        header[3] = FrameType.PUSH_PROMISE.getIdByte();
+                        header[3] = FrameType.CONTINUATION.getIdByte();
                     }
-                    if (endOfStream) {
-                        header[4] = FLAG_END_OF_STREAM;
+                    if (state == State.COMPLETE) {
+                        header[4] += FLAG_END_OF_HEADERS;
                     }
-                } else {
-                    header[3] = FrameType.CONTINUATION.getIdByte();
-                }
-                if (state == State.COMPLETE) {
-                    header[4] += FLAG_END_OF_HEADERS;
-                }
-                if (log.isDebugEnabled()) {
-                    log.debug(payload.limit() + " bytes");
-                }
-                ByteUtil.set31Bits(header, 5, stream.getIdAsInt());
-                try {
-                    socketWrapper.write(true, header, 0, header.length);
-                    socketWrapper.write(true, payload);
-                    socketWrapper.flush(true);
-                } catch (IOException ioe) {
-                    handleAppInitiatedIOException(ioe);
+                    if (log.isDebugEnabled()) {
+                        log.debug(payload.limit() + " bytes");
+                    }
+                    ByteUtil.set31Bits(header, 5, stream.getIdAsInt());
+                    // The HEADERS frame and any CONTINUATION frames are
+                    // queued together so no other frame can be written
+                    // between them
+                    buffers.add(ByteBuffer.wrap(header));
+                    buffers.add(payload);
+                    if (state != State.COMPLETE) {
+                        payload = ByteBuffer.allocate(payload.capacity());
+                    }
+                } else if (state == State.UNDERFLOW) {
+                    payload = ByteBuffer.allocate(payload.capacity() * 2);
                 }
-                payload.clear();
-            } else if (state == State.UNDERFLOW) {
-                payload = ByteBuffer.allocate(payload.capacity() * 2);
             }
+            frame = outbox.enqueue(buffers.toArray(new ByteBuffer[0]));
+        } finally {
+            headerWriteLock.unlock();
+        }
+
+        try {
+            outbox.await(frame);
+        } catch (IOException ioe) {
+            handleAppInitiatedIOException(ioe);
         }
     }
 
@@ -755,18 +829,14 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         }
         if (writeable) {
             ByteUtil.set31Bits(header, 5, stream.getIdAsInt());
-            synchronized (socketWrapper) {
-                try {
-                    socketWrapper.write(true, header, 0, header.length);
-                    int orgLimit = data.limit();
-                    data.limit(data.position() + len);
-                    socketWrapper.write(true, data);
-                    data.limit(orgLimit);
-                    socketWrapper.flush(true);
-                } catch (IOException ioe) {
-                    handleAppInitiatedIOException(ioe);
-                }
+            ByteBuffer payload = data.duplicate();
+            payload.limit(data.position() + len);
+            try {
+                outbox.write(ByteBuffer.wrap(header), payload);
+            } catch (IOException ioe) {
+                handleAppInitiatedIOException(ioe);
             }
+            data.position(data.position() + len);
         }
     }
 
@@ -796,34 +866,142 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         if (!stream.canWrite()) {
             return;
         }
-        synchronized (socketWrapper) {
-            // Build window update frame for stream 0
-            byte[] frame = new byte[13];
-            ByteUtil.setThreeBytes(frame, 0,  4);
-            frame[3] = FrameType.WINDOW_UPDATE.getIdByte();
-            ByteUtil.set31Bits(frame, 9, increment);
-            socketWrapper.write(true, frame, 0, frame.length);
-            // Change stream Id and re-use
-            ByteUtil.set31Bits(frame, 5, stream.getIdAsInt());
-            try {
-                socketWrapper.write(true, frame, 0, frame.length);
-                socketWrapper.flush(true);
-            } catch (IOException ioe) {
-                if (applicationInitiated) {
-                    handleAppInitiatedIOException(ioe);
-                } else {
-                    throw ioe;
-                }
+        // Increments for the same stream are combined until they are written
+        if (stream.addPendingWindowUpdate(increment)) {
+            pendingWindowUpdateStreams.add(stream);
+        }
+        pendingConnectionWindowUpdate.addAndGet(increment);
+        if (applicationInitiated) {
+            // Combined with the increments for later reads until the client
+            // has used half of the window or the input is complete. The
+            // window only shrinks when DATA frames are received and that
+            // check is repeated once they have been processed.
+            if (!stream.isInputFinished() && !isReceiveWindowLow()) {
+                return;
+            }
+        } else if (deferControlFrames) {
+            // Generated while processing incoming frames. Written once there
+            // are no more frames to process.
+            windowUpdateRequired = true;
+            return;
+        }
+        writePendingWindowUpdates(applicationInitiated);
+    }
+
+
+    /*
+     * Data received for any stream counts towards the connection window so
+     * while less than half of that is in use, the same is true of the window
+     * of every stream.
+     */
+    private boolean isReceiveWindowLow() {
+        return receiveWindowUsed.get() >= localSettings.getInitialWindowSize() / 2;
+    }
+
+
+    /*
+     * Writes the window updates held back for data the application has read
+     * from the given stream. Called by the application once it has reached
+     * the end of the input and before the response headers are written so
+     * the response does not overtake them.
+     */
+    void writePendingWindowUpdates(Stream stream) throws IOException {
+        if (stream.hasPendingWindowUpdate()) {
+            writePendingWindowUpdates(true);
+        }
+    }
+
+
+    private void writePendingWindowUpdates(boolean applicationInitiated) throws IOException {
+        FrameOutbox.Frame frame;
+        synchronized (windowUpdateLock) {
+            List<ByteBuffer> frames = new ArrayList<>();
+            addPendingWindowUpdates(frames);
+            if (frames.isEmpty()) {
+                // Already queued by another thread
+                return;
+            }
+            frame = outbox.enqueue(frames.toArray(new ByteBuffer[0]));
+        }
+        try {
+            outbox.await(frame);
+        } catch (IOException ioe) {
+            if (applicationInitiated) {
+                handleAppInitiatedIOException(ioe);
+            } else {
+                throw ioe;
             }
         }
     }
 
 
+    /*
+     * Writes the responses to control frames and the window updates that were
+     * deferred while incoming frames were being processed. Only called by the
+     * thread processing incoming frames.
+     */
+    private void writeControlFrames() throws IOException {
+        List<ByteBuffer> frames = new ArrayList<>(pendingControlFrames);
+        pendingControlFrames.clear();
+        FrameOutbox.Frame frame = null;
+        synchronized (windowUpdateLock) {
+            if (windowUpdateRequired || isReceiveWindowLow()) {
+                windowUpdateRequired = false;
+                addPendingWindowUpdates(frames);
+            }
+            if (!frames.isEmpty()) {
+                frame = outbox.enqueue(frames.toArray(new ByteBuffer[0]));
+            }
+        }
+        if (frame != null) {
+            outbox.await(frame);
+        }
+    }
+
+
+    private void addPendingWindowUpdates(List<ByteBuffer> frames) {
+        int connectionIncrement = pendingConnectionWindowUpdate.getAndSet(0);
+        if (connectionIncrement > 0) {
+            receiveWindowUsed.addAndGet(-connectionIncrement);
+            frames.add(createWindowUpdate(0, connectionIncrement));
+        }
+        Stream stream;
+        while ((stream = pendingWindowUpdateStreams.poll()) != null) {
+            int increment = stream.takePendingWindowUpdate();
+            if (increment > 0 && stream.canWrite()) {
+                frames.add(createWindowUpdate(stream.getIdAsInt(), increment));
+            }
+        }
+    }
+
+
+    private static ByteBuffer createWindowUpdate(int streamId, int increment) {
+        byte[] frame = new byte[13];
+        ByteUtil.setThreeBytes(frame, 0,  4);
+        frame[3] = FrameType.WINDOW_UPDATE.getIdByte();
+        ByteUtil.set31Bits(frame, 5, streamId);
+        ByteUtil.set31Bits(frame, 9, increment);
+        return ByteBuffer.wrap(frame);
+    }
+
+
+    private void writeControlFrame(ByteBuffer... buffers) throws IOException {
+        if (deferControlFrames) {
+            Collections.addAll(pendingControlFrames, buffers);
+        } else {
+            outbox.write(buffers);
+        }
+    }
+
+
     private void processWrites() throws IOException {
-        synchronized (socketWrapper) {
+        socketWrapper.getLock().lock();
+        try {
             if (socketWrapper.flush(false)) {
                 socketWrapper.registerWriteInterest();
             }
+        } finally {
+            socketWrapper.getLock().unlock();
         }
     }
 
@@ -845,19 +1023,25 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                         // Has this stream been granted an allocation
                         BacklogTracker tracker = backLogStreams.get(stream);
                         if (tracker == null) {
-                            tracker = new BacklogTracker(reservation);
+                            tracker = new BacklogTracker(stream, reservation);
                             backLogStreams.put(stream, tracker);
                             backLogSize += reservation;
-                            // Add the parents as well
-                            AbstractStream parent = stream.getParentStream();
-                            while (parent != null && backLogStreams.putIfAbsent(parent, new BacklogTracker()) == null) {
-                                parent = parent.getParentStream();
-                            }
+                            // Add the stream, and its parents, to the schedule
+                            schedule(tracker);
+                        } else if (tracker.getRemainingReservation() == 0 &&
+                                tracker.getUnusedAllocation() == 0) {
+                            // This stream was added to the backlog as the
+                            // parent of another stream. It now needs an
+                            // allocation of its own.
+                            tracker.reserve(reservation);
+                            backLogSize += reservation;
+                            schedule(tracker);
                         } else {
                             if (tracker.getUnusedAllocation() > 0) {
                                 allocation = tracker.getUnusedAllocation();
                                 decrementWindowSize(allocation);
-                                if (tracker.getRemainingReservation() == 0) {
+                                if (tracker.getRemainingReservation() == 0 &&
+                                        !tracker.hasScheduledWork()) {
                                     // The reservation has been fully allocated
                                     // so this stream can be removed from the
                                     // backlog.
@@ -964,18 +1148,37 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             backLogStreams.clear();
             backLogSize = 0;
         } else {
+            BacklogTracker root = getBacklogRoot();
+            if (backLogScheduleStale) {
+                backLogScheduleStale = false;
+                rebuildSchedule(root);
+            }
+            List<BacklogTracker> path = new ArrayList<>();
             int leftToAllocate = increment;
-            while (leftToAllocate > 0) {
-                leftToAllocate = allocate(this, leftToAllocate);
-            }
-            for (Entry<AbstractStream,BacklogTracker> entry : backLogStreams.entrySet()) {
-                int allocation = entry.getValue().getUnusedAllocation();
-                if (allocation > 0) {
-                    backLogSize -= allocation;
-                    if (!entry.getValue().isNotifyInProgress()) {
-                        result.add(entry.getKey());
-                        entry.getValue().startNotify();
-                    }
+            while (leftToAllocate > 0 && root.hasScheduledWork()) {
+                leftToAllocate -= allocate(root, leftToAllocate, path, result);
+            }
+            backLogSize -= increment - leftToAllocate;
+
+            Iterator<Entry<AbstractStream,BacklogTracker>> iter =
+                    backLogStreams.entrySet().iterator();
+            while (iter.hasNext()) {
+                BacklogTracker tracker = iter.next().getValue();
+                if (tracker.getRemainingReservation() == 0 &&
+                        tracker.getUnusedAllocation() == 0 && !tracker.hasScheduledWork()) {
+                    // Nothing left to allocate to this stream or any of its
+                    // descendants
+                    iter.remove();
+                }
+            }
+
+            Iterator<AbstractStream> notifyIter = result.iterator();
+            while (notifyIter.hasNext()) {
+                BacklogTracker tracker = backLogStreams.get(notifyIter.next());
+                if (tracker == null || tracker.isNotifyInProgress()) {
+                    notifyIter.remove();
+                } else {
+                    tracker.startNotify();
                 }
             }
         }
@@ -983,81 +1186,129 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
-
-    @Override
-    @Deprecated
-    protected synchronized void doNotifyAll() {
-        // NO-OP. Unused.
+    /*
+     * Called when the priority tree changes. The structure of the schedule
+     * used to allocate the connection window follows the priority tree so it
+     * needs to be rebuilt.
+     */
+    void priorityTreeChanged() {
+        backLogScheduleStale = true;
     }
 
 
-    private int allocate(AbstractStream stream, int allocation) {
-        if (log.isDebugEnabled()) {
-            log.debug(sm.getString("upgradeHandler.allocate.debug", getConnectionId(),
-                    stream.getIdentifier(), Integer.toString(allocation)));
+    private BacklogTracker getBacklogRoot() {
+        BacklogTracker root = backLogStreams.get(this);
+        if (root == null) {
+            root = new BacklogTracker(this);
+            backLogStreams.put(this, root);
         }
-        // Allocate to the specified stream
-        BacklogTracker tracker = backLogStreams.get(stream);
-
-        int leftToAllocate = tracker.allocate(allocation);
+        return root;
+    }
 
-        if (leftToAllocate == 0) {
-            return 0;
-        }
 
-        if (log.isDebugEnabled()) {
-            log.debug(sm.getString("upgradeHandler.allocate.left",
-                    getConnectionId(), stream.getIdentifier(), Integer.toString(leftToAllocate)));
+    /*
+     * Add a stream that needs an allocation to the schedule used to allocate
+     * the connection window along with any of its ancestors that are not
+     * already scheduled. The schedule is retained between releases of the
+     * backlog so this is O(log n) per level of the priority tree.
+     */
+    private void schedule(BacklogTracker tracker) {
+        BacklogTracker root = getBacklogRoot();
+        BacklogTracker child = tracker;
+        while (child != root && !child.isScheduled()) {
+            AbstractStream parent = child.getStream().getParentStream();
+            BacklogTracker parentTracker;
+            if (parent == null || parent == this) {
+                parentTracker = root;
+            } else {
+                parentTracker = backLogStreams.get(parent);
+                if (parentTracker == null) {
+                    parentTracker = new BacklogTracker(parent);
+                    backLogStreams.put(parent, parentTracker);
+                }
+            }
+            parentTracker.schedule(child);
+            child = parentTracker;
         }
+    }
 
-        // Recipients are children of the current stream that are in the
-        // backlog.
-        Set<AbstractStream> recipients = new HashSet<>();
-        recipients.addAll(stream.getChildStreams());
-        recipients.retainAll(backLogStreams.keySet());
 
-        // Loop until we run out of allocation or recipients
-        while (leftToAllocate > 0) {
-            if (recipients.size() == 0) {
-                backLogStreams.remove(stream);
-                return leftToAllocate;
+    /*
+     * Rearrange the schedule to match the current priority tree. Only streams
+     * that need an allocation and their ancestors are included. The virtual
+     * times that track the share of the window each stream has received are
+     * retained for as long as the stream remains in the backlog.
+     */
+    private void rebuildSchedule(BacklogTracker root) {
+        for (BacklogTracker tracker : backLogStreams.values()) {
+            tracker.clearSchedule();
+        }
+        // Copy the entries as parents may be added to the backlog below
+        List<BacklogTracker> trackers = new ArrayList<>(backLogStreams.values());
+        for (BacklogTracker tracker : trackers) {
+            if (tracker.getRemainingReservation() > 0 && tracker != root) {
+                schedule(tracker);
             }
+        }
+    }
 
-            int totalWeight = 0;
-            for (AbstractStream recipient : recipients) {
-                if (log.isDebugEnabled()) {
-                    log.debug(sm.getString("upgradeHandler.allocate.recipient",
-                            getConnectionId(), stream.getIdentifier(), recipient.getIdentifier(),
-                            Integer.toString(recipient.getWeight())));
-                }
-                totalWeight += recipient.getWeight();
-            }
 
-            // Use an Iterator so fully allocated children/recipients can be
-            // removed.
-            Iterator<AbstractStream> iter = recipients.iterator();
-            int allocated = 0;
-            while (iter.hasNext()) {
-                AbstractStream recipient = iter.next();
-                int share = leftToAllocate * recipient.getWeight() / totalWeight;
-                if (share == 0) {
-                    // This is to avoid rounding issues triggering an infinite
-                    // loop. It will cause a very slight over allocation but
-                    // HTTP/2 should cope with that.
-                    share = 1;
-                }
-                int remainder = allocate(recipient, share);
-                // Remove recipients that receive their full allocation so that
-                // they are excluded from the next allocation round.
-                if (remainder > 0) {
-                    iter.remove();
-                }
-                allocated += (share - remainder);
+    /*
+     * Allocates a single slice of the connection window using weighted fair
+     * queuing. Starting at the root, each level of the priority tree selects
+     * the child with the lowest virtual time. A stream that needs an
+     * allocation is served before its descendants. The virtual time of each
+     * stream on the path is then advanced by the size of the allocation
+     * divided by the weight of the stream so, over time, siblings receive
+     * shares of the window in proportion to their weights. Each step is
+     * O(log n) per level of the tree.
+     *
+     * Returns the number of bytes allocated.
+     */
+    private int allocate(BacklogTracker root, int leftToAllocate, List<BacklogTracker> path,
+            Set<AbstractStream> allocated) {
+        path.clear();
+        BacklogTracker tracker = root;
+        do {
+            tracker = tracker.pollScheduled();
+            path.add(tracker);
+        } while (tracker.getRemainingReservation() == 0);
+
+        // Slices are sized by weight so even a small increment is shared in
+        // proportion to the weights
+        int quantum = Math.max(1, Constants.ALLOCATION_QUANTUM *
+                tracker.getStream().getWeight() / Constants.MAX_WEIGHT);
+        int allocation = Math.min(quantum,
+                Math.min(leftToAllocate, tracker.getRemainingReservation()));
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.allocate.debug", getConnectionId(),
+                    tracker.getStream().getIdentifier(), Integer.toString(allocation)));
+        }
+        tracker.allocate(allocation);
+        allocated.add(tracker.getStream());
+
+        BacklogTracker parent = root;
+        for (BacklogTracker child : path) {
+            parent.advance(child, allocation);
+            parent = child;
+        }
+        // Re-queue the streams that still have work, lowest level first
+        for (int i = path.size() - 1; i >= 0; i--) {
+            BacklogTracker child = path.get(i);
+            if (child.getRemainingReservation() > 0 || child.hasScheduledWork()) {
+                (i == 0 ? root : path.get(i - 1)).reschedule(child);
+            } else {
+                child.unschedule();
             }
-            leftToAllocate -= allocated;
         }
+        return allocation;
+    }
 
-        return 0;
+
+    @Override
+    @Deprecated
+    protected synchronized void doNotifyAll() {
+        // NO-OP. Unused.
     }
 
 
@@ -1263,6 +1514,16 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
 
     void push(Request request, Stream associatedStream) throws IOException {
+        if ("GET".equals(request.getMimeHeaders().getHeader(":method"))) {
+            String path = request.getMimeHeaders().getHeader(":path");
+            synchronized (pushedPaths) {
+                if (pushedPaths.put(path, Boolean.TRUE) != null) {
+                    // Already pushed to the client on this connection
+                    return;
+                }
+            }
+        }
+
         if (localSettings.getMaxConcurrentStreams() < activeRemoteStreamCount.incrementAndGet()) {
             // If there are too many open streams, simply ignore the push
             // request.
@@ -1272,13 +1533,16 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
         Stream pushStream;
 
-        // Synchronized since PUSH_PROMISE frames have to be sent in order. Once
+        // Locked since PUSH_PROMISE frames have to be sent in order. Once
         // the stream has been created we need to ensure that the PUSH_PROMISE
         // is sent before the next stream is created for a PUSH_PROMISE.
-        synchronized (socketWrapper) {
+        headerWriteLock.lock();
+        try {
             pushStream = createLocalStream(request);
             writeHeaders(associatedStream, pushStream.getIdAsInt(), request.getMimeHeaders(),
                     false, Constants.DEFAULT_HEADERS_FRAME_SIZE);
+        } finally {
+            headerWriteLock.unlock();
         }
 
         pushStream.sentPushPromise();
@@ -1435,6 +1699,12 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         int thisRead = 0;
 
         while (len > 0) {
+            if (nextReadBlock && deferControlFrames &&
+                    socketWrapper.getSocketBufferHandler().isReadBufferEmpty()) {
+                // About to block waiting for the rest of a frame. Don't keep
+                // the client waiting for the responses to earlier frames.
+                writeControlFrames();
+            }
             thisRead = socketWrapper.read(nextReadBlock, data, pos, len);
             if (thisRead == 0) {
                 if (nextReadBlock) {
@@ -1479,6 +1749,8 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
     @Override
     public ByteBuffer startRequestBodyFrame(int streamId, int payloadSize, boolean endOfStream) throws Http2Exception {
+        receiveWindowUsed.addAndGet(payloadSize);
+
         // DATA frames reduce the overhead count ...
         reduceOverheadCount();
 
@@ -1522,6 +1794,9 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         Stream stream = getStream(streamId, connectionState.get().isNewStreamAllowed());
         if (stream != null) {
             stream.receivedEndOfStream();
+            // Don't hold back the window updates for data the application
+            // has already read
+            windowUpdateRequired = true;
             if (!stream.isActive()) {
                 setConnectionTimeoutForStreamCount(activeRemoteStreamCount.decrementAndGet());
             }
@@ -1705,10 +1980,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                         "upgradeHandler.unexpectedAck", connectionId, getIdentifier()));
             }
         } else {
-            synchronized (socketWrapper) {
-                socketWrapper.write(true, SETTINGS_ACK, 0, SETTINGS_ACK.length);
-                socketWrapper.flush(true);
-            }
+            writeControlFrame(ByteBuffer.wrap(SETTINGS_ACK));
         }
     }
 
@@ -1811,14 +2083,15 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             if (force || now - lastPingNanoTime > pingIntervalNano) {
                 lastPingNanoTime = now;
                 byte[] payload = new byte[8];
-                synchronized (socketWrapper) {
+                socketWrapper.getLock().lock();
+                try {
                     int sentSequence = ++sequence;
                     PingRecord pingRecord = new PingRecord(sentSequence, now);
                     inflightPings.add(pingRecord);
                     ByteUtil.set31Bits(payload, 4, sentSequence);
-                    socketWrapper.write(true, PING, 0, PING.length);
-                    socketWrapper.write(true, payload, 0, payload.length);
-                    socketWrapper.flush(true);
+                    outbox.write(ByteBuffer.wrap(PING), ByteBuffer.wrap(payload));
+                } finally {
+                    socketWrapper.getLock().unlock();
                 }
             }
         }
@@ -1849,11 +2122,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
             } else {
                 // Client originated ping. Echo it back.
-                synchronized (socketWrapper) {
-                    socketWrapper.write(true, PING_ACK, 0, PING_ACK.length);
-                    socketWrapper.write(true, payload, 0, payload.length);
-                    socketWrapper.flush(true);
-                }
+                writeControlFrame(ByteBuffer.wrap(PING_ACK), ByteBuffer.wrap(payload));
             }
         }
 
@@ -1914,17 +2183,46 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
     private static class BacklogTracker {
 
+        private static final Comparator<BacklogTracker> VIRTUAL_TIME_ORDER =
+                new Comparator<BacklogTracker>() {
+            @Override
+            public int compare(BacklogTracker o1, BacklogTracker o2) {
+                int result = Long.compare(o1.virtualStart, o2.virtualStart);
+                if (result == 0) {
+                    result = Long.compare(o1.sequence, o2.sequence);
+                }
+                return result;
+            }
+        };
+
+        private static final AtomicLong sequenceGenerator = new AtomicLong();
+
+        private final AbstractStream stream;
+        private final long sequence = sequenceGenerator.getAndIncrement();
         private int remainingReservation;
         private int unusedAllocation;
         private boolean notifyInProgress;
 
-        public BacklogTracker() {
+        // Weighted fair queuing state. The virtual start time of this stream
+        // is measured against the virtual time of its parent.
+        private long virtualStart;
+        private long virtualTime;
+        private PriorityQueue<BacklogTracker> scheduled;
+        private boolean isScheduled;
+
+        public BacklogTracker(AbstractStream stream) {
+            this.stream = stream;
         }
 
-        public BacklogTracker(int reservation) {
+        public BacklogTracker(AbstractStream stream, int reservation) {
+            this.stream = stream;
             remainingReservation = reservation;
         }
 
+        public AbstractStream getStream() {
+            return stream;
+        }
+
         /**
          * @return The number of bytes requiring an allocation from the
          *         Connection flow control window
@@ -1985,5 +2283,55 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
             return left;
         }
+
+        private void reserve(int reservation) {
+            remainingReservation = reservation;
+        }
+
+        private boolean isScheduled() {
+            return isScheduled;
+        }
+
+        private boolean hasScheduledWork() {
+            return scheduled != null && !scheduled.isEmpty();
+        }
+
+        /*
+         * Add a child that needs an allocation, or has a descendant that needs
+         * one, to the children scheduled by this stream. A child that was idle
+         * starts at the current virtual time so it can not claim a share of
+         * the window for the time it was idle.
+         */
+        private void schedule(BacklogTracker child) {
+            if (scheduled == null) {
+                scheduled = new PriorityQueue<>(4, VIRTUAL_TIME_ORDER);
+            }
+            child.virtualStart = Math.max(child.virtualStart, virtualTime);
+            child.isScheduled = true;
+            scheduled.add(child);
+        }
+
+        private void reschedule(BacklogTracker child) {
+            scheduled.add(child);
+        }
+
+        private void unschedule() {
+            isScheduled = false;
+        }
+
+        private BacklogTracker pollScheduled() {
+            return scheduled.poll();
+        }
+
+        private void advance(BacklogTracker child, int allocation) {
+            virtualTime = child.virtualStart;
+            child.virtualStart +=
+                    (long) allocation * Constants.MAX_WEIGHT / child.getStream().getWeight();
+        }
+
+        private void clearSchedule() {
+            scheduled = null;
+            isScheduled = false;
+        }
     }
 }
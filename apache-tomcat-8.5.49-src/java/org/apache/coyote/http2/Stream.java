@@ -24,6 +24,7 @@ import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.Iterator;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.coyote.ActionCode;
 import org.apache.coyote.CloseNowException;
@@ -57,6 +58,11 @@ public class Stream extends AbstractStream implements HeaderEmitter {
 
     private static final Integer HTTP_UPGRADE_STREAM = Integer.valueOf(1);
 
+    // A pooled processor is held until both the container has finished
+    // processing the stream and the stream is closed
+    private static final int PROCESSOR_HOLD_CONTAINER = 1;
+    private static final int PROCESSOR_HOLD_STATE = 2;
+
     static {
         Response response =  new Response();
         response.setStatus(100);
@@ -70,18 +76,22 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     private final Http2UpgradeHandler handler;
     private final StreamStateMachine state;
     private final WindowAllocationManager allocationManager = new WindowAllocationManager(this);
+    // Flow control window increments that have yet to be sent to the client
+    private final AtomicInteger pendingWindowUpdate = new AtomicInteger(0);
 
     // State machine would be too much overhead
     private int headerState = HEADER_STATE_START;
     private StreamException headerException = null;
-    // TODO: null these when finished to reduce memory used by closed stream
+    // Null for HTTP/1.1 upgrade and push where the request already exists
+    private final StreamProcessor streamProcessor;
+    private final AtomicInteger processorHolds =
+            new AtomicInteger(PROCESSOR_HOLD_CONTAINER | PROCESSOR_HOLD_STATE);
     private final Request coyoteRequest;
     private StringBuilder cookieHeader = null;
-    private final Response coyoteResponse = new Response();
+    private final Response coyoteResponse;
     private final StreamInputBuffer inputBuffer;
     private final StreamOutputBuffer streamOutputBuffer = new StreamOutputBuffer();
-    private final Http2OutputBuffer http2OutputBuffer =
-            new Http2OutputBuffer(coyoteResponse, streamOutputBuffer);
+    private final Http2OutputBuffer http2OutputBuffer;
 
 
     public Stream(Integer identifier, Http2UpgradeHandler handler) {
@@ -97,12 +107,19 @@ public class Stream extends AbstractStream implements HeaderEmitter {
         state = new StreamStateMachine(this);
         if (coyoteRequest == null) {
             // HTTP/2 new request
-            this.coyoteRequest = new Request();
+            this.streamProcessor = handler.popStreamProcessor(this);
+            this.coyoteRequest = streamProcessor.getRequest();
+            this.coyoteResponse = this.coyoteRequest.getResponse();
+            this.http2OutputBuffer = streamProcessor.getHttp2OutputBuffer();
             this.inputBuffer = new StreamInputBuffer();
             this.coyoteRequest.setInputBuffer(inputBuffer);
         } else {
             // HTTP/2 Push or HTTP/1.1 upgrade
+            this.streamProcessor = null;
             this.coyoteRequest = coyoteRequest;
+            this.coyoteResponse = new Response();
+            this.http2OutputBuffer = new Http2OutputBuffer(coyoteResponse);
+            this.coyoteRequest.setResponse(coyoteResponse);
             this.inputBuffer = null;
             // Headers have been read by this point
             state.receivedStartOfHeaders();
@@ -124,8 +141,8 @@ public class Stream extends AbstractStream implements HeaderEmitter {
         }
         // No sendfile for HTTP/2 (it is enabled by default in the request)
         this.coyoteRequest.setSendfile(false);
+        this.http2OutputBuffer.setStreamOutputBuffer(streamOutputBuffer);
         this.coyoteResponse.setOutputBuffer(http2OutputBuffer);
-        this.coyoteRequest.setResponse(coyoteResponse);
         this.coyoteRequest.protocol().setString("HTTP/2.0");
         if (this.coyoteRequest.getStartTime() < 0) {
             this.coyoteRequest.setStartTime(System.currentTimeMillis());
@@ -199,6 +216,7 @@ public class Stream extends AbstractStream implements HeaderEmitter {
         detachFromParent();
         parent.addChild(this);
         this.weight = weight;
+        handler.priorityTreeChanged();
     }
 
 
@@ -215,6 +233,7 @@ public class Stream extends AbstractStream implements HeaderEmitter {
 
         parent.addChild(this);
         this.weight = weight;
+        handler.priorityTreeChanged();
     }
 
 
@@ -473,6 +492,57 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
+    @Override
+    public final void emitHeader(String name, byte[] value, int start, int length)
+            throws HpackException {
+        if (log.isDebugEnabled() || !isPlainHeader(name)) {
+            // Headers that require further processing are handled as Strings
+            emitHeader(name, new String(value, start, length, StandardCharsets.ISO_8859_1));
+            return;
+        }
+
+        // Header names must be lower case
+        if (!name.toLowerCase(Locale.US).equals(name)) {
+            throw new HpackException(sm.getString("stream.header.case",
+                    getConnectionId(), getIdentifier(), name));
+        }
+
+        if (headerException != null) {
+            // Don't bother processing the header since the stream is going to
+            // be reset anyway
+            return;
+        }
+
+        if (headerState == HEADER_STATE_PSEUDO) {
+            headerState = HEADER_STATE_REGULAR;
+        }
+
+        if (headerState == HEADER_STATE_TRAILER && !handler.isTrailerHeaderAllowed(name)) {
+            return;
+        }
+
+        // Copy the value into the buffer of the header's MessageBytes so no
+        // String is created. The buffer is retained when the headers are
+        // recycled.
+        MessageBytes mb = coyoteRequest.getMimeHeaders().addValue(name);
+        ByteChunk bc = mb.getByteChunk();
+        bc.allocate(length, -1);
+        byte[] buffer = bc.getBuffer();
+        System.arraycopy(value, start, buffer, 0, length);
+        mb.setBytes(buffer, 0, length);
+    }
+
+
+    /*
+     * Is this a header that emitHeader(String, String) adds to the request
+     * headers without examining the value?
+     */
+    private static boolean isPlainHeader(String name) {
+        return name.charAt(0) != ':' && !"connection".equals(name) && !"te".equals(name) &&
+                !"cookie".equals(name) && !"expect".equals(name);
+    }
+
+
     @Override
     public void setHeaderException(StreamException streamException) {
         if (headerException == null) {
@@ -508,6 +578,7 @@ public class Stream extends AbstractStream implements HeaderEmitter {
 
 
     void writeHeaders() throws IOException {
+        handler.writePendingWindowUpdates(this);
         boolean endOfStream = streamOutputBuffer.hasNoBody();
         handler.writeHeaders(this, 0, coyoteResponse.getMimeHeaders(), endOfStream, Constants.DEFAULT_HEADERS_FRAME_SIZE);
     }
@@ -535,6 +606,50 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
+    StreamProcessor getStreamProcessor() {
+        return streamProcessor;
+    }
+
+
+    /*
+     * Called when the container has finished processing this stream.
+     */
+    final void processingComplete() {
+        releaseProcessorHold(PROCESSOR_HOLD_CONTAINER);
+    }
+
+
+    /*
+     * Called when this stream is closed and will not receive any further
+     * headers or data.
+     */
+    final void stateClosed() {
+        releaseProcessorHold(PROCESSOR_HOLD_STATE);
+    }
+
+
+    private void releaseProcessorHold(int hold) {
+        if (streamProcessor == null) {
+            return;
+        }
+        while (true) {
+            int holds = processorHolds.get();
+            if ((holds & hold) == 0) {
+                // Already released
+                return;
+            }
+            if (processorHolds.compareAndSet(holds, holds & ~hold)) {
+                if (holds == hold) {
+                    // Last hold released. The processor, together with the
+                    // request and response it owns, may now be re-used.
+                    handler.getProtocol().pushStreamProcessor(streamProcessor);
+                }
+                return;
+            }
+        }
+    }
+
+
     Request getCoyoteRequest() {
         return coyoteRequest;
     }
@@ -643,6 +758,25 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
+    /*
+     * Returns true if there was no pending increment, in which case the caller
+     * is responsible for queuing this stream so the increment is sent.
+     */
+    boolean addPendingWindowUpdate(int increment) {
+        return pendingWindowUpdate.getAndAdd(increment) == 0;
+    }
+
+
+    boolean hasPendingWindowUpdate() {
+        return pendingWindowUpdate.get() > 0;
+    }
+
+
+    int takePendingWindowUpdate() {
+        return pendingWindowUpdate.getAndSet(0);
+    }
+
+
     boolean isClosedFinal() {
         return state.isClosedFinal();
     }
@@ -1097,14 +1231,18 @@ public class Stream extends AbstractStream implements HeaderEmitter {
                     }
                     inBuffer.get(outBuffer, 0, written);
                     inBuffer.clear();
-                } else if (!canRead) {
-                    return -1;
-                } else {
+                } else if (canRead) {
                     // Should never happen
                     throw new IllegalStateException();
                 }
             }
 
+            if (written == -1) {
+                // End of input
+                handler.writePendingWindowUpdates(Stream.this);
+                return -1;
+            }
+
             chunk.setBytes(outBuffer, 0,  written);
 
             // Increment client-side flow control windows by the number of bytes
@@ -1170,14 +1308,18 @@ public class Stream extends AbstractStream implements HeaderEmitter {
                     }
                     inBuffer.get(outBuffer, 0, written);
                     inBuffer.clear();
-                } else if (!canRead) {
-                    return -1;
-                } else {
+                } else if (canRead) {
                     // Should never happen
                     throw new IllegalStateException();
                 }
             }
 
+            if (written == -1) {
+                // End of input
+                handler.writePendingWindowUpdates(Stream.this);
+                return -1;
+            }
+
             applicationBufferHandler.setByteBuffer(ByteBuffer.wrap(outBuffer, 0,  written));
 
             // Increment client-side flow control windows by the number of bytes
@@ -32,6 +32,7 @@ import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
 import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.DispatchType;
 import org.apache.tomcat.util.net.SocketEvent;
@@ -43,13 +44,37 @@ class StreamProcessor extends AbstractProcessor {
     private static final Log log = LogFactory.getLog(StreamProcessor.class);
     private static final StringManager sm = StringManager.getManager(StreamProcessor.class);
 
-    private final Http2UpgradeHandler handler;
-    private final Stream stream;
+    // Only set for pooled processors that own their request and response
+    private final Http2OutputBuffer http2OutputBuffer;
 
+    private Http2UpgradeHandler handler;
+    private Stream stream;
 
+
+    /*
+     * Used for new streams. The processor, request and response are pooled
+     * by the Http2Protocol and re-used for subsequent streams.
+     */
+    StreamProcessor(AbstractEndpoint<?> endpoint) {
+        super(endpoint);
+        http2OutputBuffer = new Http2OutputBuffer(response);
+    }
+
+
+    /*
+     * Used for HTTP/1.1 upgrade and push where the request already exists.
+     * These processors are not re-used.
+     */
     StreamProcessor(Http2UpgradeHandler handler, Stream stream, Adapter adapter,
             SocketWrapperBase<?> socketWrapper) {
         super(socketWrapper.getEndpoint(), stream.getCoyoteRequest(), stream.getCoyoteResponse());
+        this.http2OutputBuffer = null;
+        init(handler, stream, adapter, socketWrapper);
+    }
+
+
+    final void init(Http2UpgradeHandler handler, Stream stream, Adapter adapter,
+            SocketWrapperBase<?> socketWrapper) {
         this.handler = handler;
         this.stream = stream;
         setAdapter(adapter);
@@ -57,7 +82,15 @@ class StreamProcessor extends AbstractProcessor {
     }
 
 
+    final Http2OutputBuffer getHttp2OutputBuffer() {
+        return http2OutputBuffer;
+    }
+
+
     final void process(SocketEvent event) {
+        // This processor may be recycled and re-used by another connection
+        // before the queued streams are executed
+        Http2UpgradeHandler connectionHandler = handler;
         try {
             // FIXME: the regular processor syncs on socketWrapper, but here this deadlocks
             synchronized (this) {
@@ -97,9 +130,13 @@ class StreamProcessor extends AbstractProcessor {
                 } finally {
                     ContainerThreadMarker.clear();
                 }
+                if (state == SocketState.CLOSED) {
+                    // The container has finished with the request and response
+                    stream.processingComplete();
+                }
             }
         } finally {
-            handler.executeQueuedStream();
+            connectionHandler.executeQueuedStream();
         }
     }
 
@@ -157,7 +194,7 @@ class StreamProcessor extends AbstractProcessor {
         if (protocol != null && protocol.useCompression(coyoteRequest, coyoteResponse)) {
             // Enable compression. Headers will have been set. Need to configure
             // output filter at this point.
-            stream.addOutputFilter(new GzipOutputFilter());
+            stream.addOutputFilter(new GzipOutputFilter(protocol.getDeflateLevel()));
         }
     }
 
@@ -298,11 +335,22 @@ class StreamProcessor extends AbstractProcessor {
 
     @Override
     public void recycle() {
-        // StreamProcessor instances are not re-used.
+        // Only pooled StreamProcessor instances are re-used
+        Adapter adapter = getAdapter();
+        if (adapter != null) {
+            adapter.checkRecycled(request, response);
+        }
+        super.recycle();
+        clearDispatches();
+        request.recycle();
+        response.recycle();
+        http2OutputBuffer.recycle();
+        setSslSupport(null);
         // Clear fields that can be cleared to aid GC and trigger NPEs if this
-        // is reused
+        // is used before it is initialised for the next stream
         setSocketWrapper(null);
-        setAdapter(null);
+        handler = null;
+        stream = null;
     }
 
 
@@ -116,6 +116,10 @@ public class StreamStateMachine {
                 log.debug(sm.getString("streamStateMachine.debug.change", stream.getConnectionId(),
                         stream.getIdentifier(), oldState, newState));
             }
+            // Closed states are never left so this happens at most once
+            if (oldState != null && oldState.isActive() && !newState.isActive()) {
+                stream.stateClosed();
+            }
         }
     }
 
@@ -0,0 +1,296 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.collections.SynchronizedStack;
+
+/**
+ * A pool of {@link ByteBuffer}s grouped by size class. Buffers are rounded up
+ * to a multiple of {@link #SIZE_CLASS_GRANULARITY} bytes and each size class
+ * has a shared pool fronted by a small per-thread cache so that the common
+ * case of a buffer being returned and then re-used by the same thread does
+ * not need any synchronization.
+ * <p>
+ * This is intended for buffers that are only needed while there is data in
+ * flight. Rather than holding a buffer for its entire lifetime, a connection
+ * can take buffers from the arena when it has data to process and give them
+ * back when it goes idle. Buffers must not be used once they have been
+ * returned to the arena.
+ */
+public class ByteBufferArena {
+
+    /**
+     * Buffer sizes are rounded up to a multiple of this value.
+     */
+    public static final int SIZE_CLASS_GRANULARITY = 1024;
+
+    /**
+     * Buffers larger than this are not pooled.
+     */
+    public static final int MAX_POOLED_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The maximum number of distinct size classes. Requests for buffers of any
+     * other size are not pooled.
+     */
+    private static final int MAX_SIZE_CLASSES = 32;
+
+    /**
+     * The maximum number of buffers of each size class cached by each thread.
+     */
+    private static final int THREAD_CACHE_SIZE = 4;
+
+    private final boolean direct;
+    private final long maxPoolSize;
+
+    private final ConcurrentHashMap<Integer,SizeClass> sizeClasses = new ConcurrentHashMap<>();
+    private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+        @Override
+        protected ThreadCache initialValue() {
+            return new ThreadCache();
+        }
+    };
+
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicInteger activeBuffers = new AtomicInteger();
+    private volatile boolean destroyed = false;
+
+
+    /**
+     * Create a new arena.
+     *
+     * @param direct        Should the buffers be direct buffers?
+     * @param maxPoolSize   The maximum number of bytes held in the shared
+     *                      pools. -1 means unlimited and 0 means buffers are
+     *                      only cached per thread.
+     */
+    public ByteBufferArena(boolean direct, long maxPoolSize) {
+        this.direct = direct;
+        this.maxPoolSize = maxPoolSize;
+    }
+
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+
+    /**
+     * @return The number of buffers that have been obtained from this arena
+     *         and not yet returned to it.
+     */
+    public int getActiveBuffers() {
+        return activeBuffers.get();
+    }
+
+
+    /**
+     * @return The number of bytes held in the shared pools. Buffers cached by
+     *         individual threads are not included.
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+
+    /**
+     * Obtain a cleared buffer with a capacity of at least the given size.
+     *
+     * @param size  The minimum capacity of the buffer
+     *
+     * @return A buffer that must be returned with {@link #release(ByteBuffer)}
+     *         once it is no longer required
+     */
+    public ByteBuffer allocate(int size) {
+        activeBuffers.incrementAndGet();
+        SizeClass sizeClass = getSizeClass(size);
+        if (sizeClass == null) {
+            return allocateBuffer(size);
+        }
+        ByteBuffer result = threadCache.get().pop(sizeClass);
+        if (result == null) {
+            result = sizeClass.pool.pop();
+            if (result != null) {
+                pooledBytes.addAndGet(-result.capacity());
+            }
+        }
+        if (result == null) {
+            result = allocateBuffer(sizeClass.capacity);
+        }
+        result.clear();
+        return result;
+    }
+
+
+    /**
+     * Return a buffer to the arena. The caller must not use the buffer after
+     * calling this method.
+     *
+     * @param buffer    The buffer to return. It must have been obtained from
+     *                  this arena.
+     */
+    public void release(ByteBuffer buffer) {
+        activeBuffers.decrementAndGet();
+        SizeClass sizeClass = getSizeClass(buffer.capacity());
+        if (destroyed || sizeClass == null || sizeClass.capacity != buffer.capacity()) {
+            freeBuffer(buffer);
+            return;
+        }
+        if (threadCache.get().push(sizeClass, buffer)) {
+            return;
+        }
+        long size = pooledBytes.addAndGet(buffer.capacity());
+        if ((maxPoolSize < 0 || size <= maxPoolSize) && sizeClass.pool.push(buffer)) {
+            return;
+        }
+        pooledBytes.addAndGet(-buffer.capacity());
+        freeBuffer(buffer);
+    }
+
+
+    /**
+     * Expand a buffer obtained from this arena, retaining any data it holds.
+     * The buffer is assumed to be in write mode. If a larger buffer is needed
+     * the original is returned to the arena.
+     *
+     * @param in        The buffer to expand or <code>null</code>
+     * @param newSize   The minimum required capacity
+     *
+     * @return The expanded buffer, the original buffer if it was already
+     *         large enough or <code>null</code> if <code>in</code> was
+     *         <code>null</code>
+     */
+    public ByteBuffer expand(ByteBuffer in, int newSize) {
+        if (in == null || in.capacity() >= newSize) {
+            return in;
+        }
+        ByteBuffer out = allocate(newSize);
+        in.flip();
+        out.put(in);
+        release(in);
+        return out;
+    }
+
+
+    /**
+     * Free all the buffers held in the shared pools. Buffers returned after
+     * this method has been called will be freed rather than pooled.
+     */
+    public void destroy() {
+        destroyed = true;
+        for (SizeClass sizeClass : sizeClasses.values()) {
+            ByteBuffer buffer;
+            while ((buffer = sizeClass.pool.pop()) != null) {
+                freeBuffer(buffer);
+            }
+        }
+        sizeClasses.clear();
+        pooledBytes.set(0);
+    }
+
+
+    private SizeClass getSizeClass(int size) {
+        if (size > MAX_POOLED_SIZE) {
+            return null;
+        }
+        int capacity = ((size + SIZE_CLASS_GRANULARITY - 1) / SIZE_CLASS_GRANULARITY) *
+                SIZE_CLASS_GRANULARITY;
+        if (capacity == 0) {
+            capacity = SIZE_CLASS_GRANULARITY;
+        }
+        Integer key = Integer.valueOf(capacity);
+        SizeClass result = sizeClasses.get(key);
+        if (result == null) {
+            if (sizeClasses.size() >= MAX_SIZE_CLASSES) {
+                return null;
+            }
+            result = new SizeClass(capacity);
+            SizeClass existing = sizeClasses.putIfAbsent(key, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+
+    private ByteBuffer allocateBuffer(int capacity) {
+        if (direct) {
+            return ByteBuffer.allocateDirect(capacity);
+        } else {
+            return ByteBuffer.allocate(capacity);
+        }
+    }
+
+
+    private void freeBuffer(ByteBuffer buffer) {
+        if (direct) {
+            ByteBufferUtils.cleanDirectBuffer(buffer);
+        }
+    }
+
+
+    private static class SizeClass {
+        private final int capacity;
+        private final SynchronizedStack<ByteBuffer> pool = new SynchronizedStack<>();
+
+        public SizeClass(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+
+    private static class ThreadCache {
+        private final Map<SizeClass,CachedBuffers> cache = new HashMap<>();
+
+        public ByteBuffer pop(SizeClass sizeClass) {
+            CachedBuffers cachedBuffers = cache.get(sizeClass);
+            if (cachedBuffers == null || cachedBuffers.count == 0) {
+                return null;
+            }
+            ByteBuffer result = cachedBuffers.buffers[--cachedBuffers.count];
+            cachedBuffers.buffers[cachedBuffers.count] = null;
+            return result;
+        }
+
+        public boolean push(SizeClass sizeClass, ByteBuffer buffer) {
+            CachedBuffers cachedBuffers = cache.get(sizeClass);
+            if (cachedBuffers == null) {
+                cachedBuffers = new CachedBuffers();
+                cache.put(sizeClass, cachedBuffers);
+            }
+            if (cachedBuffers.count == THREAD_CACHE_SIZE) {
+                return false;
+            }
+            cachedBuffers.buffers[cachedBuffers.count++] = buffer;
+            return true;
+        }
+    }
+
+
+    private static class CachedBuffers {
+        private final ByteBuffer[] buffers = new ByteBuffer[THREAD_CACHE_SIZE];
+        private int count = 0;
+    }
+}
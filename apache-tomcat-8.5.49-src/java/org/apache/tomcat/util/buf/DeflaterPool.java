@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.util.zip.Deflater;
+
+import org.apache.tomcat.util.collections.SynchronizedStack;
+
+/**
+ * A bounded pool of {@link Deflater}s shared by all the components that
+ * compress content. Each Deflater holds native memory that is only released
+ * when {@link Deflater#end()} is called or, failing that, when the Deflater is
+ * finalized. Re-using Deflaters avoids both the allocation and a build up of
+ * Deflaters waiting for finalization.
+ * <p>
+ * The pooled Deflaters use raw deflate (i.e. no zlib header or trailer) as
+ * required by gzip.
+ * <p>
+ * The maximum number of pooled Deflaters is controlled by the
+ * <code>org.apache.tomcat.util.buf.DeflaterPool.MAX_SIZE</code> system
+ * property. <code>-1</code> means unlimited, the default is <code>100</code>.
+ */
+public class DeflaterPool {
+
+    private static final int MAX_SIZE = Integer.getInteger(
+            "org.apache.tomcat.util.buf.DeflaterPool.MAX_SIZE", 100).intValue();
+
+    private static final SynchronizedStack<Deflater> pool = new SynchronizedStack<>(
+            MAX_SIZE == -1 ? SynchronizedStack.DEFAULT_SIZE :
+                    Math.min(SynchronizedStack.DEFAULT_SIZE, MAX_SIZE), MAX_SIZE);
+
+
+    private DeflaterPool() {
+        // Utility class. Hide default constructor
+    }
+
+
+    /**
+     * Obtain a Deflater from the pool, creating a new one if the pool is
+     * empty.
+     *
+     * @param level The compression level, 0-9 or
+     *              {@link Deflater#DEFAULT_COMPRESSION}
+     *
+     * @return A Deflater ready to compress new input
+     */
+    public static Deflater borrow(int level) {
+        Deflater deflater = pool.pop();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        } else {
+            deflater.setLevel(level);
+        }
+        return deflater;
+    }
+
+
+    /**
+     * Return a Deflater to the pool. The Deflater must not be used by the
+     * caller once it has been returned. If the pool is full, the native memory
+     * held by the Deflater is released immediately.
+     *
+     * @param deflater The Deflater to return
+     */
+    public static void release(Deflater deflater) {
+        deflater.reset();
+        if (!pool.push(deflater)) {
+            deflater.end();
+        }
+    }
+}
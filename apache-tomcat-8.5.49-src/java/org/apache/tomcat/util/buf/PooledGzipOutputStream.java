@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An output stream that writes gzip compressed data using a {@link Deflater}
+ * from the {@link DeflaterPool}. The Deflater is returned to the pool when the
+ * stream is finished or closed, or when {@link #release()} is called if the
+ * output is abandoned. {@link #flush()} performs a sync flush so that all the
+ * data written so far may be decompressed by the recipient.
+ */
+public class PooledGzipOutputStream extends OutputStream {
+
+    private static final StringManager sm = StringManager.getManager(PooledGzipOutputStream.class);
+
+    private static final byte[] HEADER = new byte[] {
+            0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final OutputStream out;
+    private final CRC32 crc = new CRC32();
+    private final byte[] buf = new byte[8192];
+    private final byte[] single = new byte[1];
+    private Deflater deflater;
+
+
+    public PooledGzipOutputStream(OutputStream out, int level) throws IOException {
+        this.out = out;
+        deflater = DeflaterPool.borrow(level);
+        out.write(HEADER);
+    }
+
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (deflater == null) {
+            throw new IOException(sm.getString("pooledGzipOutputStream.finished"));
+        }
+        if (len == 0) {
+            return;
+        }
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+    }
+
+
+    @Override
+    public void flush() throws IOException {
+        if (deflater != null) {
+            // Loop until the Deflater has no more output
+            while (deflate(Deflater.SYNC_FLUSH) == buf.length) {
+                // Keep going
+            }
+        }
+        out.flush();
+    }
+
+
+    /**
+     * Complete the compressed data without closing the underlying stream and
+     * return the Deflater to the pool.
+     *
+     * @throws IOException If an I/O error occurs writing to the underlying
+     *                     stream
+     */
+    public void finish() throws IOException {
+        if (deflater == null) {
+            return;
+        }
+        try {
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            writeTrailer();
+        } finally {
+            release();
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /**
+     * Return the Deflater to the pool without completing the compressed data.
+     * Used when the output is abandoned. No further data may be written to
+     * this stream.
+     */
+    public void release() {
+        if (deflater != null) {
+            DeflaterPool.release(deflater);
+            deflater = null;
+        }
+    }
+
+
+    private int deflate(int flush) throws IOException {
+        int len = deflater.deflate(buf, 0, buf.length, flush);
+        if (len > 0) {
+            out.write(buf, 0, len);
+        }
+        return len;
+    }
+
+
+    private void writeTrailer() throws IOException {
+        // Both values are written little-endian
+        long crcValue = crc.getValue();
+        long size = deflater.getBytesRead();
+        byte[] trailer = new byte[8];
+        for (int i = 0; i < 4; i++) {
+            trailer[i] = (byte) (crcValue >> (8 * i));
+            trailer[i + 4] = (byte) (size >> (8 * i));
+        }
+        out.write(trailer);
+    }
+}
@@ -20,12 +20,16 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.NetworkChannel;
 import java.util.Deque;
 import java.util.Set;
 import java.util.jar.JarFile;
@@ -61,6 +65,7 @@ class Jre9Compat extends Jre8Compat {
     private static final Method canAccessMethod;
     private static final Method getModuleMethod;
     private static final Method isExportedMethod;
+    private static final SocketOption<Boolean> reusePortOption;
 
     static {
         Class<?> c1 = null;
@@ -81,6 +86,7 @@ class Jre9Compat extends Jre8Compat {
         Method m16 = null;
         Method m17 = null;
         Method m18 = null;
+        SocketOption<Boolean> o19 = null;
 
         try {
             // Order is important for the error handling below.
@@ -114,6 +120,10 @@ class Jre9Compat extends Jre8Compat {
             m17 = Class.class.getMethod("getModule");
             Class<?> moduleClass = Class.forName("java.lang.Module");
             m18 = moduleClass.getMethod("isExported", String.class);
+            Field f19 = StandardSocketOptions.class.getField("SO_REUSEPORT");
+            @SuppressWarnings("unchecked")
+            SocketOption<Boolean> reusePort = (SocketOption<Boolean>) f19.get(null);
+            o19 = reusePort;
 
         } catch (ClassNotFoundException e) {
             if (c1 == null) {
@@ -153,6 +163,7 @@ class Jre9Compat extends Jre8Compat {
         canAccessMethod = m16;
         getModuleMethod = m17;
         isExportedMethod = m18;
+        reusePortOption = o19;
     }
 
 
@@ -274,4 +285,14 @@ class Jre9Compat extends Jre8Compat {
             return false;
         }
     }
+
+
+    @Override
+    public void setReusePort(NetworkChannel channel) throws IOException {
+        if (reusePortOption == null || !channel.supportedOptions().contains(reusePortOption)) {
+            // Not supported by this operating system (e.g. Windows)
+            throw new UnsupportedOperationException(sm.getString("jreCompat.noReusePort"));
+        }
+        channel.setOption(reusePortOption, Boolean.TRUE);
+    }
 }
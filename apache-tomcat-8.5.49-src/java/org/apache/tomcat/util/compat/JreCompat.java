@@ -22,6 +22,7 @@ import java.lang.reflect.AccessibleObject;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.NetworkChannel;
 import java.security.KeyStore.LoadStoreParameter;
 import java.util.Deque;
 import java.util.jar.JarFile;
@@ -43,6 +44,7 @@ public class JreCompat {
     private static final JreCompat instance;
     private static StringManager sm =
             StringManager.getManager(JreCompat.class.getPackage().getName());
+    private static final boolean jre21Available;
     private static final boolean jre9Available;
     private static final boolean jre8Available;
 
@@ -51,17 +53,25 @@ public class JreCompat {
         // This is Tomcat 8 with a minimum Java version of Java 7. The latest
         // Java version the optional features require is Java 9.
         // Look for the highest supported JVM first
-        if (Jre9Compat.isSupported()) {
+        if (Jre21Compat.isSupported()) {
+            instance = new Jre21Compat();
+            jre21Available = true;
+            jre9Available = true;
+            jre8Available = true;
+        } else if (Jre9Compat.isSupported()) {
             instance = new Jre9Compat();
+            jre21Available = false;
             jre9Available = true;
             jre8Available = true;
         }
         else if (Jre8Compat.isSupported()) {
             instance = new Jre8Compat();
+            jre21Available = false;
             jre9Available = false;
             jre8Available = true;
         } else {
             instance = new JreCompat();
+            jre21Available = false;
             jre9Available = false;
             jre8Available = false;
         }
@@ -244,4 +254,50 @@ public class JreCompat {
     public boolean isExported(Class<?> type) {
         return true;
     }
+
+
+    /**
+     * Enable SO_REUSEPORT for the given channel.
+     *
+     * @param channel The channel to configure
+     *
+     * @throws IOException If an I/O error occurs setting the option
+     * @throws UnsupportedOperationException If the JRE or the channel does not
+     *         support SO_REUSEPORT
+     */
+    public void setReusePort(NetworkChannel channel) throws IOException {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noReusePort"));
+    }
+
+
+    // Java 7 implementation of Java 21 methods
+
+    public static boolean isJre21Available() {
+        return jre21Available;
+    }
+
+
+    /**
+     * Create a thread builder for virtual threads using the given name to name
+     * the threads.
+     *
+     * @param name The base name for the threads
+     *
+     * @return The thread builder for virtual threads
+     */
+    public Object createVirtualThreadBuilder(String name) {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noVirtualThreads"));
+    }
+
+
+    /**
+     * Create a thread with the given thread builder and use it to execute the
+     * given runnable.
+     *
+     * @param threadBuilder The thread builder to use to create a thread
+     * @param command       The command to run
+     */
+    public void threadBuilderStart(Object threadBuilder, Runnable command) {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noVirtualThreads"));
+    }
 }
@@ -0,0 +1,222 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.tomcat.util.codec.binary.Base64;
+import org.apache.tomcat.util.security.ConcurrentMessageDigest;
+
+/**
+ * A digest of the responses held in a client's cache, as described by
+ * <a href="https://tools.ietf.org/html/draft-ietf-httpbis-cache-digest">
+ * draft-ietf-httpbis-cache-digest</a>. The digest is a Golomb-coded set of
+ * the truncated SHA-256 hashes of the URLs of the cached responses so it may
+ * report false positives (at a rate chosen by the client) but never false
+ * negatives.
+ * <p>
+ * Clients may send a digest in the <code>Cache-Digest</code> header or, for
+ * clients that do not support that header, in a cookie maintained by the
+ * application.
+ */
+public class CacheDigest {
+
+    public static final String HEADER_NAME = "cache-digest";
+    public static final String COOKIE_NAME = "cache-digest";
+
+    private static final String SHA256 = "SHA-256";
+
+    static {
+        try {
+            ConcurrentMessageDigest.init(SHA256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // log2(N * P), the number of bits retained from each hash
+    private final int bits;
+    // Distinct hash values in ascending order
+    private final long[] values;
+
+
+    private CacheDigest(int bits, long[] values) {
+        this.bits = bits;
+        this.values = values;
+    }
+
+
+    /**
+     * Is the response for the given URL in the set of cached responses
+     * represented by this digest?
+     *
+     * @param url The absolute URL of the response
+     *
+     * @return <code>true</code> if the response is (probably) cached,
+     *         otherwise <code>false</code>
+     */
+    public boolean contains(String url) {
+        return Arrays.binarySearch(values, hash(url, bits)) >= 0;
+    }
+
+
+    /**
+     * Parse the value of a <code>Cache-Digest</code> header. Digests that can
+     * not be used because they are invalid or because the keys include
+     * validators are ignored.
+     *
+     * @param headerValue The header value
+     *
+     * @return The usable digests in the header
+     */
+    public static List<CacheDigest> parseHeader(String headerValue) {
+        List<CacheDigest> result = new ArrayList<>(1);
+        if (headerValue == null) {
+            return result;
+        }
+        for (String entry : headerValue.split(",")) {
+            String[] parts = entry.split(";");
+            boolean validators = false;
+            for (int i = 1; i < parts.length; i++) {
+                if ("validators".equals(parts[i].trim().toLowerCase(Locale.ENGLISH))) {
+                    validators = true;
+                }
+            }
+            if (validators) {
+                // The ETag of the response to push is not known
+                continue;
+            }
+            CacheDigest digest = parse(parts[0].trim());
+            if (digest != null) {
+                result.add(digest);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Parse a base64url encoded digest value.
+     *
+     * @param digestValue The encoded digest value
+     *
+     * @return The digest or <code>null</code> if the value is not valid
+     */
+    public static CacheDigest parse(String digestValue) {
+        if (digestValue == null || digestValue.length() == 0) {
+            return null;
+        }
+        byte[] data = Base64.decodeBase64URLSafe(digestValue);
+        if (data == null || data.length < 2) {
+            return null;
+        }
+
+        BitReader reader = new BitReader(data);
+        int log2N = (int) reader.read(5);
+        int log2P = (int) reader.read(5);
+        // At most 62 so the hash values always fit in a long
+        int bits = log2N + log2P;
+
+        long p = 1L << log2P;
+        long[] values = new long[Math.max(1, data.length)];
+        int count = 0;
+        long c = -1;
+        while (true) {
+            long q = reader.readUnary();
+            if (q < 0 || reader.remaining() < log2P) {
+                // Remaining bits are padding
+                break;
+            }
+            long r = reader.read(log2P);
+            c = c + q * p + r + 1;
+            if (c >= (1L << bits)) {
+                return null;
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = c;
+        }
+        return new CacheDigest(bits, Arrays.copyOf(values, count));
+    }
+
+
+    /*
+     * The most significant bits of the SHA-256 hash of the URL.
+     */
+    static long hash(String url, int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        byte[] digest = ConcurrentMessageDigest.digest(SHA256,
+                url.getBytes(StandardCharsets.UTF_8));
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (digest[i] & 0xFF);
+        }
+        return result >>> (64 - bits);
+    }
+
+
+    private static class BitReader {
+
+        private final byte[] data;
+        private int position = 0;
+
+        private BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        private int remaining() {
+            return data.length * 8 - position;
+        }
+
+        private long read(int count) {
+            long result = 0;
+            for (int i = 0; i < count; i++) {
+                result = (result << 1) | readBit();
+            }
+            return result;
+        }
+
+        /*
+         * Number of 0 bits before the next 1 bit or -1 if there are no more 1
+         * bits.
+         */
+        private long readUnary() {
+            long result = 0;
+            while (remaining() > 0) {
+                if (readBit() == 1) {
+                    return result;
+                }
+                result++;
+            }
+            return -1;
+        }
+
+        private int readBit() {
+            int result = (data[position >> 3] >> (7 - (position & 7))) & 1;
+            position++;
+            return result;
+        }
+    }
+}
@@ -41,6 +41,26 @@ public class Host {
     }
 
 
+    /**
+     * Parse the given input as an HTTP Host header value using a reader that
+     * the caller retains between calls.
+     *
+     * @param mb     The host header value
+     * @param reader The reader to use to parse the header value. It will be
+     *               reset to read <code>mb</code>
+     *
+     * @return The position of ':' that separates the host from the port or -1
+     *         if it is not present
+     *
+     * @throws IllegalArgumentException If the host header value is not
+     *         specification compliant
+     */
+    public static int parse(MessageBytes mb, MessageBytesReader reader) {
+        reader.setMessageBytes(mb);
+        return parse(reader);
+    }
+
+
     /**
      * Parse the given input as an HTTP Host header value.
      *
@@ -79,18 +99,30 @@ public class Host {
     }
 
 
-    private static class MessageBytesReader extends Reader {
+    /**
+     * Reader for the bytes of a {@link MessageBytes}. Instances may be reused
+     * for multiple values but are not thread safe.
+     */
+    public static class MessageBytesReader extends Reader {
 
-        private final byte[] bytes;
-        private final int end;
+        private byte[] bytes;
+        private int end;
         private int pos;
         private int mark;
 
+        public MessageBytesReader() {
+        }
+
         public MessageBytesReader(MessageBytes mb) {
+            setMessageBytes(mb);
+        }
+
+        void setMessageBytes(MessageBytes mb) {
             ByteChunk bc = mb.getByteChunk();
             bytes = bc.getBytes();
             pos = bc.getOffset();
             end = bc.getEnd();
+            mark = 0;
         }
 
         @Override
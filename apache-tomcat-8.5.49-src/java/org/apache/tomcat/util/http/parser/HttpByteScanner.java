@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Locates the end of a line in a buffer of HTTP data eight bytes at a time.
+ * Each group of eight bytes is read as a single long and the bytes of
+ * interest are found with arithmetic on the whole word rather than by
+ * comparing one byte at a time.
+ * <p>
+ * This is only useful where the bytes being skipped over do not need to be
+ * validated individually. Where the HTTP specification restricts the
+ * permitted characters (e.g. tokens) the checks in {@link HttpParser} have to
+ * be applied to each byte.
+ */
+public class HttpByteScanner {
+
+    private static final long CR_MASK = 0x0D0D0D0D0D0D0D0DL;
+    private static final long LF_MASK = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+
+    private HttpByteScanner() {
+        // Utility class. Hide default constructor.
+    }
+
+
+    /**
+     * Find the first CR or LF in the given range of the buffer. The position
+     * and limit of the buffer are not changed.
+     *
+     * @param buffer    The buffer to search
+     * @param start     The index of the first byte to examine
+     * @param end       The index after the last byte to examine
+     *
+     * @return The index of the first CR or LF or -1 if neither was found
+     */
+    public static int indexOfCrOrLf(ByteBuffer buffer, int start, int end) {
+        int pos = start;
+        if (end - pos >= 8) {
+            boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+            while (end - pos >= 8) {
+                long word = buffer.getLong(pos);
+                long found = zeroBytes(word ^ CR_MASK) | zeroBytes(word ^ LF_MASK);
+                if (found != 0) {
+                    if (bigEndian) {
+                        return pos + (Long.numberOfLeadingZeros(found) >>> 3);
+                    } else {
+                        return pos + (Long.numberOfTrailingZeros(found) >>> 3);
+                    }
+                }
+                pos += 8;
+            }
+        }
+        while (pos < end) {
+            byte b = buffer.get(pos);
+            if (b == '\r' || b == '\n') {
+                return pos;
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+
+    /*
+     * Returns a word with the high bit set in each byte that is zero in the
+     * input and all other bits clear. Unlike the shorter
+     * (v - 0x01..) & ~v & 0x80.. form, the result is exact for every byte as no
+     * carry can propagate between bytes. That is required since the position
+     * of the first match is used, not just whether there is a match.
+     */
+    private static long zeroBytes(long word) {
+        long t = (word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS;
+        return ~(t | word | LOW_SEVEN_BITS);
+    }
+}
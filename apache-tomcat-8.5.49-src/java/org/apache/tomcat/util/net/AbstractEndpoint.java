@@ -22,6 +22,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
+import java.nio.channels.NetworkChannel;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -32,6 +33,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
@@ -40,6 +42,7 @@ import org.apache.juli.logging.Log;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
 import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint.Acceptor.AcceptorState;
 import org.apache.tomcat.util.res.StringManager;
@@ -48,6 +51,7 @@ import org.apache.tomcat.util.threads.ResizableExecutor;
 import org.apache.tomcat.util.threads.TaskQueue;
 import org.apache.tomcat.util.threads.TaskThreadFactory;
 import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
 
 /**
  * @param <S> The type for the sockets managed by this endpoint.
@@ -167,12 +171,24 @@ public abstract class AbstractEndpoint<S> {
         protected final String getThreadName() {
             return threadName;
         }
+
+        private int index;
+        protected final void setIndex(final int index) {
+            this.index = index;
+        }
+        protected final int getIndex() {
+            return index;
+        }
     }
 
     //错误处理时间的专用点。
     private static final int INITIAL_ERROR_DELAY = 50;
     private static final int MAX_ERROR_DELAY = 1600;
 
+    // Limit on unlock connections per acceptor when using multiple server
+    // sockets
+    private static final int UNLOCK_ATTEMPTS_PER_SERVER_SOCKET = 20;
+
 
     public static long toTimeout(long timeout) {
         // Many calls can't do infinite timeout so use Long.MAX_VALUE if timeout is <= 0
@@ -459,6 +475,17 @@ public abstract class AbstractEndpoint<S> {
     public int getAcceptorThreadCount() { return acceptorThreadCount; }
 
 
+    /**
+     * Should each acceptor thread use its own server socket, bound to the same
+     * address with SO_REUSEPORT, so that the operating system distributes new
+     * connections between the acceptors? Requires Java 9 or later and an
+     * operating system that supports SO_REUSEPORT.
+     */
+    private boolean reusePort = false;
+    public void setReusePort(boolean reusePort) { this.reusePort = reusePort; }
+    public boolean getReusePort() { return reusePort; }
+
+
     /**
      * Priority of the acceptor threads.
      * 接收器线程的级别为默认级别5。
@@ -714,6 +741,19 @@ public abstract class AbstractEndpoint<S> {
     }
 
 
+    /**
+     * Should the internal executor run each task on a new virtual thread
+     * rather than on a pooled platform thread? Requires Java 21 or later.
+     */
+    private boolean useVirtualThreads = false;
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+    public boolean getUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+
     /**
      * Priority of the worker threads.
      */
@@ -742,6 +782,174 @@ public abstract class AbstractEndpoint<S> {
         this.maxKeepAliveRequests = maxKeepAliveRequests;
     }
 
+    /**
+     * Should latency histograms (executor queue time, header parse time,
+     * servlet time and write time) be recorded for requests processed by this
+     * endpoint?
+     */
+    private boolean latencyHistograms = false;
+    public boolean getLatencyHistograms() { return latencyHistograms; }
+    public void setLatencyHistograms(boolean latencyHistograms) {
+        this.latencyHistograms = latencyHistograms;
+    }
+
+
+    /**
+     * Overload protection. When enabled and the endpoint is overloaded (see
+     * {@link #isOverloaded()}) the keep-alive timeout is reduced to
+     * {@link #getOverloadKeepAliveTimeout()}, idle keep-alive connections are
+     * closed once they have been idle for longer than that timeout and, if
+     * {@link #getOverloadCloseConnections()} is set, responses are sent with
+     * "Connection: close" so that slots are freed for new clients.
+     */
+    private boolean overloadProtection = false;
+    public boolean getOverloadProtection() { return overloadProtection; }
+    public void setOverloadProtection(boolean overloadProtection) {
+        this.overloadProtection = overloadProtection;
+    }
+
+
+    /**
+     * The percentage of maxConnections in use at which the endpoint is
+     * considered to be overloaded. A negative value disables this check.
+     */
+    private int overloadConnectionThreshold = 90;
+    public int getOverloadConnectionThreshold() { return overloadConnectionThreshold; }
+    public void setOverloadConnectionThreshold(int overloadConnectionThreshold) {
+        this.overloadConnectionThreshold = overloadConnectionThreshold;
+    }
+
+
+    /**
+     * The number of tasks waiting in the executor queue above which the
+     * endpoint is considered to be overloaded. A negative value disables this
+     * check.
+     */
+    private int overloadQueueThreshold = -1;
+    public int getOverloadQueueThreshold() { return overloadQueueThreshold; }
+    public void setOverloadQueueThreshold(int overloadQueueThreshold) {
+        this.overloadQueueThreshold = overloadQueueThreshold;
+    }
+
+
+    /**
+     * The keep-alive timeout, in milliseconds, to use while the endpoint is
+     * overloaded. A negative value means the keep-alive timeout is not
+     * reduced.
+     */
+    private int overloadKeepAliveTimeout = 1000;
+    public int getOverloadKeepAliveTimeout() { return overloadKeepAliveTimeout; }
+    public void setOverloadKeepAliveTimeout(int overloadKeepAliveTimeout) {
+        this.overloadKeepAliveTimeout = overloadKeepAliveTimeout;
+    }
+
+
+    /**
+     * Should keep-alive be disabled for responses sent while the endpoint is
+     * overloaded?
+     */
+    private boolean overloadCloseConnections = true;
+    public boolean getOverloadCloseConnections() { return overloadCloseConnections; }
+    public void setOverloadCloseConnections(boolean overloadCloseConnections) {
+        this.overloadCloseConnections = overloadCloseConnections;
+    }
+
+
+    private final AtomicLong overloadIdleCloseCount = new AtomicLong();
+    /**
+     * @return the number of idle keep-alive connections that have been closed
+     *         early because the endpoint was overloaded
+     */
+    public long getOverloadIdleCloseCount() { return overloadIdleCloseCount.get(); }
+    protected void incrementOverloadIdleCloseCount() { overloadIdleCloseCount.incrementAndGet(); }
+
+
+    private final AtomicLong overloadKeepAliveDisabledCount = new AtomicLong();
+    /**
+     * @return the number of responses for which keep-alive has been disabled
+     *         because the endpoint was overloaded
+     */
+    public long getOverloadKeepAliveDisabledCount() { return overloadKeepAliveDisabledCount.get(); }
+    public void incrementOverloadKeepAliveDisabledCount() {
+        overloadKeepAliveDisabledCount.incrementAndGet();
+    }
+
+
+    /**
+     * Determine if this endpoint is currently overloaded. This is always
+     * <code>false</code> unless overload protection is enabled. The endpoint
+     * is overloaded if either the number of connections has reached
+     * {@link #getOverloadConnectionThreshold()} percent of
+     * {@link #getMaxConnections()} or the number of tasks waiting in the
+     * executor queue exceeds {@link #getOverloadQueueThreshold()}.
+     *
+     * @return <code>true</code> if the endpoint is overloaded
+     */
+    public boolean isOverloaded() {
+        if (!overloadProtection) {
+            return false;
+        }
+        int maxConnections = getMaxConnections();
+        if (overloadConnectionThreshold >= 0 && maxConnections > 0) {
+            long connectionCount = getConnectionCount();
+            if (connectionCount * 100 >= (long) maxConnections * overloadConnectionThreshold) {
+                return true;
+            }
+        }
+        if (overloadQueueThreshold >= 0) {
+            int queueSize = getExecutorQueueSize();
+            if (queueSize > overloadQueueThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Obtain the number of connections that need to be closed for this
+     * endpoint to drop back below its overload connection threshold.
+     *
+     * @return Zero if the endpoint is not overloaded, the number of
+     *         connections at or above the connection threshold or
+     *         {@link Integer#MAX_VALUE} if the endpoint is overloaded only
+     *         because of the executor queue, in which case closing any
+     *         particular number of connections will not end the overload
+     */
+    public int getOverloadExcessConnections() {
+        if (!isOverloaded()) {
+            return 0;
+        }
+        int maxConnections = getMaxConnections();
+        if (overloadConnectionThreshold >= 0 && maxConnections > 0) {
+            // The smallest connection count that is an overload
+            long limit = ((long) maxConnections * overloadConnectionThreshold + 99) / 100;
+            long excess = getConnectionCount() - limit + 1;
+            if (excess > 0) {
+                return (int) Math.min(excess, Integer.MAX_VALUE);
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+
+    /**
+     * Obtain the keep-alive timeout to use for the next period a connection
+     * waits for a request. This is the configured keep-alive timeout unless
+     * the endpoint is overloaded in which case it may be reduced.
+     *
+     * @return The keep-alive timeout in milliseconds
+     */
+    public int getCurrentKeepAliveTimeout() {
+        int keepAliveTimeout = getKeepAliveTimeout();
+        if (overloadKeepAliveTimeout >= 0 && isOverloaded() &&
+                (keepAliveTimeout <= 0 || keepAliveTimeout > overloadKeepAliveTimeout)) {
+            return overloadKeepAliveTimeout;
+        }
+        return keepAliveTimeout;
+    }
+
+
     /**
      * The maximum number of headers in a request that are allowed.
      * 100 by default. A value of less than 0 means no limit.
@@ -916,6 +1124,26 @@ public abstract class AbstractEndpoint<S> {
         }
     }
 
+    /**
+     * Return the number of tasks waiting in the executor queue.
+     *
+     * @return the number of queued tasks or <code>-1</code> if the executor
+     *         does not expose its queue, or <code>-2</code> if there is no
+     *         executor
+     */
+    public int getExecutorQueueSize() {
+        Executor executor = this.executor;
+        if (executor != null) {
+            if (executor instanceof java.util.concurrent.ThreadPoolExecutor) {
+                return ((java.util.concurrent.ThreadPoolExecutor) executor).getQueue().size();
+            } else {
+                return -1;
+            }
+        } else {
+            return -2;
+        }
+    }
+
     public boolean isRunning() {
         return running;
     }
@@ -930,11 +1158,59 @@ public abstract class AbstractEndpoint<S> {
      * 重点在内部。
      */
     public void createExecutor() {
+        createExecutor(getUseVirtualThreads());
+    }
+
+
+    /**
+     * Create the internal executor.
+     *
+     * @param useVirtualThreads Should virtual threads be used if the Java
+     *                          Runtime supports them? Endpoints that cannot
+     *                          use virtual threads pass {@code false} rather
+     *                          than changing the configured value.
+     */
+    protected void createExecutor(boolean useVirtualThreads) {
         internalExecutor = true;
+        if (useVirtualThreads) {
+            if (JreCompat.isJre21Available()) {
+                executor = new VirtualThreadExecutor(getName() + "-virt-");
+                return;
+            }
+            getLog().warn(sm.getString("endpoint.noVirtualThreads", getName()));
+        }
+        executor = createInternalThreadPool();
+    }
+
+
+    /**
+     * Create the internal executor used when the endpoint runs its tasks on
+     * platform threads.
+     *
+     * @return The new executor
+     */
+    protected Executor createInternalThreadPool() {
+        return createThreadPoolExecutor(getName() + "-exec-", getMinSpareThreads(), getMaxThreads());
+    }
+
+
+    /**
+     * Create a new internal thread pool backed by a {@link TaskQueue}.
+     *
+     * @param namePrefix      The prefix for the names of the created threads
+     * @param minSpareThreads The core pool size
+     * @param maxThreads      The maximum pool size
+     *
+     * @return The new thread pool
+     */
+    protected ThreadPoolExecutor createThreadPoolExecutor(String namePrefix,
+            int minSpareThreads, int maxThreads) {
         TaskQueue taskqueue = new TaskQueue();
-        TaskThreadFactory tf = new TaskThreadFactory(getName() + "-exec-", daemon, getThreadPriority());
-        executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), 60, TimeUnit.SECONDS,taskqueue, tf);
-        taskqueue.setParent( (ThreadPoolExecutor) executor);
+        TaskThreadFactory tf = new TaskThreadFactory(namePrefix, daemon, getThreadPriority());
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(minSpareThreads, maxThreads, 60,
+                TimeUnit.SECONDS, taskqueue, tf);
+        taskqueue.setParent(tpe);
+        return tpe;
     }
 
 
@@ -947,23 +1223,36 @@ public abstract class AbstractEndpoint<S> {
             this.executor = null;
             if (executor instanceof ThreadPoolExecutor) {
                 //this is our internal one, so we need to shut it down
-                ThreadPoolExecutor tpe = (ThreadPoolExecutor) executor;
-                tpe.shutdownNow();
-                long timeout = getExecutorTerminationTimeoutMillis();
-                if (timeout > 0) {
-                    try {
-                        tpe.awaitTermination(timeout, TimeUnit.MILLISECONDS);
-                    } catch (InterruptedException e) {
-                        // Ignore
-                    }
-                    if (tpe.isTerminating()) {
-                        getLog().warn(sm.getString("endpoint.warn.executorShutdown", getName()));
-                    }
-                }
-                TaskQueue queue = (TaskQueue) tpe.getQueue();
-                queue.setParent(null);
+                shutdownThreadPoolExecutor((ThreadPoolExecutor) executor);
+            } else if (executor instanceof VirtualThreadExecutor) {
+                ((VirtualThreadExecutor) executor).shutdownNow();
+            }
+        }
+    }
+
+
+    /**
+     * Shut down an internal thread pool created by
+     * {@link #createThreadPoolExecutor(String, int, int)}, waiting at most
+     * {@link #getExecutorTerminationTimeoutMillis()} for it to terminate.
+     *
+     * @param tpe The thread pool to shut down
+     */
+    protected void shutdownThreadPoolExecutor(ThreadPoolExecutor tpe) {
+        tpe.shutdownNow();
+        long timeout = getExecutorTerminationTimeoutMillis();
+        if (timeout > 0) {
+            try {
+                tpe.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            if (tpe.isTerminating()) {
+                getLog().warn(sm.getString("endpoint.warn.executorShutdown", getName()));
             }
         }
+        TaskQueue queue = (TaskQueue) tpe.getQueue();
+        queue.setParent(null);
     }
 
     /**
@@ -972,15 +1261,17 @@ public abstract class AbstractEndpoint<S> {
      */
     protected void unlockAccept() {
         // Only try to unlock the acceptor if it is necessary
-        int unlocksRequired = 0;
-        for (Acceptor acceptor : acceptors) {
-            if (acceptor.getState() == AcceptorState.RUNNING) {
-                unlocksRequired++;
-            }
-        }
+        int unlocksRequired = getRunningAcceptorCount();
         if (unlocksRequired == 0) {
             return;
         }
+        // With more than one server socket the operating system chooses which
+        // socket receives each unlock connection so more attempts may be
+        // required before every acceptor has been unlocked.
+        int maxUnlocks = unlocksRequired;
+        if (getServerSocketCount() > 1) {
+            maxUnlocks = unlocksRequired * UNLOCK_ATTEMPTS_PER_SERVER_SOCKET;
+        }
 
         InetSocketAddress unlockAddress = null;
         InetSocketAddress localAddress = null;
@@ -997,7 +1288,15 @@ public abstract class AbstractEndpoint<S> {
         try {
             unlockAddress = getUnlockAddress(localAddress);
 
-            for (int i = 0; i < unlocksRequired; i++) {
+            for (int i = 0; i < maxUnlocks; i++) {
+                if (i >= unlocksRequired) {
+                    // Give the acceptors a chance to respond to the
+                    // connections made so far before trying again
+                    Thread.sleep(5);
+                    if (getRunningAcceptorCount() == 0) {
+                        break;
+                    }
+                }
                 try (java.net.Socket s = new java.net.Socket()) {
                     int stmo = 2 * 1000;
                     int utmo = 2 * 1000;
@@ -1047,6 +1346,17 @@ public abstract class AbstractEndpoint<S> {
     }
 
 
+    private int getRunningAcceptorCount() {
+        int count = 0;
+        for (Acceptor acceptor : acceptors) {
+            if (acceptor.getState() == AcceptorState.RUNNING) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+
     private static InetSocketAddress getUnlockAddress(InetSocketAddress localAddress) throws SocketException {
         if (localAddress.getAddress().isAnyLocalAddress()) {
             // Need a local address of the same type (IPv4 or IPV6) as the
@@ -1127,8 +1437,11 @@ public abstract class AbstractEndpoint<S> {
             } else {
                 sc.reset(socketWrapper, event);
             }
+            if (latencyHistograms) {
+                socketWrapper.setDispatchTime(System.nanoTime());
+            }
             //获取线程池.
-            Executor executor = getExecutor();
+            Executor executor = getSocketExecutor(socketWrapper);
             if (dispatch && executor != null) {
                 /**
                  * 线程池执行的是什么任务？
@@ -1155,6 +1468,19 @@ public abstract class AbstractEndpoint<S> {
             SocketWrapperBase<S> socketWrapper, SocketEvent event);
 
 
+    /**
+     * Obtain the executor that should be used to process events for the given
+     * socket. By default all sockets share the endpoint's executor.
+     *
+     * @param socketWrapper The socket wrapper that is about to be processed
+     *
+     * @return The executor to use or <code>null</code> if none is available
+     */
+    protected Executor getSocketExecutor(SocketWrapperBase<S> socketWrapper) {
+        return getExecutor();
+    }
+
+
     // ------------------------------------------------------- Lifecycle methods
 
     /*
@@ -1261,6 +1587,7 @@ public abstract class AbstractEndpoint<S> {
             acceptors[i] = createAcceptor();
             String threadName = getName() + "-Acceptor-" + i;
             acceptors[i].setThreadName(threadName);
+            acceptors[i].setIndex(i);
             Thread t = new Thread(acceptors[i], threadName);
             t.setPriority(getAcceptorThreadPriority());
             t.setDaemon(getDaemon());
@@ -1272,6 +1599,39 @@ public abstract class AbstractEndpoint<S> {
     }
 
 
+    /**
+     * Enable SO_REUSEPORT for the given server socket. This must be called
+     * before the socket is bound.
+     *
+     * @param channel The server socket
+     *
+     * @return <code>true</code> if SO_REUSEPORT was enabled, otherwise
+     *         <code>false</code> in which case the endpoint should fall back
+     *         to a single server socket
+     *
+     * @throws IOException If an I/O error occurs setting the option
+     */
+    protected boolean configureReusePort(NetworkChannel channel) throws IOException {
+        try {
+            JreCompat.getInstance().setReusePort(channel);
+            return true;
+        } catch (UnsupportedOperationException e) {
+            getLog().warn(sm.getString("endpoint.reusePort.notSupported", getName()), e);
+            return false;
+        }
+    }
+
+
+    /**
+     * @return The number of server sockets the acceptors are using. This will
+     *         only be greater than one if {@link #getReusePort()} is enabled
+     *         and supported.
+     */
+    protected int getServerSocketCount() {
+        return 1;
+    }
+
+
     /**
      * Hook to allow Endpoints to provide a specific Acceptor implementation.
      * @return the acceptor
@@ -1770,6 +1770,10 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
         public SendfileData(String filename, long pos, long length) {
             super(filename, pos, length);
         }
+
+        public SendfileData(String filename, FileRegion[] regions) {
+            super(filename, regions);
+        }
     }
 
 
@@ -1857,8 +1861,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                 // Set the socket to nonblocking mode
                 Socket.timeoutSet(data.socket, 0);
                 while (sendfileRunning) {
-                    long nw = Socket.sendfilen(data.socket, data.fd,
-                                               data.pos, data.length, 0);
+                    long nw = sendfile(data);
                     if (nw < 0) {
                         if (!(-nw == Status.EAGAIN)) {
                             Pool.destroy(data.fdpool);
@@ -1869,9 +1872,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                             break;
                         }
                     } else {
-                        data.pos += nw;
-                        data.length -= nw;
-                        if (data.length == 0) {
+                        if (data.isComplete()) {
                             // Entire file has been sent
                             Pool.destroy(data.fdpool);
                             // Set back socket to blocking mode
@@ -1893,6 +1894,29 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
             return SendfileState.PENDING;
         }
 
+        /*
+         * Write the prefix of the current region if any remains, otherwise
+         * the file region. Returns the number of bytes written or a negative
+         * APR error code.
+         */
+        private long sendfile(SendfileData data) {
+            if (data.hasPrefix()) {
+                ByteBuffer prefix = data.prefix;
+                int nw = Socket.send(data.socket, prefix.array(),
+                        prefix.arrayOffset() + prefix.position(), prefix.remaining());
+                if (nw > 0) {
+                    prefix.position(prefix.position() + nw);
+                }
+                return nw;
+            }
+            long nw = Socket.sendfilen(data.socket, data.fd, data.pos, data.length, 0);
+            if (nw > 0) {
+                data.pos += nw;
+                data.length -= nw;
+            }
+            return nw;
+        }
+
         /**
          * Remove socket from the poller.
          *
@@ -1987,9 +2011,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                                 continue;
                             }
                             // Write some data using sendfile
-                            long nw = Socket.sendfilen(state.socket, state.fd,
-                                                       state.pos,
-                                                       state.length, 0);
+                            long nw = sendfile(state);
                             if (nw < 0) {
                                 // Close socket and clear pool
                                 remove(state);
@@ -1999,9 +2021,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                                 continue;
                             }
 
-                            state.pos += nw;
-                            state.length -= nw;
-                            if (state.length == 0) {
+                            if (state.isComplete()) {
                                 remove(state);
                                 switch (state.keepAliveState) {
                                 case NONE: {
@@ -2105,7 +2125,9 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
         @Override
         public void run() {
 
-            synchronized (socket) {
+            Lock lock = socket.getLock();
+            lock.lock();
+            try {
                 if (!deferAccept) {
                     if (setSocketOptions(socket)) {
                         getPoller().add(socket.getSocket().longValue(),
@@ -2134,6 +2156,8 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                         socket = null;
                     }
                 }
+            } finally {
+                lock.unlock();
             }
         }
     }
@@ -2588,6 +2612,12 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
         }
 
 
+        @Override
+        public SendfileDataBase createSendfileData(String filename, FileRegion[] regions) {
+            return new SendfileData(filename, regions);
+        }
+
+
         @Override
         public SendfileState processSendfile(SendfileDataBase sendfileData) {
             ((SendfileData) sendfileData).socket = getSocket().longValue();
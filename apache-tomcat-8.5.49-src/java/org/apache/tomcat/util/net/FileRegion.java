@@ -0,0 +1,59 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+/**
+ * A region of a file to be written to a socket by sendfile, optionally
+ * preceded by data held in memory. A response made up of several regions of
+ * the same file, such as a <code>multipart/byteranges</code> response, is
+ * described by a sequence of regions where the prefix of each region holds the
+ * headers of the part and the final region holds only the closing boundary.
+ */
+public class FileRegion {
+
+    private final byte[] prefix;
+    private final long pos;
+    private final long length;
+
+
+    /**
+     * @param prefix The data to write before the file region or
+     *               <code>null</code> if there is none
+     * @param pos    The position in the file of the first byte of the region
+     * @param length The number of bytes in the region, may be zero
+     */
+    public FileRegion(byte[] prefix, long pos, long length) {
+        this.prefix = prefix;
+        this.pos = pos;
+        this.length = length;
+    }
+
+
+    public byte[] getPrefix() {
+        return prefix;
+    }
+
+
+    public long getPos() {
+        return pos;
+    }
+
+
+    public long getLength() {
+        return length;
+    }
+}
@@ -29,6 +29,7 @@ import java.nio.channels.AsynchronousServerSocketChannel;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.InterruptedByTimeoutException;
 import java.nio.channels.NetworkChannel;
 import java.nio.channels.ReadPendingException;
@@ -47,7 +48,9 @@ import javax.net.ssl.SSLSession;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.buf.ByteBufferUtils;
 import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.JSSESupport;
 
@@ -62,6 +65,12 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
 
     private static final Log log = LogFactory.getLog(Nio2Endpoint.class);
 
+    /**
+     * The maximum size of the part of a file mapped into memory at any one
+     * time when serving a file with sendfile.
+     */
+    private static final long MAX_SENDFILE_MAP_SIZE = 4 * 1024 * 1024;
+
 
     // ----------------------------------------------------------------- Fields
 
@@ -70,6 +79,12 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
      */
     private volatile AsynchronousServerSocketChannel serverSock = null;
 
+    /**
+     * All the server sockets, including {@link #serverSock}, when reusePort
+     * is enabled. One per acceptor.
+     */
+    private volatile AsynchronousServerSocketChannel[] serverSocks = null;
+
     /**
      * Allows detecting if a completion handler completes inline.
      */
@@ -136,7 +151,12 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
 
         // Create worker collection
         if (getExecutor() == null) {
-            createExecutor();
+            // The AsynchronousChannelGroup threads block in the native poller
+            // so they must not be virtual threads
+            if (getUseVirtualThreads()) {
+                log.warn(sm.getString("endpoint.nio2.noVirtualThreads"));
+            }
+            createExecutor(false);
         }
         if (getExecutor() instanceof ExecutorService) {
             threadGroup = AsynchronousChannelGroup.withThreadPool((ExecutorService) getExecutor());
@@ -149,11 +169,17 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
         serverSock = AsynchronousServerSocketChannel.open(threadGroup);
         socketProperties.setProperties(serverSock);
         InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
+        boolean reusePort = getReusePort() && getAcceptorThreadCount() > 1 &&
+                configureReusePort(serverSock);
         serverSock.bind(addr, getAcceptCount());
+        if (reusePort) {
+            bindReusePortServerSockets(addr);
+        }
 
         // Initialize thread count defaults for acceptor, poller
-        if (acceptorThreadCount != 1) {
-            // NIO2 does not allow any form of IO concurrency
+        if (acceptorThreadCount != 1 && serverSocks == null) {
+            // NIO2 does not allow any form of IO concurrency on a single
+            // server socket
             acceptorThreadCount = 1;
         }
 
@@ -162,6 +188,28 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
     }
 
 
+    /*
+     * Open and bind one additional server socket for each additional acceptor.
+     * The first server socket must already be bound.
+     */
+    private void bindReusePortServerSockets(InetSocketAddress addr) throws IOException {
+        AsynchronousServerSocketChannel[] serverSocks =
+                new AsynchronousServerSocketChannel[getAcceptorThreadCount()];
+        serverSocks[0] = serverSock;
+        // Assign first so any sockets opened are closed if a later bind fails
+        this.serverSocks = serverSocks;
+        // Use the port the first socket is bound to in case port 0 was used
+        InetSocketAddress reuseAddr = new InetSocketAddress(addr.getAddress(),
+                ((InetSocketAddress) serverSock.getLocalAddress()).getPort());
+        for (int i = 1; i < serverSocks.length; i++) {
+            serverSocks[i] = AsynchronousServerSocketChannel.open(threadGroup);
+            socketProperties.setProperties(serverSocks[i]);
+            JreCompat.getInstance().setReusePort(serverSocks[i]);
+            serverSocks[i].bind(reuseAddr, getAcceptCount());
+        }
+    }
+
+
     /**
      * Start the NIO2 endpoint, creating acceptor.
      */
@@ -250,6 +298,35 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
             serverSock.close();
             serverSock = null;
         }
+        AsynchronousServerSocketChannel[] serverSocks = this.serverSocks;
+        if (serverSocks != null) {
+            this.serverSocks = null;
+            // The first was closed above
+            for (int i = 1; i < serverSocks.length; i++) {
+                if (serverSocks[i] != null) {
+                    serverSocks[i].close();
+                }
+            }
+        }
+    }
+
+
+    @Override
+    protected int getServerSocketCount() {
+        AsynchronousServerSocketChannel[] serverSocks = this.serverSocks;
+        return serverSocks == null ? 1 : serverSocks.length;
+    }
+
+
+    /*
+     * The server socket the given acceptor should accept connections from.
+     */
+    private AsynchronousServerSocketChannel getServerSocket(int acceptorIndex) {
+        AsynchronousServerSocketChannel[] serverSocks = this.serverSocks;
+        if (serverSocks == null) {
+            return serverSock;
+        }
+        return serverSocks[acceptorIndex % serverSocks.length];
     }
 
 
@@ -395,7 +472,7 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                     try {
                         // Accept the next incoming connection from the server
                         // socket
-                        socket = serverSock.accept().get();
+                        socket = getServerSocket(getIndex()).accept().get();
                     } catch (Exception e) {
                         // We didn't get a socket
                         countDownConnection();
@@ -468,17 +545,18 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                     failed(new EOFException(), attachment);
                     return;
                 }
-                attachment.pos += nWrite.intValue();
-                ByteBuffer buffer = getSocket().getBufHandler().getWriteBuffer();
-                if (!buffer.hasRemaining()) {
-                    if (attachment.length <= 0) {
+                if (!attachment.buffer.hasRemaining()) {
+                    boolean more;
+                    try {
+                        more = nextSendfileBuffer(attachment);
+                    } catch (IOException e) {
+                        failed(e, attachment);
+                        return;
+                    }
+                    if (!more) {
                         // All data has now been written
                         setSendfileData(null);
-                        try {
-                            attachment.fchannel.close();
-                        } catch (IOException e) {
-                            // Ignore
-                        }
+                        attachment.close();
                         if (isInline()) {
                             attachment.doneInline = true;
                         } else {
@@ -500,37 +578,15 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                             }
                         }
                         return;
-                    } else {
-                        getSocket().getBufHandler().configureWriteBufferForWrite();
-                        int nRead = -1;
-                        try {
-                            nRead = attachment.fchannel.read(buffer);
-                        } catch (IOException e) {
-                            failed(e, attachment);
-                            return;
-                        }
-                        if (nRead > 0) {
-                            getSocket().getBufHandler().configureWriteBufferForRead();
-                            if (attachment.length < buffer.remaining()) {
-                                buffer.limit(buffer.limit() - buffer.remaining() + (int) attachment.length);
-                            }
-                            attachment.length -= nRead;
-                        } else {
-                            failed(new EOFException(), attachment);
-                            return;
-                        }
                     }
                 }
-                getSocket().write(buffer, toTimeout(getWriteTimeout()), TimeUnit.MILLISECONDS, attachment, this);
+                getSocket().write(attachment.buffer, toTimeout(getWriteTimeout()),
+                        TimeUnit.MILLISECONDS, attachment, this);
             }
 
             @Override
             public void failed(Throwable exc, SendfileData attachment) {
-                try {
-                    attachment.fchannel.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
+                attachment.close();
                 if (!isInline()) {
                     getEndpoint().processSocket(Nio2SocketWrapper.this, SocketEvent.ERROR, false);
                 } else {
@@ -687,6 +743,39 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
 
         }
 
+        private static final CompletionHandler<Long, GatheringWriteResult>
+                blockingGatheringWriteCompletionHandler =
+                new CompletionHandler<Long, GatheringWriteResult>() {
+            @Override
+            public void completed(Long nBytes, GatheringWriteResult attachment) {
+                attachment.nBytes = nBytes.longValue();
+                attachment.done.release();
+            }
+            @Override
+            public void failed(Throwable exc, GatheringWriteResult attachment) {
+                attachment.exc = exc;
+                attachment.done.release();
+            }
+        };
+
+        /*
+         * Reused for every blocking gathering write on the socket. Blocking
+         * writes do not overlap and each one waits for its completion so the
+         * single permit is always consumed before the next write starts.
+         */
+        private static class GatheringWriteResult {
+            private final Semaphore done = new Semaphore(0);
+            private volatile long nBytes;
+            private volatile Throwable exc;
+
+            private void reset() {
+                nBytes = 0;
+                exc = null;
+            }
+        }
+
+        private final GatheringWriteResult gatheringWriteResult = new GatheringWriteResult();
+
         private static boolean arrayHasData(ByteBuffer[] byteBuffers) {
             for (ByteBuffer byteBuffer : byteBuffers) {
                 if (byteBuffer.hasRemaining()) {
@@ -1361,6 +1450,43 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
         }
 
 
+        /**
+         * @param block Ignored since this method is only called in the
+         *              blocking case
+         */
+        @Override
+        protected void doWrite(boolean block, ByteBuffer[] from) throws IOException {
+            try {
+                do {
+                    GatheringWriteResult written = gatheringWriteResult;
+                    written.reset();
+                    getSocket().write(from, 0, from.length, toTimeout(getWriteTimeout()),
+                            TimeUnit.MILLISECONDS, written, blockingGatheringWriteCompletionHandler);
+                    written.done.acquire();
+                    if (written.exc instanceof InterruptedByTimeoutException) {
+                        throw new SocketTimeoutException();
+                    } else if (written.exc instanceof IOException) {
+                        throw (IOException) written.exc;
+                    } else if (written.exc != null) {
+                        throw new IOException(written.exc);
+                    }
+                    if (written.nBytes < 0) {
+                        throw new EOFException(sm.getString("iob.failedwrite"));
+                    }
+                } while (arrayHasData(from));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+
+        @Override
+        protected boolean isGatheringWriteSupported() {
+            // TLS has to wrap the data in fixed size chunks
+            return !isSecure();
+        }
+
+
         @Override
         protected void flushBlocking() throws IOException {
             checkError();
@@ -1543,6 +1669,12 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
         }
 
 
+        @Override
+        public SendfileDataBase createSendfileData(String filename, FileRegion[] regions) {
+            return new SendfileData(filename, regions);
+        }
+
+
         @Override
         public SendfileState processSendfile(SendfileDataBase sendfileData) {
             SendfileData data = (SendfileData) sendfileData;
@@ -1552,39 +1684,60 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                 java.nio.file.Path path = new File(sendfileData.fileName).toPath();
                 try {
                     data.fchannel = java.nio.channels.FileChannel
-                            .open(path, StandardOpenOption.READ).position(sendfileData.pos);
+                            .open(path, StandardOpenOption.READ);
                 } catch (IOException e) {
                     return SendfileState.ERROR;
                 }
             }
-            getSocket().getBufHandler().configureWriteBufferForWrite();
-            ByteBuffer buffer = getSocket().getBufHandler().getWriteBuffer();
-            int nRead = -1;
             try {
-                nRead = data.fchannel.read(buffer);
-            } catch (IOException e1) {
+                if (!nextSendfileBuffer(data)) {
+                    // Nothing to write
+                    setSendfileData(null);
+                    data.close();
+                    return SendfileState.DONE;
+                }
+            } catch (IOException e) {
+                data.close();
                 return SendfileState.ERROR;
             }
 
-            if (nRead >= 0) {
-                data.length -= nRead;
-                getSocket().getBufHandler().configureWriteBufferForRead();
-                Nio2Endpoint.startInline();
-                getSocket().write(buffer, toTimeout(getWriteTimeout()), TimeUnit.MILLISECONDS,
-                        data, sendfileHandler);
-                Nio2Endpoint.endInline();
-                if (data.doneInline) {
-                    if (data.error) {
-                        return SendfileState.ERROR;
-                    } else {
-                        return SendfileState.DONE;
-                    }
+            Nio2Endpoint.startInline();
+            getSocket().write(data.buffer, toTimeout(getWriteTimeout()), TimeUnit.MILLISECONDS,
+                    data, sendfileHandler);
+            Nio2Endpoint.endInline();
+            if (data.doneInline) {
+                if (data.error) {
+                    return SendfileState.ERROR;
                 } else {
-                    return SendfileState.PENDING;
+                    return SendfileState.DONE;
                 }
             } else {
-                return SendfileState.ERROR;
+                return SendfileState.PENDING;
+            }
+        }
+
+
+        /*
+         * Moves on to the next buffer to write: the prefix of the current
+         * region or the next part of the file region. The file is mapped into
+         * memory rather than read so the data is not copied through the socket
+         * buffer. Returns false if all the data has been written.
+         */
+        private boolean nextSendfileBuffer(SendfileData data) throws IOException {
+            data.releaseBuffer();
+            if (data.isComplete()) {
+                return false;
             }
+            if (data.hasPrefix()) {
+                data.buffer = data.prefix;
+            } else {
+                long size = Math.min(data.length, MAX_SENDFILE_MAP_SIZE);
+                data.buffer = data.fchannel.map(MapMode.READ_ONLY, data.pos, size);
+                data.mapped = true;
+                data.pos += size;
+                data.length -= size;
+            }
+            return true;
         }
 
 
@@ -1836,6 +1989,9 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
      */
     public static class SendfileData extends SendfileDataBase {
         private FileChannel fchannel;
+        // The buffer currently being written
+        private ByteBuffer buffer;
+        private boolean mapped = false;
         // Internal use only
         private boolean doneInline = false;
         private boolean error = false;
@@ -1843,5 +1999,27 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
         public SendfileData(String filename, long pos, long length) {
             super(filename, pos, length);
         }
+
+        public SendfileData(String filename, FileRegion[] regions) {
+            super(filename, regions);
+        }
+
+        private void releaseBuffer() {
+            if (mapped) {
+                // Unmap now rather than when the buffer is garbage collected
+                ByteBufferUtils.cleanDirectBuffer(buffer);
+                mapped = false;
+            }
+            buffer = null;
+        }
+
+        private void close() {
+            releaseBuffer();
+            try {
+                fchannel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
     }
 }
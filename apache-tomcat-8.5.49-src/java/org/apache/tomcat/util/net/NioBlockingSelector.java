@@ -103,6 +103,7 @@ public class NioBlockingSelector {
         NioSocketWrapper att = (NioSocketWrapper) key.attachment();
         int written = 0;
         boolean timedout = false;
+        boolean registered = false;
         int keycount = 1; //assume we can write
         long time = System.currentTimeMillis(); //start the timeout timer
         try {
@@ -122,6 +123,7 @@ public class NioBlockingSelector {
                 }
                 try {
                     if ( att.getWriteLatch()==null || att.getWriteLatch().getCount()==0) att.startWriteLatch(1);
+                    registered = true;
                     poller.add(att,SelectionKey.OP_WRITE,reference);
                     if (writeTimeout < 0) {
                         att.awaitWriteLatch(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
@@ -146,7 +148,88 @@ public class NioBlockingSelector {
             if (timedout)
                 throw new SocketTimeoutException();
         } finally {
-            poller.remove(att,SelectionKey.OP_WRITE);
+            // Nothing to remove if the socket was never registered
+            if (registered) {
+                poller.remove(att,SelectionKey.OP_WRITE);
+            }
+            if (timedout && reference.key!=null) {
+                poller.cancelKey(reference.key);
+            }
+            reference.key = null;
+            keyReferenceStack.push(reference);
+        }
+        return written;
+    }
+
+    /**
+     * Performs a blocking gathering write of the given buffers, in order.
+     * Behaves in the same way as {@link #write(ByteBuffer, NioChannel, long)}
+     * apart from writing from more than one buffer at a time.
+     * @param bufs ByteBuffer[] - the buffers containing the data, we will write as long as any of them has remaining data
+     * @param socket SocketChannel - the socket to write data to
+     * @param writeTimeout long - the timeout for this write operation in milliseconds, -1 means no timeout
+     * @return long - returns the number of bytes written
+     * @throws EOFException if write returns -1
+     * @throws SocketTimeoutException if the write times out
+     * @throws IOException if an IO Exception occurs in the underlying socket logic
+     */
+    public long write(ByteBuffer[] bufs, NioChannel socket, long writeTimeout)
+            throws IOException {
+        SelectionKey key = socket.getIOChannel().keyFor(socket.getPoller().getSelector());
+        if ( key == null ) throw new IOException("Key no longer registered");
+        KeyReference reference = keyReferenceStack.pop();
+        if (reference == null) {
+            reference = new KeyReference();
+        }
+        NioSocketWrapper att = (NioSocketWrapper) key.attachment();
+        long written = 0;
+        boolean timedout = false;
+        boolean registered = false;
+        int keycount = 1; //assume we can write
+        long time = System.currentTimeMillis(); //start the timeout timer
+        try {
+            while ( (!timedout) && hasRemaining(bufs)) {
+                if (keycount > 0) { //only write if we were registered for a write
+                    long cnt = socket.write(bufs); //write the data
+                    if (cnt == -1)
+                        throw new EOFException();
+                    written += cnt;
+                    if (cnt > 0) {
+                        time = System.currentTimeMillis(); //reset our timeout timer
+                        continue; //we successfully wrote, try again without a selector
+                    }
+                }
+                try {
+                    if ( att.getWriteLatch()==null || att.getWriteLatch().getCount()==0) att.startWriteLatch(1);
+                    registered = true;
+                    poller.add(att,SelectionKey.OP_WRITE,reference);
+                    if (writeTimeout < 0) {
+                        att.awaitWriteLatch(Long.MAX_VALUE,TimeUnit.MILLISECONDS);
+                    } else {
+                        att.awaitWriteLatch(writeTimeout,TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException ignore) {
+                    // Ignore
+                }
+                if ( att.getWriteLatch()!=null && att.getWriteLatch().getCount()> 0) {
+                    //we got interrupted, but we haven't received notification from the poller.
+                    keycount = 0;
+                }else {
+                    //latch countdown has happened
+                    keycount = 1;
+                    att.resetWriteLatch();
+                }
+
+                if (writeTimeout > 0 && (keycount == 0))
+                    timedout = (System.currentTimeMillis() - time) >= writeTimeout;
+            } //while
+            if (timedout)
+                throw new SocketTimeoutException();
+        } finally {
+            // Nothing to remove if the socket was never registered
+            if (registered) {
+                poller.remove(att,SelectionKey.OP_WRITE);
+            }
             if (timedout && reference.key!=null) {
                 poller.cancelKey(reference.key);
             }
@@ -156,6 +239,15 @@ public class NioBlockingSelector {
         return written;
     }
 
+    static boolean hasRemaining(ByteBuffer[] bufs) {
+        for (ByteBuffer buf : bufs) {
+            if (buf.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Performs a blocking read using the bytebuffer for data to be read
      * If the <code>selector</code> parameter is null, then it will perform a busy read that could
@@ -178,6 +270,7 @@ public class NioBlockingSelector {
         NioSocketWrapper att = (NioSocketWrapper) key.attachment();
         int read = 0;
         boolean timedout = false;
+        boolean registered = false;
         int keycount = 1; //assume we can read
         long time = System.currentTimeMillis(); //start the timeout timer
         try {
@@ -190,6 +283,7 @@ public class NioBlockingSelector {
                 }
                 try {
                     if ( att.getReadLatch()==null || att.getReadLatch().getCount()==0) att.startReadLatch(1);
+                    registered = true;
                     poller.add(att,SelectionKey.OP_READ, reference);
                     if (readTimeout < 0) {
                         att.awaitReadLatch(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
@@ -213,7 +307,10 @@ public class NioBlockingSelector {
             if (timedout)
                 throw new SocketTimeoutException();
         } finally {
-            poller.remove(att,SelectionKey.OP_READ);
+            // Nothing to remove if the socket was never registered
+            if (registered) {
+                poller.remove(att,SelectionKey.OP_READ);
+            }
             if (timedout && reference.key!=null) {
                 poller.cancelKey(reference.key);
             }
@@ -34,9 +34,13 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -50,10 +54,13 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.buf.ByteBufferArena;
 import org.apache.tomcat.util.collections.SynchronizedQueue;
 import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.JSSESupport;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
 
 /**
  * 负责接收处理底层麻烦的Socket网络连接(TCP/IP协议)
@@ -108,6 +115,12 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     private volatile ServerSocketChannel serverSock = null;
 
+    /**
+     * All the server sockets, including {@link #serverSock}, when reusePort
+     * is enabled. One per acceptor.
+     */
+    private volatile ServerSocketChannel[] serverSocks = null;
+
     /**
      *
      */
@@ -125,6 +138,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     private SynchronizedStack<NioChannel> nioChannels;
 
+    /**
+     * Source of the application buffers when socket.bufferArena is enabled
+     */
+    private volatile ByteBufferArena bufferArena;
+
 
     // ------------------------------------------------------------- Properties
 
@@ -171,6 +189,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     public void setPollerThreadCount(int pollerThreadCount) { this.pollerThreadCount = pollerThreadCount; }
     public int getPollerThreadCount() { return pollerThreadCount; }
 
+    /**
+     * Should each poller dispatch the sockets it manages to its own dedicated
+     * worker pool rather than to the executor shared by all pollers? Only
+     * applies when the endpoint uses an internal executor.
+     */
+    private boolean pollerWorkerAffinity = false;
+    public void setPollerWorkerAffinity(boolean pollerWorkerAffinity) { this.pollerWorkerAffinity = pollerWorkerAffinity; }
+    public boolean getPollerWorkerAffinity() { return pollerWorkerAffinity; }
+
     private long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout){ this.selectorTimeout = timeout;}
     public long getSelectorTimeout(){ return this.selectorTimeout; }
@@ -179,6 +206,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     private Poller[] pollers = null;
     private AtomicInteger pollerRotater = new AtomicInteger(0);
+
+    /**
+     * The per poller worker pools, if poller worker affinity is enabled.
+     */
+    private ThreadPoolExecutor[] pollerExecutors = null;
     /**
      * Return an available poller in true round robin fashion.
      *
@@ -190,6 +222,31 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     }
 
 
+    /**
+     * Return an available poller for a connection accepted by the given
+     * acceptor. When each acceptor has its own server socket, the pollers are
+     * divided between the server sockets so each has its own set of pollers.
+     * Otherwise this is the same as {@link #getPoller0()}.
+     *
+     * @param acceptorIndex The index of the acceptor that accepted the
+     *                      connection
+     *
+     * @return The next poller in sequence for the acceptor
+     */
+    protected Poller getPoller0(int acceptorIndex) {
+        int groups = getServerSocketCount();
+        Poller[] pollers = this.pollers;
+        if (groups == 1 || pollers.length < groups) {
+            return getPoller0();
+        }
+        // The pollers for a group are group, group + groups, ...
+        int group = acceptorIndex % groups;
+        int groupSize = (pollers.length - group + groups - 1) / groups;
+        int idx = Math.abs(pollerRotater.incrementAndGet()) % groupSize;
+        return pollers[group + idx * groups];
+    }
+
+
     public void setSelectorPool(NioSelectorPool selectorPool) {
         this.selectorPool = selectorPool;
     }
@@ -228,6 +285,117 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     }
 
 
+    /**
+     * Number of connections currently registered with each poller.
+     *
+     * @return The connection count for each poller, indexed by poller
+     */
+    public int[] getPollerConnectionCounts() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return new int[0];
+        }
+        int[] result = new int[pollers.length];
+        for (int i = 0; i < pollers.length; i++) {
+            Poller poller = pollers[i];
+            result[i] = (poller == null) ? 0 : poller.getConnectionCount();
+        }
+        return result;
+    }
+
+
+    /**
+     * Number of socket events each poller has dispatched for processing since
+     * the endpoint was started.
+     *
+     * @return The event count for each poller, indexed by poller
+     */
+    public long[] getPollerEventCounts() {
+        Poller[] pollers = this.pollers;
+        if (pollers == null) {
+            return new long[0];
+        }
+        long[] result = new long[pollers.length];
+        for (int i = 0; i < pollers.length; i++) {
+            Poller poller = pollers[i];
+            result[i] = (poller == null) ? 0 : poller.getEventCount();
+        }
+        return result;
+    }
+
+
+    @Override
+    public int getCurrentThreadCount() {
+        ThreadPoolExecutor[] pollerExecutors = this.pollerExecutors;
+        if (pollerExecutors == null) {
+            return super.getCurrentThreadCount();
+        }
+        int count = 0;
+        for (ThreadPoolExecutor pollerExecutor : pollerExecutors) {
+            count += pollerExecutor.getPoolSize();
+        }
+        return count;
+    }
+
+
+    @Override
+    public int getCurrentThreadsBusy() {
+        ThreadPoolExecutor[] pollerExecutors = this.pollerExecutors;
+        if (pollerExecutors == null) {
+            return super.getCurrentThreadsBusy();
+        }
+        int count = 0;
+        for (ThreadPoolExecutor pollerExecutor : pollerExecutors) {
+            count += pollerExecutor.getActiveCount();
+        }
+        return count;
+    }
+
+
+    @Override
+    public int getExecutorQueueSize() {
+        ThreadPoolExecutor[] pollerExecutors = this.pollerExecutors;
+        if (pollerExecutors == null) {
+            return super.getExecutorQueueSize();
+        }
+        int count = 0;
+        for (ThreadPoolExecutor pollerExecutor : pollerExecutors) {
+            count += pollerExecutor.getQueue().size();
+        }
+        return count;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If poller worker affinity is enabled, each poller gets its own worker
+     * pool with an equal share of maxThreads so a connection's processing
+     * stays within the group of threads fed by the poller that owns it. The
+     * pools replace the shared pool and the returned executor spreads any
+     * tasks not submitted by a poller, such as HTTP/2 streams and async
+     * dispatches, across them.
+     */
+    @Override
+    protected Executor createInternalThreadPool() {
+        if (!pollerWorkerAffinity) {
+            return super.createInternalThreadPool();
+        }
+        int pollerCount = getPollerThreadCount();
+        ThreadPoolExecutor[] pollerExecutors = new ThreadPoolExecutor[pollerCount];
+        int maxThreads = Math.max(1, getMaxThreads() / pollerCount);
+        int minSpareThreads = Math.min(maxThreads,
+                Math.max(1, getMinSpareThreads() / pollerCount));
+        for (int i = 0; i < pollerCount; i++) {
+            pollerExecutors[i] = createThreadPoolExecutor(
+                    getName() + "-ClientPoller-" + i + "-exec-",
+                    minSpareThreads, maxThreads);
+        }
+        this.pollerExecutors = pollerExecutors;
+        return new PollerWorkerExecutor(pollerExecutors);
+    }
+
+
     // ----------------------------------------------- Public Lifecycle Methods
 
     /**
@@ -249,10 +417,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             serverSock = ServerSocketChannel.open();
             socketProperties.setProperties(serverSock.socket());
             InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
+            boolean reusePort = getReusePort() && getAcceptorThreadCount() > 1 &&
+                    configureReusePort(serverSock);
             /**
              * 2.绑定指定监听端口以及设置最大连接数默认为100。
              */
             serverSock.socket().bind(addr,getAcceptCount());
+            if (reusePort) {
+                bindReusePortServerSockets(addr);
+            }
         } else {
             // Retrieve the channel provided by the OS
             Channel ic = System.inheritedChannel();
@@ -292,6 +465,28 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         selectorPool.open();
     }
 
+    /*
+     * Open and bind one additional server socket for each additional acceptor.
+     * The first server socket must already be bound.
+     */
+    private void bindReusePortServerSockets(InetSocketAddress addr) throws IOException {
+        ServerSocketChannel[] serverSocks = new ServerSocketChannel[getAcceptorThreadCount()];
+        serverSocks[0] = serverSock;
+        // Assign first so any sockets opened are closed if a later bind fails
+        this.serverSocks = serverSocks;
+        // Use the port the first socket is bound to in case port 0 was used
+        InetSocketAddress reuseAddr =
+                new InetSocketAddress(addr.getAddress(), serverSock.socket().getLocalPort());
+        for (int i = 1; i < serverSocks.length; i++) {
+            serverSocks[i] = ServerSocketChannel.open();
+            socketProperties.setProperties(serverSocks[i].socket());
+            JreCompat.getInstance().setReusePort(serverSocks[i]);
+            serverSocks[i].socket().bind(reuseAddr, getAcceptCount());
+            serverSocks[i].configureBlocking(true);
+        }
+    }
+
+
     /**
      * Start the NIO endpoint, creating acceptor, poller threads.
      *
@@ -325,11 +520,20 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                             socketProperties.getEventCache());
             nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
                     socketProperties.getBufferPool());
+            if (socketProperties.getBufferArena()) {
+                bufferArena = new ByteBufferArena(socketProperties.getDirectBuffer(),
+                        socketProperties.getBufferArenaSize());
+            }
 
             // Create worker collection
             //创建I/O密集型的线程池.
             if ( getExecutor() == null ) {
                 createExecutor();
+                if (pollerWorkerAffinity && pollerExecutors == null) {
+                    // Virtual threads are used so there are no pools to bind
+                    // the pollers to
+                    log.warn(sm.getString("endpoint.nio.affinityIgnored", getName()));
+                }
             }
 
             /**
@@ -342,6 +546,9 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             pollers = new Poller[getPollerThreadCount()];
             for (int i=0; i<pollers.length; i++) {
                 pollers[i] = new Poller();
+                if (pollerExecutors != null) {
+                    pollers[i].setExecutor(pollerExecutors[i]);
+                }
                 Thread pollerThread = new Thread(pollers[i], getName() + "-ClientPoller-"+i);
                 pollerThread.setPriority(threadPriority);
                 pollerThread.setDaemon(true);
@@ -391,9 +598,21 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
              * 关闭线程池。
              */
             shutdownExecutor();
+            ThreadPoolExecutor[] pollerExecutors = this.pollerExecutors;
+            if (pollerExecutors != null) {
+                this.pollerExecutors = null;
+                for (ThreadPoolExecutor pollerExecutor : pollerExecutors) {
+                    shutdownThreadPoolExecutor(pollerExecutor);
+                }
+            }
             eventCache.clear();
             nioChannels.clear();
             processorCache.clear();
+            ByteBufferArena bufferArena = this.bufferArena;
+            if (bufferArena != null) {
+                this.bufferArena = null;
+                bufferArena.destroy();
+            }
         }
     }
 
@@ -430,6 +649,35 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             serverSock.close();
         }
         serverSock = null;
+        ServerSocketChannel[] serverSocks = this.serverSocks;
+        if (serverSocks != null) {
+            this.serverSocks = null;
+            // The first was closed above
+            for (int i = 1; i < serverSocks.length; i++) {
+                if (serverSocks[i] != null) {
+                    serverSocks[i].close();
+                }
+            }
+        }
+    }
+
+
+    @Override
+    protected int getServerSocketCount() {
+        ServerSocketChannel[] serverSocks = this.serverSocks;
+        return serverSocks == null ? 1 : serverSocks.length;
+    }
+
+
+    /*
+     * The server socket the given acceptor should accept connections from.
+     */
+    private ServerSocketChannel getServerSocket(int acceptorIndex) {
+        ServerSocketChannel[] serverSocks = this.serverSocks;
+        if (serverSocks == null) {
+            return serverSock;
+        }
+        return serverSocks[acceptorIndex % serverSocks.length];
     }
 
 
@@ -482,6 +730,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      *  2.将NioChannel注册到Poller上去。
      */
     protected boolean setSocketOptions(SocketChannel socket) {
+        return setSocketOptions(socket, getPoller0());
+    }
+
+
+    private boolean setSocketOptions(SocketChannel socket, Poller poller) {
         // Process the connection
         try {
             //disable blocking, APR style, we are gonna be polling it
@@ -495,10 +748,19 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 /**
                  * 初始化SocketBufferHandler。
                  */
-                SocketBufferHandler bufhandler = new SocketBufferHandler(
-                        socketProperties.getAppReadBufSize(),
-                        socketProperties.getAppWriteBufSize(),
-                        socketProperties.getDirectBuffer());
+                SocketBufferHandler bufhandler;
+                ByteBufferArena bufferArena = this.bufferArena;
+                if (bufferArena == null) {
+                    bufhandler = new SocketBufferHandler(
+                            socketProperties.getAppReadBufSize(),
+                            socketProperties.getAppWriteBufSize(),
+                            socketProperties.getDirectBuffer());
+                } else {
+                    bufhandler = new SocketBufferHandler(
+                            socketProperties.getAppReadBufSize(),
+                            socketProperties.getAppWriteBufSize(),
+                            bufferArena);
+                }
                 /**
                  * 创建Channel对象。
                  */
@@ -514,7 +776,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             /**
              * 将NioChannel注册到Poller内。
              */
-            getPoller0().register(channel);
+            poller.register(channel);
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
             try {
@@ -605,7 +867,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                          * 5. Acceptor并没有将Channel注册到Selector上。
                          * 这里通过阻塞的方式获取了对应的SocketChannel.
                          */
-                        socket = serverSock.accept();
+                        socket = getServerSocket(getIndex()).accept();
                         log.info("NioEndPoint -> Acceptor -> run() -> socket value is : " + socket.toString());
                     } catch (IOException ioe) {
                         // We didn't get a socket
@@ -632,7 +894,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                         /**
                          * 6.将SocketChannel注册到Poller上的Seletor(read事件)。
                          */
-                        if (!setSocketOptions(socket)) {
+                        if (!setSocketOptions(socket, getPoller0(getIndex()))) {
                             closeSocket(socket);
                         }
                     } else {
@@ -680,6 +942,16 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     }
 
 
+    @Override
+    protected Executor getSocketExecutor(SocketWrapperBase<NioChannel> socketWrapper) {
+        Poller poller = ((NioSocketWrapper) socketWrapper).getPoller();
+        if (poller != null && poller.getExecutor() != null) {
+            return poller.getExecutor();
+        }
+        return super.getSocketExecutor(socketWrapper);
+    }
+
+
     private void close(NioChannel socket, SelectionKey key) {
         try {
             if (socket.getPoller().cancelledKey(key) != null) {
@@ -750,6 +1022,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 try {
                     socket.getIOChannel().register(
                             socket.getPoller().getSelector(), SelectionKey.OP_READ, socketWrapper);
+                    socket.getPoller().connectionCount.incrementAndGet();
                 } catch (Exception x) {
                     log.error(sm.getString("endpoint.nio.registerFail"), x);
                 }
@@ -763,6 +1036,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                         // since it won't have been counted down when the socket
                         // closed.
                         socket.socketWrapper.getEndpoint().countDownConnection();
+                        socket.getPoller().connectionCount.decrementAndGet();
                         ((NioSocketWrapper) socket.socketWrapper).closed = true;
                     } else {
                         final NioSocketWrapper socketWrapper = (NioSocketWrapper) key.attachment();
@@ -828,6 +1102,10 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
         private volatile boolean close = false;
         private long nextExpiration = 0;//optimize expiration handling
+
+        // Connections closed because of an overload that have not yet been
+        // closed. Only used by the Poller thread.
+        private final List<NioSocketWrapper> overloadClosing = new ArrayList<>();
         /**
          * 用于记录唤醒的Channel的个数来判断获取channel的方式。
          */
@@ -838,6 +1116,21 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
          */
         private volatile int keyCount = 0;
 
+        /**
+         * Number of connections currently registered with this poller.
+         */
+        private final AtomicInteger connectionCount = new AtomicInteger(0);
+
+        /**
+         * Number of socket events dispatched by this poller.
+         */
+        private final AtomicLong eventCount = new AtomicLong(0);
+
+        /**
+         * The dedicated worker pool for this poller, if any.
+         */
+        private volatile Executor executor = null;
+
         /**
          * 构造器内初始化管道。
          * @throws IOException
@@ -848,6 +1141,14 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
         public int getKeyCount() { return keyCount; }
 
+        public int getConnectionCount() { return connectionCount.get(); }
+
+        public long getEventCount() { return eventCount.get(); }
+
+        public Executor getExecutor() { return executor; }
+
+        protected void setExecutor(Executor executor) { this.executor = executor; }
+
         public Selector getSelector() { return selector;}
 
         /**
@@ -1006,6 +1307,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 }
                 if (ka != null) {
                     countDownConnection();
+                    connectionCount.decrementAndGet();
                     ka.closed = true;
                 }
             } catch (Throwable e) {
@@ -1110,6 +1412,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                             processSendfile(sk,attachment, false);
                         } else {
                             unreg(sk, attachment, sk.readyOps());
+                            eventCount.incrementAndGet();
                             boolean closeSocket = false;
                             // Read goes before write
                             /**
@@ -1176,7 +1479,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                     if (sc.flushOutbound()) {
                         socketWrapper.updateLastWrite();
                     }
-                } else {
+                } else if (sd.hasPrefix()) {
+                    if (wc.write(sd.prefix) > 0) {
+                        socketWrapper.updateLastWrite();
+                    }
+                } else if (sd.length > 0) {
                     long written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
                     if (written > 0) {
                         sd.pos += written;
@@ -1191,7 +1498,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                         }
                     }
                 }
-                if (sd.length <= 0 && sc.getOutboundRemaining()<=0) {
+                if (sd.isComplete() && sc.getOutboundRemaining()<=0) {
                     if (log.isDebugEnabled()) {
                         log.debug("Send file complete for: "+sd.fileName);
                     }
@@ -1281,6 +1588,37 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             }
             //timeout
             int keycount = 0;
+            // When overloaded, connections that have been idle in keep-alive
+            // for longer than the overload keep-alive timeout are candidates
+            // to be closed. The longest idle are closed first until this
+            // Poller has closed its share of the connections above the limit.
+            long overloadTimeout = -1;
+            int overloadCloseLimit = 0;
+            List<OverloadIdleConnection> overloadIdle = null;
+            int excess = getOverloadExcessConnections();
+            if (excess > 0 && getOverloadKeepAliveTimeout() >= 0) {
+                overloadTimeout = getOverloadKeepAliveTimeout();
+                if (excess == Integer.MAX_VALUE) {
+                    overloadCloseLimit = excess;
+                } else {
+                    // Connections are closed asynchronously so allow for
+                    // those closed earlier that are still counted
+                    Iterator<NioSocketWrapper> closing = overloadClosing.iterator();
+                    while (closing.hasNext()) {
+                        if (closing.next().isClosed()) {
+                            closing.remove();
+                        }
+                    }
+                    int pollerCount = getPollerThreadCount();
+                    overloadCloseLimit = (excess + pollerCount - 1) / pollerCount -
+                            overloadClosing.size();
+                }
+                if (overloadCloseLimit > 0) {
+                    overloadIdle = new ArrayList<>();
+                }
+            } else {
+                overloadClosing.clear();
+            }
             try {
                 for (SelectionKey key : selector.keys()) {
                     keycount++;
@@ -1300,6 +1638,10 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                                 long delta = now - ka.getLastRead();
                                 long timeout = ka.getReadTimeout();
                                 isTimedOut = timeout > 0 && delta > timeout;
+                                if (!isTimedOut && overloadIdle != null && ka.isKeepAliveIdle() &&
+                                        delta > overloadTimeout) {
+                                    overloadIdle.add(new OverloadIdleConnection(key, ka));
+                                }
                             }
                             // Check for write timeout
                             if (!isTimedOut && (ka.interestOps() & SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
@@ -1320,6 +1662,9 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                         cancelledKey(key);
                     }
                 }//for
+                if (overloadIdle != null && overloadIdle.size() > 0) {
+                    closeOverloadIdle(overloadIdle, overloadCloseLimit);
+                }
             } catch (ConcurrentModificationException cme) {
                 // See https://bz.apache.org/bugzilla/show_bug.cgi?id=57943
                 log.warn(sm.getString("endpoint.nio.timeoutCme"), cme);
@@ -1335,6 +1680,62 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             }
 
         }
+
+        private void closeOverloadIdle(List<OverloadIdleConnection> idle, int limit) {
+            Collections.sort(idle);
+            int closed = 0;
+            for (OverloadIdleConnection connection : idle) {
+                if (closed >= limit) {
+                    break;
+                }
+                SelectionKey key = connection.key;
+                NioSocketWrapper ka = connection.socketWrapper;
+                try {
+                    // Skip connections that have been used since the scan
+                    if (!key.isValid() || !ka.isKeepAliveIdle() ||
+                            ka.getLastRead() != connection.lastRead) {
+                        continue;
+                    }
+                    key.interestOps(0);
+                    ka.interestOps(0); //avoid duplicate timeout calls
+                    ka.setError(new SocketTimeoutException());
+                    incrementOverloadIdleCloseCount();
+                    closed++;
+                    if (limit != Integer.MAX_VALUE) {
+                        overloadClosing.add(ka);
+                    }
+                    if (!processSocket(ka, SocketEvent.ERROR, true)) {
+                        cancelledKey(key);
+                    }
+                } catch (CancelledKeyException ckx) {
+                    cancelledKey(key);
+                }
+            }
+        }
+    }
+
+
+    /*
+     * A connection idle in keep-alive that may be closed while the endpoint
+     * is overloaded. The last read time is captured so the ordering does not
+     * change while the candidates are sorted.
+     */
+    private static class OverloadIdleConnection implements Comparable<OverloadIdleConnection> {
+
+        private final SelectionKey key;
+        private final NioSocketWrapper socketWrapper;
+        private final long lastRead;
+
+        OverloadIdleConnection(SelectionKey key, NioSocketWrapper socketWrapper) {
+            this.key = key;
+            this.socketWrapper = socketWrapper;
+            this.lastRead = socketWrapper.getLastRead();
+        }
+
+        @Override
+        public int compareTo(OverloadIdleConnection o) {
+            return Long.compare(lastRead, o.lastRead);
+        }
     }
 
     // ---------------------------------------------------- Key Attachment Class 关键附件类.几把.
@@ -1590,6 +1991,41 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         }
 
 
+        @Override
+        protected void doWrite(boolean block, ByteBuffer[] from) throws IOException {
+            long writeTimeout = getWriteTimeout();
+            Selector selector = null;
+            try {
+                selector = pool.get();
+            } catch (IOException x) {
+                // Ignore
+            }
+            try {
+                pool.write(from, getSocket(), selector, writeTimeout, block);
+                if (block) {
+                    // Make sure we are flushed
+                    do {
+                        if (getSocket().flush(true, selector, writeTimeout)) {
+                            break;
+                        }
+                    } while (true);
+                }
+                updateLastWrite();
+            } finally {
+                if (selector != null) {
+                    pool.put(selector);
+                }
+            }
+        }
+
+
+        @Override
+        protected boolean isGatheringWriteSupported() {
+            // TLS has to wrap the data in fixed size chunks
+            return !isSecure();
+        }
+
+
         @Override
         public void registerReadInterest() {
             if (log.isDebugEnabled()) {
@@ -1614,6 +2050,12 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         }
 
 
+        @Override
+        public SendfileDataBase createSendfileData(String filename, FileRegion[] regions) {
+            return new SendfileData(filename, regions);
+        }
+
+
         @Override
         public SendfileState processSendfile(SendfileDataBase sendfileData) {
             setSendfileData((SendfileData) sendfileData);
@@ -1820,6 +2262,28 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         }
     }
 
+    // --------------------------------------- PollerWorkerExecutor Inner Class
+    /**
+     * The endpoint's executor when poller worker affinity is enabled. Tasks
+     * are handed to the per poller worker pools in turn.
+     */
+    private static class PollerWorkerExecutor implements Executor {
+
+        private final ThreadPoolExecutor[] pollerExecutors;
+        private final AtomicInteger next = new AtomicInteger(0);
+
+        PollerWorkerExecutor(ThreadPoolExecutor[] pollerExecutors) {
+            this.pollerExecutors = pollerExecutors;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            int idx = Math.abs(next.getAndIncrement() % pollerExecutors.length);
+            pollerExecutors[idx].execute(command);
+        }
+    }
+
+
     // ----------------------------------------------- SendfileData Inner Class
     /**
      * SendfileData class.
@@ -1830,6 +2294,10 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             super(filename, pos, length);
         }
 
+        public SendfileData(String filename, FileRegion[] regions) {
+            super(filename, regions);
+        }
+
         protected volatile FileChannel fchannel;
     }
 }
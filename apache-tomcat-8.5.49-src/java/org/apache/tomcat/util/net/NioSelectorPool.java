@@ -237,6 +237,70 @@ public class NioSelectorPool {
         return written;
     }
 
+    /**
+     * Performs a gathering write of the given buffers, in order. Behaves in
+     * the same way as
+     * {@link #write(ByteBuffer, NioChannel, Selector, long, boolean)} apart
+     * from writing from more than one buffer at a time.
+     * @param bufs          The buffers containing the data, we will write as long as any of them has remaining data
+     * @param socket        The socket to write data to
+     * @param selector      The selector to use for blocking, if null then a busy write will be initiated
+     * @param writeTimeout  The timeout for this write operation in milliseconds, -1 means no timeout
+     * @param block         <code>true</code> to perform a blocking write
+     *                      otherwise a non-blocking write will be performed
+     * @return long - returns the number of bytes written
+     * @throws EOFException if write returns -1
+     * @throws SocketTimeoutException if the write times out
+     * @throws IOException if an IO Exception occurs in the underlying socket logic
+     */
+    public long write(ByteBuffer[] bufs, NioChannel socket, Selector selector,
+                     long writeTimeout, boolean block) throws IOException {
+        if ( SHARED && block ) {
+            return blockingSelector.write(bufs,socket,writeTimeout);
+        }
+        SelectionKey key = null;
+        long written = 0;
+        boolean timedout = false;
+        int keycount = 1; //assume we can write
+        long time = System.currentTimeMillis(); //start the timeout timer
+        try {
+            while ( (!timedout) && NioBlockingSelector.hasRemaining(bufs) ) {
+                long cnt = 0;
+                if ( keycount > 0 ) { //only write if we were registered for a write
+                    cnt = socket.write(bufs); //write the data
+                    if (cnt == -1) throw new EOFException();
+
+                    written += cnt;
+                    if (cnt > 0) {
+                        time = System.currentTimeMillis(); //reset our timeout timer
+                        continue; //we successfully wrote, try again without a selector
+                    }
+                    if (cnt==0 && (!block)) break; //don't block
+                }
+                if ( selector != null ) {
+                    //register OP_WRITE to the selector
+                    if (key==null) key = socket.getIOChannel().register(selector, SelectionKey.OP_WRITE);
+                    else key.interestOps(SelectionKey.OP_WRITE);
+                    if (writeTimeout==0) {
+                        timedout = NioBlockingSelector.hasRemaining(bufs);
+                    } else if (writeTimeout<0) {
+                        keycount = selector.select();
+                    } else {
+                        keycount = selector.select(writeTimeout);
+                    }
+                }
+                if (writeTimeout > 0 && (selector == null || keycount == 0) ) timedout = (System.currentTimeMillis()-time)>=writeTimeout;
+            }//while
+            if ( timedout ) throw new SocketTimeoutException();
+        } finally {
+            if (key != null) {
+                key.cancel();
+                if (selector != null) selector.selectNow();//removes the key from this selector
+            }
+        }
+        return written;
+    }
+
     /**
      * Performs a blocking read using the bytebuffer for data to be read and a selector to block.
      * If the <code>selector</code> parameter is null, then it will perform a busy read that could
@@ -698,6 +698,26 @@ public class SecureNioChannel extends NioChannel  {
         }
     }
 
+    /**
+     * Writes the given buffers one at a time since each one has to be wrapped
+     * by the SSLEngine. Stops at the first buffer that is not fully written.
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer src = srcs[i];
+            if (src.hasRemaining()) {
+                written += write(src);
+                if (src.hasRemaining()) {
+                    break;
+                }
+            }
+        }
+        return written;
+    }
+
     @Override
     public int getOutboundRemaining() {
         return netOutBuffer.remaining();
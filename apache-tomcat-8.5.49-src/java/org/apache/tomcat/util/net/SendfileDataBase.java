@@ -16,6 +16,8 @@
  */
 package org.apache.tomcat.util.net;
 
+import java.nio.ByteBuffer;
+
 public abstract class SendfileDataBase {
 
     /**
@@ -46,9 +48,62 @@ public abstract class SendfileDataBase {
      */
     public long length;
 
+    /**
+     * The data to be written to the socket before the current region of the
+     * file. The position of the buffer is updated as the data is written.
+     * <code>null</code> if there is no such data.
+     */
+    public ByteBuffer prefix;
+
+    private final FileRegion[] regions;
+    private int nextRegion;
+
     public SendfileDataBase(String filename, long pos, long length) {
         this.fileName = filename;
         this.pos = pos;
         this.length = length;
+        this.regions = null;
+    }
+
+    public SendfileDataBase(String filename, FileRegion[] regions) {
+        this.fileName = filename;
+        this.regions = regions;
+        startRegion(regions[0]);
+        nextRegion = 1;
+    }
+
+
+    /**
+     * @return <code>true</code> if there is prefix data for the current region
+     *         that has not yet been written
+     */
+    public boolean hasPrefix() {
+        return prefix != null && prefix.hasRemaining();
+    }
+
+
+    /**
+     * Has all the data been written to the socket? If the current region,
+     * including any prefix data, has been written then processing moves on to
+     * the next region.
+     *
+     * @return <code>true</code> if all the regions have been written
+     */
+    public boolean isComplete() {
+        while (length <= 0 && !hasPrefix()) {
+            if (regions == null || nextRegion == regions.length) {
+                return true;
+            }
+            startRegion(regions[nextRegion++]);
+        }
+        return false;
+    }
+
+
+    private void startRegion(FileRegion region) {
+        pos = region.getPos();
+        length = region.getLength();
+        byte[] data = region.getPrefix();
+        prefix = data == null ? null : ByteBuffer.wrap(data);
     }
 }
@@ -18,6 +18,7 @@ package org.apache.tomcat.util.net;
 
 import java.nio.ByteBuffer;
 
+import org.apache.tomcat.util.buf.ByteBufferArena;
 import org.apache.tomcat.util.buf.ByteBufferUtils;
 
 /**
@@ -55,9 +56,19 @@ public class SocketBufferHandler {
 
     private final boolean direct;
 
+    /*
+     * When an arena is used the buffers are obtained from the arena the first
+     * time they are needed and are returned to the arena by release(). A null
+     * buffer is equivalent to an empty buffer in its current mode.
+     */
+    private final ByteBufferArena arena;
+    private int readBufferSize;
+    private int writeBufferSize;
+
     public SocketBufferHandler(int readBufferSize, int writeBufferSize,
             boolean direct) {
         this.direct = direct;
+        this.arena = null;
         if (direct) {
             readBuffer = ByteBuffer.allocateDirect(readBufferSize);
             writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
@@ -68,6 +79,25 @@ public class SocketBufferHandler {
     }
 
 
+    /**
+     * Create a handler that only holds buffers while they are in use. The
+     * buffers are obtained from the given arena when first required and are
+     * returned to it when {@link #release()} is called with both buffers
+     * empty.
+     *
+     * @param readBufferSize    The size of the read buffer
+     * @param writeBufferSize   The size of the write buffer
+     * @param arena             The arena to obtain the buffers from
+     */
+    public SocketBufferHandler(int readBufferSize, int writeBufferSize,
+            ByteBufferArena arena) {
+        this.direct = arena.isDirect();
+        this.arena = arena;
+        this.readBufferSize = readBufferSize;
+        this.writeBufferSize = writeBufferSize;
+    }
+
+
     public void configureReadBufferForWrite() {
         setReadBufferConfiguredForWrite(true);
     }
@@ -81,7 +111,10 @@ public class SocketBufferHandler {
     private void setReadBufferConfiguredForWrite(boolean readBufferConFiguredForWrite) {
         // NO-OP if buffer is already in correct state
         if (this.readBufferConfiguredForWrite != readBufferConFiguredForWrite) {
-            if (readBufferConFiguredForWrite) {
+            if (readBuffer == null) {
+                // Nothing to do. An empty buffer will be configured when the
+                // buffer is obtained.
+            } else if (readBufferConFiguredForWrite) {
                 // Switching to write
                 int remaining = readBuffer.remaining();
                 if (remaining == 0) {
@@ -99,12 +132,17 @@ public class SocketBufferHandler {
 
 
     public ByteBuffer getReadBuffer() {
+        if (readBuffer == null) {
+            readBuffer = allocate(readBufferSize, readBufferConfiguredForWrite);
+        }
         return readBuffer;
     }
 
 
     public boolean isReadBufferEmpty() {
-        if (readBufferConfiguredForWrite) {
+        if (readBuffer == null) {
+            return true;
+        } else if (readBufferConfiguredForWrite) {
             return readBuffer.position() == 0;
         } else {
             return readBuffer.remaining() == 0;
@@ -125,7 +163,10 @@ public class SocketBufferHandler {
     private void setWriteBufferConfiguredForWrite(boolean writeBufferConfiguredForWrite) {
         // NO-OP if buffer is already in correct state
         if (this.writeBufferConfiguredForWrite != writeBufferConfiguredForWrite) {
-            if (writeBufferConfiguredForWrite) {
+            if (writeBuffer == null) {
+                // Nothing to do. An empty buffer will be configured when the
+                // buffer is obtained.
+            } else if (writeBufferConfiguredForWrite) {
                 // Switching to write
                 int remaining = writeBuffer.remaining();
                 if (remaining == 0) {
@@ -145,7 +186,9 @@ public class SocketBufferHandler {
 
 
     public boolean isWriteBufferWritable() {
-        if (writeBufferConfiguredForWrite) {
+        if (writeBuffer == null) {
+            return true;
+        } else if (writeBufferConfiguredForWrite) {
             return writeBuffer.hasRemaining();
         } else {
             return writeBuffer.remaining() == 0;
@@ -154,12 +197,17 @@ public class SocketBufferHandler {
 
 
     public ByteBuffer getWriteBuffer() {
+        if (writeBuffer == null) {
+            writeBuffer = allocate(writeBufferSize, writeBufferConfiguredForWrite);
+        }
         return writeBuffer;
     }
 
 
     public boolean isWriteBufferEmpty() {
-        if (writeBufferConfiguredForWrite) {
+        if (writeBuffer == null) {
+            return true;
+        } else if (writeBufferConfiguredForWrite) {
             return writeBuffer.position() == 0;
         } else {
             return writeBuffer.remaining() == 0;
@@ -168,25 +216,84 @@ public class SocketBufferHandler {
 
 
     public void reset() {
-        readBuffer.clear();
+        if (arena != null) {
+            releaseBuffers();
+        } else {
+            readBuffer.clear();
+            writeBuffer.clear();
+        }
         readBufferConfiguredForWrite = true;
-        writeBuffer.clear();
         writeBufferConfiguredForWrite = true;
     }
 
 
     public void expand(int newSize) {
         configureReadBufferForWrite();
-        readBuffer = ByteBufferUtils.expand(readBuffer, newSize);
         configureWriteBufferForWrite();
-        writeBuffer = ByteBufferUtils.expand(writeBuffer, newSize);
+        if (arena != null) {
+            readBufferSize = Math.max(readBufferSize, newSize);
+            readBuffer = arena.expand(readBuffer, newSize);
+            writeBufferSize = Math.max(writeBufferSize, newSize);
+            writeBuffer = arena.expand(writeBuffer, newSize);
+        } else {
+            readBuffer = ByteBufferUtils.expand(readBuffer, newSize);
+            writeBuffer = ByteBufferUtils.expand(writeBuffer, newSize);
+        }
     }
 
     public void free() {
-        if (direct) {
+        if (arena != null) {
+            releaseBuffers();
+        } else if (direct) {
             ByteBufferUtils.cleanDirectBuffer(readBuffer);
             ByteBufferUtils.cleanDirectBuffer(writeBuffer);
         }
     }
 
+
+    /**
+     * Return the buffers to the arena if they are both empty. This is a NO-OP
+     * if this handler does not use an arena. The buffers will be obtained
+     * from the arena again when next required.
+     *
+     * @return <code>true</code> if this handler no longer holds any buffers,
+     *         otherwise <code>false</code>
+     */
+    public boolean release() {
+        if (arena == null) {
+            return false;
+        }
+        if (isReadBufferEmpty() && isWriteBufferEmpty()) {
+            releaseBuffers();
+            readBufferConfiguredForWrite = true;
+            writeBufferConfiguredForWrite = true;
+            return true;
+        }
+        return false;
+    }
+
+
+    private ByteBuffer allocate(int size, boolean configuredForWrite) {
+        ByteBuffer result = arena.allocate(size);
+        if (!configuredForWrite) {
+            // Empty buffer configured for read
+            result.limit(0);
+        }
+        return result;
+    }
+
+
+    private void releaseBuffers() {
+        ByteBuffer buffer = readBuffer;
+        if (buffer != null) {
+            readBuffer = null;
+            arena.release(buffer);
+        }
+        buffer = writeBuffer;
+        if (buffer != null) {
+            writeBuffer = null;
+            arena.release(buffer);
+        }
+    }
+
 }
@@ -17,6 +17,7 @@
 package org.apache.tomcat.util.net;
 
 import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 
 /**
  *  作为SocketProcessor得父抽象类。为子类定义基础模板方法。
@@ -45,9 +46,11 @@ public abstract class SocketProcessorBase<S> implements Runnable {
      */
     @Override
     public final void run() {
-        synchronized (socketWrapper) {
+        Lock lock = socketWrapper.getLock();
+        lock.lock();
+        try {
             // It is possible that processing may be triggered for read and
-            // write at the same time. The sync above makes sure that processing
+            // write at the same time. The lock above makes sure that processing
             // does not occur in parallel. The test below ensures that if the
             // first event to be processed results in the socket being closed,
             // the subsequent events are not processed.
@@ -55,6 +58,8 @@ public abstract class SocketProcessorBase<S> implements Runnable {
                 return;
             }
             doRun();
+        } finally {
+            lock.unlock();
         }
     }
 
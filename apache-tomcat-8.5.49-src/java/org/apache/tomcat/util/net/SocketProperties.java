@@ -103,6 +103,22 @@ public class SocketProperties {
      */
     protected int bufferPoolSize = 1024*1024*100;
 
+    /**
+     * Obtain the application read and write buffers from a shared arena
+     * while data is in flight and return them when the connection is idle
+     * between requests rather than holding them for the life of the
+     * connection.
+     * Default value is disabled
+     */
+    protected boolean bufferArena = false;
+
+    /**
+     * The maximum size in bytes of the buffers held by the shared arena
+     * -1 means unlimited, 0 means only a small per thread cache is used
+     * Default value is 100MB (1024*1024*100 bytes)
+     */
+    protected int bufferArenaSize = 1024*1024*100;
+
     /**
      * TCP_NO_DELAY option. JVM default used if not set.
      */
@@ -310,6 +326,14 @@ public class SocketProperties {
         return bufferPoolSize;
     }
 
+    public boolean getBufferArena() {
+        return bufferArena;
+    }
+
+    public int getBufferArenaSize() {
+        return bufferArenaSize;
+    }
+
     public int getEventCache() {
         return eventCache;
     }
@@ -399,6 +423,14 @@ public class SocketProperties {
         this.bufferPoolSize = bufferPoolSize;
     }
 
+    public void setBufferArena(boolean bufferArena) {
+        this.bufferArena = bufferArena;
+    }
+
+    public void setBufferArenaSize(int bufferArenaSize) {
+        this.bufferArenaSize = bufferArenaSize;
+    }
+
     public void setEventCache(int eventCache) {
         this.eventCache = eventCache;
     }
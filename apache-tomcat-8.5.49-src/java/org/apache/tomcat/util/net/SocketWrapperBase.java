@@ -21,6 +21,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.CompletionHandler;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
@@ -41,12 +42,30 @@ public abstract class SocketWrapperBase<E> {
     private final E socket;
     private final AbstractEndpoint<E> endpoint;
 
+    /*
+     * Used to ensure that only one thread processes the socket at a time. A
+     * Lock is used rather than the monitor of this object so that threads
+     * blocked on socket I/O while holding it (e.g. virtual threads) do not
+     * pin their carrier thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
     // Volatile because I/O and setting the timeout values occurs on a different
     // thread to the thread checking the timeout.
     private volatile long readTimeout = -1;
     private volatile long writeTimeout = -1;
 
     private volatile int keepAliveLeft = 100;
+    /*
+     * Set while the connection is waiting for the next request in keep-alive
+     * so that, when overloaded, the endpoint can close idle connections first.
+     */
+    private volatile boolean keepAliveIdle = false;
+    /*
+     * The value of System.nanoTime() when the socket was last passed to the
+     * executor for processing. Only set when latency histograms are enabled.
+     */
+    private long dispatchTime = -1;
     private volatile boolean upgraded = false;
     private boolean secure = false;
     private String negotiatedProtocol = null;
@@ -95,6 +114,13 @@ public abstract class SocketWrapperBase<E> {
      */
     protected final WriteBuffer nonBlockingWriteBuffer = new WriteBuffer(bufferedWriteSize);
 
+    /*
+     * Re-used to pass the socket write buffer and the caller's data to a
+     * gathering write without allocating a new array for every write. Writes
+     * are never concurrent so a single array per socket is sufficient.
+     */
+    private final ByteBuffer[] gatheringWriteBuffers = new ByteBuffer[2];
+
     public SocketWrapperBase(E socket, AbstractEndpoint<E> endpoint) {
         this.socket = socket;
         this.endpoint = endpoint;
@@ -111,6 +137,10 @@ public abstract class SocketWrapperBase<E> {
         return endpoint;
     }
 
+    public Lock getLock() {
+        return lock;
+    }
+
     public IOException getError() { return error; }
     public void setError(IOException error) {
         // Not perfectly thread-safe but good enough. Just needs to ensure that
@@ -176,6 +206,10 @@ public abstract class SocketWrapperBase<E> {
 
     public void setKeepAliveLeft(int keepAliveLeft) { this.keepAliveLeft = keepAliveLeft;}
     public int decrementKeepAlive() { return (--keepAliveLeft);}
+    public boolean isKeepAliveIdle() { return keepAliveIdle; }
+    public void setKeepAliveIdle(boolean keepAliveIdle) { this.keepAliveIdle = keepAliveIdle; }
+    public long getDispatchTime() { return dispatchTime; }
+    public void setDispatchTime(long dispatchTime) { this.dispatchTime = dispatchTime; }
 
     public String getRemoteHost() {
         if (remoteHost == null) {
@@ -235,6 +269,19 @@ public abstract class SocketWrapperBase<E> {
     }
     public SocketBufferHandler getSocketBufferHandler() { return socketBufferHandler; }
 
+    /**
+     * Called when the connection is idle between requests and no processor is
+     * associated with it. If the socket buffers are obtained from an arena and
+     * hold no data they are returned to the arena until the next request
+     * arrives.
+     */
+    public void releaseIdleBuffers() {
+        SocketBufferHandler socketBufferHandler = this.socketBufferHandler;
+        if (socketBufferHandler != null && nonBlockingWriteBuffer.isEmpty()) {
+            socketBufferHandler.release();
+        }
+    }
+
     public boolean hasDataToRead() {
         // Return true because it is always safe to make a read attempt
         return true;
@@ -497,6 +544,14 @@ public abstract class SocketWrapperBase<E> {
         } else {
             // Socket write buffer has some data.
             socketBufferHandler.configureWriteBufferForWrite();
+            if (isGatheringWriteSupported() &&
+                    from.remaining() > socketBufferHandler.getWriteBuffer().remaining()) {
+                // The data won't fit. Rather than filling the buffer, writing
+                // it and then writing the rest of the data, write the buffer
+                // and all of the data with a single gathering write.
+                doWriteGathering(true, from);
+                return;
+            }
             // Put as much data as possible into the write buffer
             transfer(from, socketBufferHandler.getWriteBuffer());
             // If the buffer is now full, write it to the network and then write
@@ -518,14 +573,21 @@ public abstract class SocketWrapperBase<E> {
      */
     protected void writeBlockingDirect(ByteBuffer from) throws IOException {
         // The socket write buffer capacity is socket.appWriteBufSize
-        // TODO This only matters when using TLS. For non-TLS connections it
-        //      should be possible to write the ByteBuffer in a single write
         int limit = socketBufferHandler.getWriteBuffer().capacity();
-        int fromLimit = from.limit();
-        while (from.remaining() >= limit) {
-            from.limit(from.position() + limit);
-            doWrite(true, from);
-            from.limit(fromLimit);
+        if (isGatheringWriteSupported()) {
+            // No need to limit the size of each write when the data is
+            // written to the network as is
+            if (from.remaining() >= limit) {
+                doWrite(true, from);
+            }
+        } else {
+            // TLS needs to limit each write to the size of its buffers
+            int fromLimit = from.limit();
+            while (from.remaining() >= limit) {
+                from.limit(from.position() + limit);
+                doWrite(true, from);
+                from.limit(fromLimit);
+            }
         }
 
         if (from.remaining() > 0) {
@@ -622,6 +684,18 @@ public abstract class SocketWrapperBase<E> {
             writeNonBlockingDirect(from);
         } else {
             socketBufferHandler.configureWriteBufferForWrite();
+            if (isGatheringWriteSupported() &&
+                    from.remaining() > socketBufferHandler.getWriteBuffer().remaining()) {
+                // See writeBlocking(ByteBuffer)
+                doWriteGathering(false, from);
+                if (from.remaining() > 0 && socketBufferHandler.isWriteBufferEmpty()) {
+                    // The socket is unlikely to accept more data right now so
+                    // buffer as much of the remainder as possible
+                    socketBufferHandler.configureWriteBufferForWrite();
+                    transfer(from, socketBufferHandler.getWriteBuffer());
+                }
+                return;
+            }
             transfer(from, socketBufferHandler.getWriteBuffer());
             if (!socketBufferHandler.isWriteBufferWritable()) {
                 doWrite(false);
@@ -635,9 +709,15 @@ public abstract class SocketWrapperBase<E> {
 
     protected void writeNonBlockingDirect(ByteBuffer from) throws IOException {
         // The socket write buffer capacity is socket.appWriteBufSize
-        // TODO This only matters when using TLS. For non-TLS connections it
-        //      should be possible to write the ByteBuffer in a single write
         int limit = socketBufferHandler.getWriteBuffer().capacity();
+        if (isGatheringWriteSupported() && from.remaining() >= limit) {
+            // See writeBlockingDirect(ByteBuffer)
+            doWrite(false, from);
+            if (from.remaining() > 0) {
+                // Didn't write the whole amount of data
+                return;
+            }
+        }
         int fromLimit = from.limit();
         while (from.remaining() >= limit) {
             int newLimit = from.position() + limit;
@@ -759,6 +839,72 @@ public abstract class SocketWrapperBase<E> {
     protected abstract void doWrite(boolean block, ByteBuffer from) throws IOException;
 
 
+    /**
+     * Write the contents of the ByteBuffers to the socket, in order, using a
+     * single gathering write where the underlying channel allows it. For
+     * blocking writes either the entire contents of the buffers will be written
+     * or an IOException will be thrown. Partial blocking writes will not occur.
+     * <p>
+     * This implementation writes each buffer in turn. Sub-classes that return
+     * <code>true</code> from {@link #isGatheringWriteSupported()} should
+     * override it.
+     *
+     * @param block Should the write be blocking or not?
+     * @param from the ByteBuffers containing the data to be written
+     *
+     * @throws IOException If an I/O error such as a timeout occurs during the
+     *                     write
+     */
+    protected void doWrite(boolean block, ByteBuffer[] from) throws IOException {
+        for (ByteBuffer buffer : from) {
+            doWrite(block, buffer);
+            if (buffer.hasRemaining()) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Can data be written to the network exactly as provided, without any
+     * limit on the size of each write? If so, data that will not fit in the
+     * socket write buffer will be written along with the content of that
+     * buffer using {@link #doWrite(boolean, ByteBuffer[])}. Implementations
+     * that have to process the data before writing it, such as TLS, should
+     * return <code>false</code>.
+     *
+     * @return <code>true</code> if gathering writes should be used, otherwise
+     *         <code>false</code>
+     */
+    protected boolean isGatheringWriteSupported() {
+        return false;
+    }
+
+
+    /**
+     * Write the contents of the socket write buffer followed by the provided
+     * data to the network.
+     *
+     * @param block Should the write be blocking or not?
+     * @param from the ByteBuffer containing the data to be written after the
+     *             content of the socket write buffer
+     *
+     * @throws IOException If an I/O error such as a timeout occurs during the
+     *                     write
+     */
+    private void doWriteGathering(boolean block, ByteBuffer from) throws IOException {
+        socketBufferHandler.configureWriteBufferForRead();
+        gatheringWriteBuffers[0] = socketBufferHandler.getWriteBuffer();
+        gatheringWriteBuffers[1] = from;
+        try {
+            doWrite(block, gatheringWriteBuffers);
+        } finally {
+            gatheringWriteBuffers[0] = null;
+            gatheringWriteBuffers[1] = null;
+        }
+    }
+
+
     public void processSocket(SocketEvent socketStatus, boolean dispatch) {
         endpoint.processSocket(this, socketStatus, dispatch);
     }
@@ -770,6 +916,18 @@ public abstract class SocketWrapperBase<E> {
 
     public abstract SendfileDataBase createSendfileData(String filename, long pos, long length);
 
+    /**
+     * Create the data to send several regions of a file, each optionally
+     * preceded by data held in memory, with a single sendfile operation.
+     *
+     * @param filename The full path to the file
+     * @param regions  The regions to write, in order. There must be at least
+     *                 one.
+     *
+     * @return The sendfile data to pass to {@link #processSendfile}
+     */
+    public abstract SendfileDataBase createSendfileData(String filename, FileRegion[] regions);
+
     /**
      * Starts the sendfile process. It is expected that if the sendfile process
      * does not complete during this call and does not report an error, that the
@@ -0,0 +1,145 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Measures the bytes allocated by the server to process a simple keep-alive
+ * GET request once the server has warmed up. The remaining allocations are
+ * expected to be made by the JRE (selector, executor queue and the map of
+ * current connections) rather than by the request processing path.
+ */
+public class TesterRequestAllocationPerformance extends TomcatBaseTest {
+
+    private static final int WARM_UP_REQUESTS = 50000;
+    private static final int REQUESTS = 100000;
+    private static final long MAX_BYTES_PER_REQUEST = 256;
+
+    private static final byte[] REQUEST =
+            ("GET /simple HTTP/1.1\r\nHost: localhost\r\nAccept: */*\r\n\r\n").getBytes(
+                    StandardCharsets.ISO_8859_1);
+
+
+    @Test
+    public void testSimpleGet() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof
+                com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        Tomcat tomcat = getTomcatInstance();
+        Assert.assertTrue(tomcat.getConnector().setProperty("maxKeepAliveRequests", "-1"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "simple", new SimpleServlet());
+        ctx.addServletMappingDecoded("/simple", "simple");
+
+        tomcat.start();
+
+        try (Socket socket = new Socket("localhost", getPort())) {
+            OutputStream os = socket.getOutputStream();
+            InputStream is = socket.getInputStream();
+            byte[] buf = new byte[8192];
+
+            doRequests(os, is, buf, WARM_UP_REQUESTS);
+
+            long start = getServerAllocatedBytes(threadMXBean);
+            doRequests(os, is, buf, REQUESTS);
+            long allocated = getServerAllocatedBytes(threadMXBean) - start;
+
+            long bytesPerRequest = allocated / REQUESTS;
+            System.out.println("Allocated " + allocated + " bytes for " + REQUESTS +
+                    " requests (" + bytesPerRequest + " bytes per request)");
+            Assert.assertTrue("Allocated [" + bytesPerRequest + "] bytes per request",
+                    bytesPerRequest <= MAX_BYTES_PER_REQUEST);
+        }
+    }
+
+
+    private static void doRequests(OutputStream os, InputStream is, byte[] buf,
+            int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            os.write(REQUEST);
+            os.flush();
+            // Read until the end of the body
+            int read = 0;
+            while (read < SimpleServlet.BODY.length ||
+                    buf[read - 2] != SimpleServlet.BODY[0] ||
+                    buf[read - 1] != SimpleServlet.BODY[1]) {
+                int n = is.read(buf, read, buf.length - read);
+                Assert.assertTrue(n > 0);
+                read += n;
+            }
+        }
+    }
+
+
+    /*
+     * Total allocated by all threads apart from the current one which is the
+     * client.
+     */
+    private static long getServerAllocatedBytes(com.sun.management.ThreadMXBean threadMXBean) {
+        long clientThreadId = Thread.currentThread().getId();
+        long[] threadIds = threadMXBean.getAllThreadIds();
+        long[] allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadIds);
+        long total = 0;
+        for (int i = 0; i < threadIds.length; i++) {
+            // -1 indicates a thread that is no longer alive
+            if (threadIds[i] != clientThreadId && allocatedBytes[i] > 0) {
+                total += allocatedBytes[i];
+            }
+        }
+        return total;
+    }
+
+
+    private static class SimpleServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final byte[] BODY = "OK".getBytes(StandardCharsets.ISO_8859_1);
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.setContentLength(BODY.length);
+            resp.getOutputStream().write(BODY);
+        }
+    }
+}
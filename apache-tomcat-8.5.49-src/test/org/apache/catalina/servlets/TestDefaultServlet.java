@@ -16,18 +16,24 @@
  */
 package org.apache.catalina.servlets;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -40,6 +46,8 @@ import org.apache.catalina.Wrapper;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.util.IOTools;
+import org.apache.catalina.webresources.StandardRoot;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.descriptor.web.ErrorPage;
 import org.apache.tomcat.websocket.server.WsContextListener;
@@ -368,6 +376,203 @@ public class TestDefaultServlet extends TomcatBaseTest {
         Assert.assertTrue(responseHeaders.contains("vary: accept-encoding"));
     }
 
+    /*
+     * Verify that text resources without a precompressed version are
+     * compressed on the fly and cached.
+     */
+    @Test
+    public void testPrecompressedCache() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "precompressed");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            Assert.fail("Unable to create directory [" + appDir + "]");
+        }
+
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append("Line ").append(i).append(" of some compressible text\n");
+        }
+        byte[] original = content.toString().getBytes(StandardCharsets.ISO_8859_1);
+        try (FileOutputStream fos = new FileOutputStream(new File(appDir, "text.txt"))) {
+            fos.write(original);
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                DefaultServlet.class.getName());
+        defaultServlet.addInitParameter("precompressed", "true");
+        defaultServlet.addInitParameter("precompressedCacheSize", "1024");
+
+        ctxt.addServletMappingDecoded("/", "default");
+        ctxt.addMimeMapping("txt", "text/plain");
+
+        tomcat.start();
+
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        reqHeaders.put("Accept-Encoding", Collections.singletonList("gzip"));
+
+        // Second request is served from the cache
+        for (int i = 0; i < 2; i++) {
+            ByteChunk out = new ByteChunk();
+            Map<String,List<String>> resHeaders = new HashMap<>();
+            int rc = getUrl("http://localhost:" + getPort() + "/text.txt", out,
+                    reqHeaders, resHeaders);
+            Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+            Assert.assertEquals("gzip", resHeaders.get("Content-Encoding").get(0));
+            Assert.assertTrue(out.getLength() < original.length);
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(
+                    out.getBuffer(), out.getStart(), out.getLength()))) {
+                IOTools.flow(is, baos);
+            }
+            Assert.assertArrayEquals(original, baos.toByteArray());
+        }
+
+        // Clients that do not support gzip get the original
+        ByteChunk out = new ByteChunk();
+        Map<String,List<String>> resHeaders = new HashMap<>();
+        int rc = getUrl("http://localhost:" + getPort() + "/text.txt", out, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertNull(resHeaders.get("Content-Encoding"));
+        Assert.assertEquals(original.length, out.getLength());
+    }
+
+    /*
+     * Verify that compressed copies generated by the resources are served and
+     * kept up to date.
+     */
+    @Test
+    public void testPrecompressResources() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "precompress");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            Assert.fail("Unable to create directory [" + appDir + "]");
+        }
+        File file = new File(appDir, "text.txt");
+        byte[] original = writeCompressibleFile(file, "First");
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        StandardRoot root = new StandardRoot(ctxt);
+        root.setCachingAllowed(false);
+        root.setPrecompressResources(true);
+        ctxt.setResources(root);
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                DefaultServlet.class.getName());
+        defaultServlet.addInitParameter("precompressed", "true");
+
+        ctxt.addServletMappingDecoded("/", "default");
+        ctxt.addMimeMapping("txt", "text/plain");
+
+        tomcat.start();
+
+        // Generated in the background when the resources start
+        Assert.assertArrayEquals(original, waitForCompressed("/text.txt"));
+
+        // Modified resources are not served from the out of date copy
+        original = writeCompressibleFile(file, "Second");
+        Assert.assertTrue(file.setLastModified(file.lastModified() + 5000));
+        ByteChunk out = new ByteChunk();
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        reqHeaders.put("Accept-Encoding", Collections.singletonList("gzip"));
+        Map<String,List<String>> resHeaders = new HashMap<>();
+        int rc = getUrl("http://localhost:" + getPort() + "/text.txt", out,
+                reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertNull(resHeaders.get("Content-Encoding"));
+        Assert.assertEquals(original.length, out.getLength());
+
+        // The copy is re-generated after that request
+        Assert.assertArrayEquals(original, waitForCompressed("/text.txt"));
+    }
+
+    private static byte[] writeCompressibleFile(File file, String prefix) throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append(prefix).append(" line ").append(i).append(" of some text\n");
+        }
+        byte[] result = content.toString().getBytes(StandardCharsets.ISO_8859_1);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(result);
+        }
+        return result;
+    }
+
+    private byte[] waitForCompressed(String path) throws Exception {
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        reqHeaders.put("Accept-Encoding", Collections.singletonList("gzip"));
+        for (int i = 0; i < 100; i++) {
+            ByteChunk out = new ByteChunk();
+            Map<String,List<String>> resHeaders = new HashMap<>();
+            int rc = getUrl("http://localhost:" + getPort() + path, out, reqHeaders, resHeaders);
+            Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+            if (resHeaders.get("Content-Encoding") != null) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(
+                        out.getBuffer(), out.getStart(), out.getLength()))) {
+                    IOTools.flow(is, baos);
+                }
+                return baos.toByteArray();
+            }
+            Thread.sleep(100);
+        }
+        Assert.fail("Compressed copy of [" + path + "] was not generated");
+        return null;
+    }
+
+    @Test
+    public void testMultipartRangeSendfile() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "sendfile");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            Assert.fail("Unable to create directory [" + appDir + "]");
+        }
+        // The DefaultServlet always serves context rooted paths
+        File sendfileDir = new File(appDir, "sendfile");
+        File copyDir = new File(appDir, "copy");
+        Assert.assertTrue(sendfileDir.mkdir());
+        Assert.assertTrue(copyDir.mkdir());
+        writeCompressibleFile(new File(sendfileDir, "text.txt"), "Range");
+        writeCompressibleFile(new File(copyDir, "text.txt"), "Range");
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+
+        // Same content served with and without sendfile
+        Wrapper sendfileServlet = Tomcat.addServlet(ctxt, "sendfile",
+                DefaultServlet.class.getName());
+        sendfileServlet.addInitParameter("sendfileSize", "1");
+        ctxt.addServletMappingDecoded("/sendfile/*", "sendfile");
+        Wrapper copyServlet = Tomcat.addServlet(ctxt, "copy",
+                DefaultServlet.class.getName());
+        copyServlet.addInitParameter("sendfileSize", "-1");
+        ctxt.addServletMappingDecoded("/copy/*", "copy");
+        ctxt.addMimeMapping("txt", "text/plain");
+
+        tomcat.start();
+
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        reqHeaders.put("Range", Collections.singletonList("bytes=0-9,1000-2999,-100"));
+
+        ByteChunk copy = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/copy/text.txt", copy,
+                reqHeaders, null);
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+
+        ByteChunk sendfile = new ByteChunk();
+        Map<String,List<String>> resHeaders = new HashMap<>();
+        rc = getUrl("http://localhost:" + getPort() + "/sendfile/text.txt", sendfile,
+                reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+        Assert.assertEquals(Integer.toString(sendfile.getLength()),
+                resHeaders.get("Content-Length").get(0));
+        Assert.assertTrue(resHeaders.get("Content-Type").get(0).startsWith(
+                "multipart/byteranges"));
+        Assert.assertEquals(copy.toString(), sendfile.toString());
+    }
+
     /*
      * Test https://bz.apache.org/bugzilla/show_bug.cgi?id=50026
      * Verify serving of resources from context root with subpath mapping.
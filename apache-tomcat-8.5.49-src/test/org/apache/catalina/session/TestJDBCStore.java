@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Session;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+
+/**
+ * Tests of {@link JDBCStore} using a {@link TesterDataSource}. No embedded
+ * database such as Derby or H2 is available to the Tomcat test build so the
+ * tests run against that deliberately minimal fake. They check how the Store
+ * uses the DataSource, such as the statements, batches and commits it issues,
+ * but not the behaviour of a real JDBC driver, such as the SQL syntax,
+ * transactions and rollback or the handling of binary streams.
+ */
+public class TestJDBCStore {
+
+    private StandardManager manager;
+    private TesterDataSource dataSource;
+
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new StandardManager();
+        manager.setPathname(null);
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+        manager.setContext(context);
+        manager.start();
+        dataSource = new TesterDataSource();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        manager.stop();
+    }
+
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        JDBCStore store = createStore(false, 100);
+
+        Session s1 = createSession("one");
+        Session s2 = createSession("two");
+        store.save(s1);
+        store.save(s2);
+        Assert.assertEquals(2, store.getSize());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(s1.getId(), s2.getId())),
+                new HashSet<>(Arrays.asList(store.keys())));
+
+        setValue(s1, "updated");
+        store.save(s1);
+        Assert.assertEquals("updated", getValue(store.load(s1.getId())));
+
+        store.remove(s1.getId());
+        Assert.assertNull(store.load(s1.getId()));
+        Assert.assertEquals(1, store.getSize());
+
+        store.clear();
+        Assert.assertEquals(0, store.getSize());
+
+        store.stop();
+    }
+
+
+    @Test
+    public void testLoadDoesNotWaitForStore() throws Exception {
+        final JDBCStore store = createStore(false, 100);
+        final Session session = createSession("value");
+        store.save(session);
+
+        final AtomicReference<Object> value = new AtomicReference<>();
+        Thread loader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    value.set(getValue(store.load(session.getId())));
+                } catch (Exception e) {
+                    value.set(e);
+                }
+            }
+        };
+        synchronized (store) {
+            loader.start();
+            loader.join(10000);
+        }
+        Assert.assertEquals("value", value.get());
+
+        store.stop();
+    }
+
+
+    @Test
+    public void testWriteBehindCoalesces() throws Exception {
+        JDBCStore store = createStore(true, 100);
+        dataSource.setAvailable(false);
+
+        Session session = createSession("value");
+        for (int i = 0; i < 100; i++) {
+            setValue(session, "value" + i);
+            store.save(session);
+        }
+        Assert.assertEquals(1, store.getPendingWrites());
+        Assert.assertEquals(0, dataSource.getRowCount());
+        // Read your writes
+        Assert.assertEquals("value99", getValue(store.load(session.getId())));
+
+        dataSource.setAvailable(true);
+        Assert.assertEquals(1, store.getSize());
+        Assert.assertEquals(0, store.getPendingWrites());
+        Assert.assertEquals(1, dataSource.getInserts());
+        Assert.assertEquals("value99", getValue(store.load(session.getId())));
+
+        store.stop();
+    }
+
+
+    @Test
+    public void testWriteBehindBatches() throws Exception {
+        JDBCStore store = createStore(true, 10);
+        dataSource.setAvailable(false);
+
+        for (int i = 0; i < 25; i++) {
+            store.save(createSession("value" + i));
+        }
+        Assert.assertEquals(25, store.getPendingWrites());
+
+        int executions = dataSource.getExecutions();
+        dataSource.setAvailable(true);
+        Assert.assertEquals(25, store.keys().length);
+        // Three batches, each of one delete and one insert, and the query
+        Assert.assertEquals(7, dataSource.getExecutions() - executions);
+        Assert.assertEquals(3, dataSource.getCommits());
+        Assert.assertEquals(25, dataSource.getInserts());
+
+        store.stop();
+    }
+
+
+    @Test
+    public void testWriteBehindRemove() throws Exception {
+        JDBCStore store = createStore(true, 100);
+
+        Session kept = createSession("kept");
+        Session removed = createSession("removed");
+        store.save(kept);
+        store.save(removed);
+        Assert.assertEquals(2, store.getSize());
+
+        dataSource.setAvailable(false);
+        store.remove(removed.getId());
+        Assert.assertNull(store.load(removed.getId()));
+
+        dataSource.setAvailable(true);
+        Assert.assertEquals(Arrays.asList(kept.getId()), Arrays.asList(store.keys()));
+        Assert.assertNull(store.load(removed.getId()));
+
+        store.stop();
+    }
+
+
+    @Test
+    public void testWriteBehindFlushOnStop() throws Exception {
+        JDBCStore store = createStore(true, 100);
+
+        for (int i = 0; i < 50; i++) {
+            store.save(createSession("value" + i));
+        }
+        store.stop();
+
+        Assert.assertEquals(0, store.getPendingWrites());
+        Assert.assertEquals(50, dataSource.getRowCount());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        new JDBCStore().setBatchSize(0);
+    }
+
+
+    private JDBCStore createStore(boolean writeBehind, int batchSize) throws Exception {
+        JDBCStore store = new JDBCStore();
+        store.setManager(manager);
+        store.setDataSourceName("jdbc/test");
+        store.dataSource = dataSource;
+        store.setWriteBehind(writeBehind);
+        store.setBatchSize(batchSize);
+        store.start();
+        return store;
+    }
+
+
+    private Session createSession(String value) {
+        Session session = manager.createSession(null);
+        session.setMaxInactiveInterval(3600);
+        setValue(session, value);
+        return session;
+    }
+
+
+    private static void setValue(Session session, String value) {
+        session.getSession().setAttribute("value", value);
+    }
+
+
+    private static Object getValue(Session session) {
+        return session.getSession().getAttribute("value");
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+
+public class TestOffHeapManager {
+
+    @Test
+    public void testStoreAndLoad() throws Exception {
+        OffHeapManager manager = createManager(null);
+
+        OffHeapSession session = (OffHeapSession) manager.createSession(null);
+        session.access();
+        List<String> list = new ArrayList<>(Arrays.asList("a", "b", "c"));
+        session.setAttribute("list", list);
+        session.setAttribute("string", "value");
+        Assert.assertFalse(session.isStored());
+        session.endAccess();
+
+        Assert.assertTrue(session.isStored());
+        Assert.assertTrue(manager.getOffHeapUsed() > 0);
+
+        session.access();
+        Assert.assertEquals(list, session.getAttribute("list"));
+        Assert.assertEquals("value", session.getAttribute("string"));
+        Assert.assertFalse(session.isStored());
+        // The copy is kept in case the attributes do not change
+        Assert.assertTrue(manager.getOffHeapUsed() > 0);
+        session.removeAttribute("list");
+        session.endAccess();
+
+        Assert.assertTrue(session.isStored());
+        session.access();
+        Assert.assertNull(session.getAttribute("list"));
+        Assert.assertEquals("value", session.getAttribute("string"));
+        session.endAccess();
+
+        manager.stop();
+        Assert.assertEquals(0, manager.getOffHeapSize());
+    }
+
+
+    @Test
+    public void testChangeInPlaceKept() throws Exception {
+        OffHeapManager manager = createManager(null);
+
+        OffHeapSession session = (OffHeapSession) manager.createSession(null);
+        session.access();
+        session.setAttribute("list", new ArrayList<>(Arrays.asList("a")));
+        session.endAccess();
+        Assert.assertTrue(session.isStored());
+
+        session.access();
+        @SuppressWarnings("unchecked")
+        List<String> list = (List<String>) session.getAttribute("list");
+        list.add("b");
+        session.endAccess();
+        Assert.assertTrue(session.isStored());
+        long used = manager.getOffHeapUsed();
+
+        // Read only
+        session.access();
+        Assert.assertEquals(Arrays.asList("a", "b"), session.getAttribute("list"));
+        session.endAccess();
+        Assert.assertTrue(session.isStored());
+        Assert.assertEquals(used, manager.getOffHeapUsed());
+
+        session.access();
+        Assert.assertEquals(Arrays.asList("a", "b"), session.getAttribute("list"));
+        session.endAccess();
+
+        manager.stop();
+    }
+
+
+    @Test
+    public void testLoadFailure() throws Exception {
+        OffHeapManager manager = createManager(null);
+
+        OffHeapSession session = (OffHeapSession) manager.createSession(null);
+        session.access();
+        session.setAttribute("broken", new BrokenValue());
+        session.setAttribute("string", "value");
+        session.endAccess();
+        Assert.assertTrue(session.isStored());
+
+        session.access();
+        try {
+            session.getAttribute("string");
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+            // The attributes are not lost
+        }
+        session.endAccess();
+        Assert.assertTrue(session.isStored());
+        Assert.assertTrue(manager.getOffHeapUsed() > 0);
+
+        session.expire();
+        Assert.assertFalse(session.isStored());
+        Assert.assertEquals(0, manager.getOffHeapUsed());
+        Assert.assertEquals(0, manager.getActiveSessions());
+
+        manager.stop();
+    }
+
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        OffHeapManager manager = createManager(null);
+
+        OffHeapSession session = (OffHeapSession) manager.createSession(null);
+        session.access();
+        session.access();
+        session.setAttribute("string", "value");
+
+        // Attributes are only stored once the last request ends
+        session.endAccess();
+        Assert.assertFalse(session.isStored());
+        session.endAccess();
+        Assert.assertTrue(session.isStored());
+
+        manager.stop();
+    }
+
+
+    @Test
+    public void testNotSerializable() throws Exception {
+        OffHeapManager manager = createManager(null);
+
+        OffHeapSession session = (OffHeapSession) manager.createSession(null);
+        session.access();
+        Object value = new Object();
+        session.setAttribute("object", value);
+        session.endAccess();
+
+        Assert.assertFalse(session.isStored());
+        Assert.assertSame(value, session.getAttribute("object"));
+
+        // A Serializable value that refers to a non-Serializable one
+        session.access();
+        session.removeAttribute("object");
+        session.setAttribute("holder", new Holder(value));
+        session.endAccess();
+
+        Assert.assertFalse(session.isStored());
+        Assert.assertEquals(0, manager.getOffHeapUsed());
+
+        manager.stop();
+    }
+
+
+    @Test
+    public void testExpire() throws Exception {
+        OffHeapManager manager = createManager(null);
+
+        OffHeapSession session = (OffHeapSession) manager.createSession(null);
+        session.access();
+        BindingListener listener = new BindingListener();
+        session.setAttribute("listener", listener);
+        session.endAccess();
+        Assert.assertTrue(session.isStored());
+
+        session.expire();
+
+        // The listener is notified via the stored copy
+        Assert.assertEquals(1, BindingListener.UNBOUND.get());
+        Assert.assertEquals(0, manager.getOffHeapUsed());
+        Assert.assertEquals(0, manager.getActiveSessions());
+
+        manager.stop();
+    }
+
+
+    @Test
+    public void testPersistence() throws Exception {
+        File file = File.createTempFile("offheap", ".ser");
+        Assert.assertTrue(file.delete());
+        OffHeapManager manager = createManager(file.getAbsolutePath());
+        try {
+            OffHeapSession session = (OffHeapSession) manager.createSession(null);
+            String id = session.getId();
+            session.access();
+            session.setAttribute("string", "value");
+            session.endAccess();
+            Assert.assertTrue(session.isStored());
+
+            manager.stop();
+            Assert.assertTrue(file.isFile());
+            manager.start();
+
+            OffHeapSession loaded = (OffHeapSession) manager.findSession(id);
+            Assert.assertNotNull(loaded);
+            Assert.assertTrue(loaded.isStored());
+            Assert.assertEquals("value", loaded.getAttribute("string"));
+
+            manager.stop();
+        } finally {
+            if (file.exists()) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+    }
+
+
+    private static OffHeapManager createManager(String pathname) throws Exception {
+        OffHeapManager manager = new OffHeapManager();
+        manager.setPathname(pathname);
+        manager.setSlabSize(4096);
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+        manager.setContext(context);
+        manager.start();
+        return manager;
+    }
+
+
+    private static class Holder implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @SuppressWarnings("unused")
+        private final Object value;
+
+        Holder(Object value) {
+            this.value = value;
+        }
+    }
+
+
+    private static class BrokenValue implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private void readObject(ObjectInputStream ois) throws IOException {
+            throw new IOException();
+        }
+    }
+
+
+    private static class BindingListener implements HttpSessionBindingListener, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        static final AtomicInteger UNBOUND = new AtomicInteger();
+
+        @Override
+        public void valueBound(HttpSessionBindingEvent event) {
+            // NO-OP
+        }
+
+        @Override
+        public void valueUnbound(HttpSessionBindingEvent event) {
+            UNBOUND.incrementAndGet();
+        }
+    }
+}
@@ -16,6 +16,11 @@
  */
 package org.apache.catalina.session;
 
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
@@ -125,6 +130,73 @@ public class TestPersistentManager {
 
     }
 
+    @Test
+    public void testConcurrentSwapIn() throws Exception {
+        final Map<String,AtomicInteger> loadCounts = new ConcurrentHashMap<>();
+        // Completes once sessions with different IDs are being loaded at the
+        // same time
+        final CountDownLatch parallelLoads = new CountDownLatch(2);
+        final PersistentManager manager = new PersistentManager();
+        TesterStore store = new TesterStore() {
+            @Override
+            public Session load(String id) throws ClassNotFoundException, IOException {
+                AtomicInteger count = new AtomicInteger();
+                AtomicInteger existing = loadCounts.putIfAbsent(id, count);
+                (existing == null ? count : existing).incrementAndGet();
+                parallelLoads.countDown();
+                try {
+                    if (!parallelLoads.await(10, TimeUnit.SECONDS)) {
+                        return null;
+                    }
+                } catch (InterruptedException e) {
+                    return null;
+                }
+                return super.load(id);
+            }
+        };
+        manager.setStore(store);
+
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+        manager.setContext(context);
+        manager.start();
+
+        store.save(storedSession(manager, "session1"));
+        store.save(storedSession(manager, "session2"));
+
+        final Session[] found = new Session[8];
+        Thread[] threads = new Thread[found.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        found[index] = manager.findSession("session" + (index % 2 + 1));
+                    } catch (IOException e) {
+                        // Leave the session as null to fail the test
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Each session was loaded once and both were loaded in parallel
+        Assert.assertEquals(1, loadCounts.get("session1").get());
+        Assert.assertEquals(1, loadCounts.get("session2").get());
+        for (int i = 0; i < found.length; i++) {
+            Assert.assertNotNull(found[i]);
+            Assert.assertSame(found[i % 2], found[i]);
+        }
+        Assert.assertEquals(2, manager.getActiveSessions());
+
+        manager.stop();
+    }
+
     private static class RequestCachingSessionListener implements HttpSessionListener {
 
         private HttpServletRequest request;
@@ -140,6 +212,17 @@ public class TestPersistentManager {
         }
     }
 
+    private StandardSession storedSession(PersistentManager manager, String id) {
+        StandardSession session = new StandardSession(manager);
+        session.isValid = true;
+        session.maxInactiveInterval = 3600;
+        session.lastAccessedTime = System.currentTimeMillis();
+        session.thisAccessedTime = session.lastAccessedTime;
+        // Not added to the manager as setId() would do
+        session.id = id;
+        return session;
+    }
+
     private StandardSession timedOutSession(final PersistentManager manager, final AtomicInteger counter) {
         StandardSession timedOutSession = new StandardSession(manager) {
             private static final long serialVersionUID = -5910605558747844210L;
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Session;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+
+public class TestSegmentedFileStore {
+
+    private File directory;
+    private StandardManager manager;
+
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("segmented-store").toFile();
+        manager = new StandardManager();
+        manager.setPathname(null);
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+        manager.setContext(context);
+        manager.start();
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        manager.stop();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Assert.assertTrue(file.delete());
+            }
+        }
+        Assert.assertTrue(directory.delete());
+    }
+
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        SegmentedFileStore store = createStore(1024 * 1024);
+
+        Session s1 = createSession("one");
+        Session s2 = createSession("two");
+        store.save(s1);
+        store.save(s2);
+        Assert.assertEquals(2, store.getSize());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(s1.getId(), s2.getId())),
+                new HashSet<>(Arrays.asList(store.keys())));
+
+        setValue(s1, "updated");
+        store.save(s1);
+        Assert.assertEquals("updated", getValue(store.load(s1.getId())));
+        Assert.assertEquals("two", getValue(store.load(s2.getId())));
+
+        store.remove(s1.getId());
+        Assert.assertNull(store.load(s1.getId()));
+        Assert.assertEquals(1, store.getSize());
+
+        store.clear();
+        Assert.assertEquals(0, store.getSize());
+        Assert.assertNull(store.load(s2.getId()));
+        Assert.assertEquals(1, store.getSegmentCount());
+
+        store.stop();
+    }
+
+
+    @Test
+    public void testRecovery() throws Exception {
+        SegmentedFileStore store = createStore(1024);
+
+        Session[] sessions = new Session[20];
+        for (int i = 0; i < sessions.length; i++) {
+            sessions[i] = createSession("value" + i);
+            store.save(sessions[i]);
+        }
+        setValue(sessions[0], "updated");
+        store.save(sessions[0]);
+        store.remove(sessions[1].getId());
+        Assert.assertTrue(store.getSegmentCount() > 1);
+        store.stop();
+
+        // Simulate a record that was only partially written
+        File last = null;
+        for (File file : directory.listFiles()) {
+            if (last == null || file.getName().compareTo(last.getName()) > 0) {
+                last = file;
+            }
+        }
+        long validLength = last.length();
+        try (FileOutputStream fos = new FileOutputStream(last, true)) {
+            fos.write(new byte[] { 0, 0, 1, 0, 1, 2, 3, 4, 1, 0 });
+        }
+
+        store = createStore(1024);
+        Assert.assertEquals(validLength, last.length());
+        Assert.assertEquals(sessions.length - 1, store.getSize());
+        Assert.assertEquals("updated", getValue(store.load(sessions[0].getId())));
+        Assert.assertNull(store.load(sessions[1].getId()));
+        for (int i = 2; i < sessions.length; i++) {
+            Assert.assertEquals("value" + i, getValue(store.load(sessions[i].getId())));
+        }
+
+        store.stop();
+    }
+
+
+    @Test
+    public void testCompaction() throws Exception {
+        SegmentedFileStore store = createStore(1024);
+
+        Session kept = createSession("kept");
+        store.save(kept);
+        Session removed = createSession("removed");
+        store.save(removed);
+        Session updated = createSession("updated");
+        for (int i = 0; i < 100; i++) {
+            setValue(updated, "updated" + i);
+            store.save(updated);
+        }
+        store.remove(removed.getId());
+        int segmentCount = store.getSegmentCount();
+        Assert.assertTrue(segmentCount > 10);
+
+        store.processExpires();
+        Assert.assertTrue(store.getSegmentCount() < 4);
+        Assert.assertEquals(directory.listFiles().length, store.getSegmentCount());
+        Assert.assertEquals("kept", getValue(store.load(kept.getId())));
+        Assert.assertEquals("updated99", getValue(store.load(updated.getId())));
+        Assert.assertNull(store.load(removed.getId()));
+        store.stop();
+
+        // The removal survives compaction
+        store = createStore(1024);
+        Assert.assertEquals(new HashSet<>(Arrays.asList(kept.getId(), updated.getId())),
+                new HashSet<>(Arrays.asList(store.keys())));
+        Assert.assertEquals("updated99", getValue(store.load(updated.getId())));
+        store.stop();
+    }
+
+
+    @Test
+    public void testExpiredKeys() throws Exception {
+        SegmentedFileStore store = createStore(1024 * 1024);
+
+        Session expired = createSession("expired");
+        expired.setCreationTime(System.currentTimeMillis() - 7200 * 1000);
+        store.save(expired);
+        Session current = createSession("current");
+        store.save(current);
+
+        Assert.assertEquals(Collections.singletonList(expired.getId()),
+                Arrays.asList(store.expiredKeys()));
+
+        store.processExpires();
+        Set<String> keys = new HashSet<>(Arrays.asList(store.keys()));
+        Assert.assertEquals(Collections.singleton(current.getId()), keys);
+
+        store.stop();
+    }
+
+
+    private SegmentedFileStore createStore(int segmentSize) throws Exception {
+        SegmentedFileStore store = new SegmentedFileStore();
+        store.setManager(manager);
+        store.setDirectory(directory.getAbsolutePath());
+        store.setSegmentSize(segmentSize);
+        store.start();
+        return store;
+    }
+
+
+    private Session createSession(String value) {
+        Session session = manager.createSession(null);
+        session.setMaxInactiveInterval(3600);
+        setValue(session, value);
+        return session;
+    }
+
+
+    private static void setValue(Session session, String value) {
+        session.getSession().setAttribute("value", value);
+    }
+
+
+    private static Object getValue(Session session) {
+        return session.getSession().getAttribute("value");
+    }
+}
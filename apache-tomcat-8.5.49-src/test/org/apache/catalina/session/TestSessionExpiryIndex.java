@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Session;
+import org.apache.tomcat.unittest.TesterContext;
+import org.apache.tomcat.unittest.TesterHost;
+
+public class TestSessionExpiryIndex {
+
+    @Test
+    public void testRemoveDue() {
+        SessionExpiryIndex index = new SessionExpiryIndex();
+        index.schedule("a", 1500);
+        index.schedule("b", 2000);
+        index.schedule("c", 2001);
+        index.schedule("d", 5000);
+        Assert.assertEquals(4, index.size());
+
+        Assert.assertEquals(Collections.singletonList("a"), index.removeDue(1999));
+        Assert.assertEquals(Arrays.asList("b", "c"), index.removeDue(2000));
+        Assert.assertEquals(Collections.emptyList(), index.removeDue(4999));
+        Assert.assertEquals(Collections.singletonList("d"), index.removeDue(5999));
+        Assert.assertEquals(0, index.size());
+    }
+
+
+    @Test
+    public void testReschedule() {
+        SessionExpiryIndex index = new SessionExpiryIndex();
+        index.schedule("a", 5000);
+        index.schedule("b", 5000);
+        index.schedule("a", 2000);
+        index.schedule("b", 9000);
+        index.schedule("b", 9000);
+
+        Assert.assertEquals(Collections.singletonList("a"), index.removeDue(2000));
+        // The old entries are ignored
+        Assert.assertEquals(Collections.emptyList(), index.removeDue(8999));
+        Assert.assertEquals(Collections.singletonList("b"), index.removeDue(9000));
+        Assert.assertEquals(0, index.size());
+    }
+
+
+    @Test
+    public void testRemove() {
+        SessionExpiryIndex index = new SessionExpiryIndex();
+        index.schedule("a", 1000);
+        index.schedule("b", 1000);
+        index.remove("a");
+
+        Assert.assertEquals(Collections.singletonList("b"), index.removeDue(1000));
+        Assert.assertEquals(0, index.size());
+    }
+
+
+    @Test
+    public void testManagerExpiry() throws Exception {
+        StandardManager manager = new StandardManager();
+        manager.setPathname(null);
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+        manager.setContext(context);
+        manager.start();
+
+        Session idle = manager.createSession(null);
+        idle.setMaxInactiveInterval(1);
+        Session accessed = manager.createSession(null);
+        accessed.setMaxInactiveInterval(1);
+        Session shortened = manager.createSession(null);
+        shortened.setMaxInactiveInterval(60);
+        shortened.setMaxInactiveInterval(1);
+        Session unlimited = manager.createSession(null);
+        unlimited.setMaxInactiveInterval(-1);
+
+        Thread.sleep(600);
+        accessed.access();
+        accessed.endAccess();
+        Thread.sleep(600);
+
+        manager.processExpires();
+        List<Session> remaining = Arrays.asList(manager.findSessions());
+        Assert.assertEquals(2, remaining.size());
+        Assert.assertTrue(remaining.contains(accessed));
+        Assert.assertTrue(remaining.contains(unlimited));
+        Assert.assertFalse(idle.isValid());
+        Assert.assertFalse(shortened.isValid());
+        Assert.assertEquals(2, manager.getExpiredSessions());
+
+        Thread.sleep(1100);
+        manager.processExpires();
+        Assert.assertEquals(Collections.singletonList(unlimited),
+                Arrays.asList(manager.findSessions()));
+        Assert.assertEquals(3, manager.getExpiredSessions());
+
+        manager.stop();
+    }
+
+
+    @Test
+    public void testUnscheduledSessionExpiry() throws Exception {
+        StandardManager manager = new StandardManager();
+        manager.setPathname(null);
+        Host host = new TesterHost();
+        Context context = new TesterContext();
+        context.setParent(host);
+        manager.setContext(context);
+        manager.start();
+
+        // Added directly, as some sub-classes do, so it is not scheduled
+        StandardSession session = new StandardSession(manager);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(1);
+        session.setId("unscheduled", false);
+        manager.sessions.put(session.getIdInternal(), session);
+
+        Thread.sleep(1100);
+        manager.processExpires();
+        Assert.assertFalse(session.isValid());
+        Assert.assertEquals(0, manager.findSessions().length);
+        Assert.assertEquals(1, manager.getExpiredSessions());
+
+        manager.stop();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSlabAllocator {
+
+    @Test
+    public void testReadWrite() {
+        SlabAllocator allocator = new SlabAllocator(4096, -1);
+        List<Long> blocks = new ArrayList<>();
+        for (int length = 0; length <= 4092; length += 31) {
+            long block = allocator.allocate(data(length), 0, length);
+            Assert.assertNotEquals(SlabAllocator.NO_BLOCK, block);
+            blocks.add(Long.valueOf(block));
+        }
+        int length = 0;
+        for (Long block : blocks) {
+            Assert.assertArrayEquals(data(length), allocator.read(block.longValue()));
+            length += 31;
+        }
+        for (Long block : blocks) {
+            allocator.free(block.longValue());
+        }
+        Assert.assertEquals(0, allocator.getUsedSize());
+    }
+
+
+    @Test
+    public void testReuse() {
+        SlabAllocator allocator = new SlabAllocator(1024, -1);
+        long first = allocator.allocate(data(100), 0, 100);
+        long second = allocator.allocate(data(100), 0, 100);
+        Assert.assertEquals(256, allocator.getUsedSize());
+        allocator.free(first);
+        Assert.assertEquals(128, allocator.getUsedSize());
+
+        // Freed blocks are re-used before more memory is allocated
+        Assert.assertEquals(first, allocator.allocate(data(120), 0, 120));
+        Assert.assertArrayEquals(data(120), allocator.read(first));
+        Assert.assertArrayEquals(data(100), allocator.read(second));
+        Assert.assertEquals(1024, allocator.getAllocatedSize());
+    }
+
+
+    @Test
+    public void testLimits() {
+        SlabAllocator allocator = new SlabAllocator(1000, 2048);
+        Assert.assertEquals(1024, allocator.getSlabSize());
+
+        // Too large for a slab
+        Assert.assertEquals(SlabAllocator.NO_BLOCK, allocator.allocate(data(1021), 0, 1021));
+
+        // Two slabs of one block each
+        Assert.assertNotEquals(SlabAllocator.NO_BLOCK, allocator.allocate(data(1020), 0, 1020));
+        Assert.assertNotEquals(SlabAllocator.NO_BLOCK, allocator.allocate(data(600), 0, 600));
+        Assert.assertEquals(SlabAllocator.NO_BLOCK, allocator.allocate(data(10), 0, 10));
+        Assert.assertEquals(2048, allocator.getAllocatedSize());
+        Assert.assertEquals(2048, allocator.getUsedSize());
+    }
+
+
+    private static byte[] data(int length) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = (byte) (i * 7 + length);
+        }
+        return result;
+    }
+}
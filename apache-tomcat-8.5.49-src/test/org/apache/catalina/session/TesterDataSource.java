@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.apache.catalina.util.IOTools;
+
+/**
+ * A deliberately minimal, in-memory DataSource for {@link TestJDBCStore}. No
+ * embedded database is available to the Tomcat test build so this stands in
+ * for one. It only recognises the statements {@link JDBCStore} issues for a
+ * single web application, keeps just the session ID and data of each row and
+ * applies every change immediately. Transactions, rollback and the query for
+ * expired sessions are not supported. It counts the statements executed so
+ * tests can check how the Store uses the database.
+ */
+public class TesterDataSource implements DataSource {
+
+    private final Map<String,byte[]> rows = new ConcurrentHashMap<>();
+
+    private final AtomicInteger executions = new AtomicInteger();
+    private final AtomicInteger inserts = new AtomicInteger();
+    private final AtomicInteger commits = new AtomicInteger();
+
+    private volatile boolean available = true;
+
+
+    /**
+     * @param available {@code false} to fail all attempts to obtain a
+     *                  connection
+     */
+    public void setAvailable(boolean available) {
+        this.available = available;
+    }
+
+
+    public int getRowCount() {
+        return rows.size();
+    }
+
+
+    /**
+     * @return the number of calls to execute a statement or a batch
+     */
+    public int getExecutions() {
+        return executions.get();
+    }
+
+
+    /**
+     * @return the number of rows inserted
+     */
+    public int getInserts() {
+        return inserts.get();
+    }
+
+
+    public int getCommits() {
+        return commits.get();
+    }
+
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!available) {
+            throw new SQLException("Not available");
+        }
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, new ConnectionHandler());
+    }
+
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection();
+    }
+
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return null;
+    }
+
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        // NO-OP
+    }
+
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        // NO-OP
+    }
+
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return 0;
+    }
+
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        throw new SQLException();
+    }
+
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return false;
+    }
+
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == int.class) {
+            return Integer.valueOf(0);
+        }
+        return null;
+    }
+
+
+    private class ConnectionHandler implements InvocationHandler {
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "prepareStatement":
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] { PreparedStatement.class },
+                        new StatementHandler((String) args[0]));
+            case "getAutoCommit":
+                return Boolean.TRUE;
+            case "commit":
+                commits.incrementAndGet();
+                return null;
+            default:
+                return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+
+    private class StatementHandler implements InvocationHandler {
+
+        private final String sql;
+        private String id;
+        private byte[] data;
+        private final List<Object[]> batch = new ArrayList<>();
+
+        private StatementHandler(String sql) {
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "setString":
+                if (((Integer) args[0]).intValue() == 1) {
+                    id = (String) args[1];
+                }
+                return null;
+            case "setBinaryStream":
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                IOTools.flow((InputStream) args[1], bos);
+                data = bos.toByteArray();
+                return null;
+            case "addBatch":
+                batch.add(new Object[] { id, data });
+                return null;
+            case "executeBatch":
+                executions.incrementAndGet();
+                for (Object[] row : batch) {
+                    update((String) row[0], (byte[]) row[1]);
+                }
+                int[] result = new int[batch.size()];
+                batch.clear();
+                return result;
+            case "execute":
+                executions.incrementAndGet();
+                update(id, data);
+                return Boolean.FALSE;
+            case "executeQuery":
+                executions.incrementAndGet();
+                return query();
+            default:
+                return defaultValue(method.getReturnType());
+            }
+        }
+
+        private void update(String id, byte[] data) {
+            if (sql.startsWith("INSERT")) {
+                inserts.incrementAndGet();
+                rows.put(id, data);
+            } else if (sql.startsWith("DELETE") && sql.contains(" id = ?")) {
+                rows.remove(id);
+            } else if (sql.startsWith("DELETE")) {
+                rows.clear();
+            } else {
+                throw new IllegalArgumentException(sql);
+            }
+        }
+
+        private ResultSet query() {
+            List<Object[]> result = new ArrayList<>();
+            if (sql.startsWith("SELECT COUNT")) {
+                result.add(new Object[] { Integer.valueOf(rows.size()) });
+            } else if (sql.startsWith("SELECT id, data")) {
+                byte[] row = rows.get(id);
+                if (row != null) {
+                    result.add(new Object[] { id, new ByteArrayInputStream(row) });
+                }
+            } else if (sql.startsWith("SELECT id FROM") && !sql.contains("<")) {
+                for (String key : rows.keySet()) {
+                    result.add(new Object[] { key });
+                }
+            } else {
+                throw new IllegalArgumentException(sql);
+            }
+            return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] { ResultSet.class }, new ResultSetHandler(result));
+        }
+    }
+
+
+    private static class ResultSetHandler implements InvocationHandler {
+
+        private final List<Object[]> rows;
+        private int current = -1;
+
+        private ResultSetHandler(List<Object[]> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "next":
+                current++;
+                return Boolean.valueOf(current < rows.size());
+            case "getString":
+            case "getInt":
+            case "getBinaryStream":
+                return rows.get(current)[((Integer) args[0]).intValue() - 1];
+            default:
+                return defaultValue(method.getReturnType());
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.CharArrayWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAccessLogRingBuffer {
+
+    @Test
+    public void testOrder() {
+        AccessLogRingBuffer queue = new AccessLogRingBuffer(3, 16);
+        Assert.assertEquals(4, queue.getCapacity());
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(queue.offer(message("entry" + i)));
+            Assert.assertEquals(1, queue.size());
+            Assert.assertEquals("entry" + i, poll(queue));
+            Assert.assertEquals(0, queue.size());
+        }
+        Assert.assertNull(queue.poll());
+    }
+
+
+    @Test
+    public void testFull() {
+        AccessLogRingBuffer queue = new AccessLogRingBuffer(4, 16);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(message("entry" + i)));
+        }
+        Assert.assertFalse(queue.offer(message("overflow")));
+        Assert.assertEquals(4, queue.size());
+
+        Assert.assertEquals("entry0", poll(queue));
+        Assert.assertTrue(queue.offer(message("entry4")));
+        for (int i = 1; i < 5; i++) {
+            Assert.assertEquals("entry" + i, poll(queue));
+        }
+        Assert.assertNull(queue.poll());
+    }
+
+
+    @Test
+    public void testLargeEntry() {
+        AccessLogRingBuffer queue = new AccessLogRingBuffer(1, 4);
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            large.append(i);
+        }
+        Assert.assertTrue(queue.offer(message(large.toString())));
+        Assert.assertEquals(large.toString(), poll(queue));
+        Assert.assertTrue(queue.offer(message("small")));
+        Assert.assertEquals("small", poll(queue));
+    }
+
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final int threadCount = 8;
+        final int entriesPerThread = 20000;
+        final AccessLogRingBuffer queue = new AccessLogRingBuffer(64, 16);
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final String prefix = Integer.toString(i) + "-";
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < entriesPerThread; j++) {
+                        CharArrayWriter message = message(prefix + j);
+                        while (!queue.offer(message)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        // Entries from each producer must arrive in order and exactly once
+        int[] next = new int[threadCount];
+        Set<String> seen = new HashSet<>();
+        int total = threadCount * entriesPerThread;
+        long timeout = System.currentTimeMillis() + 30000;
+        while (seen.size() < total && System.currentTimeMillis() < timeout) {
+            AccessLogRingBuffer.Slot slot = queue.poll();
+            if (slot == null) {
+                Thread.yield();
+                continue;
+            }
+            String entry = slot.getChars().toString();
+            queue.release(slot);
+            Assert.assertTrue(entry, seen.add(entry));
+            int separator = entry.indexOf('-');
+            int thread = Integer.parseInt(entry.substring(0, separator));
+            Assert.assertEquals(next[thread]++, Integer.parseInt(entry.substring(separator + 1)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(total, seen.size());
+        Assert.assertNull(queue.poll());
+    }
+
+
+    private static CharArrayWriter message(String content) {
+        CharArrayWriter message = new CharArrayWriter();
+        message.append(content);
+        return message;
+    }
+
+
+    private static String poll(AccessLogRingBuffer queue) {
+        AccessLogRingBuffer.Slot slot = queue.poll();
+        Assert.assertNotNull(slot);
+        String result = slot.getChars().toString();
+        queue.release(slot);
+        return result;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.TesterServlet;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestAccessLogValveBackgroundWriting extends TomcatBaseTest {
+
+    @Test
+    public void testBackgroundWriting() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "servlet", new TesterServlet());
+        ctx.addServletMappingDecoded("/", "servlet");
+
+        File logDir = new File(getTemporaryDirectory(), "background-access-log");
+        addDeleteOnTearDown(logDir);
+        AccessLogValve valve = new AccessLogValve();
+        valve.setDirectory(logDir.getAbsolutePath());
+        valve.setPrefix("access");
+        valve.setSuffix(".log");
+        valve.setRotatable(false);
+        valve.setPattern("%r %s");
+        valve.setBackgroundWriting(true);
+        valve.setQueueSize(16);
+        ctx.getPipeline().addValve(valve);
+
+        tomcat.start();
+
+        int requestCount = 50;
+        for (int i = 0; i < requestCount; i++) {
+            ByteChunk res = new ByteChunk();
+            int rc = getUrl("http://localhost:" + getPort() + "/test?i=" + i, res, null);
+            Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        }
+
+        // Stopping writes any entries that are still queued
+        ctx.stop();
+
+        Assert.assertEquals(0, valve.getDroppedEntries());
+        List<String> lines = Files.readAllLines(new File(logDir, "access.log").toPath(),
+                StandardCharsets.ISO_8859_1);
+        Assert.assertEquals(requestCount, lines.size());
+        for (int i = 0; i < requestCount; i++) {
+            Assert.assertEquals("GET /test?i=" + i + " HTTP/1.1 200", lines.get(i));
+        }
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidOverflowPolicy() {
+        new AccessLogValve().setOverflowPolicy("unknown");
+    }
+}
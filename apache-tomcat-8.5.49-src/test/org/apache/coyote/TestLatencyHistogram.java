@@ -0,0 +1,146 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentile(99));
+    }
+
+
+    @Test
+    public void testIndexRoundTrip() {
+        // Every value must map to a bucket whose highest equivalent value is
+        // no smaller than the value and no more than 1/16 larger
+        for (long value = 0; value < (1L << 32); value = value * 17 / 16 + 1) {
+            int index = LatencyHistogram.getIndex(value);
+            Assert.assertTrue(index >= 0 && index < LatencyHistogram.BUCKET_COUNT);
+            long highest = LatencyHistogram.getHighestEquivalentValue(index);
+            Assert.assertTrue(value + " -> " + highest, highest >= value);
+            Assert.assertTrue(value + " -> " + highest, highest - value <= value / 16);
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKET_COUNT - 1,
+                LatencyHistogram.getIndex(Long.MAX_VALUE));
+    }
+
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1 to 1000 microseconds
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        assertApproximately(500, histogram.getPercentile(50));
+        assertApproximately(990, histogram.getPercentile(99));
+        assertApproximately(999, histogram.getPercentile(99.9));
+        assertApproximately(1000, histogram.getPercentile(100));
+        Assert.assertEquals(1, histogram.getPercentile(0));
+    }
+
+
+    @Test
+    public void testNegativeIgnored() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        Assert.assertEquals(0, histogram.getCount());
+    }
+
+
+    @Test
+    public void testAddAndReset() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(TimeUnit.MILLISECONDS.toNanos(1));
+        b.record(TimeUnit.MILLISECONDS.toNanos(100));
+        b.record(TimeUnit.MILLISECONDS.toNanos(100));
+        a.add(b);
+        Assert.assertEquals(3, a.getCount());
+        assertApproximately(100000, a.getPercentile(50));
+        a.reset();
+        Assert.assertEquals(0, a.getCount());
+        Assert.assertEquals(2, b.getCount());
+    }
+
+
+    @Test
+    public void testRequestGroupInfo() {
+        RequestGroupInfo global = new RequestGroupInfo();
+        RequestInfo rp1 = new RequestInfo(new Request());
+        RequestInfo rp2 = new RequestInfo(new Request());
+        rp1.setGlobalProcessor(global);
+        rp2.setGlobalProcessor(global);
+
+        Assert.assertNull(rp1.getLatencyHistogram(RequestInfo.LATENCY_SERVLET_TIME));
+
+        rp1.recordLatency(RequestInfo.LATENCY_SERVLET_TIME, TimeUnit.MILLISECONDS.toNanos(2));
+        rp2.recordLatency(RequestInfo.LATENCY_SERVLET_TIME, TimeUnit.MILLISECONDS.toNanos(2));
+        rp2.recordLatency(RequestInfo.LATENCY_QUEUE_TIME, TimeUnit.MILLISECONDS.toNanos(5));
+
+        Assert.assertEquals(2, global.getLatencyHistogram(RequestInfo.LATENCY_SERVLET_TIME).getCount());
+        assertApproximately(2000, global.getServletTimeP99());
+        assertApproximately(5000, global.getQueueTimeP50());
+        Assert.assertEquals(0, global.getWriteTimeP999());
+
+        // Values are retained when a processor is removed
+        rp2.setGlobalProcessor(null);
+        Assert.assertEquals(2, global.getLatencyHistogram(RequestInfo.LATENCY_SERVLET_TIME).getCount());
+
+        global.resetCounters();
+        Assert.assertEquals(0, global.getLatencyHistogram(RequestInfo.LATENCY_SERVLET_TIME).getCount());
+    }
+
+
+    @Test
+    public void testRequestGroupInfoSnapshot() throws Exception {
+        RequestGroupInfo global = new RequestGroupInfo();
+        RequestInfo rp = new RequestInfo(new Request());
+        rp.setGlobalProcessor(global);
+        rp.recordLatency(RequestInfo.LATENCY_SERVLET_TIME, TimeUnit.MILLISECONDS.toNanos(2));
+
+        // Reading several percentiles merges the histograms once
+        LatencyHistogram snapshot = global.getLatencySnapshot(RequestInfo.LATENCY_SERVLET_TIME);
+        assertApproximately(2000, global.getServletTimeP50());
+        assertApproximately(2000, global.getServletTimeP99());
+        Assert.assertSame(snapshot, global.getLatencySnapshot(RequestInfo.LATENCY_SERVLET_TIME));
+
+        // Resetting discards the snapshot
+        global.resetCounters();
+        Assert.assertEquals(0, global.getServletTimeP50());
+
+        // The snapshot is replaced once it is too old
+        rp.recordLatency(RequestInfo.LATENCY_SERVLET_TIME, TimeUnit.MILLISECONDS.toNanos(5));
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(RequestGroupInfo.LATENCY_SNAPSHOT_MAX_AGE) + 100);
+        assertApproximately(5000, global.getServletTimeP50());
+    }
+
+
+    private static void assertApproximately(long expected, long actual) {
+        Assert.assertTrue(expected + " != " + actual,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.http.parser.HttpParser;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.apache.tomcat.util.net.TesterSocketWrapper;
+
+/**
+ * Checks the values produced by the header parser, including when the request
+ * arrives in small pieces so parsing has to be resumed part way through a
+ * value.
+ */
+public class TestHttp11InputBufferHeaderValues {
+
+    private static final String REQUEST =
+            "GET /test?a=b HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "A: simple\r\n" +
+            "B:nospace\r\n" +
+            "C: \t  leading and trailing  \t \r\n" +
+            "D: folded\r\n" +
+            "   continuation\r\n" +
+            "\tmore\r\n" +
+            "E: bare\rcr\r\n" +
+            "F:\r\n" +
+            "G:   \r\n" +
+            "  late-start\r\n" +
+            "H: lf-only\n" +
+            "Cookie: JSESSIONID=0123456789ABCDEF0123456789ABCDEF; name=value; other=\"quoted value\"\r\n" +
+            "I:   value with   internal    spaces\r\n" +
+            "\r\n";
+
+
+    @Test
+    public void testWholeRequest() throws Exception {
+        doTest(Integer.MAX_VALUE);
+    }
+
+
+    @Test
+    public void testSplitRequest() throws Exception {
+        for (int maxRead = 1; maxRead < 20; maxRead++) {
+            doTest(maxRead);
+        }
+    }
+
+
+    private void doTest(int maxRead) throws Exception {
+        Request request = new Request();
+        Http11InputBuffer inputBuffer = new Http11InputBuffer(request, 8192, false,
+                new HttpParser(null, null));
+
+        TesterSocketWrapper socketWrapper = new TesterSocketWrapper(new NioEndpoint(), 8192);
+        socketWrapper.setInput(REQUEST.getBytes(StandardCharsets.ISO_8859_1));
+        socketWrapper.setMaxRead(maxRead);
+        inputBuffer.init(socketWrapper);
+
+        while (!inputBuffer.parseRequestLine(false)) {
+            // Keep reading
+        }
+        while (!inputBuffer.parseHeaders()) {
+            // Keep reading
+        }
+
+        Assert.assertEquals("GET", request.method().toString());
+        Assert.assertEquals("/test", request.requestURI().toString());
+        Assert.assertEquals("a=b", request.queryString().toString());
+        Assert.assertEquals("HTTP/1.1", request.protocol().toString());
+
+        MimeHeaders headers = request.getMimeHeaders();
+        Assert.assertEquals(11, headers.size());
+        Assert.assertEquals("localhost", headers.getHeader("host"));
+        Assert.assertEquals("simple", headers.getHeader("a"));
+        Assert.assertEquals("nospace", headers.getHeader("b"));
+        Assert.assertEquals("leading and trailing", headers.getHeader("c"));
+        Assert.assertEquals("folded continuation\tmore", headers.getHeader("d"));
+        Assert.assertEquals("barecr", headers.getHeader("e"));
+        Assert.assertEquals("", headers.getHeader("f"));
+        Assert.assertEquals(" late-start", headers.getHeader("g"));
+        Assert.assertEquals("lf-only", headers.getHeader("h"));
+        Assert.assertEquals(
+                "JSESSIONID=0123456789ABCDEF0123456789ABCDEF; name=value; other=\"quoted value\"",
+                headers.getHeader("cookie"));
+        Assert.assertEquals("value with   internal    spaces", headers.getHeader("i"));
+    }
+}
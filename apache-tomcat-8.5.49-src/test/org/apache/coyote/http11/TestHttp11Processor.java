@@ -35,8 +35,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.AsyncContext;
 import javax.servlet.DispatcherType;
 import javax.servlet.ServletException;
@@ -61,6 +64,7 @@ import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.descriptor.web.SecurityCollection;
 import org.apache.tomcat.util.descriptor.web.SecurityConstraint;
 import org.apache.tomcat.util.http.parser.TokenList;
+import org.apache.tomcat.util.modeler.Registry;
 
 public class TestHttp11Processor extends TomcatBaseTest {
 
@@ -1659,4 +1663,55 @@ public class TestHttp11Processor extends TomcatBaseTest {
             out.print(" and request.getServerPort() is " + req.getServerPort());
         }
     }
+
+
+    @Test
+    public void testLatencyHistograms() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Assert.assertTrue(tomcat.getConnector().setProperty("latencyHistograms", "true"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "sleep", new SleepServlet());
+        ctx.addServletMappingDecoded("/", "sleep");
+
+        tomcat.start();
+
+        for (int i = 0; i < 5; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+            Assert.assertEquals("OK", res.toString());
+        }
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> onames = mbeanServer.queryNames(
+                new ObjectName("Tomcat:type=GlobalRequestProcessor,*"), null);
+        Assert.assertEquals(1, onames.size());
+        ObjectName global = onames.iterator().next();
+
+        long servletTimeP50 = ((Long) mbeanServer.getAttribute(global, "servletTimeP50")).longValue();
+        long servletTimeP999 = ((Long) mbeanServer.getAttribute(global, "servletTimeP999")).longValue();
+        Assert.assertTrue(servletTimeP50 >= SleepServlet.SLEEP * 1000);
+        Assert.assertTrue(servletTimeP999 >= servletTimeP50);
+        Assert.assertTrue(((Long) mbeanServer.getAttribute(global, "headerParseTimeP50")).longValue() >= 0);
+        Assert.assertTrue(((Long) mbeanServer.getAttribute(global, "writeTimeP50")).longValue() >= 0);
+    }
+
+
+    private static class SleepServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int SLEEP = 10;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            try {
+                Thread.sleep(SLEEP);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().print("OK");
+        }
+    }
 }
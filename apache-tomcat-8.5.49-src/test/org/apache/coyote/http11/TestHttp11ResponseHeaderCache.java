@@ -0,0 +1,110 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.MessageBytes;
+
+public class TestHttp11ResponseHeaderCache {
+
+    @Test
+    public void testStatusLine() {
+        Assert.assertEquals("HTTP/1.1 200 \r\n", toString(Http11ResponseHeaderCache.getStatusLine(200)));
+        Assert.assertEquals("HTTP/1.1 404 \r\n", toString(Http11ResponseHeaderCache.getStatusLine(404)));
+        Assert.assertEquals("HTTP/1.1 599 \r\n", toString(Http11ResponseHeaderCache.getStatusLine(599)));
+        Assert.assertNull(Http11ResponseHeaderCache.getStatusLine(99));
+        Assert.assertNull(Http11ResponseHeaderCache.getStatusLine(600));
+    }
+
+
+    @Test
+    public void testHeaderLine() {
+        byte[] line = getHeaderLine("Content-Type", "application/json;charset=UTF-8");
+        Assert.assertEquals("Content-Type: application/json;charset=UTF-8\r\n", toString(line));
+        // Second call is served from the cache
+        Assert.assertSame(line, getHeaderLine("Content-Type", "application/json;charset=UTF-8"));
+    }
+
+
+    @Test
+    public void testHeaderLineControlCharacters() {
+        Assert.assertEquals("Server: a b\tc\r\n", toString(getHeaderLine("Server", "a\u0001b\tc")));
+    }
+
+
+    @Test
+    public void testHeaderLineNotIso88591() {
+        Assert.assertNull(getHeaderLine("Server", "\u0100"));
+    }
+
+
+    @Test
+    public void testHeaderLineNotCachedName() {
+        Assert.assertNull(getHeaderLine("X-Custom", "value"));
+    }
+
+
+    @Test
+    public void testHeaderLineBytes() {
+        MessageBytes name = MessageBytes.newInstance();
+        name.setString("Server");
+        MessageBytes value = MessageBytes.newInstance();
+        value.setString("Apache Tomcat");
+        value.toBytes();
+        Assert.assertNull(Http11ResponseHeaderCache.getHeaderLine(name, value));
+    }
+
+
+    @Test
+    public void testHeaderLineCacheSizeLimit() {
+        for (int i = 0; i < Http11ResponseHeaderCache.MAX_VALUES_PER_NAME * 2; i++) {
+            byte[] line = getHeaderLine("Content-Language", "lang-" + i);
+            Assert.assertEquals("Content-Language: lang-" + i + "\r\n", toString(line));
+        }
+        byte[] line = getHeaderLine("Content-Language", "lang-overflow");
+        Assert.assertNotSame(line, getHeaderLine("Content-Language", "lang-overflow"));
+    }
+
+
+    @Test
+    public void testDateLine() {
+        String date1 = "Thu, 01 Jan 1970 00:00:00 GMT";
+        String date2 = "Thu, 01 Jan 1970 00:00:01 GMT";
+        byte[] line = getHeaderLine("Date", date1);
+        Assert.assertEquals("Date: " + date1 + "\r\n", toString(line));
+        Assert.assertSame(line, getHeaderLine("Date", date1));
+        Assert.assertEquals("Date: " + date2 + "\r\n", toString(getHeaderLine("Date", date2)));
+    }
+
+
+    private static byte[] getHeaderLine(String name, String value) {
+        MessageBytes nameMB = MessageBytes.newInstance();
+        nameMB.setString(name);
+        MessageBytes valueMB = MessageBytes.newInstance();
+        valueMB.setString(value);
+        return Http11ResponseHeaderCache.getHeaderLine(nameMB, valueMB);
+    }
+
+
+    private static String toString(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
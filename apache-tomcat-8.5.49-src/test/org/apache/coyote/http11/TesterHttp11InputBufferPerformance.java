@@ -0,0 +1,162 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.http.parser.HttpByteScanner;
+import org.apache.tomcat.util.http.parser.HttpParser;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.apache.tomcat.util.net.TesterSocketWrapper;
+
+/**
+ * Parses a header heavy request (30 headers including a large Cookie header)
+ * repeatedly and reports the time taken. Run before and after changes to the
+ * parser to compare.
+ */
+public class TesterHttp11InputBufferPerformance {
+
+    private static final int HEADER_COUNT = 30;
+    private static final byte[] REQUEST;
+
+    static {
+        StringBuilder request = new StringBuilder();
+        request.append("GET /examples/servlets/servlet/RequestHeaderExample?name=value HTTP/1.1\r\n");
+        request.append("Host: www.example.com\r\n");
+        request.append("User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:68.0) Gecko/20100101 Firefox/68.0\r\n");
+        request.append("Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n");
+        request.append("Accept-Language: en-GB,en;q=0.5\r\n");
+        request.append("Accept-Encoding: gzip, deflate, br\r\n");
+        request.append("Referer: https://www.example.com/examples/servlets/index.html\r\n");
+        request.append("Connection: keep-alive\r\n");
+        request.append("Cookie: JSESSIONID=0123456789ABCDEF0123456789ABCDEF");
+        for (int i = 0; i < 20; i++) {
+            request.append("; cookie").append(i).append("=value-of-cookie-").append(i);
+        }
+        request.append("\r\n");
+        request.append("Upgrade-Insecure-Requests: 1\r\n");
+        request.append("Cache-Control: max-age=0\r\n");
+        for (int i = 10; i < HEADER_COUNT; i++) {
+            request.append("X-Custom-Header-").append(i).append(": ");
+            request.append("some moderately long header value number ").append(i).append("\r\n");
+        }
+        request.append("\r\n");
+        REQUEST = request.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+
+    @Test
+    public void testParse() throws Exception {
+        Request request = new Request();
+        Http11InputBuffer inputBuffer = new Http11InputBuffer(request, 8192, false,
+                new HttpParser(null, null));
+        TesterSocketWrapper socketWrapper = new TesterSocketWrapper(new NioEndpoint(), 8192);
+
+        int iterations = 1000000;
+
+        // Warm up
+        doParse(request, inputBuffer, socketWrapper, iterations);
+
+        long start = System.nanoTime();
+        doParse(request, inputBuffer, socketWrapper, iterations);
+        long duration = System.nanoTime() - start;
+
+        System.out.println("Parsed " + iterations + " requests with " + HEADER_COUNT +
+                " headers in " + duration / 1000000 + "ms (" + duration / iterations +
+                "ns per request)");
+    }
+
+
+    @Test
+    public void testScanLineEnd() {
+        // Isolates the scan for the end of each header value
+        ByteBuffer buffer = ByteBuffer.wrap(REQUEST);
+        int iterations = 1000000;
+
+        // Warm up
+        scanBytes(buffer, iterations);
+        scanWords(buffer, iterations);
+
+        long start = System.nanoTime();
+        int bytesResult = scanBytes(buffer, iterations);
+        long bytesDuration = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int wordsResult = scanWords(buffer, iterations);
+        long wordsDuration = System.nanoTime() - start;
+
+        Assert.assertEquals(bytesResult, wordsResult);
+
+        System.out.println("Line end scan: byte at a time " + bytesDuration / 1000000 +
+                "ms, eight bytes at a time " + wordsDuration / 1000000 + "ms");
+    }
+
+
+    private void doParse(Request request, Http11InputBuffer inputBuffer,
+            TesterSocketWrapper socketWrapper, int iterations) throws Exception {
+        for (int i = 0; i < iterations; i++) {
+            socketWrapper.setInput(REQUEST);
+            inputBuffer.init(socketWrapper);
+            Assert.assertTrue(inputBuffer.parseRequestLine(false));
+            Assert.assertTrue(inputBuffer.parseHeaders());
+            if (request.getMimeHeaders().size() != HEADER_COUNT) {
+                Assert.fail();
+            }
+            inputBuffer.recycle();
+        }
+    }
+
+
+    private int scanBytes(ByteBuffer buffer, int iterations) {
+        int result = 0;
+        int limit = buffer.limit();
+        for (int i = 0; i < iterations; i++) {
+            int pos = 0;
+            while (pos < limit) {
+                byte b = buffer.get(pos);
+                if (b == '\r' || b == '\n') {
+                    result++;
+                }
+                pos++;
+            }
+        }
+        return result;
+    }
+
+
+    private int scanWords(ByteBuffer buffer, int iterations) {
+        int result = 0;
+        int limit = buffer.limit();
+        for (int i = 0; i < iterations; i++) {
+            int pos = 0;
+            while (pos < limit) {
+                pos = HttpByteScanner.indexOfCrOrLf(buffer, pos, limit);
+                if (pos == -1) {
+                    break;
+                }
+                result++;
+                pos++;
+            }
+        }
+        return result;
+    }
+}
@@ -1046,6 +1046,12 @@ public abstract class Http2TestBase extends TomcatBaseTest {
         }
 
 
+        @Override
+        public void emitHeader(String name, byte[] value, int start, int length) {
+            emitHeader(name, new String(value, start, length, StandardCharsets.ISO_8859_1));
+        }
+
+
         @Override
         public void validateHeaders() {
             // NO-OP: Accept anything the server sends for the unit tests
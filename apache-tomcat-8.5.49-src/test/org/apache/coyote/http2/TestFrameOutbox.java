@@ -0,0 +1,105 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.net.TesterSocketWrapper;
+
+public class TestFrameOutbox {
+
+    private static final int FRAME_COUNT = 1000;
+
+
+    @Test
+    public void testClaimingWriterHandsOver() throws Exception {
+        TesterSocketWrapper socketWrapper = new TesterSocketWrapper(null, 1024);
+        FrameOutbox outbox = new FrameOutbox(socketWrapper);
+
+        FrameOutbox.Frame first = outbox.enqueue(ByteBuffer.wrap(new byte[] { 0 }));
+        FrameOutbox.Frame last = null;
+        for (int i = 1; i < FRAME_COUNT; i++) {
+            last = outbox.enqueue(ByteBuffer.wrap(new byte[] { (byte) i }));
+        }
+
+        // The writer returns once it has written a limited number of the
+        // frames queued behind its own
+        outbox.await(first);
+        int written = socketWrapper.getOutput().length;
+        Assert.assertTrue(written > 0);
+        Assert.assertTrue("Wrote [" + written + "] frames", written < FRAME_COUNT);
+
+        outbox.await(last);
+        byte[] output = socketWrapper.getOutput();
+        Assert.assertEquals(FRAME_COUNT, output.length);
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            Assert.assertEquals((byte) i, output[i]);
+        }
+    }
+
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final TesterSocketWrapper socketWrapper = new TesterSocketWrapper(null, 1024);
+        final FrameOutbox outbox = new FrameOutbox(socketWrapper);
+        final int threadCount = 8;
+        final int framesPerThread = FRAME_COUNT;
+
+        final IOException[] errors = new IOException[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int id = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < framesPerThread; j++) {
+                            outbox.write(ByteBuffer.wrap(new byte[] {
+                                    (byte) id, (byte) (j >> 8), (byte) j }));
+                        }
+                    } catch (IOException e) {
+                        errors[id] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(60000);
+            Assert.assertFalse(thread.isAlive());
+        }
+        for (IOException error : errors) {
+            Assert.assertNull(error);
+        }
+
+        // Every frame was written once, whole and in the order each thread
+        // wrote them
+        byte[] output = socketWrapper.getOutput();
+        Assert.assertEquals(threadCount * framesPerThread * 3, output.length);
+        int[] next = new int[threadCount];
+        for (int i = 0; i < output.length; i += 3) {
+            int id = output[i];
+            int sequence = ((output[i + 1] & 0xFF) << 8) | (output[i + 2] & 0xFF);
+            Assert.assertEquals(next[id], sequence);
+            next[id]++;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -80,6 +81,12 @@ public class TestHpack {
             headers.setValue(name).setString(value);
         }
         @Override
+        public void emitHeader(String name, byte[] value, int start, int length) {
+            // The bytes are only valid for the duration of the call
+            headers.setValue(name).setString(
+                    new String(value, start, length, StandardCharsets.ISO_8859_1));
+        }
+        @Override
         public void setHeaderException(StreamException streamException) {
             // NO-OP
         }
@@ -89,6 +96,69 @@ public class TestHpack {
         }
     }
 
+    @Test
+    public void testDynamicTableEviction() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        MimeHeaders headers2 = new MimeHeaders();
+        ByteBuffer output = ByteBuffer.allocate(1024);
+
+        for (int i = 0; i < 500; i++) {
+            if (i == 250) {
+                // Shrink the table so most entries are evicted
+                encoder.setMaxTableSize(256);
+            }
+            MimeHeaders headers = new MimeHeaders();
+            for (int j = 0; j < 5; j++) {
+                headers.setValue("header" + j).setString("value" + ((i * 7 + j * 13) % 97));
+            }
+            output.clear();
+            Assert.assertEquals(HpackEncoder.State.COMPLETE, encoder.encode(headers, output));
+            output.flip();
+            headers2.recycle();
+            // Resets the limit tracking for each header block
+            decoder.setHeaderEmitter(new HeadersListener(headers2));
+            decoder.decode(output);
+            Assert.assertFalse(output.hasRemaining());
+            for (int j = 0; j < 5; j++) {
+                Assert.assertEquals(headers.getHeader("header" + j),
+                        headers2.getHeader("header" + j));
+            }
+        }
+        Assert.assertTrue(decoder.getCurrentMemorySize() <= 256);
+    }
+
+
+    @Test
+    public void testKnownHeaderNameReused() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue("sec-fetch-mode").setString("navigate");
+        headers.setValue("x-unknown").setString("value");
+        // Not indexed so passed to the emitter as bytes
+        headers.setValue("content-length").setString("1234");
+        ByteBuffer output = ByteBuffer.allocate(512);
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.encode(headers, output);
+        output.flip();
+
+        final MimeHeaders headers2 = new MimeHeaders();
+        HpackDecoder decoder = new HpackDecoder();
+        decoder.setHeaderEmitter(new HeadersListener(headers2) {
+            @Override
+            public void emitHeader(String name, String value) {
+                if (name.equals("sec-fetch-mode")) {
+                    Assert.assertSame("sec-fetch-mode", name);
+                }
+                super.emitHeader(name, value);
+            }
+        });
+        decoder.decode(output);
+        Assert.assertEquals("navigate", headers2.getHeader("sec-fetch-mode"));
+        Assert.assertEquals("value", headers2.getHeader("x-unknown"));
+        Assert.assertEquals("1234", headers2.getHeader("content-length"));
+    }
+
+
     @Test
     public void testHeaderValueBug60451() throws HpackException {
         doTestHeaderValueBug60451("fooébar");
@@ -45,6 +45,37 @@ public class TestHttp2Section_6_7 extends Http2TestBase {
     }
 
 
+    @Test
+    public void testPingFramesSingleWrite() throws Exception {
+        // HTTP2 upgrade
+        http2Connect();
+
+        // Send a settings frame and several pings in a single write so they
+        // are all processed in the same read
+        byte[] frames = new byte[9 + 3 * 17];
+        frames[3] = FrameType.SETTINGS.getIdByte();
+        for (int i = 0; i < 3; i++) {
+            int offset = 9 + i * 17;
+            ByteUtil.setThreeBytes(frames, offset, 8);
+            frames[offset + 3] = FrameType.PING.getIdByte();
+            frames[offset + 16] = (byte) ('0' + i);
+        }
+        os.write(frames);
+        os.flush();
+
+        // Settings ack followed by the ping acks in the order the pings were
+        // received
+        for (int i = 0; i < 4; i++) {
+            parser.readFrame(true);
+        }
+
+        Assert.assertEquals("0-Settings-Ack\n" +
+                "0-Ping-Ack-[0,0,0,0,0,0,0,48]\n" +
+                "0-Ping-Ack-[0,0,0,0,0,0,0,49]\n" +
+                "0-Ping-Ack-[0,0,0,0,0,0,0,50]\n", output.getTrace());
+    }
+
+
     @Test
     public void testPingFrameUnexpectedAck() throws Exception {
         // HTTP2 upgrade
@@ -261,6 +261,53 @@ public class TestHttp2Section_6_9 extends Http2TestBase {
     }
 
 
+    @Test
+    public void testWindowUpdatesCombined() throws Exception {
+        http2Connect();
+
+        byte[] headersFrameHeader = new byte[9];
+        ByteBuffer headersPayload = ByteBuffer.allocate(128);
+        byte[] dataFrameHeader = new byte[9];
+        ByteBuffer dataPayload = ByteBuffer.allocate(1024);
+
+        buildPostRequest(headersFrameHeader, headersPayload, false,
+                dataFrameHeader, dataPayload, null, 3);
+        writeFrame(headersFrameHeader, headersPayload);
+
+        // Give the application time to read each DATA frame before the next
+        // one is sent
+        int dataFrameCount = 9;
+        byte[] endOfStreamFlags = new byte[] { dataFrameHeader[4] };
+        dataFrameHeader[4] = 0;
+        for (int i = 1; i < dataFrameCount; i++) {
+            writeFrame(dataFrameHeader, dataPayload, 0, dataPayload.limit(), 50);
+        }
+        dataFrameHeader[4] = endOfStreamFlags[0];
+        writeFrame(dataFrameHeader, dataPayload);
+
+        while (!output.getTrace().contains("3-EndOfStream")) {
+            parser.readFrame(true);
+        }
+
+        int windowUpdateCount = 0;
+        int[] increments = new int[4];
+        for (String line : output.getTrace().split("\n")) {
+            int index = line.indexOf("-WindowSize-[");
+            if (index > 0) {
+                windowUpdateCount++;
+                increments[Integer.parseInt(line.substring(0, index))] +=
+                        Integer.parseInt(line.substring(index + 13, line.length() - 1));
+            }
+        }
+        int bodySize = dataFrameCount * dataPayload.limit();
+        Assert.assertEquals(bodySize, increments[0]);
+        Assert.assertEquals(bodySize, increments[3]);
+        // At most one update for the data read before the end of stream was
+        // received and one for the rest, for the connection and the stream
+        Assert.assertTrue(output.getTrace(), windowUpdateCount <= 4);
+    }
+
+
     @Test
     public void testWindowSizeTooLargeViaSettings() throws Exception {
         http2Connect();
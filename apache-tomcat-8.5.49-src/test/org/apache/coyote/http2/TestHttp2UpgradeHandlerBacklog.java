@@ -0,0 +1,198 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Tests the allocation of the connection flow control window to streams that
+ * are waiting in the backlog. Allocations are requested with non-blocking
+ * reservations so no connection is required.
+ */
+public class TestHttp2UpgradeHandlerBacklog {
+
+    private static final int STREAM_COUNT = 1000;
+
+    private Http2UpgradeHandler handler;
+
+
+    @Before
+    public void setUp() {
+        handler = new Http2UpgradeHandler(new Http2Protocol(), null, null);
+        // Empty connection window so all reservations join the backlog
+        handler.setWindowSize(0);
+    }
+
+
+    @Test
+    public void testWeightedShares() throws Exception {
+        Stream[] streams = new Stream[STREAM_COUNT];
+        long[] allocated = new long[STREAM_COUNT];
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            streams[i] = createStream(i);
+            streams[i].rePrioritise(handler, false, i % 2 == 0 ? 32 : 16);
+            Assert.assertEquals(0, handler.reserveWindowSize(streams[i], 64 * 1024, false));
+        }
+
+        int rounds = 20;
+        int increment = 1024 * 1024;
+        for (int round = 0; round < rounds; round++) {
+            handler.incrementWindowSize(increment);
+            for (int i = 0; i < STREAM_COUNT; i++) {
+                allocated[i] += handler.reserveWindowSize(streams[i], 64 * 1024, false);
+            }
+        }
+
+        long heavy = 0;
+        long light = 0;
+        for (int i = 0; i < STREAM_COUNT; i++) {
+            // Every stream is served
+            Assert.assertTrue(allocated[i] > 0);
+            if (i % 2 == 0) {
+                heavy += allocated[i];
+            } else {
+                light += allocated[i];
+            }
+        }
+        // The whole window is allocated, with no over allocation
+        Assert.assertEquals((long) rounds * increment, heavy + light);
+        // Allocations are in proportion to the weights
+        double ratio = (double) heavy / light;
+        Assert.assertTrue("Ratio was [" + ratio + "]", ratio > 1.85 && ratio < 2.15);
+    }
+
+
+    @Test
+    public void testSmallStreamNotStarved() throws Exception {
+        Stream large = createStream(0);
+        Stream small = createStream(1);
+        small.rePrioritise(handler, false, 256);
+
+        Assert.assertEquals(0, handler.reserveWindowSize(large, 1024 * 1024, false));
+        Assert.assertEquals(0, handler.reserveWindowSize(small, 8192, false));
+
+        handler.incrementWindowSize(16 * 1024);
+
+        Assert.assertEquals(8192, handler.reserveWindowSize(small, 8192, false));
+        Assert.assertEquals(8192, handler.reserveWindowSize(large, 1024 * 1024, false));
+    }
+
+
+    @Test
+    public void testParentBeforeChildren() throws Exception {
+        Stream parent = createStream(0);
+        Stream child = createStream(1);
+        child.rePrioritise(parent, false, Constants.DEFAULT_WEIGHT);
+
+        // The child joins the backlog first
+        Assert.assertEquals(0, handler.reserveWindowSize(child, 8192, false));
+        Assert.assertEquals(0, handler.reserveWindowSize(parent, 8192, false));
+
+        handler.incrementWindowSize(8192);
+
+        Assert.assertEquals(8192, handler.reserveWindowSize(parent, 8192, false));
+        Assert.assertEquals(0, handler.reserveWindowSize(child, 8192, false));
+
+        handler.incrementWindowSize(4096);
+
+        Assert.assertEquals(4096, handler.reserveWindowSize(child, 8192, false));
+    }
+
+
+    @Test
+    public void testWeightedSharesInTree() throws Exception {
+        // Ten parents with weights 1 to 10, each with 99 children with
+        // weights 1 to 99. Parents do not need an allocation of their own.
+        int parentCount = 10;
+        int childCount = STREAM_COUNT / parentCount - 1;
+        Stream[] parents = new Stream[parentCount];
+        Stream[][] children = new Stream[parentCount][childCount];
+        long[][] allocated = new long[parentCount][childCount];
+        int index = 0;
+        for (int i = 0; i < parentCount; i++) {
+            parents[i] = createStream(index++);
+            parents[i].rePrioritise(handler, false, i + 1);
+            for (int j = 0; j < childCount; j++) {
+                children[i][j] = createStream(index++);
+                children[i][j].rePrioritise(parents[i], false, j + 1);
+            }
+        }
+        int reservation = 1024 * 1024;
+        for (int i = 0; i < parentCount; i++) {
+            for (int j = 0; j < childCount; j++) {
+                Assert.assertEquals(0, handler.reserveWindowSize(children[i][j], reservation, false));
+            }
+        }
+
+        // Release the window one default size frame at a time. Keep well
+        // below the total reservation so every stream stays in the backlog.
+        int increment = ConnectionSettingsBase.DEFAULT_MAX_FRAME_SIZE;
+        int rounds = 2000;
+        for (int round = 0; round < rounds; round++) {
+            handler.incrementWindowSize(increment);
+            for (int i = 0; i < parentCount; i++) {
+                for (int j = 0; j < childCount; j++) {
+                    allocated[i][j] += handler.reserveWindowSize(children[i][j], reservation, false);
+                }
+            }
+        }
+
+        long total = 0;
+        long[] parentTotals = new long[parentCount];
+        for (int i = 0; i < parentCount; i++) {
+            for (int j = 0; j < childCount; j++) {
+                parentTotals[i] += allocated[i][j];
+            }
+            total += parentTotals[i];
+        }
+        Assert.assertEquals((long) rounds * increment, total);
+
+        // Each parent's share is in proportion to its weight
+        int parentWeights = parentCount * (parentCount + 1) / 2;
+        for (int i = 0; i < parentCount; i++) {
+            assertShare(total * (i + 1) / parentWeights, parentTotals[i]);
+        }
+        // Within each parent, each child's share is in proportion to its
+        // weight
+        int childWeights = childCount * (childCount + 1) / 2;
+        for (int i = 0; i < parentCount; i++) {
+            for (int j = 0; j < childCount; j++) {
+                assertShare(parentTotals[i] * (j + 1) / childWeights, allocated[i][j]);
+            }
+        }
+    }
+
+
+    /*
+     * Each allocation is a weight scaled slice of the window so allow an
+     * error of a few slices of the largest size.
+     */
+    private static void assertShare(long expected, long actual) {
+        long tolerance = Math.max(expected / 10, 2 * Constants.ALLOCATION_QUANTUM);
+        Assert.assertTrue("Expected [" + expected + "] but was [" + actual + "]",
+                Math.abs(expected - actual) <= tolerance);
+    }
+
+
+    private Stream createStream(int index) throws Http2Exception {
+        Stream stream = new Stream(Integer.valueOf(index * 2 + 3), handler);
+        stream.receivedStartOfHeaders(false);
+        return stream;
+    }
+}
@@ -21,7 +21,10 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
@@ -167,6 +170,43 @@ public class TestStreamProcessor extends Http2TestBase {
     }
 
 
+    @Test
+    public void testRequestRecycling() throws Exception {
+        enableHttp2();
+
+        Tomcat tomcat = getTomcatInstance();
+
+        Context ctxt = tomcat.addContext("", null);
+        Tomcat.addServlet(ctxt, "simple", new SimpleServlet());
+        ctxt.addServletMappingDecoded("/simple", "simple");
+        RequestIdentity servlet = new RequestIdentity();
+        Tomcat.addServlet(ctxt, "identity", servlet);
+        ctxt.addServletMappingDecoded("/identity", "identity");
+
+        tomcat.start();
+
+        openClientConnection();
+        doHttpUpgrade();
+        sendClientPreface();
+        validateHttp2InitialResponse();
+
+        byte[] frameHeader = new byte[9];
+        ByteBuffer headersPayload = ByteBuffer.allocate(128);
+        int requestCount = 10;
+        for (int i = 0; i < requestCount; i++) {
+            buildGetRequest(frameHeader, headersPayload, null, 3 + i * 2, "/identity");
+            writeFrame(frameHeader, headersPayload);
+            readSimpleGetResponse();
+            headersPayload.clear();
+            // Give the container thread time to release the stream
+            Thread.sleep(50);
+        }
+
+        // Streams processed one after another should re-use the same request
+        Assert.assertTrue(servlet.identities.size() < requestCount);
+    }
+
+
     private static final class AsyncComplete extends HttpServlet {
 
         private static final long serialVersionUID = 1L;
@@ -201,6 +241,25 @@ public class TestStreamProcessor extends Http2TestBase {
     }
 
 
+    private static final class RequestIdentity extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Set<Integer> identities =
+                Collections.newSetFromMap(new ConcurrentHashMap<Integer,Boolean>());
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response)
+                throws ServletException, IOException {
+            identities.add(Integer.valueOf(System.identityHashCode(request)));
+
+            response.setContentType("text/plain");
+            response.setContentLength(2);
+            response.getWriter().print("OK");
+        }
+    }
+
+
     private static final class AsyncDispatch extends HttpServlet {
 
         private static final long serialVersionUID = 1L;
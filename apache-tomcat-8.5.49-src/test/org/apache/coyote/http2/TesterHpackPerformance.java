@@ -0,0 +1,263 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * Measures the time taken and the bytes allocated to encode and decode the
+ * header blocks a typical browser session sends and receives on a single
+ * connection. Each header block is a navigation or sub-resource request (or
+ * the associated response) with a different path.
+ */
+public class TesterHpackPerformance {
+
+    private static final int BLOCKS = 1000;
+    private static final int WARM_UP_ITERATIONS = 50;
+    private static final int ITERATIONS = 200;
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) " +
+            "AppleWebKit/537.36 (KHTML, like Gecko) Chrome/80.0.3987.132 Safari/537.36";
+
+    private static final String[][] REQUEST_HEADERS = {
+        {   ":method", "GET", ":authority", "www.example.com", ":scheme", "https",
+            ":path", null,
+            "upgrade-insecure-requests", "1",
+            "user-agent", USER_AGENT,
+            "accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp," +
+                    "image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.9",
+            "sec-fetch-site", "none",
+            "sec-fetch-mode", "navigate",
+            "sec-fetch-user", "?1",
+            "sec-fetch-dest", "document",
+            "accept-encoding", "gzip, deflate, br",
+            "accept-language", "en-GB,en-US;q=0.9,en;q=0.8",
+            "cookie", "JSESSIONID=6E2A7C4E9F1B3D5A8C0E2F4A6B8D0C1E",
+            "cookie", "_ga=GA1.2.1234567890.1583831234" },
+        {   ":method", "GET", ":authority", "www.example.com", ":scheme", "https",
+            ":path", null,
+            "user-agent", USER_AGENT,
+            "accept", "text/css,*/*;q=0.1",
+            "sec-fetch-site", "same-origin",
+            "sec-fetch-mode", "no-cors",
+            "sec-fetch-dest", "style",
+            "referer", "https://www.example.com/",
+            "accept-encoding", "gzip, deflate, br",
+            "accept-language", "en-GB,en-US;q=0.9,en;q=0.8",
+            "cookie", "JSESSIONID=6E2A7C4E9F1B3D5A8C0E2F4A6B8D0C1E",
+            "cookie", "_ga=GA1.2.1234567890.1583831234" },
+        {   ":method", "GET", ":authority", "www.example.com", ":scheme", "https",
+            ":path", null,
+            "user-agent", USER_AGENT,
+            "accept", "image/webp,image/apng,image/*,*/*;q=0.8",
+            "sec-fetch-site", "same-origin",
+            "sec-fetch-mode", "no-cors",
+            "sec-fetch-dest", "image",
+            "referer", "https://www.example.com/",
+            "accept-encoding", "gzip, deflate, br",
+            "accept-language", "en-GB,en-US;q=0.9,en;q=0.8",
+            "cookie", "JSESSIONID=6E2A7C4E9F1B3D5A8C0E2F4A6B8D0C1E",
+            "cookie", "_ga=GA1.2.1234567890.1583831234" },
+    };
+
+    private static final String[][] RESPONSE_HEADERS = {
+        {   ":status", "200",
+            "content-type", "text/html;charset=UTF-8",
+            "content-length", null,
+            "date", "Tue, 10 Mar 2020 09:00:00 GMT",
+            "cache-control", "no-cache",
+            "set-cookie", "JSESSIONID=6E2A7C4E9F1B3D5A8C0E2F4A6B8D0C1E; Path=/; Secure; HttpOnly",
+            "strict-transport-security", "max-age=31536000" },
+        {   ":status", "200",
+            "content-type", "text/css",
+            "content-length", null,
+            "date", "Tue, 10 Mar 2020 09:00:00 GMT",
+            "accept-ranges", "bytes",
+            "etag", "W/\"12345-1583830000000\"",
+            "last-modified", "Tue, 10 Mar 2020 08:46:40 GMT" },
+        {   ":status", "304",
+            "date", "Tue, 10 Mar 2020 09:00:00 GMT",
+            "etag", "W/\"67890-1583830000000\"" },
+    };
+
+
+    @Test
+    public void testEncode() throws Exception {
+        MimeHeaders[] headers = createHeaderBlocks(RESPONSE_HEADERS);
+        ByteBuffer target = ByteBuffer.allocate(8192);
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            doEncode(headers, target);
+        }
+
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            doEncode(headers, target);
+        }
+        long duration = System.nanoTime() - start;
+        allocated = getAllocatedBytes() - allocated;
+
+        report("Encode", duration, allocated);
+    }
+
+
+    @Test
+    public void testDecode() throws Exception {
+        MimeHeaders[] headers = createHeaderBlocks(REQUEST_HEADERS);
+        byte[][] encoded = new byte[headers.length][];
+        HpackEncoder encoder = new HpackEncoder();
+        ByteBuffer target = ByteBuffer.allocate(8192);
+        for (int i = 0; i < headers.length; i++) {
+            target.clear();
+            Assert.assertEquals(HpackEncoder.State.COMPLETE, encoder.encode(headers[i], target));
+            target.flip();
+            encoded[i] = new byte[target.remaining()];
+            target.get(encoded[i]);
+        }
+
+        MimeHeaders decoded = new MimeHeaders();
+        Emitter emitter = new Emitter(decoded);
+        ByteBuffer[] sources = new ByteBuffer[encoded.length];
+        for (int i = 0; i < encoded.length; i++) {
+            sources[i] = ByteBuffer.wrap(encoded[i]);
+        }
+
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            doDecode(sources, emitter);
+        }
+
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            doDecode(sources, emitter);
+        }
+        long duration = System.nanoTime() - start;
+        allocated = getAllocatedBytes() - allocated;
+
+        report("Decode", duration, allocated);
+
+        // Check the final header block was decoded correctly
+        MimeHeaders last = headers[headers.length - 1];
+        Assert.assertEquals(last.getHeader(":path"), decoded.getHeader(":path"));
+        Assert.assertEquals(last.getHeader("user-agent"), decoded.getHeader("user-agent"));
+        Assert.assertEquals(last.getHeader("referer"), decoded.getHeader("referer"));
+    }
+
+
+    private static void doEncode(MimeHeaders[] headers, ByteBuffer target) {
+        // A new connection for each iteration
+        HpackEncoder encoder = new HpackEncoder();
+        for (MimeHeaders block : headers) {
+            target.clear();
+            encoder.encode(block, target);
+        }
+    }
+
+
+    private static void doDecode(ByteBuffer[] sources, Emitter emitter) throws HpackException {
+        // A new connection for each iteration
+        HpackDecoder decoder = new HpackDecoder();
+        for (ByteBuffer source : sources) {
+            source.rewind();
+            emitter.headers.recycle();
+            decoder.setHeaderEmitter(emitter);
+            decoder.decode(source);
+        }
+    }
+
+
+    private static MimeHeaders[] createHeaderBlocks(String[][] templates) {
+        MimeHeaders[] result = new MimeHeaders[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            String[] template = templates[i % templates.length];
+            MimeHeaders headers = new MimeHeaders();
+            for (int j = 0; j < template.length; j += 2) {
+                String value = template[j + 1];
+                if (value == null) {
+                    // Vary the path and the content length
+                    value = template[j].equals(":path") ? "/app/resource" + i + ".css" :
+                            Integer.toString(1000 + i);
+                }
+                headers.addValue(template[j]).setString(value);
+            }
+            result[i] = headers;
+        }
+        return result;
+    }
+
+
+    private static long getAllocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+
+    private static void report(String operation, long duration, long allocated) {
+        long blocks = (long) ITERATIONS * BLOCKS;
+        System.out.println(operation + ": " + (duration / blocks) + "ns and " +
+                (allocated / blocks) + " bytes allocated per header block");
+    }
+
+
+    /*
+     * Adds the headers to the request headers in the same way as Stream.
+     */
+    private static class Emitter implements HpackDecoder.HeaderEmitter {
+
+        private final MimeHeaders headers;
+
+        public Emitter(MimeHeaders headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        public void emitHeader(String name, String value) {
+            headers.addValue(name).setString(value);
+        }
+
+        @Override
+        public void emitHeader(String name, byte[] value, int start, int length) {
+            MessageBytes mb = headers.addValue(name);
+            ByteChunk bc = mb.getByteChunk();
+            bc.allocate(length, -1);
+            System.arraycopy(value, start, bc.getBuffer(), 0, length);
+            mb.setBytes(bc.getBuffer(), 0, length);
+        }
+
+        @Override
+        public void setHeaderException(StreamException streamException) {
+            // NO-OP
+        }
+
+        @Override
+        public void validateHeaders() throws StreamException {
+            // NO-OP
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Measures the time taken for a single connection to serve many concurrent
+ * streams. The container threads processing the streams all write their
+ * response headers and bodies to the same connection.
+ */
+public class TesterHttp2WritePerformance extends Http2TestBase {
+
+    private static final int STREAMS = 100;
+    private static final int WARM_UP_ROUNDS = 20;
+    private static final int ROUNDS = 100;
+
+
+    @Test
+    public void testConcurrentStreams() throws Exception {
+        enableHttp2(STREAMS * 2);
+        http2Protocol.setMaxConcurrentStreamExecution(STREAMS);
+        configureAndStartWebApplication();
+        openClientConnection();
+        doHttpUpgrade();
+        sendClientPreface();
+        validateHttp2InitialResponse();
+
+        // Reset connection window size after initial response
+        sendWindowUpdate(0, SimpleServlet.CONTENT_LENGTH);
+
+        int streamId = 3;
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            streamId = doRound(streamId);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            streamId = doRound(streamId);
+        }
+        long duration = System.nanoTime() - start;
+
+        log.info(STREAMS + " concurrent streams: " +
+                (duration / ROUNDS / 1000) + "us per round, " +
+                (duration / ROUNDS / STREAMS / 1000) + "us per stream");
+    }
+
+
+    private int doRound(int firstStreamId) throws Exception {
+        // Allow the server to send every response body in full
+        sendWindowUpdate(0, STREAMS * SimpleServlet.CONTENT_LENGTH);
+
+        int streamId = firstStreamId;
+        for (int i = 0; i < STREAMS; i++) {
+            sendSimpleGetRequest(streamId);
+            streamId += 2;
+        }
+
+        // Clearing the trace also resets the count of bytes read so keep a
+        // running total
+        long bytesRead = 0;
+        int complete = 0;
+        while (complete < STREAMS) {
+            parser.readFrame(true);
+            String trace = output.getTrace();
+            if (trace.endsWith("-EndOfStream\n")) {
+                complete++;
+            }
+            bytesRead += output.getBytesRead();
+            output.clearTrace();
+        }
+        Assert.assertEquals(STREAMS * SimpleServlet.CONTENT_LENGTH, bytesRead);
+
+        return streamId;
+    }
+}
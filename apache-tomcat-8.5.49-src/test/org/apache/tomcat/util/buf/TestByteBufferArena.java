@@ -0,0 +1,151 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestByteBufferArena {
+
+    @Test
+    public void testSizeClasses() {
+        ByteBufferArena arena = new ByteBufferArena(false, -1);
+
+        ByteBuffer buffer = arena.allocate(1);
+        Assert.assertEquals(ByteBufferArena.SIZE_CLASS_GRANULARITY, buffer.capacity());
+        arena.release(buffer);
+
+        buffer = arena.allocate(8192);
+        Assert.assertEquals(8192, buffer.capacity());
+        arena.release(buffer);
+
+        buffer = arena.allocate(16709);
+        Assert.assertEquals(17408, buffer.capacity());
+        arena.release(buffer);
+
+        buffer = arena.allocate(ByteBufferArena.MAX_POOLED_SIZE + 1);
+        Assert.assertEquals(ByteBufferArena.MAX_POOLED_SIZE + 1, buffer.capacity());
+        arena.release(buffer);
+
+        Assert.assertEquals(0, arena.getActiveBuffers());
+    }
+
+
+    @Test
+    public void testReuseSameThread() {
+        ByteBufferArena arena = new ByteBufferArena(true, -1);
+
+        ByteBuffer buffer = arena.allocate(8192);
+        Assert.assertTrue(buffer.isDirect());
+        buffer.put((byte) 1);
+        arena.release(buffer);
+
+        ByteBuffer buffer2 = arena.allocate(8192);
+        Assert.assertSame(buffer, buffer2);
+        // Buffers are always cleared
+        Assert.assertEquals(0, buffer2.position());
+        Assert.assertEquals(buffer2.capacity(), buffer2.limit());
+        arena.release(buffer2);
+
+        arena.destroy();
+    }
+
+
+    @Test
+    public void testSharedPool() throws Exception {
+        final ByteBufferArena arena = new ByteBufferArena(false, -1);
+        final ByteBuffer[] buffers = new ByteBuffer[10];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = arena.allocate(8192);
+        }
+        Assert.assertEquals(buffers.length, arena.getActiveBuffers());
+        for (ByteBuffer buffer : buffers) {
+            arena.release(buffer);
+        }
+        Assert.assertEquals(0, arena.getActiveBuffers());
+        // Some buffers are cached by this thread, the rest are shared
+        long pooledBytes = arena.getPooledBytes();
+        Assert.assertTrue(pooledBytes > 0);
+
+        // Another thread should be able to use the shared buffers
+        final ByteBuffer[] fromOtherThread = new ByteBuffer[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                fromOtherThread[0] = arena.allocate(8192);
+            }
+        };
+        t.start();
+        t.join();
+
+        boolean found = false;
+        for (ByteBuffer buffer : buffers) {
+            if (buffer == fromOtherThread[0]) {
+                found = true;
+            }
+        }
+        Assert.assertTrue(found);
+        Assert.assertEquals(pooledBytes - 8192, arena.getPooledBytes());
+    }
+
+
+    @Test
+    public void testPoolLimit() {
+        ByteBufferArena arena = new ByteBufferArena(false, 8192);
+        ByteBuffer[] buffers = new ByteBuffer[10];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = arena.allocate(8192);
+        }
+        for (ByteBuffer buffer : buffers) {
+            arena.release(buffer);
+        }
+        Assert.assertEquals(8192, arena.getPooledBytes());
+    }
+
+
+    @Test
+    public void testExpand() {
+        ByteBufferArena arena = new ByteBufferArena(false, -1);
+        Assert.assertNull(arena.expand(null, 8192));
+
+        ByteBuffer buffer = arena.allocate(1024);
+        buffer.put((byte) 'a');
+        buffer.put((byte) 'b');
+        Assert.assertSame(buffer, arena.expand(buffer, 512));
+
+        ByteBuffer expanded = arena.expand(buffer, 4096);
+        Assert.assertEquals(4096, expanded.capacity());
+        Assert.assertEquals(2, expanded.position());
+        Assert.assertEquals('a', expanded.get(0));
+        Assert.assertEquals('b', expanded.get(1));
+        Assert.assertEquals(1, arena.getActiveBuffers());
+        arena.release(expanded);
+    }
+
+
+    @Test
+    public void testReleaseAfterDestroy() {
+        ByteBufferArena arena = new ByteBufferArena(false, -1);
+        ByteBuffer buffer = arena.allocate(8192);
+        arena.destroy();
+        arena.release(buffer);
+        Assert.assertEquals(0, arena.getPooledBytes());
+        Assert.assertNotSame(buffer, arena.allocate(8192));
+    }
+}
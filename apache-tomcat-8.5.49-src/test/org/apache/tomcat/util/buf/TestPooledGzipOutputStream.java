@@ -0,0 +1,109 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestPooledGzipOutputStream {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append(i);
+        }
+        byte[] data = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (PooledGzipOutputStream gzip =
+                new PooledGzipOutputStream(baos, Deflater.DEFAULT_COMPRESSION)) {
+            gzip.write(data, 0, 100);
+            gzip.write(data[100]);
+            gzip.write(data, 101, data.length - 101);
+        }
+
+        Assert.assertArrayEquals(data, decompress(baos.toByteArray()));
+    }
+
+
+    @Test
+    public void testFlush() throws Exception {
+        byte[] data = "Hello World".getBytes(StandardCharsets.ISO_8859_1);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PooledGzipOutputStream gzip = new PooledGzipOutputStream(baos, Deflater.BEST_SPEED);
+        gzip.write(data);
+        gzip.flush();
+
+        // Everything written so far must be available to the recipient
+        GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        byte[] read = new byte[data.length];
+        int pos = 0;
+        while (pos < read.length) {
+            pos += gis.read(read, pos, read.length - pos);
+        }
+        Assert.assertArrayEquals(data, read);
+
+        gzip.write(data);
+        gzip.close();
+        byte[] expected = new byte[data.length * 2];
+        System.arraycopy(data, 0, expected, 0, data.length);
+        System.arraycopy(data, 0, expected, data.length, data.length);
+        Assert.assertArrayEquals(expected, decompress(baos.toByteArray()));
+    }
+
+
+    @Test
+    public void testEmpty() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PooledGzipOutputStream gzip =
+                new PooledGzipOutputStream(baos, Deflater.DEFAULT_COMPRESSION);
+        gzip.finish();
+        Assert.assertEquals(0, decompress(baos.toByteArray()).length);
+    }
+
+
+    @Test(expected=IOException.class)
+    public void testWriteAfterRelease() throws Exception {
+        PooledGzipOutputStream gzip = new PooledGzipOutputStream(
+                new ByteArrayOutputStream(), Deflater.DEFAULT_COMPRESSION);
+        gzip.release();
+        gzip.write(1);
+    }
+
+
+    private static byte[] decompress(byte[] compressed) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buf = new byte[1024];
+            int len;
+            while ((len = is.read(buf)) > 0) {
+                baos.write(buf, 0, len);
+            }
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.codec.binary.Base64;
+
+public class TestCacheDigest {
+
+    private static final String BASE = "https://www.example.com/";
+
+
+    @Test
+    public void testContains() {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            urls.add(BASE + "resource" + i + ".css");
+        }
+        CacheDigest digest = CacheDigest.parse(encode(urls, 7));
+        Assert.assertNotNull(digest);
+
+        for (String url : urls) {
+            Assert.assertTrue(url, digest.contains(url));
+        }
+
+        // False positive rate is 1/128
+        int falsePositives = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (digest.contains(BASE + "other" + i + ".js")) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("False positives [" + falsePositives + "]", falsePositives < 30);
+    }
+
+
+    @Test
+    public void testEmpty() {
+        CacheDigest digest = CacheDigest.parse(encode(Collections.<String>emptyList(), 7));
+        Assert.assertNotNull(digest);
+        Assert.assertFalse(digest.contains(BASE + "index.html"));
+    }
+
+
+    @Test
+    public void testInvalid() {
+        Assert.assertNull(CacheDigest.parse(null));
+        Assert.assertNull(CacheDigest.parse(""));
+        Assert.assertNull(CacheDigest.parse("A"));
+        // N = 1, P = 1 so the second value is out of range
+        Assert.assertNull(CacheDigest.parse(Base64.encodeBase64URLSafeString(
+                new byte[] { 0x00, 0x30 })));
+    }
+
+
+    @Test
+    public void testHeader() {
+        List<String> urls = new ArrayList<>();
+        urls.add(BASE + "style.css");
+        String value = encode(urls, 5);
+
+        List<CacheDigest> digests = CacheDigest.parseHeader(value + "; complete");
+        Assert.assertEquals(1, digests.size());
+        Assert.assertTrue(digests.get(0).contains(BASE + "style.css"));
+
+        // Digests that include validators can't be used
+        digests = CacheDigest.parseHeader(value + "; validators, " + value);
+        Assert.assertEquals(1, digests.size());
+    }
+
+
+    /*
+     * Encodes a digest following the algorithm in the draft specification.
+     */
+    private static String encode(List<String> urls, int log2P) {
+        int log2N = 0;
+        while ((1 << log2N) < urls.size()) {
+            log2N++;
+        }
+        List<Long> hashes = new ArrayList<>();
+        for (String url : urls) {
+            hashes.add(Long.valueOf(CacheDigest.hash(url, log2N + log2P)));
+        }
+        Collections.sort(hashes);
+
+        StringBuilder bits = new StringBuilder();
+        appendBits(bits, log2N, 5);
+        appendBits(bits, log2P, 5);
+        long c = -1;
+        for (Long hash : hashes) {
+            long v = hash.longValue();
+            if (v == c) {
+                continue;
+            }
+            long d = v - c - 1;
+            for (long q = d >> log2P; q > 0; q--) {
+                bits.append('0');
+            }
+            bits.append('1');
+            appendBits(bits, d & ((1L << log2P) - 1), log2P);
+            c = v;
+        }
+        while (bits.length() % 8 != 0) {
+            bits.append('0');
+        }
+
+        byte[] data = new byte[bits.length() / 8];
+        for (int i = 0; i < bits.length(); i++) {
+            if (bits.charAt(i) == '1') {
+                data[i / 8] |= 0x80 >> (i % 8);
+            }
+        }
+        return Base64.encodeBase64URLSafeString(data);
+    }
+
+
+    private static void appendBits(StringBuilder bits, long value, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            bits.append(((value >> i) & 1) == 1 ? '1' : '0');
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHttpByteScanner {
+
+    @Test
+    public void testNotFound() {
+        ByteBuffer buffer = ByteBuffer.wrap("abcdefghijklmnopqrstuvwxyz".getBytes());
+        Assert.assertEquals(-1, HttpByteScanner.indexOfCrOrLf(buffer, 0, buffer.limit()));
+        Assert.assertEquals(-1, HttpByteScanner.indexOfCrOrLf(buffer, 5, 5));
+    }
+
+
+    @Test
+    public void testEveryPosition() {
+        for (int len = 1; len < 40; len++) {
+            for (int target = 0; target < len; target++) {
+                doTestPosition(len, target, (byte) '\r');
+                doTestPosition(len, target, (byte) '\n');
+            }
+        }
+    }
+
+
+    @Test
+    public void testRange() {
+        byte[] bytes = "ab\r\ncdefghijklmnop\nqrstuvwxyz".getBytes();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Assert.assertEquals(2, HttpByteScanner.indexOfCrOrLf(buffer, 0, bytes.length));
+        Assert.assertEquals(3, HttpByteScanner.indexOfCrOrLf(buffer, 3, bytes.length));
+        Assert.assertEquals(18, HttpByteScanner.indexOfCrOrLf(buffer, 4, bytes.length));
+        // End is exclusive
+        Assert.assertEquals(-1, HttpByteScanner.indexOfCrOrLf(buffer, 4, 18));
+    }
+
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(1);
+        byte[] bytes = new byte[1024];
+        for (int i = 0; i < 10000; i++) {
+            random.nextBytes(bytes);
+            // Make matches sparse enough to be interesting
+            for (int j = 0; j < bytes.length; j++) {
+                if ((bytes[j] == '\r' || bytes[j] == '\n') && random.nextInt(4) != 0) {
+                    bytes[j] = 'x';
+                }
+            }
+            int start = random.nextInt(bytes.length);
+            int end = start + random.nextInt(bytes.length - start + 1);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (random.nextBoolean()) {
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            Assert.assertEquals(indexOfCrOrLf(bytes, start, end),
+                    HttpByteScanner.indexOfCrOrLf(buffer, start, end));
+        }
+    }
+
+
+    private void doTestPosition(int len, int target, byte b) {
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            // Include bytes with the high bit set and bytes adjacent to CR/LF
+            bytes[i] = (byte) (i % 2 == 0 ? 0x8D : 0x0C);
+        }
+        bytes[target] = b;
+        for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+            Assert.assertEquals(target, HttpByteScanner.indexOfCrOrLf(buffer, 0, len));
+            ByteBuffer direct = ByteBuffer.allocateDirect(len).order(order);
+            direct.put(bytes);
+            Assert.assertEquals(target, HttpByteScanner.indexOfCrOrLf(direct, 0, len));
+        }
+    }
+
+
+    private static int indexOfCrOrLf(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == '\r' || bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
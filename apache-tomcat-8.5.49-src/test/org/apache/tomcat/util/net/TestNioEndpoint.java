@@ -0,0 +1,368 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.modeler.Registry;
+
+public class TestNioEndpoint extends TomcatBaseTest {
+
+    @Test
+    public void testPollerWorkerAffinity() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        String protocol = tomcat.getConnector().getProtocolHandlerClassName();
+        Assume.assumeTrue("This feature is only available for NIO",
+                protocol.contains("Nio") && !protocol.contains("Nio2"));
+
+        Assert.assertTrue(tomcat.getConnector().setProperty("pollerThreadCount", "2"));
+        Assert.assertTrue(tomcat.getConnector().setProperty("pollerWorkerAffinity", "true"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "thread", new ThreadNameServlet());
+        ctx.addServletMappingDecoded("/", "thread");
+
+        tomcat.start();
+
+        // Connections are assigned to the pollers in turn so two connections
+        // per poller. Keep them open so they stay registered.
+        Socket[] sockets = new Socket[4];
+        Set<String> pools = new HashSet<>();
+        Pattern poolName = Pattern.compile("-ClientPoller-(\\d+)-exec-");
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = new Socket("localhost", getPort());
+                sockets[i].setSoTimeout(10000);
+                String response = sendRequest(sockets[i]);
+                Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+                Matcher m = poolName.matcher(response);
+                Assert.assertTrue(response, m.find());
+                pools.add(m.group(1));
+            }
+            // Each poller's connections were processed by its own pool
+            Assert.assertEquals(2, pools.size());
+
+            // The per poller pools replace the shared pool
+            String sharedPoolPrefix = getEndpoint(tomcat.getConnector()).getName() + "-exec-";
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                Assert.assertFalse(thread.getName(), thread.getName().startsWith(sharedPoolPrefix));
+            }
+
+            assertPollerCounts(2);
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+
+    private void assertPollerCounts(int connectionsPerPoller) throws Exception {
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> onames =
+                mbeanServer.queryNames(new ObjectName("Tomcat:type=ThreadPool,*"), null);
+        ObjectName threadPool = null;
+        for (ObjectName oname : onames) {
+            if (oname.getKeyProperty("subType") == null) {
+                threadPool = oname;
+            }
+        }
+        Assert.assertNotNull(threadPool);
+
+        // Every poller dispatched the requests on its own connections
+        long[] eventCounts = (long[]) mbeanServer.getAttribute(threadPool, "pollerEventCounts");
+        Assert.assertEquals(2, eventCounts.length);
+        for (long eventCount : eventCounts) {
+            Assert.assertTrue(eventCount >= connectionsPerPoller);
+        }
+
+        int[] connectionCounts =
+                (int[]) mbeanServer.getAttribute(threadPool, "pollerConnectionCounts");
+        Assert.assertEquals(2, connectionCounts.length);
+        for (int connectionCount : connectionCounts) {
+            Assert.assertEquals(connectionsPerPoller, connectionCount);
+        }
+    }
+
+
+    @Test
+    public void testBufferArena() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        String protocol = tomcat.getConnector().getProtocolHandlerClassName();
+        Assume.assumeTrue("This feature is only available for NIO",
+                protocol.contains("Nio") && !protocol.contains("Nio2"));
+
+        Assert.assertTrue(tomcat.getConnector().setProperty("socket.bufferArena", "true"));
+        Assert.assertTrue(tomcat.getConnector().setProperty("socket.directBuffer", "true"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        // Keep-alive connections return their buffers between requests
+        for (int i = 0; i < 10; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+    }
+
+
+    @Test
+    public void testOverloadDisablesKeepAlive() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+
+        // NIO2 does not limit connections by default
+        Assert.assertTrue(connector.setProperty("maxConnections", "100"));
+        Assert.assertTrue(connector.setProperty("overloadProtection", "true"));
+        // Any number of connections is an overload
+        Assert.assertTrue(connector.setProperty("overloadConnectionThreshold", "0"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        try (Socket socket = new Socket("localhost", getPort())) {
+            String response = sendRequest(socket);
+            Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+            Assert.assertTrue(response, response.contains("Connection: close"));
+        }
+
+        AbstractEndpoint<?> endpoint = getEndpoint(connector);
+        Assert.assertTrue(endpoint.isOverloaded());
+        Assert.assertEquals(1, endpoint.getOverloadKeepAliveDisabledCount());
+    }
+
+
+    @Test
+    public void testOverloadClosesIdleConnections() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        String protocol = connector.getProtocolHandlerClassName();
+        Assume.assumeTrue("This feature is only available for NIO",
+                protocol.contains("Nio") && !protocol.contains("Nio2"));
+
+        Assert.assertTrue(connector.setProperty("keepAliveTimeout", "60000"));
+        Assert.assertTrue(connector.setProperty("overloadProtection", "true"));
+        Assert.assertTrue(connector.setProperty("overloadConnectionThreshold", "-1"));
+        Assert.assertTrue(connector.setProperty("overloadKeepAliveTimeout", "100"));
+        Assert.assertTrue(connector.setProperty("selectorTimeout", "100"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        AbstractEndpoint<?> endpoint = getEndpoint(connector);
+
+        try (Socket socket = new Socket("localhost", getPort())) {
+            socket.setSoTimeout(10000);
+            String response = sendRequest(socket);
+            Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+            Assert.assertFalse(response, response.contains("Connection: close"));
+
+            // Give the server time to return the connection to the Poller so
+            // it is idle in keep-alive with the long timeout
+            Thread.sleep(1000);
+            Assert.assertFalse(endpoint.isOverloaded());
+            endpoint.setOverloadConnectionThreshold(0);
+
+            // The idle connection should be closed by the server
+            Assert.assertEquals(-1, socket.getInputStream().read());
+        }
+
+        Assert.assertEquals(1, endpoint.getOverloadIdleCloseCount());
+    }
+
+
+    @Test
+    public void testOverloadClosesOldestIdleConnectionsFirst() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        String protocol = connector.getProtocolHandlerClassName();
+        Assume.assumeTrue("This feature is only available for NIO",
+                protocol.contains("Nio") && !protocol.contains("Nio2"));
+
+        Assert.assertTrue(connector.setProperty("pollerThreadCount", "1"));
+        Assert.assertTrue(connector.setProperty("maxConnections", "10"));
+        Assert.assertTrue(connector.setProperty("keepAliveTimeout", "60000"));
+        Assert.assertTrue(connector.setProperty("overloadProtection", "true"));
+        Assert.assertTrue(connector.setProperty("overloadConnectionThreshold", "-1"));
+        Assert.assertTrue(connector.setProperty("overloadKeepAliveTimeout", "100"));
+        Assert.assertTrue(connector.setProperty("selectorTimeout", "100"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        AbstractEndpoint<?> endpoint = getEndpoint(connector);
+
+        Socket[] sockets = new Socket[6];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = new Socket("localhost", getPort());
+                sockets[i].setSoTimeout(10000);
+                String response = sendRequest(sockets[i]);
+                Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+                // Make sure the connections were last used in order
+                Thread.sleep(50);
+            }
+
+            // Give the server time to return the connections to the Poller
+            Thread.sleep(1000);
+            // Set the threshold so two connections need to be closed. The
+            // acceptor counts the next connection before it is accepted so
+            // use the current count rather than the number of sockets.
+            long connectionCount = endpoint.getConnectionCount();
+            endpoint.setOverloadConnectionThreshold((int) (connectionCount - 1) * 10);
+
+            Assert.assertEquals(-1, sockets[0].getInputStream().read());
+            Assert.assertEquals(-1, sockets[1].getInputStream().read());
+
+            // The more recently used connections are kept open
+            Thread.sleep(2000);
+            Assert.assertFalse(endpoint.isOverloaded());
+            for (int i = 2; i < sockets.length; i++) {
+                String response = sendRequest(sockets[i]);
+                Assert.assertTrue(response, response.startsWith("HTTP/1.1 200"));
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+
+        Assert.assertEquals(2, endpoint.getOverloadIdleCloseCount());
+    }
+
+
+    @Test
+    public void testReusePort() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        String protocol = connector.getProtocolHandlerClassName();
+        Assume.assumeTrue("This feature is only available for NIO and NIO2",
+                protocol.contains("Nio"));
+
+        Assert.assertTrue(connector.setProperty("acceptorThreadCount", "2"));
+        if (!protocol.contains("Nio2")) {
+            Assert.assertTrue(connector.setProperty("pollerThreadCount", "2"));
+        }
+        Assert.assertTrue(connector.setProperty("reusePort", "true"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        AbstractEndpoint<?> endpoint = getEndpoint(connector);
+        int serverSocketCount = endpoint.getServerSocketCount();
+        // Falls back to a single socket if SO_REUSEPORT is not available
+        Assert.assertTrue(serverSocketCount == 1 || serverSocketCount == 2);
+
+        for (int i = 0; i < 10; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+
+        // All acceptors must be unlocked and restarted
+        connector.pause();
+        connector.resume();
+
+        for (int i = 0; i < 10; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+    }
+
+
+    private static AbstractEndpoint<?> getEndpoint(Connector connector) throws Exception {
+        Method getEndpoint = AbstractProtocol.class.getDeclaredMethod("getEndpoint");
+        getEndpoint.setAccessible(true);
+        return (AbstractEndpoint<?>) getEndpoint.invoke(connector.getProtocolHandler());
+    }
+
+
+    private static final class ThreadNameServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.getWriter().print(Thread.currentThread().getName() +
+                    HelloWorldServlet.RESPONSE_TEXT);
+        }
+    }
+
+
+    private static String sendRequest(Socket socket) throws Exception {
+        OutputStream os = socket.getOutputStream();
+        os.write(("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        os.flush();
+
+        // Read until the end of the response body
+        InputStream is = socket.getInputStream();
+        StringBuilder response = new StringBuilder();
+        while (!response.toString().contains(HelloWorldServlet.RESPONSE_TEXT)) {
+            int b = is.read();
+            if (b == -1) {
+                break;
+            }
+            response.append((char) b);
+        }
+        return response.toString();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.ByteBufferArena;
+
+public class TestSocketBufferHandler {
+
+    @Test
+    public void testArenaBuffersObtainedOnDemand() {
+        ByteBufferArena arena = new ByteBufferArena(true, -1);
+        SocketBufferHandler handler = new SocketBufferHandler(8192, 8192, arena);
+
+        Assert.assertTrue(handler.isReadBufferEmpty());
+        Assert.assertTrue(handler.isWriteBufferEmpty());
+        Assert.assertTrue(handler.isWriteBufferWritable());
+        handler.configureReadBufferForRead();
+        handler.configureWriteBufferForRead();
+        Assert.assertEquals(0, arena.getActiveBuffers());
+
+        // Buffers obtained in read mode must be empty
+        Assert.assertEquals(0, handler.getReadBuffer().remaining());
+        Assert.assertEquals(0, handler.getWriteBuffer().remaining());
+        Assert.assertEquals(2, arena.getActiveBuffers());
+
+        handler.configureWriteBufferForWrite();
+        Assert.assertEquals(8192, handler.getWriteBuffer().remaining());
+    }
+
+
+    @Test
+    public void testArenaReleaseOnlyWhenEmpty() {
+        ByteBufferArena arena = new ByteBufferArena(false, -1);
+        SocketBufferHandler handler = new SocketBufferHandler(8192, 8192, arena);
+
+        handler.configureWriteBufferForWrite();
+        handler.getWriteBuffer().put((byte) 'a');
+        handler.configureReadBufferForWrite();
+        handler.getReadBuffer().put((byte) 'b');
+        Assert.assertFalse(handler.release());
+        Assert.assertEquals(2, arena.getActiveBuffers());
+
+        handler.configureReadBufferForRead();
+        Assert.assertEquals('b', handler.getReadBuffer().get());
+        Assert.assertFalse(handler.release());
+
+        handler.configureWriteBufferForRead();
+        Assert.assertEquals('a', handler.getWriteBuffer().get());
+        Assert.assertTrue(handler.release());
+        Assert.assertEquals(0, arena.getActiveBuffers());
+
+        // Once released the buffers are empty and configured for write
+        Assert.assertTrue(handler.isReadBufferEmpty());
+        Assert.assertTrue(handler.isWriteBufferEmpty());
+        Assert.assertEquals(8192, handler.getWriteBuffer().remaining());
+        Assert.assertEquals(1, arena.getActiveBuffers());
+
+        handler.reset();
+        Assert.assertEquals(0, arena.getActiveBuffers());
+    }
+
+
+    @Test
+    public void testArenaExpand() {
+        ByteBufferArena arena = new ByteBufferArena(false, -1);
+        SocketBufferHandler handler = new SocketBufferHandler(8192, 8192, arena);
+
+        // Expanding before the buffers are used changes the size obtained
+        handler.expand(16709);
+        Assert.assertEquals(0, arena.getActiveBuffers());
+        Assert.assertTrue(handler.getReadBuffer().capacity() >= 16709);
+
+        handler.getReadBuffer().put((byte) 'a');
+        handler.expand(32768);
+        Assert.assertEquals(32768, handler.getReadBuffer().capacity());
+        Assert.assertEquals(1, handler.getReadBuffer().position());
+        Assert.assertEquals(1, arena.getActiveBuffers());
+    }
+
+
+    @Test
+    public void testNoArena() {
+        SocketBufferHandler handler = new SocketBufferHandler(8192, 8192, false);
+        ByteBuffer readBuffer = handler.getReadBuffer();
+        Assert.assertFalse(handler.release());
+        Assert.assertSame(readBuffer, handler.getReadBuffer());
+    }
+}
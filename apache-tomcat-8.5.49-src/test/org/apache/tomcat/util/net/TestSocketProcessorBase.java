@@ -0,0 +1,138 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSocketProcessorBase {
+
+    @Test
+    public void testProcessingIsSerialised() throws Exception {
+        TesterSocketWrapper socketWrapper = new TesterSocketWrapper(null, 1024);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicInteger runs = new AtomicInteger();
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final SocketProcessorBase<NioChannel> processor =
+                    new TesterSocketProcessor(socketWrapper, new Runnable() {
+                @Override
+                public void run() {
+                    int current = active.incrementAndGet();
+                    int max = maxActive.get();
+                    while (current > max && !maxActive.compareAndSet(max, current)) {
+                        max = maxActive.get();
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    runs.incrementAndGet();
+                    active.decrementAndGet();
+                }
+            });
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10; j++) {
+                        processor.run();
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(60000);
+            Assert.assertFalse(thread.isAlive());
+        }
+
+        Assert.assertEquals(40, runs.get());
+        Assert.assertEquals(1, maxActive.get());
+    }
+
+
+    @Test
+    public void testProcessingDoesNotUseMonitor() throws Exception {
+        TesterSocketWrapper socketWrapper = new TesterSocketWrapper(null, 1024);
+        CountDownLatch ran = new CountDownLatch(1);
+        Thread thread = new Thread(new TesterSocketProcessor(socketWrapper, new CountDown(ran)));
+
+        // Processing must not block on the wrapper's monitor, which would pin
+        // a virtual thread to its carrier
+        synchronized (socketWrapper) {
+            thread.start();
+            Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+
+    @Test
+    public void testProcessingWaitsForLock() throws Exception {
+        TesterSocketWrapper socketWrapper = new TesterSocketWrapper(null, 1024);
+        CountDownLatch ran = new CountDownLatch(1);
+        Thread thread = new Thread(new TesterSocketProcessor(socketWrapper, new CountDown(ran)));
+
+        socketWrapper.getLock().lock();
+        try {
+            thread.start();
+            Assert.assertFalse(ran.await(100, TimeUnit.MILLISECONDS));
+        } finally {
+            socketWrapper.getLock().unlock();
+        }
+        Assert.assertTrue(ran.await(10, TimeUnit.SECONDS));
+    }
+
+
+    private static class CountDown implements Runnable {
+
+        private final CountDownLatch latch;
+
+        CountDown(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            latch.countDown();
+        }
+    }
+
+
+    private static class TesterSocketProcessor extends SocketProcessorBase<NioChannel> {
+
+        private final Runnable task;
+
+        TesterSocketProcessor(SocketWrapperBase<NioChannel> socketWrapper, Runnable task) {
+            super(socketWrapper, SocketEvent.OPEN_READ);
+            this.task = task;
+        }
+
+        @Override
+        protected void doRun() {
+            task.run();
+        }
+    }
+}
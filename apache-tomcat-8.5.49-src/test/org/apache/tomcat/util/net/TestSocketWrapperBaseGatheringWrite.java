@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.coyote.http11.HttpOutputBuffer;
+import org.apache.coyote.http11.filters.ChunkedOutputFilter;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Counts the network writes required to send a chunked response with and
+ * without gathering writes.
+ */
+public class TestSocketWrapperBaseGatheringWrite {
+
+    private static final int WRITE_BUFFER_SIZE = 8 * 1024;
+
+    private static final byte[] HEADERS = ("HTTP/1.1 200 \r\n" +
+            "Content-Type: text/plain;charset=ISO-8859-1\r\n" +
+            "Transfer-Encoding: chunked\r\n" +
+            "Date: Thu, 01 Jan 1970 00:00:00 GMT\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+
+    @Test
+    public void testChunkedResponseWriteCount() throws Exception {
+        int[] bodySizes = new int[] { 16, 1024, 6 * 1024, 12 * 1024, 64 * 1024 };
+        for (int bodySize : bodySizes) {
+            WriteCount withoutGathering = doChunkedResponse(false, bodySize);
+            WriteCount withGathering = doChunkedResponse(true, bodySize);
+
+            Assert.assertArrayEquals(withoutGathering.output, withGathering.output);
+            Assert.assertTrue(withGathering.writes <= withoutGathering.writes);
+            if (HEADERS.length + bodySize > WRITE_BUFFER_SIZE) {
+                // Headers, chunk header and body in one write and the chunk
+                // trailer and end chunk in the final flush
+                Assert.assertEquals(2, withGathering.writes);
+                if (bodySize > 2 * WRITE_BUFFER_SIZE) {
+                    // Without gathering the body is written in buffer sized
+                    // pieces
+                    Assert.assertTrue(withGathering.writes < withoutGathering.writes);
+                }
+            } else {
+                // Small responses are written with a single write either way
+                Assert.assertEquals(1, withGathering.writes);
+            }
+        }
+    }
+
+
+    @Test
+    public void testPartialNonBlockingGatheringWrite() throws Exception {
+        TesterSocketWrapper socketWrapper = new TesterSocketWrapper(null, WRITE_BUFFER_SIZE);
+        socketWrapper.setGathering(true);
+        socketWrapper.setMaxWrite(100);
+
+        byte[] body = new byte[WRITE_BUFFER_SIZE * 2];
+        Arrays.fill(body, (byte) 'A');
+
+        socketWrapper.write(false, ByteBuffer.wrap(HEADERS));
+        socketWrapper.write(false, ByteBuffer.wrap(body));
+        while (socketWrapper.flush(false)) {
+            // Keep flushing until everything has been written
+        }
+
+        byte[] expected = new byte[HEADERS.length + body.length];
+        System.arraycopy(HEADERS, 0, expected, 0, HEADERS.length);
+        System.arraycopy(body, 0, expected, HEADERS.length, body.length);
+        Assert.assertArrayEquals(expected, socketWrapper.getOutput());
+    }
+
+
+    private WriteCount doChunkedResponse(boolean gathering, int bodySize) throws IOException {
+        final TesterSocketWrapper socketWrapper = new TesterSocketWrapper(null, WRITE_BUFFER_SIZE);
+        socketWrapper.setGathering(gathering);
+
+        ChunkedOutputFilter filter = new ChunkedOutputFilter();
+        filter.setBuffer(new HttpOutputBuffer() {
+
+            @Override
+            @Deprecated
+            public int doWrite(ByteChunk chunk) throws IOException {
+                int len = chunk.getLength();
+                socketWrapper.write(true, chunk.getBuffer(), chunk.getStart(), len);
+                return len;
+            }
+
+            @Override
+            public int doWrite(ByteBuffer chunk) throws IOException {
+                int len = chunk.remaining();
+                socketWrapper.write(true, chunk);
+                return len;
+            }
+
+            @Override
+            public long getBytesWritten() {
+                return 0;
+            }
+
+            @Override
+            public void end() throws IOException {
+                socketWrapper.flush(true);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                socketWrapper.flush(true);
+            }
+        });
+
+        byte[] body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'A');
+
+        socketWrapper.write(true, ByteBuffer.wrap(HEADERS));
+        filter.doWrite(ByteBuffer.wrap(body));
+        filter.end();
+
+        return new WriteCount(socketWrapper.getWrites(), socketWrapper.getOutput());
+    }
+
+
+    private static class WriteCount {
+        private final int writes;
+        private final byte[] output;
+
+        public WriteCount(int writes, byte[] output) {
+            this.writes = writes;
+            this.output = output;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link SocketWrapperBase} that is not backed by a network connection.
+ * Data is read from a fixed byte array and written data is captured so that
+ * components that sit on top of the socket wrapper can be tested directly. The
+ * endpoint, if any, is only used to look up configuration such as timeouts.
+ */
+public class TesterSocketWrapper extends SocketWrapperBase<NioChannel> {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private boolean gathering = false;
+    private int writes = 0;
+    private int maxWrite = Integer.MAX_VALUE;
+
+    private byte[] input = new byte[0];
+    private int inputPos = 0;
+    private int maxRead = Integer.MAX_VALUE;
+
+
+    public TesterSocketWrapper(AbstractEndpoint<NioChannel> endpoint, int bufferSize) {
+        super(null, endpoint);
+        socketBufferHandler = new SocketBufferHandler(bufferSize, bufferSize, false);
+    }
+
+
+    /**
+     * @param input The data to return from reads
+     */
+    public void setInput(byte[] input) {
+        this.input = input;
+        this.inputPos = 0;
+    }
+
+    /**
+     * @param maxRead   The maximum number of bytes to return from each read
+     */
+    public void setMaxRead(int maxRead) {
+        this.maxRead = maxRead;
+    }
+
+    /**
+     * @param maxWrite  The maximum number of bytes each write to the
+     *                  "network" accepts
+     */
+    public void setMaxWrite(int maxWrite) {
+        this.maxWrite = maxWrite;
+    }
+
+    public void setGathering(boolean gathering) {
+        this.gathering = gathering;
+    }
+
+    /**
+     * @return The number of writes to the "network"
+     */
+    public int getWrites() {
+        return writes;
+    }
+
+    public byte[] getOutput() {
+        return output.toByteArray();
+    }
+
+
+    @Override
+    protected void doWrite(boolean block, ByteBuffer from) throws IOException {
+        doWrite(block, new ByteBuffer[] { from });
+    }
+
+    @Override
+    protected void doWrite(boolean block, ByteBuffer[] from) throws IOException {
+        // Each call represents a single (possibly gathering) write to the
+        // network. Blocking writes repeat until all the data is written.
+        do {
+            writes++;
+            int written = 0;
+            for (ByteBuffer buffer : from) {
+                while (buffer.hasRemaining() && written < maxWrite) {
+                    output.write(buffer.get());
+                    written++;
+                }
+            }
+        } while (block && NioBlockingSelector.hasRemaining(from));
+    }
+
+    @Override
+    protected boolean isGatheringWriteSupported() {
+        return gathering;
+    }
+
+    @Override
+    public int read(boolean block, byte[] b, int off, int len) throws IOException {
+        return read(block, ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public int read(boolean block, ByteBuffer to) throws IOException {
+        int len = Math.min(Math.min(to.remaining(), maxRead), input.length - inputPos);
+        if (len == 0 && inputPos == input.length) {
+            return -1;
+        }
+        to.put(input, inputPos, len);
+        inputPos += len;
+        return len;
+    }
+
+    @Override
+    public boolean isReadyForRead() throws IOException {
+        return inputPos < input.length;
+    }
+
+    @Override
+    public void setAppReadBufHandler(ApplicationBufferHandler handler) {
+        // NO-OP
+    }
+
+    @Override
+    protected void populateRemoteHost() {
+        // NO-OP
+    }
+
+    @Override
+    protected void populateRemoteAddr() {
+        // NO-OP
+    }
+
+    @Override
+    protected void populateRemotePort() {
+        // NO-OP
+    }
+
+    @Override
+    protected void populateLocalName() {
+        // NO-OP
+    }
+
+    @Override
+    protected void populateLocalAddr() {
+        // NO-OP
+    }
+
+    @Override
+    protected void populateLocalPort() {
+        // NO-OP
+    }
+
+    @Override
+    public void close() throws IOException {
+        // NO-OP
+    }
+
+    @Override
+    public boolean isClosed() {
+        return false;
+    }
+
+    @Override
+    public void registerReadInterest() {
+        // NO-OP
+    }
+
+    @Override
+    public void registerWriteInterest() {
+        // NO-OP
+    }
+
+    @Override
+    public SendfileDataBase createSendfileData(String filename, long pos, long length) {
+        return null;
+    }
+
+    @Override
+    public SendfileDataBase createSendfileData(String filename, FileRegion[] regions) {
+        return null;
+    }
+
+    @Override
+    public SendfileState processSendfile(SendfileDataBase sendfileData) {
+        return null;
+    }
+
+    @Override
+    public void doClientAuth(SSLSupport sslSupport) throws IOException {
+        // NO-OP
+    }
+
+    @Override
+    public SSLSupport getSslSupport(String clientCertProvider) {
+        return null;
+    }
+}
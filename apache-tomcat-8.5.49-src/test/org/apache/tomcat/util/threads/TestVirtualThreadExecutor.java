@@ -0,0 +1,103 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.tomcat.util.compat.JreCompat;
+
+public class TestVirtualThreadExecutor {
+
+    private static final int TASK_COUNT = 100;
+
+
+    @Before
+    public void checkJre() {
+        Assume.assumeTrue("Virtual threads require Java 21", JreCompat.isJre21Available());
+    }
+
+
+    @Test
+    public void testExecute() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test-virt-");
+        final CountDownLatch started = new CountDownLatch(TASK_COUNT);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Set<Thread> threads =
+                Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+        try {
+            for (int i = 0; i < TASK_COUNT; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        threads.add(Thread.currentThread());
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            // Ignore
+                        }
+                    }
+                });
+            }
+            // Tasks are never queued so all of them run at the same time, each
+            // on a thread of its own
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(TASK_COUNT, threads.size());
+            for (Thread thread : threads) {
+                Assert.assertTrue(thread.getName(), thread.getName().startsWith("test-virt-"));
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testShutdown() throws Exception {
+        VirtualThreadExecutor executor = new VirtualThreadExecutor("test-virt-");
+        Assert.assertFalse(executor.isShutdown());
+        Assert.assertFalse(executor.awaitTermination(10, TimeUnit.MILLISECONDS));
+
+        Assert.assertTrue(executor.shutdownNow().isEmpty());
+        Assert.assertTrue(executor.isShutdown());
+        Assert.assertTrue(executor.isTerminated());
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.MILLISECONDS));
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // NO-OP
+                }
+            });
+            Assert.fail("Task accepted after shutdown");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+    }
+}